@@ -0,0 +1,174 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.api;
+
+/**
+ * Settings for automatically re-establishing a broken PLC connection.
+ * <p>
+ * Reconnect attempts are spaced with exponential backoff
+ * ({@code initialDelay * multiplier^n}, capped at {@code maxDelay}) and a
+ * random jitter so that many clients do not hammer a rebooting PLC in lockstep.
+ */
+public final class ReconnectPolicy {
+
+    /**
+     * What happens to requests issued while the connection is down
+     */
+    public enum PendingRequestPolicy {
+        /**
+         * Wait for the reconnect, at most {@link ReconnectPolicy#getPendingTimeout()} millis
+         */
+        QUEUE,
+        /**
+         * Fail immediately with an IOException
+         */
+        FAIL_FAST
+    }
+
+    private int initialDelay = 100;
+
+    private int maxDelay = 30000;
+
+    private double multiplier = 2.0;
+
+    private double jitter = 0.2;
+
+    private int readRetries = 1;
+
+    private PendingRequestPolicy pendingRequestPolicy = PendingRequestPolicy.QUEUE;
+
+    private int pendingTimeout = 5000;
+
+    /**
+     * use initial delay before the first reconnect attempt, default is 100 ms
+     */
+    public ReconnectPolicy withInitialDelay(final int initialDelay) {
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException("Initial delay must be non-negative, but was: " + initialDelay);
+        }
+        this.initialDelay = initialDelay;
+        return this;
+    }
+
+    /**
+     * use upper bound for the backoff delay, default is 30000 ms
+     */
+    public ReconnectPolicy withMaxDelay(final int maxDelay) {
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("Max delay must be non-negative, but was: " + maxDelay);
+        }
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * use backoff multiplier, default is 2.0
+     */
+    public ReconnectPolicy withMultiplier(final double multiplier) {
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("Multiplier must be at least 1.0, but was: " + multiplier);
+        }
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * use jitter as fraction of the delay (0.0 - 1.0), default is 0.2
+     */
+    public ReconnectPolicy withJitter(final double jitter) {
+        if (jitter < 0.0 || jitter > 1.0) {
+            throw new IllegalArgumentException("Jitter must be between 0.0 and 1.0, but was: " + jitter);
+        }
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * use number of transparent retries for reads, default is 1
+     * <p>
+     * Writes are never retried since the caller cannot know whether the PLC applied them.
+     */
+    public ReconnectPolicy withReadRetries(final int readRetries) {
+        if (readRetries < 0) {
+            throw new IllegalArgumentException("Read retries must be non-negative, but was: " + readRetries);
+        }
+        this.readRetries = readRetries;
+        return this;
+    }
+
+    /**
+     * use policy for requests issued while disconnected, default is QUEUE
+     */
+    public ReconnectPolicy withPendingRequestPolicy(final PendingRequestPolicy pendingRequestPolicy) {
+        if (pendingRequestPolicy == null) {
+            throw new IllegalArgumentException("Pending request policy must not be null");
+        }
+        this.pendingRequestPolicy = pendingRequestPolicy;
+        return this;
+    }
+
+    /**
+     * use max wait time for queued requests, default is 5000 ms
+     */
+    public ReconnectPolicy withPendingTimeout(final int pendingTimeout) {
+        if (pendingTimeout < 0) {
+            throw new IllegalArgumentException("Pending timeout must be non-negative, but was: " + pendingTimeout);
+        }
+        this.pendingTimeout = pendingTimeout;
+        return this;
+    }
+
+    public int getInitialDelay() {
+        return this.initialDelay;
+    }
+
+    public int getMaxDelay() {
+        return this.maxDelay;
+    }
+
+    public double getMultiplier() {
+        return this.multiplier;
+    }
+
+    public double getJitter() {
+        return this.jitter;
+    }
+
+    public int getReadRetries() {
+        return this.readRetries;
+    }
+
+    public PendingRequestPolicy getPendingRequestPolicy() {
+        return this.pendingRequestPolicy;
+    }
+
+    public int getPendingTimeout() {
+        return this.pendingTimeout;
+    }
+
+    /**
+     * Calculates the delay before the given reconnect attempt (0-based)
+     *
+     * @param attempt the attempt number
+     * @param random  random value in [0, 1) for the jitter
+     * @return the delay in millis
+     */
+    public long getDelay(final int attempt, final double random) {
+        final double base = Math.min(this.maxDelay, this.initialDelay * Math.pow(this.multiplier, attempt));
+        final double spread = base * this.jitter;
+        return Math.max(0L, Math.round(base - spread + (2 * spread * random)));
+    }
+}
@@ -15,8 +15,14 @@ limitations under the License.
 */
 package com.github.s7connector.api;
 
+import com.github.s7connector.impl.utils.Deadline;
+
 import java.io.Closeable;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public interface S7Connector extends Closeable {
 	/**
@@ -48,4 +54,167 @@ public interface S7Connector extends Closeable {
 	 */
 	void write(DaveArea area, int areaNumber, int offset, byte[] buffer) throws IOException, InterruptedException;
 
+	/**
+	 * Reads data from a specified memory area of the PLC within the given time.
+	 * <p>
+	 * The timeout covers waiting for the connection, queueing and all PDU exchanges
+	 * of the request. Implementations without deadline support ignore it.
+	 *
+	 * @param area the memory area to read from (e.g., DB, Inputs, Outputs, Flags)
+	 * @param areaNumber the area number (e.g., DB number for data blocks)
+	 * @param bytes the number of bytes to read (must be positive)
+	 * @param offset the byte offset within the area (must be non-negative)
+	 * @param timeout the maximum duration of the request, null for the connector default
+	 * @return byte array containing the read data
+	 * @throws com.github.s7connector.exception.DeadlineExceededException if the timeout elapsed
+	 * @throws IOException if an I/O error occurs during communication with the PLC
+	 * @throws InterruptedException if the thread is interrupted while waiting for the lock or during I/O
+	 */
+	default byte[] read(DaveArea area, int areaNumber, int bytes, int offset, Duration timeout) throws IOException, InterruptedException {
+		return this.read(area, areaNumber, bytes, offset);
+	}
+
+	/**
+	 * Writes data to a specified memory area of the PLC within the given time.
+	 * <p>
+	 * The timeout covers waiting for the connection, queueing and all PDU exchanges
+	 * of the request. Implementations without deadline support ignore it.
+	 *
+	 * @param area the memory area to write to (e.g., DB, Inputs, Outputs, Flags)
+	 * @param areaNumber the area number (e.g., DB number for data blocks)
+	 * @param offset the byte offset within the area (must be non-negative)
+	 * @param buffer the data to write (must not be null or empty)
+	 * @param timeout the maximum duration of the request, null for the connector default
+	 * @throws com.github.s7connector.exception.DeadlineExceededException if the timeout elapsed
+	 * @throws IOException if an I/O error occurs during communication with the PLC
+	 * @throws InterruptedException if the thread is interrupted while waiting for the lock or during I/O
+	 */
+	default void write(DaveArea area, int areaNumber, int offset, byte[] buffer, Duration timeout) throws IOException, InterruptedException {
+		this.write(area, areaNumber, offset, buffer);
+	}
+
+	/**
+	 * Reads several items, packed into as few requests as the PDU size allows.
+	 * <p>
+	 * The default implementation reads the items one by one.
+	 *
+	 * @param items the items to read
+	 * @param timeout the maximum duration of all requests, null for the connector default
+	 * @return the data of each item in order, a single byte 0 or 1 for bit items
+	 * @throws com.github.s7connector.exception.DeadlineExceededException if the timeout elapsed
+	 * @throws IOException if an I/O error occurs during communication with the PLC
+	 * @throws InterruptedException if the thread is interrupted while waiting for the lock or during I/O
+	 * @throws IllegalArgumentException if the PLC rejected an item
+	 */
+	default List<byte[]> read(List<S7ReadItem> items, Duration timeout) throws IOException, InterruptedException {
+		final Deadline deadline = Deadline.after(timeout);
+		final List<byte[]> result = new ArrayList<>(items.size());
+		for (final S7ReadItem item : items) {
+			final byte[] data = this.read(item.getArea(), item.getAreaNumber(), item.getLength(), item.getOffset(), deadline.remaining());
+			if (item.isBit()) {
+				result.add(new byte[] { (byte) ((data[0] >> item.getBitOffset()) & 1) });
+			} else {
+				result.add(data);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Prepares a multi-item read executed repeatedly, e.g. by a cyclic poll.
+	 * <p>
+	 * The default implementation reads the items with {@link #read(List, Duration)}
+	 * on every execution.
+	 *
+	 * @param items the items to read
+	 * @return the prepared read, valid as long as this connector
+	 * @throws IllegalArgumentException if the items are null or empty
+	 */
+	default S7PreparedRead prepare(final List<S7ReadItem> items) {
+		if (items == null || items.isEmpty()) {
+			throw new IllegalArgumentException("Items must not be null or empty");
+		}
+		final List<S7ReadItem> copy = Collections.unmodifiableList(new ArrayList<>(items));
+		return new S7PreparedRead() {
+			@Override
+			public List<S7ReadItem> getItems() {
+				return copy;
+			}
+
+			@Override
+			public List<byte[]> read(final Duration timeout) throws IOException, InterruptedException {
+				return S7Connector.this.read(copy, timeout);
+			}
+		};
+	}
+
+	/**
+	 * Writes several items, packed into as few requests as the PDU size allows.
+	 * <p>
+	 * The default implementation writes the items one by one.
+	 *
+	 * @param items the items to write, in order
+	 * @param timeout the maximum duration of all requests, null for the connector default
+	 * @throws com.github.s7connector.exception.DeadlineExceededException if the timeout elapsed
+	 * @throws IOException if an I/O error occurs during communication with the PLC
+	 * @throws InterruptedException if the thread is interrupted while waiting for the lock or during I/O
+	 * @throws IllegalArgumentException if the PLC rejected an item
+	 */
+	default void write(List<S7WriteItem> items, Duration timeout) throws IOException, InterruptedException {
+		final Deadline deadline = Deadline.after(timeout);
+		for (final S7WriteItem item : items) {
+			if (item.isBit()) {
+				// read-modify-write, not atomic against the PLC program
+				final byte[] current = this.read(item.getArea(), item.getAreaNumber(), 1, item.getOffset(), deadline.remaining());
+				final int mask = 1 << item.getBitOffset();
+				final byte value = (byte) (item.getBitValue() ? current[0] | mask : current[0] & ~mask);
+				this.write(item.getArea(), item.getAreaNumber(), item.getOffset(), new byte[] { value }, deadline.remaining());
+			} else {
+				this.write(item.getArea(), item.getAreaNumber(), item.getOffset(), item.getData(), deadline.remaining());
+			}
+		}
+	}
+
+	/**
+	 * Sets or clears a single bit without touching the other bits of the byte.
+	 *
+	 * @param area the memory area to write to (e.g., DB, Inputs, Outputs, Flags)
+	 * @param areaNumber the area number (e.g., DB number for data blocks)
+	 * @param offset the byte offset within the area (must be non-negative)
+	 * @param bitOffset the bit within the byte (0-7)
+	 * @param value the bit value
+	 * @throws IOException if an I/O error occurs during communication with the PLC
+	 * @throws InterruptedException if the thread is interrupted while waiting for the lock or during I/O
+	 * @throws IllegalArgumentException if parameters are invalid or the PLC rejected the write
+	 */
+	default void writeBit(DaveArea area, int areaNumber, int offset, int bitOffset, boolean value) throws IOException, InterruptedException {
+		this.write(Collections.singletonList(S7WriteItem.bit(area, areaNumber, offset, bitOffset, value)), null);
+	}
+
+	/**
+	 * Returns true if bit items are written with single-bit requests, false if
+	 * they fall back to the read-modify-write of the default implementation.
+	 */
+	default boolean isBitWriteSupported() {
+		return false;
+	}
+
+	/**
+	 * Returns the largest number of bytes read with a single PDU, as negotiated
+	 * with the PLC. The default implementation returns the size fitting the
+	 * smallest PDU (240 bytes) any S7 CPU accepts.
+	 */
+	default int getMaxReadSize() {
+		return 222;
+	}
+
+	/**
+	 * Returns the largest number of bytes written with a single PDU, as
+	 * negotiated with the PLC. The default implementation returns the size
+	 * fitting the smallest PDU (240 bytes) any S7 CPU accepts.
+	 */
+	default int getMaxWriteSize() {
+		return 212;
+	}
+
 }
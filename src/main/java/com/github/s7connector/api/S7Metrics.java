@@ -0,0 +1,142 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.api;
+
+/**
+ * Metrics SPI, implement to bridge the connector's internal counters and gauges
+ * to a monitoring system (Micrometer, Dropwizard, JMX, ...).
+ * <p>
+ * Metric names are dot separated and start with {@code s7.}, e.g.
+ * {@code s7.circuit.state}. Implementations must be thread-safe and cheap, they
+ * are called on the request path.
+ * <p>
+ * Connectors built by the factory report through {@link #forConnection(String)},
+ * tagged with the {@code host:port} of their PLC. Override the tagged variants to
+ * keep several PLCs sharing one sink apart; by default the tag is dropped.
+ */
+public interface S7Metrics {
+
+	/**
+	 * Metrics sink discarding everything
+	 */
+	S7Metrics NONE = new S7Metrics() {
+	};
+
+	/**
+	 * Increments a counter
+	 *
+	 * @param name
+	 *            the metric name
+	 * @param delta
+	 *            the amount to add
+	 */
+	default void increment(final String name, final long delta) {
+	}
+
+	/**
+	 * Sets a gauge to the current value
+	 *
+	 * @param name
+	 *            the metric name
+	 * @param value
+	 *            the current value
+	 */
+	default void gauge(final String name, final long value) {
+	}
+
+	/**
+	 * Records a duration
+	 *
+	 * @param name
+	 *            the metric name
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	default void timing(final String name, final long nanos) {
+	}
+
+	/**
+	 * Increments a counter of a connection
+	 *
+	 * @param connection
+	 *            the connection, e.g. {@code host:port}
+	 * @param name
+	 *            the metric name
+	 * @param delta
+	 *            the amount to add
+	 */
+	default void increment(final String connection, final String name, final long delta) {
+		this.increment(name, delta);
+	}
+
+	/**
+	 * Sets a gauge of a connection to the current value
+	 *
+	 * @param connection
+	 *            the connection, e.g. {@code host:port}
+	 * @param name
+	 *            the metric name
+	 * @param value
+	 *            the current value
+	 */
+	default void gauge(final String connection, final String name, final long value) {
+		this.gauge(name, value);
+	}
+
+	/**
+	 * Records a duration of a connection
+	 *
+	 * @param connection
+	 *            the connection, e.g. {@code host:port}
+	 * @param name
+	 *            the metric name
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	default void timing(final String connection, final String name, final long nanos) {
+		this.timing(name, nanos);
+	}
+
+	/**
+	 * Returns a sink reporting everything tagged with the connection
+	 *
+	 * @param connection
+	 *            the connection, e.g. {@code host:port}
+	 * @return the scoped sink
+	 */
+	default S7Metrics forConnection(final String connection) {
+		if (this == NONE) {
+			return NONE;
+		}
+		final S7Metrics sink = this;
+		return new S7Metrics() {
+			@Override
+			public void increment(final String name, final long delta) {
+				sink.increment(connection, name, delta);
+			}
+
+			@Override
+			public void gauge(final String name, final long value) {
+				sink.gauge(connection, name, value);
+			}
+
+			@Override
+			public void timing(final String name, final long nanos) {
+				sink.timing(connection, name, nanos);
+			}
+		};
+	}
+}
@@ -0,0 +1,49 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.api;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * A multi-item read prepared once and executed cyclically.
+ * <p>
+ * Connections supporting it plan the PDUs of the items once and keep the
+ * request frames as templates; each execution only patches the PDU reference
+ * and decodes the answer at item offsets known in advance.
+ *
+ * @see S7Connector#prepare(List)
+ */
+public interface S7PreparedRead {
+
+	/**
+	 * Returns the items read, in order
+	 */
+	List<S7ReadItem> getItems();
+
+	/**
+	 * Reads the items
+	 *
+	 * @param timeout the maximum duration of all requests, null for the connector default
+	 * @return the data of each item in order, a single byte 0 or 1 for bit items
+	 * @throws com.github.s7connector.exception.DeadlineExceededException if the timeout elapsed
+	 * @throws IOException if an I/O error occurs during communication with the PLC
+	 * @throws InterruptedException if the thread is interrupted while waiting for the lock or during I/O
+	 * @throws IllegalArgumentException if the PLC rejected an item
+	 */
+	List<byte[]> read(Duration timeout) throws IOException, InterruptedException;
+}
@@ -0,0 +1,40 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.api;
+
+/**
+ * Priority class of a request, highest first. A connection serves waiting
+ * requests of a higher class before any request of a lower class.
+ */
+public enum S7Priority {
+    /**
+     * Operator and control writes, default for writes
+     */
+    CONTROL,
+    /**
+     * Alarm and event reads
+     */
+    ALARM,
+    /**
+     * Cyclic polling, default for reads fitting a single PDU
+     */
+    CYCLIC,
+    /**
+     * Bulk transfers such as archive reads, default for transfers larger than
+     * a single PDU
+     */
+    BULK
+}
@@ -0,0 +1,125 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.api;
+
+/**
+ * A range of bytes or a single bit to read, one item of a multi-item read
+ * request
+ */
+public final class S7ReadItem {
+
+    private final DaveArea area;
+
+    private final int areaNumber;
+
+    private final int offset;
+
+    private final int length;
+
+    /**
+     * Bit within the byte at offset, -1 for byte items
+     */
+    private final int bitOffset;
+
+    /**
+     * Creates a read item
+     *
+     * @param area       the memory area
+     * @param areaNumber the area number (e.g., DB number for data blocks)
+     * @param offset     the byte offset within the area
+     * @param length     the number of bytes to read
+     */
+    public S7ReadItem(final DaveArea area, final int areaNumber, final int offset, final int length) {
+        this(area, areaNumber, offset, length, -1);
+        if (length <= 0) {
+            throw new IllegalArgumentException("Length must be positive, but was: " + length);
+        }
+        if (offset > Integer.MAX_VALUE - length) {
+            throw new IllegalArgumentException(String.format("Invalid range: offset=%d, bytes=%d", offset, length));
+        }
+    }
+
+    private S7ReadItem(final DaveArea area, final int areaNumber, final int offset, final int length,
+                       final int bitOffset) {
+        if (area == null) {
+            throw new IllegalArgumentException("Area must not be null");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must be non-negative, but was: " + offset);
+        }
+        this.area = area;
+        this.areaNumber = areaNumber;
+        this.offset = offset;
+        this.length = length;
+        this.bitOffset = bitOffset;
+    }
+
+    /**
+     * Creates an item reading a single bit, answered with one byte 0 or 1
+     *
+     * @param area       the memory area
+     * @param areaNumber the area number (e.g., DB number for data blocks)
+     * @param offset     the byte offset within the area
+     * @param bitOffset  the bit within the byte (0-7)
+     */
+    public static S7ReadItem bit(final DaveArea area, final int areaNumber, final int offset, final int bitOffset) {
+        if (bitOffset < 0 || bitOffset > 7) {
+            throw new IllegalArgumentException("Bit offset must be between 0 and 7, but was: " + bitOffset);
+        }
+        return new S7ReadItem(area, areaNumber, offset, 1, bitOffset);
+    }
+
+    public DaveArea getArea() {
+        return this.area;
+    }
+
+    public int getAreaNumber() {
+        return this.areaNumber;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Returns the number of bytes read, 1 for bit items
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Returns true if this item reads a single bit
+     */
+    public boolean isBit() {
+        return this.bitOffset >= 0;
+    }
+
+    /**
+     * Returns the bit within the byte at offset, -1 for byte items
+     */
+    public int getBitOffset() {
+        return this.bitOffset;
+    }
+
+    @Override
+    public String toString() {
+        if (this.isBit()) {
+            return this.area + " " + this.areaNumber + " " + this.offset + "." + this.bitOffset;
+        }
+        return this.area + " " + this.areaNumber + " [" + this.offset + ".." + (this.offset + this.length) + ")";
+    }
+}
@@ -0,0 +1,102 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.api;
+
+/**
+ * Priority class and client group of the requests issued by the current
+ * thread, used by the connection's request scheduler:
+ *
+ * <pre>
+ * try (S7RequestScope scope = S7RequestScope.enter(S7Priority.ALARM, "alarms")) {
+ *     connector.read(DaveArea.DB, 10, 4, 0);
+ * }
+ * </pre>
+ *
+ * Scopes nest and must be closed in reverse order, on the thread that
+ * entered them.
+ */
+public final class S7RequestScope implements AutoCloseable {
+
+    /**
+     * Group of requests issued outside of a scope
+     */
+    public static final String DEFAULT_GROUP = "default";
+
+    private static final ThreadLocal<S7RequestScope> current = new ThreadLocal<>();
+
+    private final S7Priority priority;
+
+    private final String group;
+
+    private final S7RequestScope previous;
+
+    private S7RequestScope(final S7Priority priority, final String group, final S7RequestScope previous) {
+        this.priority = priority;
+        this.group = group;
+        this.previous = previous;
+    }
+
+    /**
+     * Enters a scope on the current thread
+     *
+     * @param priority the priority class, null for the default class of each request
+     * @param group    the client group, null for the group of the enclosing scope
+     * @return the scope, to be closed when done
+     */
+    public static S7RequestScope enter(final S7Priority priority, final String group) {
+        final S7RequestScope previous = current.get();
+        final String effectiveGroup = group != null ? group : previous != null ? previous.group : DEFAULT_GROUP;
+        final S7RequestScope scope = new S7RequestScope(priority, effectiveGroup, previous);
+        current.set(scope);
+        return scope;
+    }
+
+    /**
+     * Returns the innermost scope of the current thread, null if none
+     */
+    public static S7RequestScope current() {
+        return current.get();
+    }
+
+    /**
+     * Returns the priority class, null for the default class of each request
+     */
+    public S7Priority getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Returns the client group
+     */
+    public String getGroup() {
+        return this.group;
+    }
+
+    /**
+     * Leaves the scope, restoring the enclosing one
+     */
+    @Override
+    public void close() {
+        if (current.get() != this) {
+            throw new IllegalStateException("Scopes must be closed in reverse order on the thread that entered them");
+        }
+        if (this.previous == null) {
+            current.remove();
+        } else {
+            current.set(this.previous);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Transport SPI, implement to carry the ISO-on-TCP frames of a connection
+ * over something else than a TCP socket, e.g. a tunnel or an in-process
+ * simulator.
+ * <p>
+ * A transport moves bytes; the connection writes whole TPKT frames and finds
+ * the frame boundaries of the answers itself, so the bytes may arrive in any
+ * portions. A transport is used by one thread at a time.
+ */
+public interface S7Transport extends Closeable {
+
+	/**
+	 * Opens the transports of a connector, one per session
+	 */
+	@FunctionalInterface
+	interface Factory {
+
+		/**
+		 * Opens a connected transport
+		 *
+		 * @throws IOException
+		 *             if the peer can not be reached
+		 */
+		S7Transport open() throws IOException;
+	}
+
+	/**
+	 * Sends a frame or a part of it, blocking until it is handed over
+	 *
+	 * @param buffer
+	 *            the bytes
+	 * @param offset
+	 *            the first byte
+	 * @param length
+	 *            the number of bytes
+	 */
+	void send(byte[] buffer, int offset, int length) throws IOException;
+
+	/**
+	 * Receives up to length bytes, as many as have arrived, waiting for the
+	 * first of them at most the given time
+	 *
+	 * @param buffer
+	 *            receives the bytes
+	 * @param offset
+	 *            the first byte
+	 * @param length
+	 *            the most bytes to receive
+	 * @param timeoutNanos
+	 *            the longest wait, 0 or less to take only what has arrived
+	 * @return the number of bytes received, 0 if none arrived in time, -1 if
+	 *         the peer closed the connection
+	 */
+	int receive(byte[] buffer, int offset, int length, long timeoutNanos) throws IOException;
+}
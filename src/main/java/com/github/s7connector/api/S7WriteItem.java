@@ -0,0 +1,143 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.api;
+
+/**
+ * A range of bytes or a single bit to write, one item of a multi-item write
+ * request
+ */
+public final class S7WriteItem {
+
+    private final DaveArea area;
+
+    private final int areaNumber;
+
+    private final int offset;
+
+    private final byte[] data;
+
+    /**
+     * Bit within the byte at offset, -1 for byte items
+     */
+    private final int bitOffset;
+
+    /**
+     * Creates a write item, the data is not copied
+     *
+     * @param area       the memory area
+     * @param areaNumber the area number (e.g., DB number for data blocks)
+     * @param offset     the byte offset within the area
+     * @param data       the bytes to write
+     */
+    public S7WriteItem(final DaveArea area, final int areaNumber, final int offset, final byte[] data) {
+        if (area == null) {
+            throw new IllegalArgumentException("Area must not be null");
+        }
+        if (data == null || data.length == 0) {
+            throw new IllegalArgumentException("Data must not be null or empty");
+        }
+        if (offset < 0 || offset > Integer.MAX_VALUE - data.length) {
+            throw new IllegalArgumentException(String.format(
+                "Invalid range: offset=%d, bytes=%d", offset, data.length));
+        }
+        this.area = area;
+        this.areaNumber = areaNumber;
+        this.offset = offset;
+        this.data = data;
+        this.bitOffset = -1;
+    }
+
+    private S7WriteItem(final DaveArea area, final int areaNumber, final int offset, final int bitOffset,
+                        final boolean value) {
+        if (area == null) {
+            throw new IllegalArgumentException("Area must not be null");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must be non-negative, but was: " + offset);
+        }
+        if (bitOffset < 0 || bitOffset > 7) {
+            throw new IllegalArgumentException("Bit offset must be between 0 and 7, but was: " + bitOffset);
+        }
+        this.area = area;
+        this.areaNumber = areaNumber;
+        this.offset = offset;
+        this.data = new byte[] { (byte) (value ? 1 : 0) };
+        this.bitOffset = bitOffset;
+    }
+
+    /**
+     * Creates an item setting or clearing a single bit, written without
+     * touching the other bits of the byte
+     *
+     * @param area       the memory area
+     * @param areaNumber the area number (e.g., DB number for data blocks)
+     * @param offset     the byte offset within the area
+     * @param bitOffset  the bit within the byte (0-7)
+     * @param value      the bit value
+     */
+    public static S7WriteItem bit(final DaveArea area, final int areaNumber, final int offset, final int bitOffset,
+                                  final boolean value) {
+        return new S7WriteItem(area, areaNumber, offset, bitOffset, value);
+    }
+
+    public DaveArea getArea() {
+        return this.area;
+    }
+
+    public int getAreaNumber() {
+        return this.areaNumber;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Returns the bytes to write, for bit items a single byte 0 or 1
+     */
+    public byte[] getData() {
+        return this.data;
+    }
+
+    /**
+     * Returns true if this item writes a single bit
+     */
+    public boolean isBit() {
+        return this.bitOffset >= 0;
+    }
+
+    /**
+     * Returns the bit within the byte at offset, -1 for byte items
+     */
+    public int getBitOffset() {
+        return this.bitOffset;
+    }
+
+    /**
+     * Returns the bit value of a bit item
+     */
+    public boolean getBitValue() {
+        return this.data[0] != 0;
+    }
+
+    @Override
+    public String toString() {
+        if (this.isBit()) {
+            return this.area + " " + this.areaNumber + " " + this.offset + "." + this.bitOffset + "=" + this.getBitValue();
+        }
+        return this.area + " " + this.areaNumber + " [" + this.offset + ".." + (this.offset + this.data.length) + ")";
+    }
+}
@@ -15,10 +15,29 @@ limitations under the License.
 */
 package com.github.s7connector.api.factory;
 
+import com.github.s7connector.api.ReconnectPolicy;
 import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7Transport;
 import com.github.s7connector.api.SiemensPLCS;
 import com.github.s7connector.exception.S7Exception;
+import com.github.s7connector.impl.ConnectionSupplier;
+import com.github.s7connector.impl.S7AdaptiveLimitConnection;
+import com.github.s7connector.impl.S7CachingConnection;
+import com.github.s7connector.impl.S7CircuitBreakerConnection;
+import com.github.s7connector.impl.S7CoalescingConnection;
+import com.github.s7connector.impl.S7PooledConnection;
+import com.github.s7connector.impl.S7ReconnectingConnection;
+import com.github.s7connector.impl.S7StripedConnection;
 import com.github.s7connector.impl.S7TCPConnection;
+import com.github.s7connector.impl.S7WriteBehindConnection;
+import com.github.s7connector.impl.nodave.WireRecorder;
+import com.github.s7connector.impl.nodave.WireTracer;
+import com.github.s7connector.impl.utils.BufferPool;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * S7 connector factory, currently only for TCP connections
@@ -36,7 +55,43 @@ public class S7ConnectorFactory {
 
         private SiemensPLCS plcsType;
 
-        private int type = 1, rack = 0, slot = 2, port = 102, timeout = 2000;
+        private int type = 1, rack = 0, slot = 2, port = 102, timeout = 2000, requestTimeout = 0, slowRequestThreshold = 0;
+
+        private ReconnectPolicy reconnectPolicy;
+
+        private int circuitFailureThreshold = 0, circuitOpenTime = 0;
+
+        private int poolMinSize = 0, poolMaxSize = 0, poolIdleTimeout = 60000;
+
+        private int stripes = 0;
+
+        private int limitFloor = 0, limitCeiling = 0;
+
+        private boolean coalescing = false;
+
+        private boolean virtualThreads = false;
+
+        private BufferPool bufferPool;
+
+        private int socketBufferSize = 0;
+
+        private boolean directBuffers = false;
+
+        private WireTracer wireTracer;
+
+        private WireRecorder wireRecorder;
+
+        private S7Transport.Factory transports;
+
+        private int cacheMaxAge = 0;
+
+        private long cacheMaxBytes = 0;
+
+        private int writeBehindWindow = -1;
+
+        private S7Metrics metrics = S7Metrics.NONE;
+
+        private final Map<String, Integer> groupWeights = new HashMap<>();
 
         TCPConnectionBuilder(SiemensPLCS type) {
             this.plcsType = type;
@@ -46,7 +101,71 @@ public class S7ConnectorFactory {
          * Builds a connection with given params
          */
         public S7Connector build() throws S7Exception {
-            return new S7TCPConnection(this.host, this.type, this.rack, this.slot, this.port, this.timeout, this.plcsType);
+            final String name = this.host + ":" + this.port;
+            final S7Metrics metrics = this.metrics == null ? S7Metrics.NONE : this.metrics.forConnection(name);
+            final ConnectionSupplier supplier = this.connectionSupplier(metrics);
+            S7Connector connector;
+            if (this.poolMaxSize > 0 || this.stripes > 0) {
+                final int minSize = this.poolMaxSize > 0 ? this.poolMinSize : 1;
+                final int maxSize = this.poolMaxSize > 0 ? this.poolMaxSize : this.stripes;
+                connector = new S7PooledConnection(supplier, minSize, maxSize,
+                    this.poolIdleTimeout, this.reconnectPolicy, metrics);
+                if (this.limitCeiling > 0) {
+                    connector = new S7AdaptiveLimitConnection(connector, this.limitFloor, this.limitCeiling, metrics);
+                }
+                if (this.stripes > 0) {
+                    connector = new S7StripedConnection(connector, this.stripes);
+                }
+            } else if (this.reconnectPolicy == null) {
+                connector = supplier.connect();
+            } else {
+                connector = new S7ReconnectingConnection(supplier, this.reconnectPolicy, name);
+            }
+            if (this.circuitFailureThreshold > 0) {
+                connector = new S7CircuitBreakerConnection(connector, this.circuitFailureThreshold,
+                    this.circuitOpenTime, metrics);
+            }
+            if (this.coalescing) {
+                connector = new S7CoalescingConnection(connector, metrics);
+            }
+            if (this.cacheMaxAge > 0) {
+                connector = new S7CachingConnection(connector, this.cacheMaxAge, this.cacheMaxBytes, metrics);
+            }
+            if (this.writeBehindWindow >= 0) {
+                connector = new S7WriteBehindConnection(connector, this.writeBehindWindow, metrics);
+            }
+            return connector;
+        }
+
+        /**
+         * Returns a supplier for plain TCP connections with the current params
+         */
+        private ConnectionSupplier connectionSupplier(final S7Metrics metrics) {
+            final String host = this.host;
+            final SiemensPLCS plcsType = this.plcsType;
+            final int type = this.type, rack = this.rack, slot = this.slot, port = this.port, timeout = this.timeout;
+            final Duration requestTimeout = Duration.ofMillis(this.requestTimeout);
+            final Duration slowRequestThreshold = Duration.ofMillis(this.slowRequestThreshold);
+            final Map<String, Integer> groupWeights = new HashMap<>(this.groupWeights);
+            final boolean virtualThreads = this.virtualThreads;
+            final BufferPool bufferPool = this.bufferPool;
+            final int socketBufferSize = this.socketBufferSize;
+            final boolean directBuffers = this.directBuffers;
+            final WireTracer wireTracer = this.wireTracer;
+            final WireRecorder wireRecorder = this.wireRecorder;
+            final S7Transport.Factory transports = this.transports;
+            return () -> {
+                final S7TCPConnection connection = new S7TCPConnection(host, type, rack, slot, port, timeout, plcsType,
+                    bufferPool, socketBufferSize, directBuffers, wireTracer, wireRecorder, transports);
+                connection.setDefaultTimeout(requestTimeout);
+                connection.setSlowRequestThreshold(slowRequestThreshold);
+                connection.setVirtualThreads(virtualThreads);
+                connection.getScheduler().setMetrics(metrics);
+                for (final Map.Entry<String, Integer> weight : groupWeights.entrySet()) {
+                    connection.getScheduler().setWeight(weight.getKey(), weight.getValue());
+                }
+                return connection;
+            };
         }
 
         /**
@@ -97,6 +216,217 @@ public class S7ConnectorFactory {
             return this;
         }
 
+        /**
+         * use default deadline for read/write requests in millis, covering lock
+         * wait and all PDU exchanges, default is 0 (no deadline)
+         */
+        public TCPConnectionBuilder withRequestTimeout(final int requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        /**
+         * log read/write requests taking at least the given millis, with the
+         * time spent waiting, encoding, sending, in the PLC, receiving and
+         * decoding, default is 0 (no log)
+         */
+        public TCPConnectionBuilder withSlowRequestLog(final int slowRequestThreshold) {
+            if (slowRequestThreshold < 0) {
+                throw new IllegalArgumentException("Threshold must not be negative, but was: " + slowRequestThreshold);
+            }
+            this.slowRequestThreshold = slowRequestThreshold;
+            return this;
+        }
+
+        /**
+         * use automatic reconnect with the given policy, default is no reconnect
+         */
+        public TCPConnectionBuilder withReconnect(final ReconnectPolicy reconnectPolicy) {
+            this.reconnectPolicy = reconnectPolicy;
+            return this;
+        }
+
+        /**
+         * use a circuit breaker: after failureThreshold consecutive I/O failures
+         * requests fail fast for openTime millis, default is no circuit breaker
+         */
+        public TCPConnectionBuilder withCircuitBreaker(final int failureThreshold, final int openTime) {
+            this.circuitFailureThreshold = failureThreshold;
+            this.circuitOpenTime = openTime;
+            return this;
+        }
+
+        /**
+         * use a pool of minSize to maxSize sessions to the PLC, requests go to the
+         * least busy session, default is a single session. Pooled sessions are
+         * replaced individually on failure, the reconnect policy (if any) only
+         * provides backoff and read retries
+         */
+        public TCPConnectionBuilder withPool(final int minSize, final int maxSize) {
+            this.poolMinSize = minSize;
+            this.poolMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * use idle time in millis after which pooled sessions above minSize are
+         * closed, default is 60000
+         */
+        public TCPConnectionBuilder withPoolIdleTimeout(final int poolIdleTimeout) {
+            this.poolIdleTimeout = poolIdleTimeout;
+            return this;
+        }
+
+        /**
+         * use large-transfer mode: reads and writes larger than one PDU are split
+         * into chunks, up to stripes of them in flight over pooled sessions.
+         * Without withPool a pool of up to stripes sessions is used. Default is
+         * sequential chunks over one session
+         */
+        public TCPConnectionBuilder withStriping(final int stripes) {
+            this.stripes = stripes;
+            return this;
+        }
+
+        /**
+         * use a read-through cache: ranges read or written within the last maxAge
+         * millis are served without a request to the PLC, at most maxBytes of data
+         * are kept. Default is no cache
+         */
+        public TCPConnectionBuilder withCache(final int maxAge, final long maxBytes) {
+            this.cacheMaxAge = maxAge;
+            this.cacheMaxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * use an adaptive limit on the requests outstanding at the PLC, between
+         * floor and ceiling, driven by the observed response time. Only used
+         * together with a pool, default is off
+         */
+        public TCPConnectionBuilder withAdaptiveLimit(final int floor, final int ceiling) {
+            if (floor < 1 || ceiling < floor) {
+                throw new IllegalArgumentException(String.format(
+                    "Limits must satisfy 1 <= floor <= ceiling, but were: floor=%d, ceiling=%d", floor, ceiling));
+            }
+            this.limitFloor = floor;
+            this.limitCeiling = ceiling;
+            return this;
+        }
+
+        /**
+         * use read coalescing: concurrent reads of overlapping or nearby ranges
+         * are merged into one request, default is off
+         */
+        public TCPConnectionBuilder withReadCoalescing() {
+            this.coalescing = true;
+            return this;
+        }
+
+        /**
+         * use write-behind mode: writes are buffered for window millis, merged
+         * and sent as multi-item requests. Use S7WriteBehindConnection#writeAsync
+         * and #flush on the built connector for asynchronous writes. Default is
+         * off
+         */
+        public TCPConnectionBuilder withWriteBehind(final int window) {
+            this.writeBehindWindow = window;
+            return this;
+        }
+
+        /**
+         * use weight for a client group (see S7RequestScope): within a priority
+         * class, waiting groups get the connection in proportion to their
+         * weight, default is 1
+         */
+        public TCPConnectionBuilder withGroupWeight(final String group, final int weight) {
+            if (group == null || weight <= 0) {
+                throw new IllegalArgumentException("Group must not be null and weight must be positive, but was: " + weight);
+            }
+            this.groupWeights.put(group, weight);
+            return this;
+        }
+
+        /**
+         * use virtual threads for the I/O thread of each session where the JDK
+         * supports them (21 and later), platform threads otherwise. Default is
+         * platform threads
+         */
+        public TCPConnectionBuilder withVirtualThreads() {
+            this.virtualThreads = true;
+            return this;
+        }
+
+        /**
+         * take the frame buffers of the sessions from the pool, shared with
+         * other connectors; idle sessions hold no buffers. Default is a pair
+         * of buffers per session, sized from the negotiated PDU
+         */
+        public TCPConnectionBuilder withBufferPool(final BufferPool bufferPool) {
+            this.bufferPool = bufferPool;
+            return this;
+        }
+
+        /**
+         * socket send and receive buffer size in bytes, default is the system
+         * default
+         */
+        public TCPConnectionBuilder withSocketBufferSize(final int socketBufferSize) {
+            if (socketBufferSize <= 0) {
+                throw new IllegalArgumentException("Socket buffer size must be positive, but was: " + socketBufferSize);
+            }
+            this.socketBufferSize = socketBufferSize;
+            return this;
+        }
+
+        /**
+         * transfer through a socket channel and pooled direct buffers instead
+         * of the socket streams, taken from the buffer pool if one is set.
+         * Default is the socket streams
+         */
+        public TCPConnectionBuilder withDirectBuffers() {
+            this.directBuffers = true;
+            return this;
+        }
+
+        /**
+         * record the frames of all sessions in the tracer's ring buffer,
+         * default is no trace
+         */
+        public TCPConnectionBuilder withWireTracer(final WireTracer wireTracer) {
+            this.wireTracer = wireTracer;
+            return this;
+        }
+
+        /**
+         * record the frames of all sessions with their timing for replay,
+         * default is no recording
+         */
+        public TCPConnectionBuilder withWireRecorder(final WireRecorder wireRecorder) {
+            this.wireRecorder = wireRecorder;
+            return this;
+        }
+
+        /**
+         * carry the frames of each session over a transport opened by the
+         * factory instead of a TCP socket; host and port then only name the
+         * connection in logs and traces. Default is a TCP socket to host and
+         * port
+         */
+        public TCPConnectionBuilder withTransport(final S7Transport.Factory transports) {
+            this.transports = transports;
+            return this;
+        }
+
+        /**
+         * use metrics sink, reported through a sink scoped to host:port (see
+         * {@link S7Metrics#forConnection(String)}), default is none
+         */
+        public TCPConnectionBuilder withMetrics(final S7Metrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
     }
 
     /**
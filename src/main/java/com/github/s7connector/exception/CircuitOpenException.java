@@ -0,0 +1,52 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of contacting the PLC while its circuit breaker is open, i.e.
+ * after repeated communication failures and before the cool-down has elapsed.
+ */
+public final class CircuitOpenException extends IOException {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 3290358861522474107L;
+
+	/** Remaining cool-down in millis */
+	private final long retryAfter;
+
+	/**
+	 * Instantiates a new circuit open exception.
+	 *
+	 * @param message
+	 *            the message
+	 * @param retryAfter
+	 *            remaining cool-down in millis
+	 */
+	public CircuitOpenException(final String message, final long retryAfter) {
+		super(message);
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Returns the remaining cool-down in millis, 0 if a probe request is in flight
+	 */
+	public long getRetryAfter() {
+		return this.retryAfter;
+	}
+
+}
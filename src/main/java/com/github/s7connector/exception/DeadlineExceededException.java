@@ -0,0 +1,71 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request could not be completed within its deadline, either
+ * while waiting for the connection or while waiting for the PLC's answer. The
+ * connection stays usable, late answers are discarded.
+ * <p>
+ * A deadline passing in a local wait (queue, pool, concurrency limit), before
+ * the request was handed to the transport, is marked {@link #isLocal() local}:
+ * it says nothing about the health of the PLC.
+ */
+public final class DeadlineExceededException extends IOException {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = -2203468335380957011L;
+
+	/** True if the request did not reach the transport. */
+	private final boolean local;
+
+	/**
+	 * Instantiates a new deadline exceeded exception.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	public DeadlineExceededException(final String message) {
+		this(message, false);
+	}
+
+	/**
+	 * Instantiates a new deadline exceeded exception.
+	 *
+	 * @param message
+	 *            the message
+	 * @param local
+	 *            true if the deadline passed before the request reached the
+	 *            transport
+	 */
+	public DeadlineExceededException(final String message, final boolean local) {
+		super(message);
+		this.local = local;
+	}
+
+	/**
+	 * Returns true if the deadline passed in a local wait, before the request
+	 * reached the transport
+	 *
+	 * @return true for local waits
+	 */
+	public boolean isLocal() {
+		return this.local;
+	}
+
+}
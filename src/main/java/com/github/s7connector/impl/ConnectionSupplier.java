@@ -0,0 +1,36 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.exception.S7Exception;
+
+/**
+ * Opens a new, fully established connection (socket, ISO connect and PDU
+ * negotiation) to a PLC. Used by connectors that need to (re-)create their
+ * underlying sessions.
+ */
+@FunctionalInterface
+public interface ConnectionSupplier {
+
+    /**
+     * Opens a new connection
+     *
+     * @return the connected instance
+     * @throws S7Exception if the connection could not be established
+     */
+    S7Connector connect() throws S7Exception;
+}
@@ -0,0 +1,367 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.impl.utils.Deadline;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the requests outstanding at one PLC, adapting the limit to the
+ * observed response time (Vegas-style).
+ * <p>
+ * The round trip time of each request, per PDU, is compared with the lowest
+ * one seen ({@code minRtt}). The estimated number of requests queued at the
+ * PLC is {@code limit * (1 - minRtt / rtt)}: below {@code alpha} the limit
+ * grows by one, above {@code beta} it shrinks by one. A request failing with
+ * an I/O error or timeout shrinks it by 10%. The limit only grows while it is
+ * actually used, and stays within floor and ceiling. The lowest RTT is
+ * re-measured every {@value #PROBE_INTERVAL} samples so a permanently slower
+ * PLC becomes the new base line.
+ * <p>
+ * Meant to wrap a {@link S7PooledConnection}: requests above the limit wait
+ * here instead of adding to the communication load of the CPU.
+ */
+public final class S7AdaptiveLimitConnection implements S7Connector {
+
+    /**
+     * Metric: current limit
+     */
+    public static final String METRIC_LIMIT = "s7.limit.current";
+
+    /**
+     * Metric: requests outstanding
+     */
+    public static final String METRIC_IN_FLIGHT = "s7.limit.inflight";
+
+    /**
+     * Metric: round trip time per PDU
+     */
+    public static final String METRIC_RTT = "s7.limit.rtt";
+
+    /**
+     * Samples after which the lowest RTT is re-measured
+     */
+    static final int PROBE_INTERVAL = 1000;
+
+    /**
+     * A request sent through the limiter
+     */
+    @FunctionalInterface
+    private interface Request<T> {
+        T run(Duration timeout) throws IOException, InterruptedException;
+    }
+
+    private final S7Connector delegate;
+
+    private final int floor;
+
+    private final int ceiling;
+
+    private final S7Metrics metrics;
+
+    /**
+     * Guards the fields below, never held during I/O
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a request completes or the limit grows
+     */
+    private final Condition available = this.lock.newCondition();
+
+    private int limit;
+
+    private int inFlight = 0;
+
+    private long minRtt = Long.MAX_VALUE;
+
+    private long samples = 0;
+
+    /**
+     * Wraps the given connection, starting at the floor
+     *
+     * @param delegate the connection, usually a pool
+     * @param floor    lowest limit, at least 1
+     * @param ceiling  highest limit
+     * @param metrics  the metrics sink
+     */
+    public S7AdaptiveLimitConnection(final S7Connector delegate, final int floor, final int ceiling, final S7Metrics metrics) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate must not be null");
+        }
+        if (floor < 1 || ceiling < floor) {
+            throw new IllegalArgumentException(String.format(
+                "Limits must satisfy 1 <= floor <= ceiling, but were: floor=%d, ceiling=%d", floor, ceiling));
+        }
+        this.delegate = delegate;
+        this.floor = floor;
+        this.ceiling = ceiling;
+        this.metrics = metrics == null ? S7Metrics.NONE : metrics;
+        this.limit = floor;
+        this.metrics.gauge(METRIC_LIMIT, this.limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException, InterruptedException {
+        return this.read(area, areaNumber, bytes, offset, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset, final Duration timeout) throws IOException, InterruptedException {
+        return this.call(timeout, pdus(bytes, this.delegate.getMaxReadSize()),
+            t -> this.delegate.read(area, areaNumber, bytes, offset, t));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<byte[]> read(final List<S7ReadItem> items, final Duration timeout) throws IOException, InterruptedException {
+        return this.call(timeout, pdus(answerSize(items), this.delegate.getMaxReadSize()), t -> this.delegate.read(items, t));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read is prepared by the wrapped connection, each execution counts
+     * against the limit.
+     */
+    @Override
+    public S7PreparedRead prepare(final List<S7ReadItem> items) {
+        final S7PreparedRead prepared = this.delegate.prepare(items);
+        final int bytes = answerSize(prepared.getItems());
+        return new S7PreparedRead() {
+            @Override
+            public List<S7ReadItem> getItems() {
+                return prepared.getItems();
+            }
+
+            @Override
+            public List<byte[]> read(final Duration timeout) throws IOException, InterruptedException {
+                final S7AdaptiveLimitConnection limiter = S7AdaptiveLimitConnection.this;
+                return limiter.call(timeout, pdus(bytes, limiter.delegate.getMaxReadSize()), prepared::read);
+            }
+        };
+    }
+
+    /**
+     * Returns the bytes of the answer to a read of the items, with item headers
+     */
+    private static int answerSize(final List<S7ReadItem> items) {
+        int bytes = 0;
+        for (final S7ReadItem item : items) {
+            bytes += item.getLength() + 4;
+        }
+        return bytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException, InterruptedException {
+        this.write(area, areaNumber, offset, buffer, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer, final Duration timeout) throws IOException, InterruptedException {
+        this.call(timeout, pdus(buffer == null ? 0 : buffer.length, this.delegate.getMaxWriteSize()), t -> {
+            this.delegate.write(area, areaNumber, offset, buffer, t);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final List<S7WriteItem> items, final Duration timeout) throws IOException, InterruptedException {
+        int bytes = 0;
+        for (final S7WriteItem item : items) {
+            bytes += item.getData().length + 16;
+        }
+        this.call(timeout, pdus(bytes, this.delegate.getMaxWriteSize()), t -> {
+            this.delegate.write(items, t);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBitWriteSupported() {
+        return this.delegate.isBitWriteSupported();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxReadSize() {
+        return this.delegate.getMaxReadSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxWriteSize() {
+        return this.delegate.getMaxWriteSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.delegate.close();
+    }
+
+    /**
+     * Returns the current limit
+     */
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return this.limit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests outstanding
+     */
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private static int pdus(final int bytes, final int chunk) {
+        return Math.max(1, (bytes + chunk - 1) / chunk);
+    }
+
+    private <T> T call(final Duration timeout, final int pdus, final Request<T> request) throws IOException, InterruptedException {
+        final Deadline deadline = Deadline.after(timeout);
+        this.acquire(deadline);
+        final long start = System.nanoTime();
+        boolean answered = false;
+        boolean dropped = false;
+        try {
+            final T result = request.run(deadline.remaining());
+            answered = true;
+            return result;
+        } catch (final IllegalArgumentException e) {
+            // rejected by the PLC, still a round trip
+            answered = true;
+            throw e;
+        } catch (final IOException e) {
+            dropped = true;
+            throw e;
+        } finally {
+            this.release(answered, dropped, (System.nanoTime() - start) / pdus);
+        }
+    }
+
+    private void acquire(final Deadline deadline) throws DeadlineExceededException, InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.inFlight >= this.limit) {
+                if (!deadline.isBounded()) {
+                    this.available.await();
+                } else {
+                    final long remaining = deadline.remainingNanos();
+                    if (remaining <= 0) {
+                        throw deadline.exceededLocally("waiting for the concurrency limit");
+                    }
+                    this.available.awaitNanos(remaining);
+                }
+            }
+            this.metrics.gauge(METRIC_IN_FLIGHT, ++this.inFlight);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Completes a request and adapts the limit
+     *
+     * @param answered true if the PLC answered
+     * @param dropped  true on I/O errors and timeouts
+     * @param rtt      round trip time per PDU in nanos
+     */
+    private void release(final boolean answered, final boolean dropped, final long rtt) {
+        this.lock.lock();
+        try {
+            // whether the limit was used, checked before this request left
+            final boolean saturated = this.inFlight * 2 >= this.limit;
+            this.metrics.gauge(METRIC_IN_FLIGHT, --this.inFlight);
+
+            int newLimit = this.limit;
+            if (dropped) {
+                newLimit = (int) (this.limit * 0.9);
+            } else if (answered) {
+                this.metrics.timing(METRIC_RTT, rtt);
+                if (++this.samples % PROBE_INTERVAL == 0 || rtt < this.minRtt) {
+                    this.minRtt = Math.max(1, rtt);
+                }
+                final double queued = this.limit * (1.0 - (double) this.minRtt / Math.max(rtt, this.minRtt));
+                final double log = Math.log10(this.limit);
+                final double alpha = Math.max(1.0, 3 * log);
+                final double beta = Math.max(2.0, 6 * log);
+                if (queued < alpha && saturated) {
+                    newLimit = this.limit + 1;
+                } else if (queued > beta) {
+                    newLimit = this.limit - 1;
+                }
+            }
+            newLimit = Math.max(this.floor, Math.min(this.ceiling, newLimit));
+            if (newLimit != this.limit) {
+                this.limit = newLimit;
+                this.metrics.gauge(METRIC_LIMIT, newLimit);
+            }
+            this.available.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
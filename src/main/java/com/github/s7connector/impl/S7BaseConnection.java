@@ -17,13 +17,26 @@ package com.github.s7connector.impl;
 
 import com.github.s7connector.api.DaveArea;
 import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7Priority;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7RequestScope;
+import com.github.s7connector.api.S7WriteItem;
 import com.github.s7connector.impl.nodave.Nodave;
+import com.github.s7connector.impl.nodave.PreparedRead;
+import com.github.s7connector.impl.nodave.RequestTiming;
 import com.github.s7connector.impl.nodave.S7Connection;
+import com.github.s7connector.impl.utils.Deadline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Base-Connection for the S7-PLC Connection Libnodave:
@@ -36,10 +49,53 @@ public abstract class S7BaseConnection implements S7Connector {
     private static final Logger logger = LoggerFactory.getLogger(S7BaseConnection.class);
 
     /**
-     * The Constant MAX_SIZE.
+     * The Constant MAX_SIZE, chunk size if no PDU length was negotiated.
      */
     private static final int MAX_SIZE = 96;
 
+    /**
+     * Bytes of a read answer PDU not available for data (header, parameter, item header)
+     */
+    public static final int READ_OVERHEAD = 18;
+
+    /**
+     * Bytes of a write request PDU not available for data (header, parameter, item header)
+     */
+    public static final int WRITE_OVERHEAD = 28;
+
+    /**
+     * Bytes of a write request PDU shared by all items (header, function, item count)
+     */
+    private static final int WRITE_HEADER = 12;
+
+    /**
+     * Bytes of a read request PDU shared by all items, and per item
+     */
+    private static final int READ_REQUEST_HEADER = 12;
+
+    private static final int READ_REQUEST_ITEM = 12;
+
+    /**
+     * Metric: time of a request by stage, suffixed with the stage, e.g.
+     * {@code s7.request.plc}, and {@code s7.request.total}
+     */
+    public static final String METRIC_REQUEST = "s7.request";
+
+    /**
+     * Metric: requests slower than the slow request threshold
+     */
+    public static final String METRIC_SLOW = "s7.request.slow";
+
+    private static final String[] STAGE_METRICS = new String[RequestTiming.STAGES];
+
+    private static final String TOTAL_METRIC = METRIC_REQUEST + ".total";
+
+    static {
+        for (int i = 0; i < RequestTiming.STAGES; i++) {
+            STAGE_METRICS[i] = METRIC_REQUEST + "." + RequestTiming.name(i);
+        }
+    }
+
     /**
      * The Constant PROPERTY_AREA.
      * @deprecated Unused, kept for backwards compatibility. Will be removed in future versions.
@@ -98,15 +154,33 @@ public abstract class S7BaseConnection implements S7Connector {
     private S7Connection dc;
 
     /**
-     * Lock for thread-safe operations
+     * The thread owning the connection, runs one request at a time by priority class and client group
      */
-    private final ReentrantLock lock = new ReentrantLock();
+    private final S7IoLoop loop = new S7IoLoop();
 
     /**
      * Flag to track if connection is closed (volatile for thread visibility)
      */
     private volatile boolean closed = false;
 
+    /**
+     * Timeout for requests without an explicit one, null for none
+     */
+    private volatile Duration defaultTimeout;
+
+    /**
+     * Requests taking this long are logged with their timing, 0 for none
+     */
+    private volatile long slowRequestNanos = 0;
+
+    /**
+     * Timings of the running request and the requests it was preempted by,
+     * reused, owned by the I/O thread
+     */
+    private RequestTiming[] timings = new RequestTiming[0];
+
+    private int timingDepth = 0;
+
     /**
      * Initialize the connection
      *
@@ -114,6 +188,70 @@ public abstract class S7BaseConnection implements S7Connector {
      */
     protected void init(final S7Connection dc) {
         this.dc = dc;
+        // pooled buffers are held while there are requests to process
+        this.loop.setIdleHandler(dc::releaseBuffers);
+        // from here on only the I/O thread uses dc
+        this.loop.start();
+    }
+
+    /**
+     * Runs the I/O thread of this connection as a virtual thread if the JDK
+     * supports it (21 and later). Must be called before the first request.
+     *
+     * @param virtual true for a virtual thread
+     */
+    public void setVirtualThreads(final boolean virtual) {
+        this.loop.setVirtual(virtual);
+    }
+
+    /**
+     * Sets the timeout for requests issued without an explicit one
+     *
+     * @param defaultTimeout the timeout, null or zero for none
+     */
+    public void setDefaultTimeout(final Duration defaultTimeout) {
+        if (defaultTimeout != null && defaultTimeout.isNegative()) {
+            throw new IllegalArgumentException("Timeout must not be negative, but was: " + defaultTimeout);
+        }
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    /**
+     * Returns the timeout for requests issued without an explicit one, null for none
+     */
+    public Duration getDefaultTimeout() {
+        return this.defaultTimeout;
+    }
+
+    /**
+     * Logs requests taking at least the given time, with the time spent in
+     * each stage, and counts them as {@link #METRIC_SLOW}
+     *
+     * @param threshold the time, null or zero for no log
+     */
+    public void setSlowRequestThreshold(final Duration threshold) {
+        if (threshold != null && threshold.isNegative()) {
+            throw new IllegalArgumentException("Threshold must not be negative, but was: " + threshold);
+        }
+        this.slowRequestNanos = threshold == null ? 0 : threshold.toNanos();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxReadSize() {
+        final int pdu = this.dc == null ? 0 : this.dc.maxPDUlength;
+        return pdu - READ_OVERHEAD > MAX_SIZE ? pdu - READ_OVERHEAD : MAX_SIZE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxWriteSize() {
+        final int pdu = this.dc == null ? 0 : this.dc.maxPDUlength;
+        return pdu - WRITE_OVERHEAD > MAX_SIZE ? pdu - WRITE_OVERHEAD : MAX_SIZE;
     }
 
     /**
@@ -121,6 +259,14 @@ public abstract class S7BaseConnection implements S7Connector {
      */
     @Override
     public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException, InterruptedException {
+        return this.read(area, areaNumber, bytes, offset, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset, final Duration timeout) throws IOException, InterruptedException {
         // Input validation
         if (area == null) {
             throw new IllegalArgumentException("Area must not be null");
@@ -147,10 +293,10 @@ public abstract class S7BaseConnection implements S7Connector {
             logger.debug("Read request: area={}, areaNumber={}, bytes={}, offset={}", area, areaNumber, bytes, offset);
         }
 
-        // Use lockInterruptibly to allow thread interruption and prevent deadlocks
-        this.lock.lockInterruptibly();
+        final Deadline deadline = Deadline.after(timeout != null ? timeout : this.defaultTimeout);
         try {
-            byte[] result = readInternal(area, areaNumber, bytes, offset);
+            final byte[] result = this.call(bytes > this.getMaxReadSize() ? S7Priority.BULK : S7Priority.CYCLIC, deadline,
+                () -> this.readInternal(area, areaNumber, bytes, offset, deadline));
 
             if (logger.isDebugEnabled()) {
                 logger.debug("Read completed: area={}, areaNumber={}, bytes={}, offset={}, actualBytes={}",
@@ -162,37 +308,240 @@ public abstract class S7BaseConnection implements S7Connector {
             logger.error("IOException during read: area={}, areaNumber={}, bytes={}, offset={}, error={}",
                 area, areaNumber, bytes, offset, e.getMessage(), e);
             throw e;
-        } finally {
-            this.lock.unlock();
         }
     }
 
     /**
-     * Internal read implementation without locking (lock must be held by caller).
+     * {@inheritDoc}
+     */
+    @Override
+    public List<byte[]> read(final List<S7ReadItem> items, final Duration timeout) throws IOException, InterruptedException {
+        if (items == null) {
+            throw new IllegalArgumentException("Items must not be null");
+        }
+        if (this.closed) {
+            throw new IllegalStateException("Connection is closed. Cannot perform read operation.");
+        }
+        if (this.dc == null) {
+            throw new IllegalStateException("Connection not initialized. Call init() first or ensure connection is properly established.");
+        }
+        final byte[][] result = new byte[items.size()][];
+        if (items.isEmpty()) {
+            return Arrays.asList(result);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Read request: items={}", items.size());
+        }
+
+        final Deadline deadline = Deadline.after(timeout != null ? timeout : this.defaultTimeout);
+        try {
+            return this.call(S7Priority.CYCLIC, deadline, () -> this.readItems(items, result, deadline));
+        } catch (IOException e) {
+            logger.error("IOException during read: items={}, error={}", items.size(), e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The PDUs of the items are planned and their request frames built once,
+     * on the first execution.
+     */
+    @Override
+    public S7PreparedRead prepare(final List<S7ReadItem> items) {
+        if (items == null || items.isEmpty()) {
+            throw new IllegalArgumentException("Items must not be null or empty");
+        }
+        return new Prepared(Collections.unmodifiableList(new ArrayList<>(items)));
+    }
+
+    /**
+     * Reads the items with as few PDUs as possible, runs on the I/O thread.
+     */
+    private List<byte[]> readItems(final List<S7ReadItem> items, final byte[][] result,
+                                   final Deadline deadline) throws IOException, InterruptedException {
+        for (final int[] batch : this.plan(items)) {
+            this.readBatch(items, batch, null, result, deadline);
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Splits the items into batches fitting one PDU each, items too large for
+     * a shared PDU form a batch of their own.
+     */
+    private List<int[]> plan(final List<S7ReadItem> items) {
+        final int maxSize = this.getMaxReadSize();
+        final int pduSize = maxSize + READ_OVERHEAD;
+        final List<int[]> batches = new ArrayList<>();
+        final int[] batch = new int[items.size()];
+        int count = 0;
+        int requestSize = READ_REQUEST_HEADER;
+        int answerSize = READ_OVERHEAD - 4;
+        for (int i = 0; i < items.size(); i++) {
+            final S7ReadItem item = items.get(i);
+            if (item.getLength() > maxSize) {
+                // read in chunks on its own
+                batches.add(new int[] { i });
+                continue;
+            }
+            // item header, data and fill byte of the answer
+            final int itemSize = 4 + item.getLength() + 1;
+            if (count > 0 && (requestSize + READ_REQUEST_ITEM > pduSize || answerSize + itemSize > pduSize)) {
+                batches.add(Arrays.copyOf(batch, count));
+                count = 0;
+                requestSize = READ_REQUEST_HEADER;
+                answerSize = READ_OVERHEAD - 4;
+            }
+            batch[count++] = i;
+            requestSize += READ_REQUEST_ITEM;
+            answerSize += itemSize;
+        }
+        if (count > 0) {
+            batches.add(Arrays.copyOf(batch, count));
+        }
+        return batches;
+    }
+
+    /**
+     * Returns true if the batch is read with a multi-item request rather than
+     * a plain (possibly chunked) read
+     */
+    private static boolean isMultiItem(final List<S7ReadItem> items, final int[] batch) {
+        return batch.length > 1 || items.get(batch[0]).isBit();
+    }
+
+    private static List<S7ReadItem> select(final List<S7ReadItem> items, final int[] batch) {
+        final List<S7ReadItem> request = new ArrayList<>(batch.length);
+        for (final int index : batch) {
+            request.add(items.get(index));
+        }
+        return request;
+    }
+
+    /**
+     * Reads one batch, with the prepared request if given
+     */
+    private void readBatch(final List<S7ReadItem> items, final int[] batch, final PreparedRead template,
+                           final byte[][] result, final Deadline deadline) throws IOException, InterruptedException {
+        if (!isMultiItem(items, batch)) {
+            final S7ReadItem item = items.get(batch[0]);
+            result[batch[0]] = this.readInternal(item.getArea(), item.getAreaNumber(), item.getLength(), item.getOffset(), deadline);
+            return;
+        }
+
+        deadline.check("before reading " + batch.length + " items");
+        final byte[][] data = new byte[batch.length][];
+        final int[] results = new int[batch.length];
+        if (template != null) {
+            checkResult(this.dc.readPrepared(template, data, results, deadline));
+        } else {
+            checkResult(this.dc.readItems(select(items, batch), data, results, deadline));
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != Nodave.RESULT_OK) {
+                final S7ReadItem item = items.get(batch[i]);
+                final String msg = Nodave.strerror(results[i]);
+                logger.error("PLC rejected read item {}: result code {}: {}", item, results[i], msg);
+                throw new IllegalArgumentException("Result: " + msg + " (item " + item + ")");
+            }
+            result[batch[i]] = data[i];
+        }
+    }
+
+    /**
+     * Read prepared by {@link #prepare(List)}
+     */
+    private final class Prepared implements S7PreparedRead {
+
+        private final List<S7ReadItem> items;
+
+        /**
+         * Batches and their request templates, null for batches read on their
+         * own; built on first use and confined to the I/O thread
+         */
+        private List<int[]> batches;
+
+        private PreparedRead[] templates;
+
+        Prepared(final List<S7ReadItem> items) {
+            this.items = items;
+        }
+
+        @Override
+        public List<S7ReadItem> getItems() {
+            return this.items;
+        }
+
+        @Override
+        public List<byte[]> read(final Duration timeout) throws IOException, InterruptedException {
+            if (S7BaseConnection.this.closed) {
+                throw new IllegalStateException("Connection is closed. Cannot perform read operation.");
+            }
+            if (S7BaseConnection.this.dc == null) {
+                throw new IllegalStateException("Connection not initialized. Call init() first or ensure connection is properly established.");
+            }
+            final byte[][] result = new byte[this.items.size()][];
+            final Deadline deadline = Deadline.after(timeout != null ? timeout : S7BaseConnection.this.defaultTimeout);
+            try {
+                return S7BaseConnection.this.call(S7Priority.CYCLIC, deadline, () -> this.execute(result, deadline));
+            } catch (IOException e) {
+                logger.error("IOException during prepared read: items={}, error={}", this.items.size(), e.getMessage(), e);
+                throw e;
+            }
+        }
+
+        private List<byte[]> execute(final byte[][] result, final Deadline deadline) throws IOException, InterruptedException {
+            if (this.batches == null) {
+                final List<int[]> plan = S7BaseConnection.this.plan(this.items);
+                final PreparedRead[] frames = new PreparedRead[plan.size()];
+                for (int i = 0; i < frames.length; i++) {
+                    if (isMultiItem(this.items, plan.get(i))) {
+                        frames[i] = S7BaseConnection.this.dc.prepareRead(select(this.items, plan.get(i)));
+                    }
+                }
+                this.templates = frames;
+                this.batches = plan;
+            }
+            for (int i = 0; i < this.templates.length; i++) {
+                S7BaseConnection.this.readBatch(this.items, this.batches.get(i), this.templates[i], result, deadline);
+            }
+            return Arrays.asList(result);
+        }
+    }
+
+    /**
+     * Internal read implementation, runs on the I/O thread.
      * Handles recursive splitting for large reads.
      */
-    private byte[] readInternal(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException {
-        if (bytes > MAX_SIZE) {
+    private byte[] readInternal(final DaveArea area, final int areaNumber, final int bytes, final int offset,
+                                final Deadline deadline) throws IOException, InterruptedException {
+        final int maxSize = this.getMaxReadSize();
+        if (bytes > maxSize) {
             // Handle large reads by splitting into chunks
-            // Note: Lock is already held by public read() method
             if (logger.isTraceEnabled()) {
-                logger.trace("Splitting read into chunks: bytes={}, MAX_SIZE={}", bytes, MAX_SIZE);
+                logger.trace("Splitting read into chunks: bytes={}, maxSize={}", bytes, maxSize);
             }
 
             final byte[] ret = new byte[bytes];
 
-            final byte[] currentBuffer = readInternal(area, areaNumber, MAX_SIZE, offset);
+            final byte[] currentBuffer = readInternal(area, areaNumber, maxSize, offset, deadline);
             System.arraycopy(currentBuffer, 0, ret, 0, currentBuffer.length);
 
-            final byte[] nextBuffer = readInternal(area, areaNumber, bytes - MAX_SIZE, offset + MAX_SIZE);
+            // chunk boundary, let waiting requests of a higher class go first
+            this.loop.preempt();
+            final byte[] nextBuffer = readInternal(area, areaNumber, bytes - maxSize, offset + maxSize, deadline);
             System.arraycopy(nextBuffer, 0, ret, currentBuffer.length, nextBuffer.length);
 
             return ret;
 
         } else {
-            // Single read operation - lock already held
+            // Single read operation, abort between chunks when the deadline passed
+            deadline.check("before reading " + bytes + " bytes at offset " + offset);
             final byte[] buffer = new byte[bytes];
-            final int ret = this.dc.readBytes(area, areaNumber, offset, bytes, buffer);
+            final int ret = this.dc.readBytes(area, areaNumber, offset, bytes, buffer, deadline);
 
             checkResult(ret);
             return buffer;
@@ -204,6 +553,14 @@ public abstract class S7BaseConnection implements S7Connector {
      */
     @Override
     public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException, InterruptedException {
+        this.write(area, areaNumber, offset, buffer, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer, final Duration timeout) throws IOException, InterruptedException {
         // Input validation
         if (area == null) {
             throw new IllegalArgumentException("Area must not be null");
@@ -234,10 +591,12 @@ public abstract class S7BaseConnection implements S7Connector {
             logger.debug("Write request: area={}, areaNumber={}, offset={}, bytes={}", area, areaNumber, offset, buffer.length);
         }
 
-        // Use lockInterruptibly to allow thread interruption and prevent deadlocks
-        this.lock.lockInterruptibly();
+        final Deadline deadline = Deadline.after(timeout != null ? timeout : this.defaultTimeout);
         try {
-            writeInternal(area, areaNumber, offset, buffer);
+            this.call(buffer.length > this.getMaxWriteSize() ? S7Priority.BULK : S7Priority.CONTROL, deadline, () -> {
+                this.writeInternal(area, areaNumber, offset, buffer, deadline);
+                return null;
+            });
 
             if (logger.isDebugEnabled()) {
                 logger.debug("Write completed: area={}, areaNumber={}, offset={}, bytes={}",
@@ -247,40 +606,226 @@ public abstract class S7BaseConnection implements S7Connector {
             logger.error("IOException during write: area={}, areaNumber={}, offset={}, bytes={}, error={}",
                 area, areaNumber, offset, buffer.length, e.getMessage(), e);
             throw e;
-        } finally {
-            this.lock.unlock();
         }
     }
 
     /**
-     * Internal write implementation without locking (lock must be held by caller).
+     * Internal write implementation, runs on the I/O thread.
      * Handles recursive splitting for large writes.
      */
-    private void writeInternal(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException {
-        if (buffer.length > MAX_SIZE) {
+    private void writeInternal(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer,
+                               final Deadline deadline) throws IOException, InterruptedException {
+        final int maxSize = this.getMaxWriteSize();
+        if (buffer.length > maxSize) {
             // Handle large writes by splitting into chunks
-            // Note: Lock is already held by public write() method
             if (logger.isTraceEnabled()) {
-                logger.trace("Splitting write into chunks: bytes={}, MAX_SIZE={}", buffer.length, MAX_SIZE);
+                logger.trace("Splitting write into chunks: bytes={}, maxSize={}", buffer.length, maxSize);
             }
 
-            final byte[] subBuffer = new byte[MAX_SIZE];
+            final byte[] subBuffer = new byte[maxSize];
             final byte[] nextBuffer = new byte[buffer.length - subBuffer.length];
 
             System.arraycopy(buffer, 0, subBuffer, 0, subBuffer.length);
-            System.arraycopy(buffer, MAX_SIZE, nextBuffer, 0, nextBuffer.length);
+            System.arraycopy(buffer, maxSize, nextBuffer, 0, nextBuffer.length);
 
-            writeInternal(area, areaNumber, offset, subBuffer);
-            writeInternal(area, areaNumber, offset + subBuffer.length, nextBuffer);
+            writeInternal(area, areaNumber, offset, subBuffer, deadline);
+            // chunk boundary, let waiting requests of a higher class go first
+            this.loop.preempt();
+            writeInternal(area, areaNumber, offset + subBuffer.length, nextBuffer, deadline);
 
         } else {
-            // Single write operation - lock already held
-            final int ret = this.dc.writeBytes(area, areaNumber, offset, buffer.length, buffer);
+            // Single write operation, abort between chunks when the deadline passed
+            deadline.check("before writing " + buffer.length + " bytes at offset " + offset);
+            final int ret = this.dc.writeBytes(area, areaNumber, offset, buffer.length, buffer, deadline);
             // Check return-value
             checkResult(ret);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final List<S7WriteItem> items, final Duration timeout) throws IOException, InterruptedException {
+        if (items == null) {
+            throw new IllegalArgumentException("Items must not be null");
+        }
+        if (this.closed) {
+            throw new IllegalStateException("Connection is closed. Cannot perform write operation.");
+        }
+        if (this.dc == null) {
+            throw new IllegalStateException("Connection not initialized. Call init() first or ensure connection is properly established.");
+        }
+        if (items.isEmpty()) {
+            return;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Write request: items={}", items.size());
+        }
+
+        final Deadline deadline = Deadline.after(timeout != null ? timeout : this.defaultTimeout);
+        try {
+            this.call(S7Priority.CONTROL, deadline, () -> {
+                this.writeItems(items, deadline);
+                return null;
+            });
+        } catch (IOException e) {
+            logger.error("IOException during write: items={}, error={}", items.size(), e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the items with as few PDUs as possible, runs on the I/O thread.
+     */
+    private void writeItems(final List<S7WriteItem> items, final Deadline deadline) throws IOException, InterruptedException {
+        final int maxSize = this.getMaxWriteSize();
+        final int pduSize = maxSize + WRITE_OVERHEAD;
+        final List<S7WriteItem> batch = new ArrayList<>();
+        int size = WRITE_HEADER;
+        for (final S7WriteItem item : items) {
+            final int len = item.getData().length;
+            if (len > maxSize) {
+                // too large for a shared PDU, written in chunks on its own
+                this.writeBatch(batch, deadline);
+                batch.clear();
+                size = WRITE_HEADER;
+                this.writeInternal(item.getArea(), item.getAreaNumber(), item.getOffset(), item.getData(), deadline);
+                continue;
+            }
+            // item parameter, data header, data and fill byte
+            final int itemSize = WRITE_OVERHEAD - WRITE_HEADER + len + 1;
+            if (!batch.isEmpty() && size + itemSize > pduSize) {
+                this.writeBatch(batch, deadline);
+                batch.clear();
+                size = WRITE_HEADER;
+            }
+            batch.add(item);
+            size += itemSize;
+        }
+        this.writeBatch(batch, deadline);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBitWriteSupported() {
+        return true;
+    }
+
+    /**
+     * Writes the items with one PDU, runs on the I/O thread.
+     */
+    private void writeBatch(final List<S7WriteItem> batch, final Deadline deadline) throws IOException, InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1 && !batch.get(0).isBit()) {
+            final S7WriteItem item = batch.get(0);
+            this.writeInternal(item.getArea(), item.getAreaNumber(), item.getOffset(), item.getData(), deadline);
+            return;
+        }
+
+        deadline.check("before writing " + batch.size() + " items");
+        final int[] results = new int[batch.size()];
+        checkResult(this.dc.writeItems(batch, results, deadline));
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != Nodave.RESULT_OK) {
+                final String msg = Nodave.strerror(results[i]);
+                logger.error("PLC rejected write item {}: result code {}: {}", batch.get(i), results[i], msg);
+                throw new IllegalArgumentException("Result: " + msg + " (item " + batch.get(i) + ")");
+            }
+        }
+    }
+
+    /**
+     * Returns the request scheduler of this connection
+     */
+    public S7RequestScheduler<?> getScheduler() {
+        return this.loop.getScheduler();
+    }
+
+    /**
+     * Runs the job on the I/O thread and waits for its outcome; waiting for
+     * the I/O thread ends at the deadline. The class and group come from the
+     * caller's {@link S7RequestScope}, the class defaults to the given one.
+     */
+    private <T> T call(final S7Priority defaultPriority, final Deadline deadline, final S7IoLoop.Job<T> job) throws IOException, InterruptedException {
+        final S7RequestScope scope = S7RequestScope.current();
+        final S7Priority priority = scope != null && scope.getPriority() != null ? scope.getPriority() : defaultPriority;
+        final String group = scope != null ? scope.getGroup() : S7RequestScope.DEFAULT_GROUP;
+        final S7Connection connection = this.dc;
+        final long submitted = System.nanoTime();
+        try {
+            return this.loop.call(priority, group, deadline, () -> {
+                if (deadline.isExpired()) {
+                    // picked up too late, nothing was sent yet
+                    throw deadline.exceededLocally("waiting for the connection");
+                }
+                connection.acquireBuffers();
+                final RequestTiming timing = this.beginTiming(connection, submitted);
+                try {
+                    return job.run();
+                } finally {
+                    this.endTiming(connection, timing, priority, group);
+                }
+            });
+        } catch (final IOException e) {
+            this.failed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the timing of a request picked up by the I/O thread
+     */
+    private RequestTiming beginTiming(final S7Connection connection, final long submitted) {
+        if (this.timingDepth == this.timings.length) {
+            this.timings = Arrays.copyOf(this.timings, this.timingDepth + 1);
+            this.timings[this.timingDepth] = new RequestTiming();
+        }
+        final RequestTiming timing = this.timings[this.timingDepth++];
+        timing.begin(submitted);
+        connection.setRequestTiming(timing);
+        return timing;
+    }
+
+    /**
+     * Completes the timing of a request and reports it
+     */
+    private void endTiming(final S7Connection connection, final RequestTiming timing, final S7Priority priority,
+                           final String group) {
+        timing.mark(RequestTiming.DECODE);
+        this.timingDepth--;
+        final RequestTiming preempted = this.timingDepth > 0 ? this.timings[this.timingDepth - 1] : null;
+        if (preempted != null) {
+            // the preempted request waited for this one
+            preempted.mark(RequestTiming.QUEUE);
+        }
+        connection.setRequestTiming(preempted);
+
+        final S7Metrics metrics = this.loop.getScheduler().getMetrics();
+        for (int i = 0; i < RequestTiming.STAGES; i++) {
+            metrics.timing(STAGE_METRICS[i], timing.getNanos(i));
+        }
+        metrics.timing(TOTAL_METRIC, timing.getTotalNanos());
+        final long slow = this.slowRequestNanos;
+        if (slow > 0 && timing.getTotalNanos() >= slow) {
+            metrics.increment(METRIC_SLOW, 1);
+            logger.warn("Slow {} request of group '{}': {}", priority, group, timing);
+        }
+    }
+
+    /**
+     * Called when a request failed with an IOException, e.g. to keep a trace
+     *
+     * @param e the failure
+     */
+    protected void failed(final IOException e) {
+    }
+
     /**
      * Marks this connection as closed. Should be called by subclasses in their close() implementation.
      * This prevents any further read/write operations on the connection.
@@ -288,6 +833,7 @@ public abstract class S7BaseConnection implements S7Connector {
      */
     protected void markAsClosed() {
         this.closed = true;
+        this.loop.stop();
         logger.debug("Connection marked as closed");
     }
 
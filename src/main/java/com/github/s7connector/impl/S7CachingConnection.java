@@ -0,0 +1,542 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7WriteItem;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-through cache of the PLC process image.
+ * <p>
+ * Recently read byte ranges are kept per area and area number as
+ * non-overlapping intervals. A read fully covered by intervals younger than
+ * the max-age is served from the cache; otherwise the missing sub-ranges are
+ * fetched from the PLC in one request: the whole span if it fits a PDU, a
+ * multi-item read of the sub-ranges otherwise. Successful writes update the cache, so a component
+ * reads its own writes. The cached bytes are limited by a memory budget, the
+ * least recently used intervals are evicted first.
+ * <p>
+ * Changes made by the PLC program become visible after at most max-age.
+ */
+public final class S7CachingConnection implements S7Connector {
+
+    /**
+     * Metric: reads served from the cache completely
+     */
+    public static final String METRIC_HIT = "s7.cache.hit";
+
+    /**
+     * Metric: reads needing at least one request to the PLC
+     */
+    public static final String METRIC_MISS = "s7.cache.miss";
+
+    /**
+     * Metric: bytes currently cached
+     */
+    public static final String METRIC_BYTES = "s7.cache.bytes";
+
+    /**
+     * Area and area number of a cached interval
+     */
+    private static final class Key {
+        final DaveArea area;
+        final int areaNumber;
+
+        Key(final DaveArea area, final int areaNumber) {
+            this.area = area;
+            this.areaNumber = areaNumber;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return this.area == other.area && this.areaNumber == other.areaNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.area.hashCode() + this.areaNumber;
+        }
+    }
+
+    /**
+     * Cached bytes [start, start + data.length)
+     */
+    private static final class Interval {
+        final Key key;
+        final int start;
+        final byte[] data;
+        final long fetchedAt;
+
+        Interval(final Key key, final int start, final byte[] data, final long fetchedAt) {
+            this.key = key;
+            this.start = start;
+            this.data = data;
+            this.fetchedAt = fetchedAt;
+        }
+
+        int end() {
+            return this.start + this.data.length;
+        }
+    }
+
+    /**
+     * Missing range of a read, with its data once fetched
+     */
+    private static final class Gap {
+        final int start;
+        final int length;
+        final byte[] data;
+
+        Gap(final int start, final int length) {
+            this(start, length, null);
+        }
+
+        Gap(final int start, final int length, final byte[] data) {
+            this.start = start;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    private final S7Connector delegate;
+
+    private final long maxAgeNanos;
+
+    private final long maxBytes;
+
+    private final S7Metrics metrics;
+
+    /**
+     * Guards all fields below, never held during I/O
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Intervals per area by start offset
+     */
+    private final Map<Key, TreeMap<Integer, Interval>> areas = new HashMap<>();
+
+    /**
+     * All intervals in access order, eldest first
+     */
+    private final LinkedHashMap<Interval, Interval> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long cachedBytes = 0;
+
+    /**
+     * Incremented by every write, fetched data is only cached if no write
+     * happened in between
+     */
+    private long writeSequence = 0;
+
+    /**
+     * Wraps the given connection
+     *
+     * @param delegate the connection
+     * @param maxAge   millis a cached interval is served (must be positive)
+     * @param maxBytes memory budget for cached data in bytes (must be positive)
+     * @param metrics  the metrics sink
+     */
+    public S7CachingConnection(final S7Connector delegate, final int maxAge, final long maxBytes, final S7Metrics metrics) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate must not be null");
+        }
+        if (maxAge <= 0) {
+            throw new IllegalArgumentException("Max age must be positive, but was: " + maxAge);
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes must be positive, but was: " + maxBytes);
+        }
+        this.delegate = delegate;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAge);
+        this.maxBytes = maxBytes;
+        this.metrics = metrics == null ? S7Metrics.NONE : metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException, InterruptedException {
+        return this.read(area, areaNumber, bytes, offset, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset, final Duration timeout) throws IOException, InterruptedException {
+        if (area == null || bytes <= 0 || offset < 0 || offset > Integer.MAX_VALUE - bytes) {
+            // let the connection report invalid arguments
+            return this.delegate.read(area, areaNumber, bytes, offset, timeout);
+        }
+
+        final Key key = new Key(area, areaNumber);
+        final byte[] result = new byte[bytes];
+        final List<Gap> gaps;
+        final long sequence;
+        this.lock.lock();
+        try {
+            gaps = this.lookup(key, offset, result, System.nanoTime());
+            sequence = this.writeSequence;
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (gaps.isEmpty()) {
+            this.metrics.increment(METRIC_HIT, 1);
+            return result;
+        }
+        this.metrics.increment(METRIC_MISS, 1);
+
+        final long fetchedAt = System.nanoTime();
+        final List<Gap> fetchedGaps = this.fetch(area, areaNumber, gaps, timeout);
+        for (final Gap gap : fetchedGaps) {
+            // a fetched span may start before the requested offset
+            final int from = Math.max(gap.start, offset);
+            final int to = Math.min(gap.start + gap.length, offset + bytes);
+            System.arraycopy(gap.data, from - gap.start, result, from - offset, to - from);
+        }
+
+        this.lock.lock();
+        try {
+            if (this.writeSequence == sequence) {
+                for (final Gap gap : fetchedGaps) {
+                    this.insert(key, gap.start, gap.data, fetchedAt);
+                }
+                this.evict();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Reads the missing ranges with a single request where possible: one
+     * read of the whole span if it fits a PDU, one multi-item read otherwise
+     *
+     * @return the fetched ranges with their data
+     */
+    private List<Gap> fetch(final DaveArea area, final int areaNumber, final List<Gap> gaps, final Duration timeout)
+        throws IOException, InterruptedException {
+        final Gap first = gaps.get(0);
+        final Gap last = gaps.get(gaps.size() - 1);
+        final int span = last.start + last.length - first.start;
+        if (gaps.size() == 1 || span <= this.delegate.getMaxReadSize()) {
+            final byte[] data = this.delegate.read(area, areaNumber, span, first.start, timeout);
+            return Collections.singletonList(new Gap(first.start, span, data));
+        }
+
+        final List<S7ReadItem> items = new ArrayList<>(gaps.size());
+        for (final Gap gap : gaps) {
+            items.add(new S7ReadItem(area, areaNumber, gap.start, gap.length));
+        }
+        final List<byte[]> data = this.delegate.read(items, timeout);
+        final List<Gap> fetched = new ArrayList<>(gaps.size());
+        for (int i = 0; i < gaps.size(); i++) {
+            fetched.add(new Gap(gaps.get(i).start, gaps.get(i).length, data.get(i)));
+        }
+        return fetched;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<byte[]> read(final List<S7ReadItem> items, final Duration timeout) throws IOException, InterruptedException {
+        return this.delegate.read(items, timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public S7PreparedRead prepare(final List<S7ReadItem> items) {
+        return this.delegate.prepare(items);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException, InterruptedException {
+        this.write(area, areaNumber, offset, buffer, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer, final Duration timeout) throws IOException, InterruptedException {
+        boolean success = false;
+        try {
+            this.delegate.write(area, areaNumber, offset, buffer, timeout);
+            success = true;
+        } finally {
+            if (area != null && buffer != null && buffer.length > 0 && offset >= 0
+                && offset <= Integer.MAX_VALUE - buffer.length) {
+                this.written(Collections.singletonList(new S7WriteItem(area, areaNumber, offset, buffer)), success);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final List<S7WriteItem> items, final Duration timeout) throws IOException, InterruptedException {
+        boolean success = false;
+        try {
+            this.delegate.write(items, timeout);
+            success = true;
+        } finally {
+            if (items != null) {
+                this.written(items, success);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBitWriteSupported() {
+        return this.delegate.isBitWriteSupported();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxReadSize() {
+        return this.delegate.getMaxReadSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxWriteSize() {
+        return this.delegate.getMaxWriteSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.invalidate();
+        this.delegate.close();
+    }
+
+    /**
+     * Drops all cached data
+     */
+    public void invalidate() {
+        this.lock.lock();
+        try {
+            this.areas.clear();
+            this.lru.clear();
+            this.cachedBytes = 0;
+            this.writeSequence++;
+            this.metrics.gauge(METRIC_BYTES, 0);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of cached bytes
+     */
+    public long getCachedBytes() {
+        this.lock.lock();
+        try {
+            return this.cachedBytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the cache after a write, dropping the ranges if it failed
+     */
+    private void written(final List<S7WriteItem> items, final boolean success) {
+        this.lock.lock();
+        try {
+            this.writeSequence++;
+            final long now = System.nanoTime();
+            for (final S7WriteItem item : items) {
+                final Key key = new Key(item.getArea(), item.getAreaNumber());
+                if (success && !item.isBit()) {
+                    this.insert(key, item.getOffset(), item.getData().clone(), now);
+                } else {
+                    // the PLC may or may not have taken the data, a bit leaves the rest of its byte unknown
+                    this.remove(key, item.getOffset(), item.getOffset() + item.getData().length);
+                }
+            }
+            this.evict();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Copies fresh cached data of [offset, offset + result.length) into result,
+     * lock must be held
+     *
+     * @return the ranges not covered by fresh data
+     */
+    private List<Gap> lookup(final Key key, final int offset, final byte[] result, final long now) {
+        final List<Gap> gaps = new ArrayList<>();
+        final int end = offset + result.length;
+        final TreeMap<Integer, Interval> intervals = this.areas.get(key);
+        int pos = offset;
+        if (intervals != null) {
+            final Integer first = intervals.floorKey(offset);
+            final Iterator<Interval> it = intervals.tailMap(first != null ? first : offset).values().iterator();
+            while (it.hasNext() && pos < end) {
+                final Interval interval = it.next();
+                if (interval.start >= end) {
+                    break;
+                }
+                if (interval.end() <= pos) {
+                    continue;
+                }
+                if (now - interval.fetchedAt > this.maxAgeNanos) {
+                    it.remove();
+                    this.lru.remove(interval);
+                    this.cachedBytes -= interval.data.length;
+                    this.metrics.gauge(METRIC_BYTES, this.cachedBytes);
+                    continue;
+                }
+                if (interval.start > pos) {
+                    gaps.add(new Gap(pos, interval.start - pos));
+                    pos = interval.start;
+                }
+                final int len = Math.min(end, interval.end()) - pos;
+                System.arraycopy(interval.data, pos - interval.start, result, pos - offset, len);
+                this.lru.get(interval);
+                pos += len;
+            }
+        }
+        if (pos < end) {
+            gaps.add(new Gap(pos, end - pos));
+        }
+        return gaps;
+    }
+
+    /**
+     * Stores data at start, replacing overlapping parts of older intervals,
+     * lock must be held
+     */
+    private void insert(final Key key, final int start, final byte[] data, final long fetchedAt) {
+        this.remove(key, start, start + data.length);
+        this.put(new Interval(key, start, data, fetchedAt));
+    }
+
+    /**
+     * Removes [start, end), trimming intervals reaching beyond, lock must be held
+     */
+    private void remove(final Key key, final int start, final int end) {
+        final TreeMap<Integer, Interval> intervals = this.areas.get(key);
+        if (intervals == null) {
+            return;
+        }
+        final Integer first = intervals.floorKey(start);
+        final List<Interval> overlapping = new ArrayList<>();
+        for (final Interval interval : intervals.subMap(first != null ? first : start, end).values()) {
+            if (interval.end() > start) {
+                overlapping.add(interval);
+            }
+        }
+        for (final Interval interval : overlapping) {
+            intervals.remove(interval.start);
+            this.lru.remove(interval);
+            this.cachedBytes -= interval.data.length;
+            if (interval.start < start) {
+                this.put(new Interval(key, interval.start,
+                    copy(interval.data, 0, start - interval.start), interval.fetchedAt));
+            }
+            if (interval.end() > end) {
+                this.put(new Interval(key, end,
+                    copy(interval.data, end - interval.start, interval.end() - end), interval.fetchedAt));
+            }
+        }
+        if (intervals.isEmpty()) {
+            this.areas.remove(key);
+        }
+    }
+
+    /**
+     * Adds an interval not overlapping any other, lock must be held
+     */
+    private void put(final Interval interval) {
+        TreeMap<Integer, Interval> intervals = this.areas.get(interval.key);
+        if (intervals == null) {
+            intervals = new TreeMap<>();
+            this.areas.put(interval.key, intervals);
+        }
+        intervals.put(interval.start, interval);
+        this.lru.put(interval, interval);
+        this.cachedBytes += interval.data.length;
+    }
+
+    /**
+     * Evicts least recently used intervals until the budget is met, lock must be held
+     */
+    private void evict() {
+        final Iterator<Interval> it = this.lru.keySet().iterator();
+        while (this.cachedBytes > this.maxBytes && it.hasNext()) {
+            final Interval eldest = it.next();
+            it.remove();
+            this.cachedBytes -= eldest.data.length;
+            final TreeMap<Integer, Interval> intervals = this.areas.get(eldest.key);
+            intervals.remove(eldest.start);
+            if (intervals.isEmpty()) {
+                this.areas.remove(eldest.key);
+            }
+        }
+        this.metrics.gauge(METRIC_BYTES, this.cachedBytes);
+    }
+
+    private static byte[] copy(final byte[] data, final int from, final int length) {
+        final byte[] part = new byte[length];
+        System.arraycopy(data, from, part, 0, length);
+        return part;
+    }
+}
@@ -0,0 +1,411 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.exception.CircuitOpenException;
+import com.github.s7connector.exception.DeadlineExceededException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Circuit breaker around a connection to a single PLC.
+ * <p>
+ * After {@code failureThreshold} consecutive I/O failures the circuit opens and
+ * every request fails immediately with a {@link CircuitOpenException} for the
+ * cool-down period, instead of queueing behind the connection lock until the
+ * socket times out. After the cool-down a single probe request is let through
+ * (half-open): success closes the circuit, failure opens it again.
+ * <p>
+ * Only {@link IOException}s count as failures, invalid arguments or item errors
+ * reported by the PLC do not. Neither do deadlines passing in local waits
+ * (connection queue, pool, concurrency limit) before the request reached the
+ * transport: a busy but healthy PLC must not open the circuit.
+ */
+public final class S7CircuitBreakerConnection implements S7Connector {
+
+    private static final Logger logger = LoggerFactory.getLogger(S7CircuitBreakerConnection.class);
+
+    /**
+     * Metric: current state, see {@link State#ordinal()}
+     */
+    public static final String METRIC_STATE = "s7.circuit.state";
+
+    /**
+     * Metric: requests rejected while open
+     */
+    public static final String METRIC_REJECTED = "s7.circuit.rejected";
+
+    /**
+     * Metric: transitions to open
+     */
+    public static final String METRIC_OPENED = "s7.circuit.opened";
+
+    /**
+     * Circuit breaker states
+     */
+    public enum State {
+        /**
+         * Requests pass through
+         */
+        CLOSED,
+        /**
+         * Requests are rejected until the cool-down has elapsed
+         */
+        OPEN,
+        /**
+         * A single probe request is in flight, others are rejected
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * A multi-item read sent through the breaker
+     */
+    @FunctionalInterface
+    private interface ItemsRead {
+        List<byte[]> read(Duration timeout) throws IOException, InterruptedException;
+    }
+
+    /**
+     * The wrapped connection
+     */
+    private final S7Connector delegate;
+
+    /**
+     * Consecutive failures before opening
+     */
+    private final int failureThreshold;
+
+    /**
+     * Cool-down in nanos
+     */
+    private final long openNanos;
+
+    /**
+     * The metrics sink
+     */
+    private final S7Metrics metrics;
+
+    /**
+     * Guards the state fields, never held during I/O
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures = 0;
+
+    private long openedAt;
+
+    private boolean probeInFlight = false;
+
+    /**
+     * Wraps the given connection
+     *
+     * @param delegate         the connection to protect
+     * @param failureThreshold consecutive failures before opening (must be positive)
+     * @param openMillis       cool-down in millis before a probe is allowed
+     * @param metrics          the metrics sink
+     */
+    public S7CircuitBreakerConnection(final S7Connector delegate, final int failureThreshold, final int openMillis,
+                                      final S7Metrics metrics) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate must not be null");
+        }
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("Failure threshold must be positive, but was: " + failureThreshold);
+        }
+        if (openMillis < 0) {
+            throw new IllegalArgumentException("Open time must be non-negative, but was: " + openMillis);
+        }
+        this.delegate = delegate;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.metrics = metrics == null ? S7Metrics.NONE : metrics;
+        this.metrics.gauge(METRIC_STATE, State.CLOSED.ordinal());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException, InterruptedException {
+        return this.read(area, areaNumber, bytes, offset, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset, final Duration timeout) throws IOException, InterruptedException {
+        final boolean probe = this.beforeRequest();
+        boolean success = false;
+        try {
+            final byte[] result = this.delegate.read(area, areaNumber, bytes, offset, timeout);
+            success = true;
+            return result;
+        } catch (final IOException e) {
+            this.onFailure(e);
+            throw e;
+        } finally {
+            this.afterRequest(probe, success);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<byte[]> read(final List<S7ReadItem> items, final Duration timeout) throws IOException, InterruptedException {
+        return this.readItems(t -> this.delegate.read(items, t), timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read is prepared by the wrapped connection, each execution passes
+     * the breaker.
+     */
+    @Override
+    public S7PreparedRead prepare(final List<S7ReadItem> items) {
+        final S7PreparedRead prepared = this.delegate.prepare(items);
+        return new S7PreparedRead() {
+            @Override
+            public List<S7ReadItem> getItems() {
+                return prepared.getItems();
+            }
+
+            @Override
+            public List<byte[]> read(final Duration timeout) throws IOException, InterruptedException {
+                return S7CircuitBreakerConnection.this.readItems(prepared::read, timeout);
+            }
+        };
+    }
+
+    /**
+     * Reads items through the breaker
+     */
+    private List<byte[]> readItems(final ItemsRead read, final Duration timeout) throws IOException, InterruptedException {
+        final boolean probe = this.beforeRequest();
+        boolean success = false;
+        try {
+            final List<byte[]> result = read.read(timeout);
+            success = true;
+            return result;
+        } catch (final IOException e) {
+            this.onFailure(e);
+            throw e;
+        } finally {
+            this.afterRequest(probe, success);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException, InterruptedException {
+        this.write(area, areaNumber, offset, buffer, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer, final Duration timeout) throws IOException, InterruptedException {
+        final boolean probe = this.beforeRequest();
+        boolean success = false;
+        try {
+            this.delegate.write(area, areaNumber, offset, buffer, timeout);
+            success = true;
+        } catch (final IOException e) {
+            this.onFailure(e);
+            throw e;
+        } finally {
+            this.afterRequest(probe, success);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final List<S7WriteItem> items, final Duration timeout) throws IOException, InterruptedException {
+        final boolean probe = this.beforeRequest();
+        boolean success = false;
+        try {
+            this.delegate.write(items, timeout);
+            success = true;
+        } catch (final IOException e) {
+            this.onFailure(e);
+            throw e;
+        } finally {
+            this.afterRequest(probe, success);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBitWriteSupported() {
+        return this.delegate.isBitWriteSupported();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxReadSize() {
+        return this.delegate.getMaxReadSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxWriteSize() {
+        return this.delegate.getMaxWriteSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.delegate.close();
+    }
+
+    /**
+     * Returns the current state
+     */
+    public State getState() {
+        this.lock.lock();
+        try {
+            return this.state;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of consecutive failures
+     */
+    public int getConsecutiveFailures() {
+        this.lock.lock();
+        try {
+            return this.consecutiveFailures;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Admits or rejects a request
+     *
+     * @return true if the admitted request is the half-open probe
+     */
+    private boolean beforeRequest() throws CircuitOpenException {
+        this.lock.lock();
+        try {
+            if (this.state == State.CLOSED) {
+                return false;
+            }
+            if (this.state == State.OPEN) {
+                final long remaining = this.openNanos - (System.nanoTime() - this.openedAt);
+                if (remaining > 0) {
+                    this.metrics.increment(METRIC_REJECTED, 1);
+                    throw new CircuitOpenException("Circuit open after " + this.consecutiveFailures
+                        + " consecutive failures, retry in " + TimeUnit.NANOSECONDS.toMillis(remaining) + "ms",
+                        TimeUnit.NANOSECONDS.toMillis(remaining));
+                }
+                this.transition(State.HALF_OPEN);
+            }
+            if (this.probeInFlight) {
+                this.metrics.increment(METRIC_REJECTED, 1);
+                throw new CircuitOpenException("Circuit half-open, probe request in flight", 0);
+            }
+            this.probeInFlight = true;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Records an I/O failure, unless the request never reached the transport
+     */
+    private void onFailure(final IOException e) {
+        if (e instanceof DeadlineExceededException && ((DeadlineExceededException) e).isLocal()) {
+            logger.debug("Not counting local deadline as failure: {}", e.getMessage());
+            return;
+        }
+        this.lock.lock();
+        try {
+            this.consecutiveFailures++;
+            if (this.state == State.HALF_OPEN
+                || (this.state == State.CLOSED && this.consecutiveFailures >= this.failureThreshold)) {
+                logger.warn("Opening circuit after {} consecutive failures, last: {}", this.consecutiveFailures, e.getMessage());
+                this.openedAt = System.nanoTime();
+                this.metrics.increment(METRIC_OPENED, 1);
+                this.transition(State.OPEN);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the probe slot, closes the circuit if the probe succeeded
+     */
+    private void afterRequest(final boolean probe, final boolean success) {
+        this.lock.lock();
+        try {
+            if (probe) {
+                this.probeInFlight = false;
+            }
+            if (success && (probe || this.state == State.CLOSED)) {
+                this.consecutiveFailures = 0;
+                if (this.state != State.CLOSED) {
+                    logger.info("Closing circuit, probe request succeeded");
+                    this.transition(State.CLOSED);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the state, lock must be held
+     */
+    private void transition(final State newState) {
+        this.state = newState;
+        this.metrics.gauge(METRIC_STATE, newState.ordinal());
+    }
+}
@@ -0,0 +1,507 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.impl.utils.Deadline;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces concurrent reads of the same area (single-flight).
+ * <p>
+ * A read covered by a request already in flight waits for that request and
+ * gets its slice. A read not covered is queued behind the running request;
+ * further reads arriving meanwhile are merged into the queued one as long as
+ * the merged range stays within {@code maxSpan} bytes, and the queued request
+ * is sent as one covering read once the running one completes. Each merged
+ * read saves a request, counted as {@link #METRIC_SAVED}.
+ * <p>
+ * Once the queued request may be sent, the first of its readers still waiting
+ * sends it. A reader whose deadline passes or who is interrupted while
+ * waiting leaves the request to the others; a queued request left by all its
+ * readers is dropped.
+ * <p>
+ * A read never joins a request started before a write through this connector
+ * completed, so callers see their own writes. Joined readers share the
+ * outcome, including a failure, of the covering request.
+ */
+public final class S7CoalescingConnection implements S7Connector {
+
+    /**
+     * Metric: reads answered by another caller's request
+     */
+    public static final String METRIC_SAVED = "s7.coalesce.saved";
+
+    /**
+     * Area and area number of a flight
+     */
+    private static final class Key {
+        final DaveArea area;
+        final int areaNumber;
+
+        Key(final DaveArea area, final int areaNumber) {
+            this.area = area;
+            this.areaNumber = areaNumber;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return this.area == other.area && this.areaNumber == other.areaNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.area.hashCode() + this.areaNumber;
+        }
+    }
+
+    /**
+     * A read request shared by several callers, fields guarded by the lock
+     */
+    private static final class Flight {
+        int start;
+        int end;
+        /**
+         * Completed writes when the request was sent
+         */
+        long writes;
+        /**
+         * Callers waiting for the flight
+         */
+        int waiters;
+        /**
+         * Set once a caller sends the request
+         */
+        boolean claimed;
+        boolean done;
+        byte[] data;
+        Exception failure;
+
+        Flight(final int start, final int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Running and queued flight of one area
+     */
+    private static final class Lane {
+        Flight running;
+        Flight queued;
+    }
+
+    private final S7Connector delegate;
+
+    /**
+     * Largest range of a queued read, 0 for the negotiated PDU
+     */
+    private final int maxSpan;
+
+    private final S7Metrics metrics;
+
+    private final AtomicLong saved = new AtomicLong();
+
+    /**
+     * Guards lanes, flights and completedWrites, never held during I/O
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a flight completes
+     */
+    private final Condition completed = this.lock.newCondition();
+
+    private final Map<Key, Lane> lanes = new HashMap<>();
+
+    private long completedWrites = 0;
+
+    /**
+     * Wraps the given connection, queued reads are widened up to a PDU as
+     * negotiated by the connection
+     *
+     * @param delegate the connection
+     * @param metrics  the metrics sink
+     */
+    public S7CoalescingConnection(final S7Connector delegate, final S7Metrics metrics) {
+        this(delegate, 0, metrics, true);
+    }
+
+    /**
+     * Wraps the given connection
+     *
+     * @param delegate the connection
+     * @param maxSpan  largest range a queued read is widened to, in bytes
+     * @param metrics  the metrics sink
+     */
+    public S7CoalescingConnection(final S7Connector delegate, final int maxSpan, final S7Metrics metrics) {
+        this(delegate, maxSpan, metrics, false);
+    }
+
+    private S7CoalescingConnection(final S7Connector delegate, final int maxSpan, final S7Metrics metrics, final boolean negotiated) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate must not be null");
+        }
+        if (!negotiated && maxSpan <= 0) {
+            throw new IllegalArgumentException("Max span must be positive, but was: " + maxSpan);
+        }
+        this.delegate = delegate;
+        this.maxSpan = maxSpan;
+        this.metrics = metrics == null ? S7Metrics.NONE : metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException, InterruptedException {
+        return this.read(area, areaNumber, bytes, offset, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset, final Duration timeout) throws IOException, InterruptedException {
+        if (area == null || bytes <= 0 || offset < 0 || offset > Integer.MAX_VALUE - bytes) {
+            // let the connection report invalid arguments
+            return this.delegate.read(area, areaNumber, bytes, offset, timeout);
+        }
+
+        final Deadline deadline = Deadline.after(timeout);
+        final Key key = new Key(area, areaNumber);
+        final int end = offset + bytes;
+        final int maxSpan = this.maxSpan > 0 ? this.maxSpan : this.delegate.getMaxReadSize();
+        final Flight flight;
+        boolean created = false;
+
+        this.lock.lock();
+        try {
+            Lane lane = this.lanes.get(key);
+            if (lane == null) {
+                lane = new Lane();
+                this.lanes.put(key, lane);
+            }
+
+            final Flight running = lane.running;
+            if (running == null) {
+                flight = new Flight(offset, end);
+                this.start(lane, flight);
+                created = true;
+            } else if (running.writes == this.completedWrites && running.start <= offset && end <= running.end) {
+                flight = running;
+            } else if (lane.queued == null) {
+                flight = new Flight(offset, end);
+                lane.queued = flight;
+                created = true;
+            } else if (Math.max(end, lane.queued.end) - Math.min(offset, lane.queued.start) <= maxSpan) {
+                flight = lane.queued;
+                flight.start = Math.min(offset, flight.start);
+                flight.end = Math.max(end, flight.end);
+            } else {
+                flight = null;
+            }
+
+            if (flight != null) {
+                flight.waiters++;
+                if (!created) {
+                    this.saved.incrementAndGet();
+                    this.metrics.increment(METRIC_SAVED, 1);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (flight == null) {
+            // does not fit the queued request, read on its own
+            return this.delegate.read(area, areaNumber, bytes, offset, timeout);
+        }
+
+        if (this.await(key, flight, deadline)) {
+            this.execute(key, flight, deadline);
+        }
+        return this.slice(flight, offset, bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<byte[]> read(final List<S7ReadItem> items, final Duration timeout) throws IOException, InterruptedException {
+        return this.delegate.read(items, timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public S7PreparedRead prepare(final List<S7ReadItem> items) {
+        return this.delegate.prepare(items);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException, InterruptedException {
+        this.write(area, areaNumber, offset, buffer, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer, final Duration timeout) throws IOException, InterruptedException {
+        try {
+            this.delegate.write(area, areaNumber, offset, buffer, timeout);
+        } finally {
+            this.writeCompleted();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final List<S7WriteItem> items, final Duration timeout) throws IOException, InterruptedException {
+        try {
+            this.delegate.write(items, timeout);
+        } finally {
+            this.writeCompleted();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBitWriteSupported() {
+        return this.delegate.isBitWriteSupported();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxReadSize() {
+        return this.delegate.getMaxReadSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxWriteSize() {
+        return this.delegate.getMaxWriteSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.delegate.close();
+    }
+
+    /**
+     * Returns the number of reads answered by another caller's request
+     */
+    public long getSavedRequests() {
+        return this.saved.get();
+    }
+
+    /**
+     * Keeps later reads from joining requests started before this write
+     */
+    private void writeCompleted() {
+        this.lock.lock();
+        try {
+            this.completedWrites++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the flight is done or may be sent by the caller
+     *
+     * @return true if the caller has to send the request
+     */
+    private boolean await(final Key key, final Flight flight, final Deadline deadline) throws DeadlineExceededException, InterruptedException {
+        this.lock.lock();
+        try {
+            while (!flight.done) {
+                try {
+                    if (!flight.claimed && this.lanes.get(key).running == flight) {
+                        // a caller out of time leaves the request to the others
+                        if (deadline.isExpired()) {
+                            throw deadline.exceededLocally("waiting for a coalesced read");
+                        }
+                        flight.claimed = true;
+                        return true;
+                    }
+                    if (!deadline.isBounded()) {
+                        this.completed.await();
+                    } else {
+                        final long remaining = deadline.remainingNanos();
+                        if (remaining <= 0) {
+                            throw deadline.exceededLocally("waiting for a coalesced read");
+                        }
+                        this.completed.awaitNanos(remaining);
+                    }
+                } catch (final DeadlineExceededException | InterruptedException e) {
+                    this.leave(key, flight);
+                    throw e;
+                }
+            }
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a caller giving up on the flight; a flight nobody waits for is
+     * dropped before it is sent, lock must be held
+     */
+    private void leave(final Key key, final Flight flight) {
+        flight.waiters--;
+        if (flight.claimed || flight.done) {
+            return;
+        }
+        final Lane lane = this.lanes.get(key);
+        if (flight.waiters > 0) {
+            if (lane.running == flight) {
+                // let another caller send it
+                this.completed.signalAll();
+            }
+            return;
+        }
+        if (lane.queued == flight) {
+            lane.queued = null;
+        } else if (lane.running == flight) {
+            // started but not sent yet
+            flight.done = true;
+            this.advance(key, lane);
+        }
+    }
+
+    /**
+     * Starts the queued flight of the lane after the running one completed,
+     * lock must be held
+     */
+    private void advance(final Key key, final Lane lane) {
+        if (lane.queued != null) {
+            final Flight next = lane.queued;
+            lane.queued = null;
+            this.start(lane, next);
+        } else {
+            lane.running = null;
+            this.lanes.remove(key);
+        }
+        this.completed.signalAll();
+    }
+
+    /**
+     * Marks the flight as running, lock must be held
+     */
+    private void start(final Lane lane, final Flight flight) {
+        flight.writes = this.completedWrites;
+        lane.running = flight;
+    }
+
+    /**
+     * Sends the covering request and completes the flight
+     */
+    private void execute(final Key key, final Flight flight, final Deadline deadline) throws InterruptedException {
+        final int start;
+        final int end;
+        this.lock.lock();
+        try {
+            // the range is fixed once the flight is running
+            start = flight.start;
+            end = flight.end;
+        } finally {
+            this.lock.unlock();
+        }
+
+        byte[] data = null;
+        Exception failure = null;
+        try {
+            data = this.delegate.read(key.area, key.areaNumber, end - start, start, deadline.remaining());
+        } catch (final IOException | RuntimeException e) {
+            failure = e;
+        } catch (final InterruptedException e) {
+            failure = new IOException("Coalesced read was interrupted", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            this.lock.lock();
+            try {
+                flight.data = data;
+                flight.failure = failure;
+                flight.done = true;
+                this.advance(key, this.lanes.get(key));
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Returns the caller's part of the data of the completed flight
+     */
+    private byte[] slice(final Flight flight, final int offset, final int bytes) throws IOException {
+        final int start;
+        this.lock.lock();
+        try {
+            start = flight.start;
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (flight.failure instanceof IOException) {
+            throw (IOException) flight.failure;
+        }
+        if (flight.failure != null) {
+            throw (RuntimeException) flight.failure;
+        }
+        final byte[] result = new byte[bytes];
+        System.arraycopy(flight.data, offset - start, result, 0, bytes);
+        return result;
+    }
+}
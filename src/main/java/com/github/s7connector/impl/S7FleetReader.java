@@ -0,0 +1,211 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.impl.utils.Deadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the same items from many PLCs at once.
+ * <p>
+ * Each sweep sends the read plan to every PLC as one multi-item read, at most
+ * {@code parallelism} PLCs at a time, and returns a {@link Snapshot} with the
+ * data of the PLCs that answered and the failure of those that did not. Each
+ * PLC's read is bounded by its own timeout, so a slow or unreachable PLC does
+ * not hold up the others; the sweep as a whole is bounded as well.
+ */
+public final class S7FleetReader implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(S7FleetReader.class);
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    /**
+     * The result of one sweep
+     */
+    public static final class Snapshot {
+        private final long timestamp;
+        private final long durationNanos;
+        private final Map<String, List<byte[]>> results;
+        private final Map<String, Exception> failures;
+
+        Snapshot(final long timestamp, final long durationNanos, final Map<String, List<byte[]>> results,
+                 final Map<String, Exception> failures) {
+            this.timestamp = timestamp;
+            this.durationNanos = durationNanos;
+            this.results = Collections.unmodifiableMap(results);
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * Returns the start of the sweep, in millis since the epoch
+         */
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+
+        /**
+         * Returns the duration of the sweep
+         */
+        public Duration getDuration() {
+            return Duration.ofNanos(this.durationNanos);
+        }
+
+        /**
+         * Returns the data per PLC that answered, one entry per plan item
+         */
+        public Map<String, List<byte[]>> getResults() {
+            return this.results;
+        }
+
+        /**
+         * Returns the failure per PLC that did not answer
+         */
+        public Map<String, Exception> getFailures() {
+            return this.failures;
+        }
+
+        /**
+         * Returns true if every PLC answered
+         */
+        public boolean isComplete() {
+            return this.failures.isEmpty();
+        }
+    }
+
+    private final Map<String, S7Connector> plcs;
+
+    private final int parallelism;
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates a reader for the given PLCs
+     *
+     * @param plcs        the connectors by PLC name, iteration order is kept in the snapshots
+     * @param parallelism PLCs read at the same time
+     */
+    public S7FleetReader(final Map<String, S7Connector> plcs, final int parallelism) {
+        if (plcs == null || plcs.isEmpty()) {
+            throw new IllegalArgumentException("PLCs must not be null or empty");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive, but was: " + parallelism);
+        }
+        this.plcs = new LinkedHashMap<>(plcs);
+        this.parallelism = Math.min(parallelism, plcs.size());
+        final int instance = instances.incrementAndGet();
+        final AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.parallelism, r -> {
+            final Thread thread = new Thread(r, "s7-fleet-" + instance + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reads the plan from all PLCs, the sweep is bounded by the per-PLC
+     * timeout times the number of waves needed at the configured parallelism
+     *
+     * @param plan       the items to read from every PLC
+     * @param plcTimeout the maximum duration of each PLC's read
+     * @return the snapshot
+     */
+    public Snapshot read(final List<S7ReadItem> plan, final Duration plcTimeout) throws InterruptedException {
+        if (plcTimeout == null || plcTimeout.isZero() || plcTimeout.isNegative()) {
+            throw new IllegalArgumentException("PLC timeout must be positive, but was: " + plcTimeout);
+        }
+        final int waves = (this.plcs.size() + this.parallelism - 1) / this.parallelism;
+        return this.read(plan, plcTimeout, plcTimeout.multipliedBy(waves));
+    }
+
+    /**
+     * Reads the plan from all PLCs
+     *
+     * @param plan         the items to read from every PLC
+     * @param plcTimeout   the maximum duration of each PLC's read, from its start
+     * @param sweepTimeout the maximum duration of the sweep, PLCs not done by then are reported as failed
+     * @return the snapshot
+     */
+    public Snapshot read(final List<S7ReadItem> plan, final Duration plcTimeout, final Duration sweepTimeout) throws InterruptedException {
+        if (plan == null || plan.isEmpty()) {
+            throw new IllegalArgumentException("Plan must not be null or empty");
+        }
+        final long timestamp = System.currentTimeMillis();
+        final long start = System.nanoTime();
+        final Deadline sweep = Deadline.after(sweepTimeout);
+
+        final Map<String, Future<List<byte[]>>> futures = new LinkedHashMap<>();
+        for (final Map.Entry<String, S7Connector> plc : this.plcs.entrySet()) {
+            futures.put(plc.getKey(), this.executor.submit(() -> plc.getValue().read(plan, plcTimeout)));
+        }
+
+        final Map<String, List<byte[]>> results = new LinkedHashMap<>();
+        final Map<String, Exception> failures = new LinkedHashMap<>();
+        try {
+            for (final Map.Entry<String, Future<List<byte[]>>> future : futures.entrySet()) {
+                try {
+                    if (sweep.isBounded()) {
+                        results.put(future.getKey(), future.getValue().get(sweep.remainingNanos(), TimeUnit.NANOSECONDS));
+                    } else {
+                        results.put(future.getKey(), future.getValue().get());
+                    }
+                } catch (final ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    failures.put(future.getKey(), cause instanceof Exception ? (Exception) cause : e);
+                } catch (final TimeoutException e) {
+                    future.getValue().cancel(true);
+                    failures.put(future.getKey(), sweep.exceeded("reading " + future.getKey()));
+                }
+            }
+        } catch (final InterruptedException e) {
+            for (final Future<List<byte[]>> future : futures.values()) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+
+        if (!failures.isEmpty() && logger.isDebugEnabled()) {
+            logger.debug("Fleet sweep: {} of {} PLCs failed: {}", failures.size(), this.plcs.size(), failures.keySet());
+        }
+        return new Snapshot(timestamp, System.nanoTime() - start, results, failures);
+    }
+
+    /**
+     * Stops the reader threads, the connectors are not closed
+     */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+}
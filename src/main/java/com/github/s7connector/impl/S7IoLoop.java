@@ -0,0 +1,417 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.S7Priority;
+import com.github.s7connector.impl.utils.Deadline;
+import com.github.s7connector.impl.utils.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The single owner of a connection's I/O.
+ * <p>
+ * Callers hand requests to the I/O thread through a lock-free queue and are
+ * completed by callback; only the I/O thread touches the socket and the
+ * request and answer buffers, so no lock is held around an exchange. The
+ * I/O thread moves arriving requests into the {@link S7RequestScheduler} and
+ * runs them one at a time. Large transfers call {@link #preempt()} at chunk
+ * boundaries, which runs waiting requests of a higher class in between.
+ * <p>
+ * Callers and the I/O thread only park and unpark, they never hold a monitor
+ * while waiting, so the loop works the same with virtual threads on either
+ * side.
+ */
+final class S7IoLoop implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(S7IoLoop.class);
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private static final int QUEUED = 0;
+
+    private static final int RUNNING = 1;
+
+    private static final int CANCELLED = 2;
+
+    /**
+     * Work run on the I/O thread
+     *
+     * @param <T> the result
+     */
+    interface Job<T> {
+        T run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Receives the outcome of a request, called on the I/O thread
+     *
+     * @param <T> the result
+     */
+    interface Callback<T> {
+        void completed(T result, Throwable failure);
+    }
+
+    /**
+     * A request handed to the I/O thread
+     */
+    static final class Request<T> {
+        final S7Priority priority;
+        final String group;
+        final Job<T> job;
+        final Callback<T> callback;
+        final long enqueued = System.nanoTime();
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+        /**
+         * Set by the caller to stop a running transfer at the next chunk boundary
+         */
+        volatile boolean aborted;
+
+        Request(final S7Priority priority, final String group, final Job<T> job, final Callback<T> callback) {
+            this.priority = priority;
+            this.group = group;
+            this.job = job;
+            this.callback = callback;
+        }
+
+        /**
+         * Withdraws the request if the I/O thread has not picked it up yet
+         */
+        boolean cancel() {
+            return this.state.compareAndSet(QUEUED, CANCELLED);
+        }
+
+        boolean isQueued() {
+            return this.state.get() == QUEUED;
+        }
+    }
+
+    /**
+     * Parks the calling thread until the request completed
+     */
+    private static final class Completion<T> implements Callback<T> {
+        final Thread waiter = Thread.currentThread();
+        volatile boolean done;
+        T result;
+        Throwable failure;
+
+        @Override
+        public void completed(final T result, final Throwable failure) {
+            this.result = result;
+            this.failure = failure;
+            this.done = true;
+            LockSupport.unpark(this.waiter);
+        }
+    }
+
+    /**
+     * Requests not yet seen by the I/O thread, many producers, one consumer
+     */
+    private final ConcurrentLinkedQueue<Request<?>> inbox = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Requests withdrawn by their caller while queued, removed from the scheduler by the I/O thread
+     */
+    private final ConcurrentLinkedQueue<Request<?>> withdrawn = new ConcurrentLinkedQueue<>();
+
+    private final S7RequestScheduler<Request<?>> scheduler = new S7RequestScheduler<>();
+
+    /**
+     * The I/O thread, started with the first request
+     */
+    private final AtomicReference<Thread> thread = new AtomicReference<>();
+
+    private volatile boolean ready = false;
+
+    private volatile boolean stopped = false;
+
+    private volatile boolean virtual = false;
+
+    /**
+     * Runs on the I/O thread whenever it runs out of requests, and when it stops
+     */
+    private volatile Runnable idleHandler;
+
+    /**
+     * Set while the I/O thread is about to park, producers unpark it
+     */
+    private volatile boolean idle = false;
+
+    /**
+     * Request running on the I/O thread, owned by the I/O thread
+     */
+    private Request<?> current;
+
+    /**
+     * Accepts requests from now on, the connection must not be used by other
+     * threads afterwards. The I/O thread starts with the first request.
+     */
+    void start() {
+        this.ready = true;
+    }
+
+    /**
+     * Runs the I/O thread as a virtual thread if the JDK supports it, takes
+     * effect if called before the first request
+     */
+    void setVirtual(final boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    /**
+     * Sets the task run on the I/O thread whenever it runs out of requests,
+     * e.g. to release resources held only while busy
+     */
+    void setIdleHandler(final Runnable idleHandler) {
+        this.idleHandler = idleHandler;
+    }
+
+    /**
+     * Stops the I/O thread after the running request, queued requests fail
+     */
+    void stop() {
+        this.stopped = true;
+        final Thread t = this.thread.get();
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Returns the I/O thread, starting it if needed
+     */
+    private Thread owner() {
+        final Thread t = this.thread.get();
+        if (t != null) {
+            return t;
+        }
+        final Thread created = VirtualThreads.newThread("s7-io-" + instances.incrementAndGet(), this, this.virtual);
+        if (this.thread.compareAndSet(null, created)) {
+            created.start();
+            return created;
+        }
+        return this.thread.get();
+    }
+
+    S7RequestScheduler<Request<?>> getScheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Hands a request to the I/O thread
+     *
+     * @param request the request, completed by its callback
+     * @throws IOException if the loop is stopped
+     */
+    void submit(final Request<?> request) throws IOException {
+        if (this.stopped || !this.ready) {
+            throw new IOException("Connection is closed");
+        }
+        final Thread t = this.owner();
+        this.inbox.offer(request);
+        if (this.stopped && request.cancel()) {
+            // stopped meanwhile, the I/O thread may not see it anymore
+            throw new IOException("Connection is closed");
+        }
+        if (this.idle) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Runs the job on the I/O thread and waits for its outcome. While queued,
+     * the wait ends at the deadline or when the caller is interrupted; a
+     * running transfer is stopped at its next chunk boundary instead.
+     *
+     * @param priority the priority class
+     * @param group    the client group
+     * @param deadline give up waiting for the I/O thread at this deadline
+     * @param job      the work
+     * @return the result of the job
+     */
+    <T> T call(final S7Priority priority, final String group, final Deadline deadline, final Job<T> job)
+            throws IOException, InterruptedException {
+        if (Thread.currentThread() == this.thread.get()) {
+            // nested call from a job, already on the I/O thread
+            return job.run();
+        }
+        final Completion<T> completion = new Completion<>();
+        final Request<T> request = new Request<>(priority, group, job, completion);
+        this.submit(request);
+
+        boolean interrupted = false;
+        while (!completion.done) {
+            if (Thread.interrupted()) {
+                if (this.withdraw(request)) {
+                    throw new InterruptedException();
+                }
+                request.aborted = true;
+                interrupted = true;
+            } else if (deadline.isBounded() && request.isQueued()) {
+                final long remaining = deadline.remainingNanos();
+                if (remaining > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                } else if (this.withdraw(request)) {
+                    throw deadline.exceededLocally("waiting for the connection");
+                }
+            } else {
+                LockSupport.park(this);
+            }
+        }
+
+        final Throwable failure = completion.failure;
+        if (interrupted && !(failure instanceof InterruptedException)) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure == null) {
+            return completion.result;
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw (Error) failure;
+    }
+
+    /**
+     * Called by a running job at a chunk boundary: runs the waiting requests
+     * of a higher class before the job continues
+     *
+     * @throws InterruptedException if the caller of the job was interrupted
+     */
+    void preempt() throws InterruptedException {
+        final Request<?> running = this.current;
+        if (running == null || Thread.currentThread() != this.thread.get()) {
+            return;
+        }
+        if (running.aborted) {
+            throw new InterruptedException("Transfer aborted by the caller");
+        }
+        this.drain();
+        while (!this.stopped && this.scheduler.hasWaiterAbove(running.priority)) {
+            this.execute(this.scheduler.poll());
+        }
+    }
+
+    @Override
+    public void run() {
+        logger.debug("I/O thread started");
+        while (!this.stopped) {
+            this.drain();
+            final Request<?> next = this.scheduler.poll();
+            if (next != null) {
+                this.execute(next);
+                continue;
+            }
+            this.idle = true;
+            if (this.inbox.isEmpty() && !this.stopped) {
+                this.onIdle();
+                LockSupport.park(this);
+            }
+            this.idle = false;
+        }
+
+        this.drain();
+        Request<?> request;
+        while ((request = this.scheduler.poll()) != null) {
+            if (request.state.compareAndSet(QUEUED, RUNNING)) {
+                complete(request, null, new IOException("Connection is closed"));
+            }
+        }
+        this.onIdle();
+        logger.debug("I/O thread stopped");
+    }
+
+    private void onIdle() {
+        final Runnable handler = this.idleHandler;
+        if (handler != null) {
+            try {
+                handler.run();
+            } catch (final RuntimeException e) {
+                logger.warn("Idle handler failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Withdraws a queued request, its slot in the scheduler is freed at the
+     * next {@link #drain()}
+     *
+     * @return false if the I/O thread picked it up already
+     */
+    private boolean withdraw(final Request<?> request) {
+        if (!request.cancel()) {
+            return false;
+        }
+        this.withdrawn.offer(request);
+        return true;
+    }
+
+    /**
+     * Moves arriving requests into the scheduler and removes withdrawn ones,
+     * so they are not counted as waiting
+     */
+    private void drain() {
+        Request<?> request;
+        while ((request = this.inbox.poll()) != null) {
+            if (request.isQueued()) {
+                this.scheduler.add(request.priority, request.group, request);
+            }
+        }
+        while ((request = this.withdrawn.poll()) != null) {
+            // not found if withdrawn before it left the inbox
+            this.scheduler.remove(request.priority, request.group, request);
+        }
+    }
+
+    private <T> void execute(final Request<T> request) {
+        if (!request.state.compareAndSet(QUEUED, RUNNING)) {
+            return; // withdrawn by the caller
+        }
+        this.scheduler.getMetrics().timing(this.scheduler.getWaitMetric(request.priority), System.nanoTime() - request.enqueued);
+        final Request<?> previous = this.current;
+        this.current = request;
+        T result = null;
+        Throwable failure = null;
+        try {
+            result = request.job.run();
+        } catch (final Throwable t) {
+            failure = t;
+        } finally {
+            this.current = previous;
+        }
+        complete(request, result, failure);
+    }
+
+    private static <T> void complete(final Request<T> request, final T result, final Throwable failure) {
+        try {
+            request.callback.completed(result, failure);
+        } catch (final RuntimeException e) {
+            logger.warn("Request callback failed: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,639 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7ReadItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Polls groups of items cyclically.
+ * <p>
+ * A single thread drives a hashed timing wheel with a fixed tick. Tick times
+ * are computed from the start time, so the schedule does not drift. Groups
+ * start on a multiple of their period, so groups sharing a cycle (or with
+ * periods that are multiples of each other) come due on the same tick; all
+ * groups due on a tick are read with one multi-item read, which the
+ * connection packs into as few PDUs as possible. If the PLC rejects an item
+ * of a combined read, the groups are read one by one and the group with the
+ * rejected item is read on its own from then on. A read times out after ten
+ * cycles of its fastest group. The reads run on a small worker pool, the
+ * wheel thread never does I/O.
+ * <p>
+ * Cycles are skipped rather than queued: a group still being read when its
+ * next cycle comes due, or whose cycle passed while the wheel thread was late,
+ * skips that cycle. The actual period and its deviation from the configured
+ * one (jitter) are measured per group and reported as metrics.
+ * <p>
+ * The same combination of groups comes due cycle after cycle, so the read of
+ * each combination is prepared once with {@link S7Connector#prepare(List)}.
+ * <p>
+ * A scheduler created with its own clock has no wheel thread, the caller
+ * drives it with {@link #tick()}.
+ */
+public final class S7PollScheduler implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(S7PollScheduler.class);
+
+    /**
+     * Metric: actual period between two reads of a group
+     */
+    public static final String METRIC_PERIOD = "s7.poll.period";
+
+    /**
+     * Metric: deviation of the actual from the configured period
+     */
+    public static final String METRIC_JITTER = "s7.poll.jitter";
+
+    /**
+     * Metric: cycles skipped
+     */
+    public static final String METRIC_SKIPPED = "s7.poll.skipped";
+
+    /**
+     * Metric: combined read requests
+     */
+    public static final String METRIC_READS = "s7.poll.reads";
+
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * Cycles of the fastest group a read may take before it times out
+     */
+    private static final int TIMEOUT_CYCLES = 10;
+
+    /**
+     * Prepared reads kept, the cache is cleared when it grows beyond
+     */
+    private static final int MAX_PREPARED = 64;
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    /**
+     * One sample of a group
+     */
+    public static final class Sample {
+        private final long timestamp;
+        private final long latencyNanos;
+        private final List<byte[]> data;
+        private final Exception failure;
+
+        Sample(final long timestamp, final long latencyNanos, final List<byte[]> data, final Exception failure) {
+            this.timestamp = timestamp;
+            this.latencyNanos = latencyNanos;
+            this.data = data;
+            this.failure = failure;
+        }
+
+        /**
+         * Returns when the answer arrived, in millis since the epoch
+         */
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+
+        /**
+         * Returns the time between sending the read and the answer, in nanos
+         */
+        public long getLatencyNanos() {
+            return this.latencyNanos;
+        }
+
+        /**
+         * Returns the data per item of the group, null if the read failed
+         */
+        public List<byte[]> getData() {
+            return this.data;
+        }
+
+        /**
+         * Returns the failure of the read, null if it succeeded
+         */
+        public Exception getFailure() {
+            return this.failure;
+        }
+    }
+
+    /**
+     * A registered group
+     */
+    public final class Group {
+        private final List<S7ReadItem> items;
+        private final long periodTicks;
+        private final long periodNanos;
+        private final Consumer<Sample> listener;
+
+        /**
+         * Next tick the group is due, guarded by the scheduler lock
+         */
+        private long nextTick;
+
+        private boolean cancelled = false;
+
+        /**
+         * Set when the PLC rejected an item of the group, it is no longer combined with others
+         */
+        private volatile boolean alone = false;
+
+        private volatile boolean inFlight = false;
+
+        private volatile long lastStart = 0;
+
+        private volatile long lastPeriod = 0;
+
+        private volatile long maxJitter = 0;
+
+        private volatile long samples = 0;
+
+        private volatile long skipped = 0;
+
+        Group(final List<S7ReadItem> items, final long periodTicks, final Consumer<Sample> listener) {
+            this.items = items;
+            this.periodTicks = periodTicks;
+            this.periodNanos = periodTicks * S7PollScheduler.this.tickNanos;
+            this.listener = listener;
+        }
+
+        /**
+         * Stops polling the group
+         */
+        public void cancel() {
+            S7PollScheduler.this.cancel(this);
+        }
+
+        /**
+         * Returns the configured period in nanos
+         */
+        public long getPeriodNanos() {
+            return this.periodNanos;
+        }
+
+        /**
+         * Returns the last measured period in nanos, 0 before the second sample
+         */
+        public long getLastPeriodNanos() {
+            return this.lastPeriod;
+        }
+
+        /**
+         * Returns the largest deviation of a measured period from the configured one, in nanos
+         */
+        public long getMaxJitterNanos() {
+            return this.maxJitter;
+        }
+
+        /**
+         * Returns the number of reads started
+         */
+        public long getSamples() {
+            return this.samples;
+        }
+
+        /**
+         * Returns the number of skipped cycles
+         */
+        public long getSkipped() {
+            return this.skipped;
+        }
+
+        /**
+         * Records the start of a read, called by the worker
+         */
+        private void started(final long now) {
+            if (this.lastStart != 0) {
+                final long period = now - this.lastStart;
+                final long jitter = Math.abs(period - this.periodNanos);
+                this.lastPeriod = period;
+                if (jitter > this.maxJitter) {
+                    this.maxJitter = jitter;
+                }
+                S7PollScheduler.this.metrics.timing(METRIC_PERIOD, period);
+                S7PollScheduler.this.metrics.timing(METRIC_JITTER, jitter);
+            }
+            this.lastStart = now;
+            this.samples++;
+        }
+
+        private void skip(final long cycles) {
+            this.skipped += cycles;
+            S7PollScheduler.this.metrics.increment(METRIC_SKIPPED, cycles);
+        }
+    }
+
+    private final S7Connector connector;
+
+    private final long tickNanos;
+
+    private final S7Metrics metrics;
+
+    /**
+     * Source of all times, in nanos
+     */
+    private final LongSupplier clock;
+
+    private final ExecutorService workers;
+
+    private final Thread wheelThread;
+
+    /**
+     * Guards the wheel and the groups' schedule
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @SuppressWarnings("unchecked")
+    private final List<Group>[] wheel = new List[WHEEL_SIZE];
+
+    private final long startNanos;
+
+    /**
+     * Last tick processed, guarded by the lock
+     */
+    private long currentTick = 0;
+
+    /**
+     * Prepared read of each combination of due groups, keyed by the groups
+     */
+    private final Map<List<Group>, S7PreparedRead> prepared = new ConcurrentHashMap<>();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates the scheduler and starts its thread
+     *
+     * @param connector  the connection to poll
+     * @param tickMillis resolution of the wheel, periods are rounded to multiples of it
+     * @param workers    reads in flight at the same time
+     * @param metrics    the metrics sink
+     */
+    public S7PollScheduler(final S7Connector connector, final int tickMillis, final int workers, final S7Metrics metrics) {
+        this(connector, tickMillis, workers, metrics, null);
+    }
+
+    /**
+     * Creates the scheduler
+     *
+     * @param connector  the connection to poll
+     * @param tickMillis resolution of the wheel, periods are rounded to multiples of it
+     * @param workers    reads in flight at the same time
+     * @param metrics    the metrics sink
+     * @param clock      source of the time in nanos, driven by {@link #tick()}; null
+     *                   for {@link System#nanoTime()} and a thread of its own
+     */
+    public S7PollScheduler(final S7Connector connector, final int tickMillis, final int workers, final S7Metrics metrics,
+                           final LongSupplier clock) {
+        if (connector == null) {
+            throw new IllegalArgumentException("Connector must not be null");
+        }
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive, but was: " + tickMillis);
+        }
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Workers must be positive, but was: " + workers);
+        }
+        this.connector = connector;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.metrics = metrics == null ? S7Metrics.NONE : metrics;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            this.wheel[i] = new ArrayList<>();
+        }
+
+        final int instance = instances.incrementAndGet();
+        final AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, r -> {
+            final Thread thread = new Thread(r, "s7-poll-" + instance + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.clock = clock == null ? System::nanoTime : clock;
+        this.startNanos = this.clock.getAsLong();
+        if (clock == null) {
+            this.wheelThread = new Thread(this::run, "s7-poll-" + instance + "-wheel");
+            this.wheelThread.setDaemon(true);
+            this.wheelThread.start();
+        } else {
+            this.wheelThread = null;
+        }
+    }
+
+    /**
+     * Starts polling a group
+     *
+     * @param items        the items read each cycle
+     * @param periodMillis the period, rounded up to a multiple of the tick
+     * @param listener     receives every sample, called on a worker thread
+     * @return the group, to be cancelled when no longer needed
+     */
+    public Group register(final List<S7ReadItem> items, final int periodMillis, final Consumer<Sample> listener) {
+        if (items == null || items.isEmpty()) {
+            throw new IllegalArgumentException("Items must not be null or empty");
+        }
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Period must be positive, but was: " + periodMillis);
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
+        }
+        if (this.closed) {
+            throw new IllegalStateException("Scheduler is closed");
+        }
+        final long periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        final long periodTicks = Math.max(1, (periodNanos + this.tickNanos - 1) / this.tickNanos);
+        final Group group = new Group(new ArrayList<>(items), periodTicks, listener);
+        this.lock.lock();
+        try {
+            // aligned to the period, so groups sharing a cycle are read together
+            group.nextTick = (this.currentTick / periodTicks + 1) * periodTicks;
+            this.schedule(group);
+        } finally {
+            this.lock.unlock();
+        }
+        return group;
+    }
+
+    /**
+     * Stops polling, reads in flight are completed
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        LockSupport.unpark(this.wheelThread);
+        this.workers.shutdown();
+    }
+
+    /**
+     * Starts the reads of the groups due up to the current time of the clock,
+     * only for schedulers created with their own clock
+     */
+    public void tick() {
+        if (this.wheelThread != null) {
+            throw new IllegalStateException("Scheduler is driven by its own thread");
+        }
+        if (!this.closed) {
+            this.due(this.clock.getAsLong());
+        }
+    }
+
+    private void cancel(final Group group) {
+        this.lock.lock();
+        try {
+            if (!group.cancelled) {
+                group.cancelled = true;
+                this.wheel[(int) (group.nextTick % WHEEL_SIZE)].remove(group);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        this.prepared.keySet().removeIf(key -> key.contains(group));
+    }
+
+    /**
+     * Puts the group in the slot of its next tick, lock must be held
+     */
+    private void schedule(final Group group) {
+        this.wheel[(int) (group.nextTick % WHEEL_SIZE)].add(group);
+    }
+
+    private void run() {
+        while (!this.closed) {
+            // wait for the next tick, computed from the start so waiting errors do not add up
+            final long target;
+            this.lock.lock();
+            try {
+                target = this.startNanos + (this.currentTick + 1) * this.tickNanos;
+            } finally {
+                this.lock.unlock();
+            }
+            long now = this.clock.getAsLong();
+            while (now < target && !this.closed) {
+                LockSupport.parkNanos(target - now);
+                now = this.clock.getAsLong();
+            }
+            if (this.closed) {
+                break;
+            }
+            this.due(now);
+        }
+    }
+
+    /**
+     * Advances the wheel to the given time and starts the reads due
+     */
+    private void due(final long now) {
+        final List<Group> due = this.advance((now - this.startNanos) / this.tickNanos);
+        if (!due.isEmpty()) {
+            this.dispatch(due);
+        }
+    }
+
+    /**
+     * Processes the slots up to the given tick and returns the groups due
+     */
+    private List<Group> advance(final long tick) {
+        final List<Group> due = new ArrayList<>();
+        this.lock.lock();
+        try {
+            if (tick <= this.currentTick) {
+                return due;
+            }
+            final long slots = Math.min(tick - this.currentTick, WHEEL_SIZE);
+            final List<Group> rescheduled = new ArrayList<>();
+            for (long t = tick - slots + 1; t <= tick; t++) {
+                final Iterator<Group> it = this.wheel[(int) (t % WHEEL_SIZE)].iterator();
+                while (it.hasNext()) {
+                    final Group group = it.next();
+                    if (group.nextTick > tick) {
+                        continue;
+                    }
+                    it.remove();
+                    if (group.nextTick < tick) {
+                        // the wheel thread was late, missed cycles are skipped
+                        final long missed = (tick - group.nextTick + group.periodTicks - 1) / group.periodTicks;
+                        group.skip(missed);
+                        group.nextTick += missed * group.periodTicks;
+                    }
+                    if (group.nextTick == tick) {
+                        if (group.inFlight) {
+                            group.skip(1);
+                        } else {
+                            group.inFlight = true;
+                            due.add(group);
+                        }
+                        group.nextTick += group.periodTicks;
+                    }
+                    rescheduled.add(group);
+                }
+            }
+            this.currentTick = tick;
+            for (final Group group : rescheduled) {
+                this.schedule(group);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return due;
+    }
+
+    /**
+     * Reads the items of all due groups with one request, groups with a
+     * rejected item are read on their own
+     */
+    private void dispatch(final List<Group> due) {
+        final List<Group> combined = new ArrayList<>(due.size());
+        for (final Group group : due) {
+            if (group.alone) {
+                this.execute(Collections.singletonList(group));
+            } else {
+                combined.add(group);
+            }
+        }
+        if (!combined.isEmpty()) {
+            this.execute(combined);
+        }
+    }
+
+    private void execute(final List<Group> groups) {
+        try {
+            this.workers.execute(() -> this.read(groups));
+        } catch (final RejectedExecutionException e) {
+            for (final Group group : groups) {
+                group.inFlight = false;
+            }
+        }
+    }
+
+    /**
+     * Returns the prepared read of the groups, prepared on first use
+     */
+    private S7PreparedRead prepare(final List<Group> due) {
+        S7PreparedRead read = this.prepared.get(due);
+        if (read == null) {
+            final List<S7ReadItem> items = new ArrayList<>();
+            for (final Group group : due) {
+                items.addAll(group.items);
+            }
+            read = this.connector.prepare(items);
+            if (this.prepared.size() >= MAX_PREPARED) {
+                this.prepared.clear();
+            }
+            this.prepared.put(due, read);
+        }
+        return read;
+    }
+
+    /**
+     * Returns the timeout of a read of the groups, a number of cycles of the fastest
+     */
+    private static Duration timeout(final List<Group> groups) {
+        long period = Long.MAX_VALUE;
+        for (final Group group : groups) {
+            period = Math.min(period, group.periodNanos);
+        }
+        return Duration.ofNanos(period * TIMEOUT_CYCLES);
+    }
+
+    private void read(final List<Group> due) {
+        final long start = this.clock.getAsLong();
+        for (final Group group : due) {
+            group.started(start);
+        }
+        this.metrics.increment(METRIC_READS, 1);
+
+        List<byte[]> data = null;
+        Exception failure = null;
+        try {
+            data = this.prepare(due).read(timeout(due));
+        } catch (final IllegalArgumentException e) {
+            if (due.size() > 1) {
+                this.readAlone(due, start);
+                return;
+            }
+            failure = e;
+        } catch (final InterruptedException e) {
+            failure = e;
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            failure = e;
+        }
+        this.deliver(due, start, data, failure);
+    }
+
+    /**
+     * Reads each of the groups with a request of its own after the PLC
+     * rejected an item of the combined read; the groups whose own read is
+     * rejected as well are no longer combined with others
+     */
+    private void readAlone(final List<Group> due, final long start) {
+        for (final Group group : due) {
+            final List<Group> single = Collections.singletonList(group);
+            this.metrics.increment(METRIC_READS, 1);
+            List<byte[]> data = null;
+            Exception failure = null;
+            try {
+                data = this.prepare(single).read(timeout(single));
+            } catch (final IllegalArgumentException e) {
+                logger.warn("PLC rejected an item of a poll group, reading it on its own: {}", e.getMessage());
+                group.alone = true;
+                this.prepared.keySet().removeIf(key -> key.size() > 1 && key.contains(group));
+                failure = e;
+            } catch (final InterruptedException e) {
+                failure = e;
+                Thread.currentThread().interrupt();
+            } catch (final Exception e) {
+                failure = e;
+            }
+            this.deliver(single, start, data, failure);
+        }
+    }
+
+    private void deliver(final List<Group> due, final long start, final List<byte[]> data, final Exception failure) {
+        final long latency = this.clock.getAsLong() - start;
+        final long timestamp = System.currentTimeMillis();
+
+        int pos = 0;
+        for (final Group group : due) {
+            final int count = group.items.size();
+            final List<byte[]> part = data == null ? null : Collections.unmodifiableList(data.subList(pos, pos + count));
+            pos += count;
+            group.inFlight = false;
+            try {
+                group.listener.accept(new Sample(timestamp, latency, part, failure));
+            } catch (final RuntimeException e) {
+                logger.warn("Poll listener failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+}
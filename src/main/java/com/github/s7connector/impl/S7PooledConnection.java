@@ -0,0 +1,581 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.ReconnectPolicy;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.exception.S7Exception;
+import com.github.s7connector.impl.utils.Deadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of several TCP sessions to the same PLC.
+ * <p>
+ * Requests go to the session with the fewest requests in flight. The pool starts
+ * with {@code minSize} sessions, opens another one (up to {@code maxSize}) only
+ * when all sessions are busy, and closes sessions above {@code minSize} which
+ * have been idle for longer than the idle timeout. A session failing with an
+ * I/O error is closed and replaced on demand; after a failed connect further
+ * attempts are delayed according to the {@link ReconnectPolicy}. Reads failing
+ * on a broken session are retried on another one.
+ */
+public final class S7PooledConnection implements S7Connector {
+
+    private static final Logger logger = LoggerFactory.getLogger(S7PooledConnection.class);
+
+    /**
+     * Metric: number of open sessions
+     */
+    public static final String METRIC_SIZE = "s7.pool.size";
+
+    /**
+     * Metric: sessions closed because of I/O errors
+     */
+    public static final String METRIC_EVICTED = "s7.pool.evicted";
+
+    /**
+     * A pooled session
+     */
+    private static final class Member {
+        final S7Connector connection;
+        int inFlight = 0;
+        long lastUsed = System.nanoTime();
+        /**
+         * The reads prepared on this session, by the prepared read of the pool
+         */
+        final Map<S7PreparedRead, S7PreparedRead> prepared = Collections.synchronizedMap(new WeakHashMap<>());
+
+        Member(final S7Connector connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * A multi-item read on a session
+     */
+    @FunctionalInterface
+    private interface ItemsRead {
+        List<byte[]> read(Member member, Duration timeout) throws IOException, InterruptedException;
+    }
+
+    private final ConnectionSupplier supplier;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final long idleNanos;
+
+    private final ReconnectPolicy policy;
+
+    private final S7Metrics metrics;
+
+    /**
+     * Guards members, opening and the backoff state, never held during I/O
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a request completes or a session was opened
+     */
+    private final Condition released = this.lock.newCondition();
+
+    private final List<Member> members = new ArrayList<>();
+
+    /**
+     * Sessions currently being opened
+     */
+    private int opening = 0;
+
+    /**
+     * Consecutive failed connects, for the backoff
+     */
+    private int connectFailures = 0;
+
+    /**
+     * No connect attempts before this nanoTime
+     */
+    private long nextConnectAt = System.nanoTime();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates the pool and opens minSize sessions
+     *
+     * @param supplier    opens new sessions
+     * @param minSize     sessions kept open (at least 1)
+     * @param maxSize     upper limit of sessions
+     * @param idleTimeout millis after which sessions above minSize are closed
+     * @param policy      backoff and read retries, null for defaults
+     * @param metrics     the metrics sink
+     * @throws S7Exception if the initial sessions could not be opened
+     */
+    public S7PooledConnection(final ConnectionSupplier supplier, final int minSize, final int maxSize,
+                              final int idleTimeout, final ReconnectPolicy policy, final S7Metrics metrics) throws S7Exception {
+        if (supplier == null) {
+            throw new IllegalArgumentException("Supplier must not be null");
+        }
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException(String.format(
+                "Pool size must satisfy 1 <= minSize <= maxSize, but was: minSize=%d, maxSize=%d", minSize, maxSize));
+        }
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("Idle timeout must be non-negative, but was: " + idleTimeout);
+        }
+        this.supplier = supplier;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        this.policy = policy == null ? new ReconnectPolicy() : policy;
+        this.metrics = metrics == null ? S7Metrics.NONE : metrics;
+
+        try {
+            for (int i = 0; i < minSize; i++) {
+                this.members.add(new Member(supplier.connect()));
+            }
+        } catch (final S7Exception e) {
+            for (final Member member : this.members) {
+                closeQuietly(member.connection);
+            }
+            throw e;
+        }
+        this.metrics.gauge(METRIC_SIZE, this.members.size());
+        logger.info("Opened connection pool with {} session(s), max {}", minSize, maxSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException, InterruptedException {
+        return this.read(area, areaNumber, bytes, offset, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset, final Duration timeout) throws IOException, InterruptedException {
+        final Deadline deadline = Deadline.after(timeout);
+        int attempt = 0;
+        while (true) {
+            final Member member = this.acquire(deadline);
+            boolean broken = false;
+            try {
+                return member.connection.read(area, areaNumber, bytes, offset, deadline.remaining());
+            } catch (final DeadlineExceededException e) {
+                throw e;
+            } catch (final IOException e) {
+                broken = true;
+                if (attempt >= this.policy.getReadRetries() || deadline.isExpired()) {
+                    throw e;
+                }
+                attempt++;
+                logger.info("Retrying read on another session after: {}", e.getMessage());
+            } finally {
+                this.release(member, broken);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<byte[]> read(final List<S7ReadItem> items, final Duration timeout) throws IOException, InterruptedException {
+        return this.readItems((member, t) -> member.connection.read(items, t), timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each session prepares the read on its first execution there, sessions
+     * opened later prepare it again.
+     */
+    @Override
+    public S7PreparedRead prepare(final List<S7ReadItem> items) {
+        if (items == null || items.isEmpty()) {
+            throw new IllegalArgumentException("Items must not be null or empty");
+        }
+        final List<S7ReadItem> copy = Collections.unmodifiableList(new ArrayList<>(items));
+        return new S7PreparedRead() {
+            @Override
+            public List<S7ReadItem> getItems() {
+                return copy;
+            }
+
+            @Override
+            public List<byte[]> read(final Duration timeout) throws IOException, InterruptedException {
+                return S7PooledConnection.this.readItems((member, t) ->
+                    member.prepared.computeIfAbsent(this, key -> member.connection.prepare(copy)).read(t), timeout);
+            }
+        };
+    }
+
+    /**
+     * Runs a multi-item read on a session, retried on another one after an I/O error
+     */
+    private List<byte[]> readItems(final ItemsRead read, final Duration timeout) throws IOException, InterruptedException {
+        final Deadline deadline = Deadline.after(timeout);
+        int attempt = 0;
+        while (true) {
+            final Member member = this.acquire(deadline);
+            boolean broken = false;
+            try {
+                return read.read(member, deadline.remaining());
+            } catch (final DeadlineExceededException e) {
+                throw e;
+            } catch (final IOException e) {
+                broken = true;
+                if (attempt >= this.policy.getReadRetries() || deadline.isExpired()) {
+                    throw e;
+                }
+                attempt++;
+                logger.info("Retrying read on another session after: {}", e.getMessage());
+            } finally {
+                this.release(member, broken);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException, InterruptedException {
+        this.write(area, areaNumber, offset, buffer, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer, final Duration timeout) throws IOException, InterruptedException {
+        final Deadline deadline = Deadline.after(timeout);
+        final Member member = this.acquire(deadline);
+        boolean broken = false;
+        try {
+            member.connection.write(area, areaNumber, offset, buffer, deadline.remaining());
+        } catch (final DeadlineExceededException e) {
+            throw e;
+        } catch (final IOException e) {
+            broken = true;
+            throw e;
+        } finally {
+            this.release(member, broken);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final List<S7WriteItem> items, final Duration timeout) throws IOException, InterruptedException {
+        final Deadline deadline = Deadline.after(timeout);
+        final Member member = this.acquire(deadline);
+        boolean broken = false;
+        try {
+            member.connection.write(items, deadline.remaining());
+        } catch (final DeadlineExceededException e) {
+            throw e;
+        } catch (final IOException e) {
+            broken = true;
+            throw e;
+        } finally {
+            this.release(member, broken);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While no session is open, sessions from the supplier are assumed to
+     * support them.
+     */
+    @Override
+    public boolean isBitWriteSupported() {
+        final S7Connector connection = this.anyMember();
+        return connection == null || connection.isBitWriteSupported();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Taken from an open session, sessions of one PLC negotiate the same PDU.
+     */
+    @Override
+    public int getMaxReadSize() {
+        final S7Connector connection = this.anyMember();
+        return connection == null ? S7Connector.super.getMaxReadSize() : connection.getMaxReadSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Taken from an open session, sessions of one PLC negotiate the same PDU.
+     */
+    @Override
+    public int getMaxWriteSize() {
+        final S7Connector connection = this.anyMember();
+        return connection == null ? S7Connector.super.getMaxWriteSize() : connection.getMaxWriteSize();
+    }
+
+    /**
+     * Returns the connection of an open session, null if there is none
+     */
+    private S7Connector anyMember() {
+        this.lock.lock();
+        try {
+            return this.members.isEmpty() ? null : this.members.get(0).connection;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        final List<Member> toClose;
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            toClose = new ArrayList<>(this.members);
+            this.members.clear();
+            this.released.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        logger.info("Closing connection pool with {} session(s)", toClose.size());
+        IOException first = null;
+        for (final Member member : toClose) {
+            try {
+                member.connection.close();
+            } catch (final IOException e) {
+                if (first == null) {
+                    first = e;
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    /**
+     * Returns the number of open sessions
+     */
+    public int getSize() {
+        this.lock.lock();
+        try {
+            return this.members.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests in flight over all sessions
+     */
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            int sum = 0;
+            for (final Member member : this.members) {
+                sum += member.inFlight;
+            }
+            return sum;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Picks the least loaded session, opening a new one if all are busy
+     */
+    private Member acquire(final Deadline deadline) throws IOException, InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (this.closed) {
+                    throw new IllegalStateException("Connection pool is closed. Cannot perform operation.");
+                }
+
+                final Member least = this.leastLoaded();
+                if (least != null && least.inFlight == 0) {
+                    least.inFlight++;
+                    return least;
+                }
+
+                if (this.members.size() + this.opening < this.maxSize && System.nanoTime() - this.nextConnectAt >= 0) {
+                    final Member fresh = this.open();
+                    if (fresh != null) {
+                        fresh.inFlight++;
+                        return fresh;
+                    }
+                    continue;
+                }
+
+                if (least != null) {
+                    least.inFlight++;
+                    return least;
+                }
+
+                if (this.opening == 0) {
+                    final long wait = Math.max(0L, this.nextConnectAt - System.nanoTime());
+                    if (this.policy.getPendingRequestPolicy() == ReconnectPolicy.PendingRequestPolicy.FAIL_FAST
+                        || wait > deadline.remainingNanos()) {
+                        throw new IOException("No session to the PLC available, next connect attempt in "
+                            + TimeUnit.NANOSECONDS.toMillis(wait) + "ms");
+                    }
+                }
+                final long remaining = deadline.remainingNanos();
+                if (remaining <= 0) {
+                    throw deadline.exceededLocally("waiting for a pooled session");
+                }
+                final long wait = this.opening > 0 ? remaining : Math.max(1L, this.nextConnectAt - System.nanoTime());
+                this.released.awaitNanos(Math.min(remaining, wait));
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Opens a new session, lock must be held and is released during the connect
+     *
+     * @return the new member (already added), null if the connect failed
+     */
+    private Member open() throws IOException {
+        this.opening++;
+        this.lock.unlock();
+        S7Connector connection = null;
+        S7Exception failure = null;
+        try {
+            connection = this.supplier.connect();
+        } catch (final S7Exception e) {
+            failure = e;
+        } finally {
+            this.lock.lock();
+            this.opening--;
+        }
+
+        this.released.signalAll();
+        if (failure != null) {
+            final long delay = this.policy.getDelay(this.connectFailures++, ThreadLocalRandom.current().nextDouble());
+            this.nextConnectAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            logger.warn("Opening pooled session failed ({} consecutive), next attempt in {}ms: {}",
+                this.connectFailures, delay, failure.getMessage());
+            if (this.members.isEmpty()) {
+                throw new IOException("Could not open a session to the PLC: " + failure.getMessage(), failure);
+            }
+            return null;
+        }
+        if (this.closed) {
+            closeQuietly(connection);
+            throw new IllegalStateException("Connection pool is closed. Cannot perform operation.");
+        }
+
+        this.connectFailures = 0;
+        final Member member = new Member(connection);
+        this.members.add(member);
+        this.metrics.gauge(METRIC_SIZE, this.members.size());
+        logger.debug("Opened pooled session, size is now {}", this.members.size());
+        return member;
+    }
+
+    /**
+     * Returns a session to the pool, evicting it if broken and shrinking idle sessions
+     */
+    private void release(final Member member, final boolean broken) {
+        final List<Member> toClose = new ArrayList<>();
+        this.lock.lock();
+        try {
+            member.inFlight--;
+            member.lastUsed = System.nanoTime();
+
+            if (broken && this.members.remove(member)) {
+                logger.warn("Evicting broken pooled session, size is now {}", this.members.size());
+                this.metrics.increment(METRIC_EVICTED, 1);
+                toClose.add(member);
+            }
+
+            final long now = System.nanoTime();
+            for (int i = this.members.size() - 1; i >= 0 && this.members.size() > this.minSize; i--) {
+                final Member candidate = this.members.get(i);
+                if (candidate.inFlight == 0 && now - candidate.lastUsed > this.idleNanos) {
+                    this.members.remove(i);
+                    toClose.add(candidate);
+                }
+            }
+            this.metrics.gauge(METRIC_SIZE, this.members.size());
+            this.released.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        for (final Member closing : toClose) {
+            closeQuietly(closing.connection);
+        }
+    }
+
+    /**
+     * Returns the member with the fewest requests in flight, lock must be held
+     */
+    private Member leastLoaded() {
+        Member least = null;
+        for (final Member member : this.members) {
+            if (least == null || member.inFlight < least.inFlight) {
+                least = member;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * Closes a connection, suppressing any exceptions
+     */
+    private static void closeQuietly(final S7Connector connector) {
+        try {
+            connector.close();
+        } catch (final IOException e) {
+            logger.debug("Error closing pooled session: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,515 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.ReconnectPolicy;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.exception.S7Exception;
+import com.github.s7connector.impl.utils.Deadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Self-healing connection: wraps a connection created by a {@link ConnectionSupplier}
+ * and replaces it in the background whenever it breaks.
+ * <p>
+ * A request failing with an {@link IOException} marks the current connection as
+ * broken, closes it and starts a reconnect thread which retries with exponential
+ * backoff and jitter as configured in the {@link ReconnectPolicy}. Requests issued
+ * while disconnected either wait for the reconnect or fail fast, reads are retried
+ * transparently.
+ */
+public final class S7ReconnectingConnection implements S7Connector {
+
+    private static final Logger logger = LoggerFactory.getLogger(S7ReconnectingConnection.class);
+
+    /**
+     * A multi-item read on a connection
+     */
+    @FunctionalInterface
+    private interface ItemsRead {
+        List<byte[]> read(S7Connector connection, Duration timeout) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Read prepared by {@link #prepare(List)}
+     */
+    private final class Prepared implements S7PreparedRead {
+
+        private final List<S7ReadItem> items;
+
+        /**
+         * The connection the read is prepared on, guarded by this
+         */
+        private S7Connector connection;
+
+        private S7PreparedRead read;
+
+        Prepared(final List<S7ReadItem> items) {
+            this.items = items;
+        }
+
+        @Override
+        public List<S7ReadItem> getItems() {
+            return this.items;
+        }
+
+        @Override
+        public List<byte[]> read(final Duration timeout) throws IOException, InterruptedException {
+            return S7ReconnectingConnection.this.readItems((connection, t) -> this.on(connection).read(t), timeout);
+        }
+
+        /**
+         * Returns the read prepared on the connection, preparing it on a new one
+         */
+        private synchronized S7PreparedRead on(final S7Connector connection) {
+            if (this.connection != connection) {
+                this.read = connection.prepare(this.items);
+                this.connection = connection;
+            }
+            return this.read;
+        }
+    }
+
+    /**
+     * Creates new connections
+     */
+    private final ConnectionSupplier supplier;
+
+    /**
+     * The reconnect settings
+     */
+    private final ReconnectPolicy policy;
+
+    /**
+     * Name used for logging and the reconnect thread, typically host:port
+     */
+    private final String name;
+
+    /**
+     * Guards connection, reconnecting and the reconnect thread
+     */
+    private final ReentrantLock stateLock = new ReentrantLock();
+
+    /**
+     * Signalled when a new connection is available or this instance is closed
+     */
+    private final Condition stateChanged = this.stateLock.newCondition();
+
+    /**
+     * The current connection, null while disconnected
+     */
+    private S7Connector connection;
+
+    /**
+     * True while the reconnect thread is running
+     */
+    private boolean reconnecting = false;
+
+    /**
+     * The reconnect thread
+     */
+    private Thread reconnectThread;
+
+    /**
+     * Number of successful reconnects
+     */
+    private final AtomicLong reconnectCount = new AtomicLong();
+
+    /**
+     * Flag to track if connection is closed (volatile for thread visibility)
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the initial connection
+     *
+     * @param supplier creates the underlying connections
+     * @param policy   the reconnect settings
+     * @param name     name for logging, typically host:port
+     * @throws S7Exception if the initial connection could not be established
+     */
+    public S7ReconnectingConnection(final ConnectionSupplier supplier, final ReconnectPolicy policy, final String name) throws S7Exception {
+        if (supplier == null) {
+            throw new IllegalArgumentException("Supplier must not be null");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy must not be null");
+        }
+        this.supplier = supplier;
+        this.policy = policy;
+        this.name = name;
+        this.connection = supplier.connect();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException, InterruptedException {
+        return this.read(area, areaNumber, bytes, offset, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset, final Duration timeout) throws IOException, InterruptedException {
+        final Deadline deadline = Deadline.after(timeout);
+        int attempt = 0;
+        while (true) {
+            final S7Connector current = this.acquire(deadline);
+            try {
+                return current.read(area, areaNumber, bytes, offset, deadline.remaining());
+            } catch (final DeadlineExceededException e) {
+                // late answers are discarded by the connection, no need to reconnect
+                throw e;
+            } catch (final IOException e) {
+                this.connectionBroken(current, e);
+                if (attempt >= this.policy.getReadRetries() || deadline.isExpired()) {
+                    throw e;
+                }
+                attempt++;
+                logger.info("Retrying read from {} after connection loss (retry {}/{})",
+                    this.name, attempt, this.policy.getReadRetries());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<byte[]> read(final List<S7ReadItem> items, final Duration timeout) throws IOException, InterruptedException {
+        return this.readItems((connection, t) -> connection.read(items, t), timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read is prepared on the current connection and again after each
+     * reconnect.
+     */
+    @Override
+    public S7PreparedRead prepare(final List<S7ReadItem> items) {
+        if (items == null || items.isEmpty()) {
+            throw new IllegalArgumentException("Items must not be null or empty");
+        }
+        return new Prepared(Collections.unmodifiableList(new ArrayList<>(items)));
+    }
+
+    /**
+     * Runs a multi-item read, retried after a reconnect
+     */
+    private List<byte[]> readItems(final ItemsRead read, final Duration timeout) throws IOException, InterruptedException {
+        final Deadline deadline = Deadline.after(timeout);
+        int attempt = 0;
+        while (true) {
+            final S7Connector current = this.acquire(deadline);
+            try {
+                return read.read(current, deadline.remaining());
+            } catch (final DeadlineExceededException e) {
+                throw e;
+            } catch (final IOException e) {
+                this.connectionBroken(current, e);
+                if (attempt >= this.policy.getReadRetries() || deadline.isExpired()) {
+                    throw e;
+                }
+                attempt++;
+                logger.info("Retrying read from {} after connection loss (retry {}/{})",
+                    this.name, attempt, this.policy.getReadRetries());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException, InterruptedException {
+        this.write(area, areaNumber, offset, buffer, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer, final Duration timeout) throws IOException, InterruptedException {
+        final Deadline deadline = Deadline.after(timeout);
+        final S7Connector current = this.acquire(deadline);
+        try {
+            current.write(area, areaNumber, offset, buffer, deadline.remaining());
+        } catch (final DeadlineExceededException e) {
+            throw e;
+        } catch (final IOException e) {
+            this.connectionBroken(current, e);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final List<S7WriteItem> items, final Duration timeout) throws IOException, InterruptedException {
+        final Deadline deadline = Deadline.after(timeout);
+        final S7Connector current = this.acquire(deadline);
+        try {
+            current.write(items, deadline.remaining());
+        } catch (final DeadlineExceededException e) {
+            throw e;
+        } catch (final IOException e) {
+            this.connectionBroken(current, e);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While disconnected, sessions from the supplier are assumed to support
+     * them.
+     */
+    @Override
+    public boolean isBitWriteSupported() {
+        final S7Connector current = this.current();
+        return current == null || current.isBitWriteSupported();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While disconnected, the default of the interface.
+     */
+    @Override
+    public int getMaxReadSize() {
+        final S7Connector current = this.current();
+        return current == null ? S7Connector.super.getMaxReadSize() : current.getMaxReadSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While disconnected, the default of the interface.
+     */
+    @Override
+    public int getMaxWriteSize() {
+        final S7Connector current = this.current();
+        return current == null ? S7Connector.super.getMaxWriteSize() : current.getMaxWriteSize();
+    }
+
+    /**
+     * Returns the current connection, null while disconnected
+     */
+    private S7Connector current() {
+        this.stateLock.lock();
+        try {
+            return this.connection;
+        } finally {
+            this.stateLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        final S7Connector current;
+        final Thread thread;
+        this.stateLock.lock();
+        try {
+            if (this.closed) {
+                logger.debug("Connection to {} already closed, skipping", this.name);
+                return;
+            }
+            this.closed = true;
+            current = this.connection;
+            thread = this.reconnectThread;
+            this.connection = null;
+            this.stateChanged.signalAll();
+        } finally {
+            this.stateLock.unlock();
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Returns true if a connection is currently established
+     */
+    public boolean isConnected() {
+        this.stateLock.lock();
+        try {
+            return this.connection != null;
+        } finally {
+            this.stateLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of successful reconnects since creation
+     */
+    public long getReconnectCount() {
+        return this.reconnectCount.get();
+    }
+
+    /**
+     * Returns the current connection, waiting for a reconnect if configured,
+     * but not beyond the deadline
+     */
+    private S7Connector acquire(final Deadline deadline) throws IOException, InterruptedException {
+        this.stateLock.lockInterruptibly();
+        try {
+            if (this.closed) {
+                throw new IllegalStateException("Connection is closed. Cannot perform operation.");
+            }
+            if (this.connection != null) {
+                return this.connection;
+            }
+            if (this.policy.getPendingRequestPolicy() == ReconnectPolicy.PendingRequestPolicy.FAIL_FAST) {
+                throw new IOException("Connection to " + this.name + " is down, reconnect in progress");
+            }
+
+            long nanos = Math.min(TimeUnit.MILLISECONDS.toNanos(this.policy.getPendingTimeout()), deadline.remainingNanos());
+            while (this.connection == null && !this.closed) {
+                if (nanos <= 0) {
+                    if (deadline.isExpired()) {
+                        throw deadline.exceeded("waiting for reconnect to " + this.name);
+                    }
+                    throw new IOException(String.format("Connection to %s is down, no reconnect within %dms",
+                        this.name, this.policy.getPendingTimeout()));
+                }
+                nanos = this.stateChanged.awaitNanos(nanos);
+            }
+            if (this.closed) {
+                throw new IllegalStateException("Connection is closed. Cannot perform operation.");
+            }
+            return this.connection;
+        } finally {
+            this.stateLock.unlock();
+        }
+    }
+
+    /**
+     * Discards the given connection (if still current) and starts reconnecting
+     */
+    private void connectionBroken(final S7Connector broken, final IOException cause) {
+        this.stateLock.lock();
+        try {
+            if (this.connection != broken || this.closed) {
+                // already handled by another thread
+                return;
+            }
+            logger.warn("Connection to {} broken: {}", this.name, cause.getMessage());
+            this.connection = null;
+            closeQuietly(broken);
+
+            if (!this.reconnecting) {
+                this.reconnecting = true;
+                this.reconnectThread = new Thread(this::reconnectLoop, "s7-reconnect-" + this.name);
+                this.reconnectThread.setDaemon(true);
+                this.reconnectThread.start();
+            }
+        } finally {
+            this.stateLock.unlock();
+        }
+    }
+
+    /**
+     * Reconnects with exponential backoff until successful or closed
+     */
+    private void reconnectLoop() {
+        int attempt = 0;
+        try {
+            while (!this.closed) {
+                final long delay = this.policy.getDelay(attempt, ThreadLocalRandom.current().nextDouble());
+                logger.debug("Reconnecting to {} in {}ms (attempt {})", this.name, delay, attempt + 1);
+                Thread.sleep(delay);
+
+                final S7Connector fresh;
+                try {
+                    fresh = this.supplier.connect();
+                } catch (final S7Exception e) {
+                    logger.warn("Reconnect attempt {} to {} failed: {}", attempt + 1, this.name, e.getMessage());
+                    attempt++;
+                    continue;
+                }
+
+                this.stateLock.lock();
+                try {
+                    if (this.closed) {
+                        closeQuietly(fresh);
+                        return;
+                    }
+                    this.connection = fresh;
+                    this.reconnecting = false;
+                    this.reconnectThread = null;
+                    this.reconnectCount.incrementAndGet();
+                    this.stateChanged.signalAll();
+                } finally {
+                    this.stateLock.unlock();
+                }
+                logger.info("Reconnected to {} after {} attempt(s)", this.name, attempt + 1);
+                return;
+            }
+        } catch (final InterruptedException e) {
+            logger.debug("Reconnect thread for {} interrupted", this.name);
+        } finally {
+            this.stateLock.lock();
+            try {
+                if (this.reconnectThread == Thread.currentThread()) {
+                    this.reconnecting = false;
+                    this.reconnectThread = null;
+                }
+            } finally {
+                this.stateLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Closes a connection, suppressing any exceptions
+     */
+    private static void closeQuietly(final S7Connector connector) {
+        try {
+            connector.close();
+        } catch (final IOException e) {
+            logger.debug("Error closing broken connection: {}", e.getMessage());
+        }
+    }
+}
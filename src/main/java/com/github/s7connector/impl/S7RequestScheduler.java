@@ -0,0 +1,300 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7Priority;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Orders the requests waiting for a connection.
+ * <p>
+ * Waiting requests are served by priority class first. Within a class, client
+ * groups are served in proportion to their weight (stride scheduling): each
+ * grant advances the group's pass by {@code STRIDE / weight} and the waiting
+ * group with the lowest pass goes next. Requests of one group are served in
+ * arrival order. A group becoming active again starts at the current pass, so
+ * idle time is not saved up as credit; an idle group is forgotten once the
+ * current pass caught up with it.
+ * <p>
+ * The queue is owned by the I/O thread of the connection: {@link #add},
+ * {@link #remove}, {@link #poll()} and {@link #hasWaiterAbove} must only be
+ * called by that thread. Weights, metrics and queue lengths may be used from
+ * any thread.
+ *
+ * @param <T> the queued requests
+ */
+public final class S7RequestScheduler<T> {
+
+    /**
+     * Metric: time waited for the connection, suffixed with the class, e.g. {@code s7.scheduler.wait.control}
+     */
+    public static final String METRIC_WAIT = "s7.scheduler.wait";
+
+    /**
+     * Metric: requests waiting for the connection
+     */
+    public static final String METRIC_QUEUED = "s7.scheduler.queued";
+
+    private static final long STRIDE = 1L << 20;
+
+    /**
+     * A client group, fields owned by the I/O thread
+     */
+    private static final class Group {
+        final String name;
+        long pass;
+        int waiting;
+
+        Group(final String name) {
+            this.name = name;
+        }
+    }
+
+    private final Map<String, Integer> weights = new ConcurrentHashMap<>();
+
+    private final Map<String, Group> groups = new HashMap<>();
+
+    /**
+     * Groups without waiters, dropped once their pass is not ahead of the virtual time
+     */
+    private final Set<Group> idle = new HashSet<>();
+
+    /**
+     * Waiting requests per class and group, a group is removed when it has no waiters left
+     */
+    private final EnumMap<S7Priority, LinkedHashMap<Group, ArrayDeque<T>>> queues = new EnumMap<>(S7Priority.class);
+
+    private final EnumMap<S7Priority, String> waitMetrics = new EnumMap<>(S7Priority.class);
+
+    /**
+     * Waiting requests per class, readable from any thread
+     */
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(S7Priority.values().length);
+
+    private volatile S7Metrics metrics = S7Metrics.NONE;
+
+    private volatile int waiting = 0;
+
+    /**
+     * Pass of the group granted last
+     */
+    private long virtualTime = 0;
+
+    public S7RequestScheduler() {
+        for (final S7Priority priority : S7Priority.values()) {
+            this.queues.put(priority, new LinkedHashMap<>());
+            this.waitMetrics.put(priority, METRIC_WAIT + "." + priority.name().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Sets the metrics sink
+     */
+    public void setMetrics(final S7Metrics metrics) {
+        this.metrics = metrics == null ? S7Metrics.NONE : metrics;
+    }
+
+    /**
+     * Returns the metrics sink
+     */
+    S7Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Returns the wait metric of the given class
+     */
+    String getWaitMetric(final S7Priority priority) {
+        return this.waitMetrics.get(priority);
+    }
+
+    /**
+     * Sets the share of a client group relative to the others within a class, default is 1
+     *
+     * @param group  the group name
+     * @param weight the weight, positive
+     */
+    public void setWeight(final String group, final int weight) {
+        if (group == null) {
+            throw new IllegalArgumentException("Group must not be null");
+        }
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive, but was: " + weight);
+        }
+        this.weights.put(group, weight);
+    }
+
+    /**
+     * Queues a request
+     *
+     * @param priority the priority class
+     * @param group    the client group
+     * @param request  the request
+     */
+    public void add(final S7Priority priority, final String group, final T request) {
+        if (priority == null || group == null) {
+            throw new IllegalArgumentException("Priority and group must not be null");
+        }
+        final Group g = this.group(group);
+        if (g.waiting++ == 0) {
+            // no saved up credit from idle time
+            g.pass = Math.max(g.pass, this.virtualTime);
+        }
+        this.queues.get(priority).computeIfAbsent(g, k -> new ArrayDeque<>()).addLast(request);
+        this.counts.incrementAndGet(priority.ordinal());
+        this.metrics.gauge(METRIC_QUEUED, ++this.waiting);
+    }
+
+    /**
+     * Removes and returns the request to serve next: highest class, then
+     * lowest group pass, then arrival order
+     *
+     * @return the request, null if none is waiting
+     */
+    public T poll() {
+        for (final Map.Entry<S7Priority, LinkedHashMap<Group, ArrayDeque<T>>> entry : this.queues.entrySet()) {
+            final LinkedHashMap<Group, ArrayDeque<T>> queue = entry.getValue();
+            Group best = null;
+            for (final Group group : queue.keySet()) {
+                if (best == null || group.pass < best.pass) {
+                    best = group;
+                }
+            }
+            if (best == null) {
+                continue;
+            }
+            final ArrayDeque<T> requests = queue.get(best);
+            final T request = requests.pollFirst();
+            if (requests.isEmpty()) {
+                queue.remove(best);
+            }
+            this.virtualTime = best.pass;
+            best.pass += STRIDE / this.weights.getOrDefault(best.name, 1);
+            this.dequeued(entry.getKey(), best);
+            this.prune();
+            return request;
+        }
+        return null;
+    }
+
+    /**
+     * Removes a waiting request, e.g. one withdrawn by its caller
+     *
+     * @param priority the priority class it was queued with
+     * @param group    the client group it was queued with
+     * @param request  the request
+     * @return false if the request was not waiting
+     */
+    public boolean remove(final S7Priority priority, final String group, final T request) {
+        final Group g = this.groups.get(group);
+        final LinkedHashMap<Group, ArrayDeque<T>> queue = this.queues.get(priority);
+        final ArrayDeque<T> requests = g == null ? null : queue.get(g);
+        if (requests == null || !requests.removeFirstOccurrence(request)) {
+            return false;
+        }
+        if (requests.isEmpty()) {
+            queue.remove(g);
+        }
+        this.dequeued(priority, g);
+        return true;
+    }
+
+    /**
+     * Counts a request leaving the queue
+     */
+    private void dequeued(final S7Priority priority, final Group group) {
+        if (--group.waiting == 0) {
+            this.idle.add(group);
+        }
+        this.counts.decrementAndGet(priority.ordinal());
+        this.metrics.gauge(METRIC_QUEUED, --this.waiting);
+    }
+
+    /**
+     * Forgets idle groups the virtual time caught up with, they would restart
+     * at the virtual time anyway
+     */
+    private void prune() {
+        for (final Iterator<Group> it = this.idle.iterator(); it.hasNext(); ) {
+            final Group group = it.next();
+            if (group.waiting > 0) {
+                it.remove();
+            } else if (group.pass <= this.virtualTime) {
+                it.remove();
+                this.groups.remove(group.name);
+            }
+        }
+    }
+
+    /**
+     * Returns true if a request of a class higher than the given one is waiting
+     */
+    public boolean hasWaiterAbove(final S7Priority priority) {
+        for (final Map.Entry<S7Priority, LinkedHashMap<Group, ArrayDeque<T>>> entry : this.queues.entrySet()) {
+            if (entry.getKey().compareTo(priority) >= 0) {
+                return false;
+            }
+            if (!entry.getValue().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of requests waiting for the connection
+     */
+    public int getQueueLength() {
+        return this.waiting;
+    }
+
+    /**
+     * Returns the number of requests of the given class waiting for the connection
+     */
+    public int getQueueLength(final S7Priority priority) {
+        return this.counts.get(priority.ordinal());
+    }
+
+    /**
+     * Returns the number of client groups tracked, waiting or idle with
+     * their pass still ahead; must only be called by the I/O thread
+     */
+    public int getGroupCount() {
+        return this.groups.size();
+    }
+
+    private Group group(final String name) {
+        Group group = this.groups.get(name);
+        if (group == null) {
+            group = new Group(name);
+            group.pass = this.virtualTime;
+            this.groups.put(name, group);
+        }
+        return group;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7Priority;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7RequestScope;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.impl.utils.Deadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Large-transfer mode: splits big reads and writes into PDU-sized chunks and
+ * issues them in parallel.
+ * <p>
+ * Meant to wrap a {@link S7PooledConnection}, so the chunks of one request are
+ * spread over several sessions. Each chunk is copied into the destination
+ * buffer as soon as it arrives. Requests not larger than a single chunk are
+ * passed through unchanged.
+ * <p>
+ * Chunks of a striped write are sent concurrently, so a large write is neither
+ * atomic nor ordered: after a failure some chunks may have been written.
+ * <p>
+ * Chunks are scheduled in the caller's {@link S7RequestScope} group, as
+ * {@link S7Priority#BULK} unless the scope sets another class.
+ */
+public final class S7StripedConnection implements S7Connector {
+
+    private static final Logger logger = LoggerFactory.getLogger(S7StripedConnection.class);
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final S7Connector delegate;
+
+    /**
+     * Bytes per read chunk, 0 for the negotiated PDU
+     */
+    private final int readChunk;
+
+    /**
+     * Bytes per write chunk, 0 for the negotiated PDU
+     */
+    private final int writeChunk;
+
+    private final ExecutorService executor;
+
+    /**
+     * Wraps the given connection, chunks fill the PDU the connection negotiated
+     *
+     * @param delegate    the connection, usually a pool
+     * @param parallelism chunks in flight at the same time
+     */
+    public S7StripedConnection(final S7Connector delegate, final int parallelism) {
+        this(delegate, parallelism, 0, 0, true);
+    }
+
+    /**
+     * Wraps the given connection
+     *
+     * @param delegate    the connection, usually a pool
+     * @param parallelism chunks in flight at the same time
+     * @param readChunk   bytes per read chunk
+     * @param writeChunk  bytes per write chunk
+     */
+    public S7StripedConnection(final S7Connector delegate, final int parallelism, final int readChunk, final int writeChunk) {
+        this(delegate, parallelism, readChunk, writeChunk, false);
+    }
+
+    private S7StripedConnection(final S7Connector delegate, final int parallelism, final int readChunk, final int writeChunk,
+                                final boolean negotiated) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate must not be null");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive, but was: " + parallelism);
+        }
+        if (!negotiated && (readChunk <= 0 || writeChunk <= 0)) {
+            throw new IllegalArgumentException(String.format(
+                "Chunk sizes must be positive, but were: readChunk=%d, writeChunk=%d", readChunk, writeChunk));
+        }
+        this.delegate = delegate;
+        this.readChunk = readChunk;
+        this.writeChunk = writeChunk;
+        final int instance = instances.incrementAndGet();
+        final AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+            final Thread thread = new Thread(r, "s7-stripe-" + instance + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException, InterruptedException {
+        return this.read(area, areaNumber, bytes, offset, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset, final Duration timeout) throws IOException, InterruptedException {
+        final int chunk = this.readChunk > 0 ? this.readChunk : this.delegate.getMaxReadSize();
+        if (bytes <= chunk) {
+            return this.delegate.read(area, areaNumber, bytes, offset, timeout);
+        }
+        if (offset < 0 || offset > Integer.MAX_VALUE - bytes) {
+            throw new IllegalArgumentException(String.format("Invalid range: offset=%d, bytes=%d", offset, bytes));
+        }
+
+        final Deadline deadline = Deadline.after(timeout);
+        final S7RequestScope scope = S7RequestScope.current();
+        final S7Priority priority = scope != null && scope.getPriority() != null ? scope.getPriority() : S7Priority.BULK;
+        final String group = scope != null ? scope.getGroup() : null;
+        final byte[] result = new byte[bytes];
+        final List<Future<?>> chunks = new ArrayList<>();
+        for (int pos = 0; pos < bytes; pos += chunk) {
+            final int start = pos;
+            final int len = Math.min(chunk, bytes - pos);
+            chunks.add(this.executor.submit(() -> {
+                try (S7RequestScope chunkScope = S7RequestScope.enter(priority, group)) {
+                    final byte[] part = this.delegate.read(area, areaNumber, len, offset + start, deadline.remaining());
+                    System.arraycopy(part, 0, result, start, len);
+                }
+                return null;
+            }));
+        }
+        if (logger.isTraceEnabled()) {
+            logger.trace("Striped read of {} bytes at offset {} into {} chunks", bytes, offset, chunks.size());
+        }
+        this.await(chunks, deadline);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<byte[]> read(final List<S7ReadItem> items, final Duration timeout) throws IOException, InterruptedException {
+        return this.delegate.read(items, timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public S7PreparedRead prepare(final List<S7ReadItem> items) {
+        return this.delegate.prepare(items);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException, InterruptedException {
+        this.write(area, areaNumber, offset, buffer, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer, final Duration timeout) throws IOException, InterruptedException {
+        final int chunk = this.writeChunk > 0 ? this.writeChunk : this.delegate.getMaxWriteSize();
+        if (buffer == null || buffer.length <= chunk) {
+            this.delegate.write(area, areaNumber, offset, buffer, timeout);
+            return;
+        }
+        if (offset < 0 || offset > Integer.MAX_VALUE - buffer.length) {
+            throw new IllegalArgumentException(String.format("Invalid range: offset=%d, bytes=%d", offset, buffer.length));
+        }
+
+        final Deadline deadline = Deadline.after(timeout);
+        final S7RequestScope scope = S7RequestScope.current();
+        final S7Priority priority = scope != null && scope.getPriority() != null ? scope.getPriority() : S7Priority.BULK;
+        final String group = scope != null ? scope.getGroup() : null;
+        final List<Future<?>> chunks = new ArrayList<>();
+        for (int pos = 0; pos < buffer.length; pos += chunk) {
+            final int start = pos;
+            final byte[] part = Arrays.copyOfRange(buffer, pos, Math.min(buffer.length, pos + chunk));
+            chunks.add(this.executor.submit(() -> {
+                try (S7RequestScope chunkScope = S7RequestScope.enter(priority, group)) {
+                    this.delegate.write(area, areaNumber, offset + start, part, deadline.remaining());
+                }
+                return null;
+            }));
+        }
+        if (logger.isTraceEnabled()) {
+            logger.trace("Striped write of {} bytes at offset {} in {} chunks", buffer.length, offset, chunks.size());
+        }
+        this.await(chunks, deadline);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final List<S7WriteItem> items, final Duration timeout) throws IOException, InterruptedException {
+        this.delegate.write(items, timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBitWriteSupported() {
+        return this.delegate.isBitWriteSupported();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxReadSize() {
+        return this.delegate.getMaxReadSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxWriteSize() {
+        return this.delegate.getMaxWriteSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.executor.shutdownNow();
+        this.delegate.close();
+    }
+
+    /**
+     * Waits for all chunks, cancelling the remaining ones on the first failure
+     */
+    private void await(final List<Future<?>> chunks, final Deadline deadline) throws IOException, InterruptedException {
+        try {
+            for (final Future<?> chunk : chunks) {
+                if (deadline.isBounded()) {
+                    chunk.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+                } else {
+                    chunk.get();
+                }
+            }
+        } catch (final ExecutionException e) {
+            cancel(chunks);
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Striped transfer failed", cause);
+        } catch (final TimeoutException e) {
+            cancel(chunks);
+            throw deadline.exceeded("waiting for striped chunks");
+        } catch (final InterruptedException e) {
+            cancel(chunks);
+            throw e;
+        }
+    }
+
+    /**
+     * Cancels all chunks not completed yet
+     */
+    private static void cancel(final List<Future<?>> chunks) {
+        for (final Future<?> chunk : chunks) {
+            chunk.cancel(true);
+        }
+    }
+}
@@ -16,11 +16,17 @@ limitations under the License.
 package com.github.s7connector.impl;
 
 import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Transport;
 import com.github.s7connector.api.SiemensPLCS;
 import com.github.s7connector.exception.S7Exception;
+import com.github.s7connector.impl.nodave.ChannelTransport;
 import com.github.s7connector.impl.nodave.Nodave;
 import com.github.s7connector.impl.nodave.PLCinterface;
+import com.github.s7connector.impl.nodave.SocketTransport;
 import com.github.s7connector.impl.nodave.TCPConnection;
+import com.github.s7connector.impl.nodave.WireRecorder;
+import com.github.s7connector.impl.nodave.WireTracer;
+import com.github.s7connector.impl.utils.BufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,9 +34,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
 
 /**
- * TCP_Connection to a S7 PLC
+ * TCP_Connection to a S7 PLC, over a TCP socket or a given transport
  *
  * @author Thomas Rudin
  * @href http://libnodave.sourceforge.net/
@@ -39,6 +46,11 @@ public final class S7TCPConnection extends S7BaseConnection {
 
     private static final Logger logger = LoggerFactory.getLogger(S7TCPConnection.class);
 
+    /**
+     * Direct buffers of channel connections without a buffer pool of their own
+     */
+    private static final BufferPool DIRECT_BUFFERS = new BufferPool(1024 * 1024);
+
     /**
      * The Connection
      */
@@ -79,14 +91,40 @@ public final class S7TCPConnection extends S7BaseConnection {
     private final int timeout;
 
     /**
-     * The Socket
+     * The connect device type,such as S200
      */
-    private Socket socket;
+    private SiemensPLCS plcType;
 
     /**
-     * The connect device type,such as S200
+     * Pool of the frame buffers, null if the connection owns them
      */
-    private SiemensPLCS plcType;
+    private final BufferPool bufferPool;
+
+    /**
+     * Socket send and receive buffer size, 0 for the system default
+     */
+    private final int socketBufferSize;
+
+    /**
+     * Transfer through a socket channel and direct buffers instead of the
+     * socket streams
+     */
+    private final boolean directBuffers;
+
+    /**
+     * Records the frames, null if not traced
+     */
+    private final WireTracer tracer;
+
+    /**
+     * Records the frames for replay, null if not recorded
+     */
+    private final WireRecorder recorder;
+
+    /**
+     * Opens the transport, null for a TCP socket to host and port
+     */
+    private final S7Transport.Factory transports;
 
     /**
      * Creates a new Instance to the given host, rack, slot and port
@@ -95,6 +133,29 @@ public final class S7TCPConnection extends S7BaseConnection {
      * @throws S7Exception
      */
     public S7TCPConnection(final String host, final int type, final int rack, final int slot, final int port, final int timeout, final SiemensPLCS plcType) throws S7Exception {
+        this(host, type, rack, slot, port, timeout, plcType, null, 0, false, null, null, null);
+    }
+
+    /**
+     * Creates a new Instance to the given host, rack, slot and port, with
+     * the frame buffers taken from a shared pool while busy
+     *
+     * @param bufferPool       the pool of the frame buffers, null to own them
+     * @param socketBufferSize socket send and receive buffer size, 0 for the system default
+     * @param directBuffers    transfer through a socket channel and pooled direct buffers
+     * @param tracer           records the frames, null for no trace
+     * @param recorder         records the frames for replay, null for no recording
+     * @param transports       opens the transport instead of a TCP socket, host and port
+     *                         then only name the connection; null for a socket
+     * @throws S7Exception
+     */
+    public S7TCPConnection(final String host, final int type, final int rack, final int slot, final int port, final int timeout, final SiemensPLCS plcType,
+                           final BufferPool bufferPool, final int socketBufferSize, final boolean directBuffers,
+                           final WireTracer tracer, final WireRecorder recorder,
+                           final S7Transport.Factory transports) throws S7Exception {
+        if (socketBufferSize < 0) {
+            throw new IllegalArgumentException("Socket buffer size must not be negative, but was: " + socketBufferSize);
+        }
         logger.info("Creating S7TCP connection to {}:{} (type={}, rack={}, slot={}, timeout={}ms, plcType={})",
             host, port, type, rack, slot, timeout, plcType);
 
@@ -105,6 +166,12 @@ public final class S7TCPConnection extends S7BaseConnection {
         this.port = port;
         this.timeout = timeout;
         this.plcType = plcType;
+        this.bufferPool = bufferPool;
+        this.socketBufferSize = socketBufferSize;
+        this.directBuffers = directBuffers;
+        this.tracer = tracer;
+        this.recorder = recorder;
+        this.transports = transports;
 
         try {
             this.setupSocket();
@@ -131,11 +198,11 @@ public final class S7TCPConnection extends S7BaseConnection {
         markAsClosed();
 
         try {
-            if (this.socket != null && !this.socket.isClosed()) {
-                this.socket.close();
+            if (this.di != null) {
+                this.di.close();
                 logger.info("Successfully closed connection to {}:{}", host, port);
             } else {
-                logger.debug("Socket already closed or null for {}:{}", host, port);
+                logger.debug("Transport not open for {}:{}", host, port);
             }
         } catch (IOException e) {
             logger.error("Error closing connection to {}:{}: {}", host, port, e.getMessage(), e);
@@ -145,23 +212,58 @@ public final class S7TCPConnection extends S7BaseConnection {
 
 
     /**
-     * Sets up the socket
+     * {@inheritDoc}
+     * <p>
+     * Dumps the wire trace if configured so.
      */
-    private void setupSocket() throws S7Exception {
+    @Override
+    protected void failed(final IOException e) {
+        if (this.tracer != null) {
+            this.tracer.failed(this.host + "-" + this.port);
+        }
+    }
+
+    /**
+     * Opens a TCP socket to host and port
+     */
+    private S7Transport openSocket() throws IOException {
+        logger.debug("Creating socket for {}:{} with timeout {}ms", host, port, timeout);
+        final SocketChannel channel = this.directBuffers ? SocketChannel.open() : null;
+        final Socket socket = channel != null ? channel.socket() : new Socket();
         try {
-            logger.debug("Creating socket for {}:{} with timeout {}ms", host, port, timeout);
-            this.socket = new Socket();
             // Set timeout for connection establishment
-            this.socket.setSoTimeout(this.timeout);
+            socket.setSoTimeout(this.timeout);
             // Enable TCP keep-alive to detect broken connections
-            this.socket.setKeepAlive(true);
+            socket.setKeepAlive(true);
             // Disable Nagle's algorithm for low-latency communication
-            this.socket.setTcpNoDelay(true);
+            socket.setTcpNoDelay(true);
+            if (this.socketBufferSize > 0) {
+                // frames are small, the system default buffers are mostly unused
+                socket.setReceiveBufferSize(this.socketBufferSize);
+                socket.setSendBufferSize(this.socketBufferSize);
+            }
 
             logger.debug("Connecting to {}:{}...", host, port);
-            this.socket.connect(new InetSocketAddress(this.host, this.port), this.timeout);
+            socket.connect(new InetSocketAddress(this.host, this.port), this.timeout);
             logger.debug("Socket connected successfully to {}:{}", host, port);
 
+            if (channel != null) {
+                return new ChannelTransport(channel, this.bufferPool != null ? this.bufferPool : DIRECT_BUFFERS);
+            }
+            return new SocketTransport(socket);
+        } catch (final IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets up the transport and the connection
+     */
+    private void setupSocket() throws S7Exception {
+        try {
+            final S7Transport transport = this.transports != null ? this.transports.open() : this.openSocket();
+
             //select the plc interface protocol by the plcsType
             int protocol;
             switch (this.plcType) {
@@ -182,12 +284,15 @@ public final class S7TCPConnection extends S7BaseConnection {
             }
 
             logger.debug("Creating PLC interface with protocol {}", protocol);
-            this.di = new PLCinterface(this.socket.getOutputStream(), this.socket.getInputStream(), "IF1",
+            this.di = new PLCinterface(transport, "IF1",
                     DaveArea.LOCAL.getCode(),
                     protocol);
 
             logger.debug("Creating TCP connection to rack {} slot {}", rack, slot);
             this.dc = new TCPConnection(this.di, this.type, this.rack, this.slot);
+            this.dc.setBufferPool(this.bufferPool);
+            this.dc.setWireTracer(this.tracer);
+            this.dc.setWireRecorder(this.recorder);
 
             logger.debug("Connecting to PLC...");
             final int res = this.dc.connectPLC();
@@ -205,6 +310,7 @@ public final class S7TCPConnection extends S7BaseConnection {
         } catch (IOException e) {
             // Close socket to prevent resource leak
             closeSocketSafely();
+            this.failed(e);
             String msg = String.format("IOException while setting up connection to %s:%d: %s", host, port, e.getMessage());
             logger.error(msg, e);
             throw new S7Exception(msg, e);
@@ -224,16 +330,16 @@ public final class S7TCPConnection extends S7BaseConnection {
     }
 
     /**
-     * Safely closes the socket, suppressing any exceptions.
+     * Safely closes the transport, suppressing any exceptions.
      * Used internally for cleanup in error scenarios to prevent resource leaks.
      */
     private void closeSocketSafely() {
-        if (this.socket != null && !this.socket.isClosed()) {
+        if (this.di != null) {
             try {
-                this.socket.close();
-                logger.debug("Socket closed during error cleanup for {}:{}", host, port);
+                this.di.close();
+                logger.debug("Transport closed during error cleanup for {}:{}", host, port);
             } catch (IOException e) {
-                logger.warn("Failed to close socket during error cleanup for {}:{}: {}",
+                logger.warn("Failed to close transport during error cleanup for {}:{}: {}",
                     host, port, e.getMessage());
                 // Suppress exception - we're already handling an error
             }
@@ -0,0 +1,661 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.impl.utils.Deadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind mode: combines bursts of small writes.
+ * <p>
+ * Writes are buffered for a short window. Writes to adjacent or overlapping
+ * ranges of the same area are merged into one range, the last writer wins per
+ * byte. When the window elapses all buffered ranges are sent as multi-item
+ * write requests, and the future of every write is completed once its bytes
+ * were acknowledged by the PLC (or failed with the error of its request).
+ * <p>
+ * Buffered writes are not ordered against each other; {@link #flush()} sends
+ * everything buffered so far and waits for it. Reads overlapping a buffered
+ * range flush first, so callers read their own writes. Bit writes are never
+ * buffered: they flush first and are sent right away.
+ * <p>
+ * A synchronous write timing out (or interrupted) while still buffered is
+ * withdrawn and never sent. Once its batch is being sent it can no longer be
+ * withdrawn: the timeout is reported, but the PLC may still apply the write.
+ */
+public final class S7WriteBehindConnection implements S7Connector {
+
+    private static final Logger logger = LoggerFactory.getLogger(S7WriteBehindConnection.class);
+
+    /**
+     * Metric: writes merged into an already buffered range
+     */
+    public static final String METRIC_MERGED = "s7.writebehind.merged";
+
+    /**
+     * Metric: ranges sent to the PLC
+     */
+    public static final String METRIC_FLUSHED = "s7.writebehind.flushed";
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    /**
+     * Area and area number of buffered ranges
+     */
+    private static final class Key {
+        final DaveArea area;
+        final int areaNumber;
+
+        Key(final DaveArea area, final int areaNumber) {
+            this.area = area;
+            this.areaNumber = areaNumber;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return this.area == other.area && this.areaNumber == other.areaNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.area.hashCode() + this.areaNumber;
+        }
+    }
+
+    /**
+     * A buffered write and its future
+     */
+    private static final class Write {
+        final Key key;
+        final int start;
+        final byte[] data;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Write(final Key key, final int start, final byte[] data) {
+            this.key = key;
+            this.start = start;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Buffered bytes [start, start + data.length) and the writes merged into them, in order
+     */
+    private static final class Range {
+        final int start;
+        final byte[] data;
+        final List<Write> writes;
+
+        Range(final int start, final byte[] data, final List<Write> writes) {
+            this.start = start;
+            this.data = data;
+            this.writes = writes;
+        }
+
+        int end() {
+            return this.start + this.data.length;
+        }
+    }
+
+    private final S7Connector delegate;
+
+    private final long windowMillis;
+
+    private final S7Metrics metrics;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Guards buffered, sending and scheduled, never held during I/O
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Held while a batch is sent, keeps batches in order
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * Buffered ranges per area by start offset
+     */
+    private final Map<Key, TreeMap<Integer, Range>> buffered = new LinkedHashMap<>();
+
+    /**
+     * Ranges of the batch currently sent
+     */
+    private Map<Key, TreeMap<Integer, Range>> sending = Collections.emptyMap();
+
+    private ScheduledFuture<?> scheduled;
+
+    private boolean closed = false;
+
+    /**
+     * Wraps the given connection
+     *
+     * @param delegate     the connection
+     * @param windowMillis millis a write is buffered before it is sent
+     * @param metrics      the metrics sink
+     */
+    public S7WriteBehindConnection(final S7Connector delegate, final int windowMillis, final S7Metrics metrics) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate must not be null");
+        }
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Window must be non-negative, but was: " + windowMillis);
+        }
+        this.delegate = delegate;
+        this.windowMillis = windowMillis;
+        this.metrics = metrics == null ? S7Metrics.NONE : metrics;
+        final int instance = instances.incrementAndGet();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "s7-write-behind-" + instance);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Buffers a write
+     *
+     * @param area       the memory area to write to
+     * @param areaNumber the area number (e.g., DB number for data blocks)
+     * @param offset     the byte offset within the area
+     * @param buffer     the data to write, copied
+     * @return completed when the bytes were acknowledged by the PLC
+     */
+    public CompletableFuture<Void> writeAsync(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) {
+        return this.buffer(area, areaNumber, offset, buffer).future;
+    }
+
+    /**
+     * Buffers a write and schedules the flush of the window
+     */
+    private Write buffer(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) {
+        // validates the arguments
+        final S7WriteItem item = new S7WriteItem(area, areaNumber, offset, buffer == null ? null : buffer.clone());
+        final Write write = new Write(new Key(area, areaNumber), item.getOffset(), item.getData());
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                throw new IllegalStateException("Connection is closed. Cannot perform write operation.");
+            }
+            if (this.merge(write)) {
+                this.metrics.increment(METRIC_MERGED, 1);
+            }
+            if (this.scheduled == null) {
+                this.scheduled = this.scheduler.schedule(this::flushQuietly, this.windowMillis, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return write;
+    }
+
+    /**
+     * Sends all buffered writes and waits for their acknowledgement
+     *
+     * @throws IOException if sending failed, the affected futures fail as well
+     */
+    public void flush() throws IOException, InterruptedException {
+        this.flushLock.lockInterruptibly();
+        try {
+            final Map<Key, TreeMap<Integer, Range>> batch;
+            this.lock.lock();
+            try {
+                if (this.scheduled != null) {
+                    this.scheduled.cancel(false);
+                    this.scheduled = null;
+                }
+                if (this.buffered.isEmpty()) {
+                    return;
+                }
+                batch = new LinkedHashMap<>(this.buffered);
+                this.buffered.clear();
+                this.sending = batch;
+            } finally {
+                this.lock.unlock();
+            }
+
+            try {
+                this.send(batch);
+            } finally {
+                this.lock.lock();
+                try {
+                    this.sending = Collections.emptyMap();
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException, InterruptedException {
+        return this.read(area, areaNumber, bytes, offset, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset, final Duration timeout) throws IOException, InterruptedException {
+        boolean overlapping = false;
+        if (area != null) {
+            this.lock.lock();
+            try {
+                final Key key = new Key(area, areaNumber);
+                overlapping = overlaps(this.buffered.get(key), offset, offset + bytes)
+                    || overlaps(this.sending.get(key), offset, offset + bytes);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        if (overlapping) {
+            this.flush();
+        }
+        return this.delegate.read(area, areaNumber, bytes, offset, timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<byte[]> read(final List<S7ReadItem> items, final Duration timeout) throws IOException, InterruptedException {
+        this.flushOverlapping(items);
+        return this.delegate.read(items, timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read is prepared by the wrapped connection, each execution first
+     * sends the buffered writes it overlaps.
+     */
+    @Override
+    public S7PreparedRead prepare(final List<S7ReadItem> items) {
+        final S7PreparedRead prepared = this.delegate.prepare(items);
+        return new S7PreparedRead() {
+            @Override
+            public List<S7ReadItem> getItems() {
+                return prepared.getItems();
+            }
+
+            @Override
+            public List<byte[]> read(final Duration timeout) throws IOException, InterruptedException {
+                S7WriteBehindConnection.this.flushOverlapping(prepared.getItems());
+                return prepared.read(timeout);
+            }
+        };
+    }
+
+    /**
+     * Sends the buffered writes if any overlaps the items, so reads see them
+     */
+    private void flushOverlapping(final List<S7ReadItem> items) throws IOException, InterruptedException {
+        boolean overlapping = false;
+        this.lock.lock();
+        try {
+            for (final S7ReadItem item : items) {
+                final Key key = new Key(item.getArea(), item.getAreaNumber());
+                final int end = item.getOffset() + item.getLength();
+                if (overlaps(this.buffered.get(key), item.getOffset(), end)
+                    || overlaps(this.sending.get(key), item.getOffset(), end)) {
+                    overlapping = true;
+                    break;
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (overlapping) {
+            this.flush();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException, InterruptedException {
+        this.write(area, areaNumber, offset, buffer, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Buffers the write and waits for its acknowledgement.
+     */
+    @Override
+    public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer, final Duration timeout) throws IOException, InterruptedException {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Buffer must not be null");
+        }
+        final Deadline deadline = Deadline.after(timeout);
+        this.await(this.buffer(area, areaNumber, offset, buffer), deadline);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Buffers the items and waits for their acknowledgement.
+     */
+    @Override
+    public void write(final List<S7WriteItem> items, final Duration timeout) throws IOException, InterruptedException {
+        final Deadline deadline = Deadline.after(timeout);
+        for (final S7WriteItem item : items) {
+            if (item.isBit()) {
+                // a bit must not be merged as a whole byte, keep it ordered after the buffered writes
+                this.flush();
+                this.delegate.write(items, deadline.remaining());
+                return;
+            }
+        }
+        final List<Write> writes = new ArrayList<>(items.size());
+        for (final S7WriteItem item : items) {
+            writes.add(this.buffer(item.getArea(), item.getAreaNumber(), item.getOffset(), item.getData()));
+        }
+        try {
+            for (final Write write : writes) {
+                this.await(write, deadline);
+            }
+        } catch (final IOException | InterruptedException e) {
+            // the items are written together or not at all, as far as they are still buffered
+            for (final Write write : writes) {
+                this.withdraw(write, e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBitWriteSupported() {
+        return this.delegate.isBitWriteSupported();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxReadSize() {
+        return this.delegate.getMaxReadSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxWriteSize() {
+        return this.delegate.getMaxWriteSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sends the buffered writes before closing the connection. Writes that
+     * could not be sent (the final flush was interrupted) fail.
+     */
+    @Override
+    public void close() throws IOException {
+        // no write may be buffered after the final flush took the buffer
+        this.lock.lock();
+        try {
+            this.closed = true;
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.flush();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            final List<Write> unsent = new ArrayList<>();
+            this.lock.lock();
+            try {
+                for (final TreeMap<Integer, Range> ranges : this.buffered.values()) {
+                    for (final Range range : ranges.values()) {
+                        unsent.addAll(range.writes);
+                    }
+                }
+                this.buffered.clear();
+            } finally {
+                this.lock.unlock();
+            }
+            if (!unsent.isEmpty()) {
+                final IOException closed = new IOException("Connection was closed before the buffered write was sent");
+                for (final Write write : unsent) {
+                    write.future.completeExceptionally(closed);
+                }
+            }
+            this.scheduler.shutdownNow();
+            this.delegate.close();
+        }
+    }
+
+    /**
+     * Merges the write into the buffered ranges of its area, lock must be held
+     *
+     * @return true if the write touched an already buffered range
+     */
+    private boolean merge(final Write write) {
+        TreeMap<Integer, Range> ranges = this.buffered.get(write.key);
+        if (ranges == null) {
+            ranges = new TreeMap<>();
+            this.buffered.put(write.key, ranges);
+        }
+
+        final int start = write.start;
+        final int end = start + write.data.length;
+        final Integer floor = ranges.floorKey(start);
+        final List<Range> touching = new ArrayList<>();
+        for (final Range range : ranges.subMap(floor != null ? floor : start, true, end, true).values()) {
+            if (range.end() >= start) {
+                touching.add(range);
+            }
+        }
+
+        if (touching.isEmpty()) {
+            final List<Write> writes = new ArrayList<>();
+            writes.add(write);
+            ranges.put(start, new Range(start, write.data, writes));
+            return false;
+        }
+
+        final int mergedStart = Math.min(start, touching.get(0).start);
+        final int mergedEnd = Math.max(end, touching.get(touching.size() - 1).end());
+        final byte[] merged = new byte[mergedEnd - mergedStart];
+        final List<Write> writes = new ArrayList<>();
+        for (final Range range : touching) {
+            ranges.remove(range.start);
+            System.arraycopy(range.data, 0, merged, range.start - mergedStart, range.data.length);
+            writes.addAll(range.writes);
+        }
+        // last writer wins
+        System.arraycopy(write.data, 0, merged, start - mergedStart, write.data.length);
+        writes.add(write);
+        ranges.put(mergedStart, new Range(mergedStart, merged, writes));
+        return true;
+    }
+
+    /**
+     * Removes a write that is still buffered and fails its future
+     * <p>
+     * The range holding it is rebuilt from the other writes merged into it,
+     * in their original order.
+     *
+     * @return false if the write was already taken by a flush
+     */
+    private boolean withdraw(final Write write, final Exception cause) {
+        this.lock.lock();
+        try {
+            final TreeMap<Integer, Range> ranges = this.buffered.get(write.key);
+            final Map.Entry<Integer, Range> floor = ranges == null ? null : ranges.floorEntry(write.start);
+            final Range range = floor == null ? null : floor.getValue();
+            if (range == null || !range.writes.contains(write)) {
+                return false;
+            }
+            ranges.remove(range.start);
+            for (final Write other : range.writes) {
+                if (other != write) {
+                    this.merge(other);
+                }
+            }
+            if (ranges.isEmpty()) {
+                this.buffered.remove(write.key);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        write.future.completeExceptionally(cause);
+        return true;
+    }
+
+    /**
+     * Sends a batch with multi-item requests and completes its futures
+     */
+    private void send(final Map<Key, TreeMap<Integer, Range>> batch) throws IOException, InterruptedException {
+        final List<S7WriteItem> items = new ArrayList<>();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (final Map.Entry<Key, TreeMap<Integer, Range>> entry : batch.entrySet()) {
+            for (final Range range : entry.getValue().values()) {
+                items.add(new S7WriteItem(entry.getKey().area, entry.getKey().areaNumber, range.start, range.data));
+                for (final Write write : range.writes) {
+                    futures.add(write.future);
+                }
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Flushing {} buffered writes as {} ranges", futures.size(), items.size());
+        }
+
+        try {
+            this.delegate.write(items, null);
+        } catch (final IOException | RuntimeException | InterruptedException e) {
+            for (final CompletableFuture<Void> future : futures) {
+                future.completeExceptionally(e);
+            }
+            throw e;
+        }
+        this.metrics.increment(METRIC_FLUSHED, items.size());
+        for (final CompletableFuture<Void> future : futures) {
+            future.complete(null);
+        }
+    }
+
+    /**
+     * Flush run by the scheduler, failures are reported through the futures
+     */
+    private void flushQuietly() {
+        try {
+            this.flush();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            logger.warn("Write-behind flush failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if any range overlaps [start, end)
+     */
+    private static boolean overlaps(final TreeMap<Integer, Range> ranges, final int start, final int end) {
+        if (ranges == null) {
+            return false;
+        }
+        final Integer floor = ranges.floorKey(start);
+        for (final Range range : ranges.subMap(floor != null ? floor : start, true, end, false).values()) {
+            if (range.end() > start) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for a buffered write, unwrapping its failure
+     * <p>
+     * On timeout or interrupt the write is withdrawn if it is still buffered.
+     * Otherwise it is already being sent and may still be applied.
+     */
+    private void await(final Write write, final Deadline deadline) throws IOException, InterruptedException {
+        try {
+            if (deadline.isBounded()) {
+                write.future.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            } else {
+                write.future.get();
+            }
+        } catch (final TimeoutException e) {
+            final DeadlineExceededException exceeded = deadline.exceeded("waiting for a buffered write");
+            if (!this.withdraw(write, exceeded)) {
+                logger.debug("Timed out write to {} {} at {} is being sent, it may still be applied",
+                    write.key.area, write.key.areaNumber, write.start);
+            }
+            throw exceeded;
+        } catch (final InterruptedException e) {
+            this.withdraw(write, e);
+            throw e;
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw new IOException("Buffered write was interrupted", cause);
+            }
+            throw new IOException("Buffered write failed", cause);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+import com.github.s7connector.api.S7Transport;
+
+/**
+ * Common part of the built-in transports
+ */
+abstract class BaseTransport implements S7Transport {
+
+    /**
+     * Read calls which returned data, written by the receiving thread only
+     */
+    long readCalls;
+
+    /**
+     * Returns the number of read calls which returned data so far
+     */
+    public long getReadCalls() {
+        return this.readCalls;
+    }
+
+    /**
+     * Converts a timeout to socket or selector millis, at least 1
+     */
+    static long toMillis(final long timeoutNanos) {
+        return Math.max(1, Math.min(Integer.MAX_VALUE, (timeoutNanos + 999_999) / 1_000_000));
+    }
+}
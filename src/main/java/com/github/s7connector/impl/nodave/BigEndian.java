@@ -0,0 +1,53 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+/**
+ * Big-endian access to byte arrays, the byte order of the S7 protocol.
+ * <p>
+ * This is the Java 8 implementation. The multi-release JAR carries a Java 17
+ * version in {@code META-INF/versions/17} using byte array view VarHandles,
+ * which compile to a single load or store with a byte swap.
+ */
+final class BigEndian {
+
+	private BigEndian() {
+	}
+
+	/**
+	 * Reads a signed 16 bit value
+	 */
+	static short getShort(final byte[] b, final int pos) {
+		return (short) (((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF));
+	}
+
+	/**
+	 * Reads a signed 32 bit value
+	 */
+	static int getInt(final byte[] b, final int pos) {
+		return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+	}
+
+	/**
+	 * Writes a 32 bit value
+	 */
+	static void putInt(final byte[] b, final int pos, final int value) {
+		b[pos] = (byte) (value >> 24);
+		b[pos + 1] = (byte) (value >> 16);
+		b[pos + 2] = (byte) (value >> 8);
+		b[pos + 3] = (byte) value;
+	}
+}
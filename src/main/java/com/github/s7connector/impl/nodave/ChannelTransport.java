@@ -0,0 +1,199 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+import com.github.s7connector.impl.utils.BufferPool;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Transport over a non-blocking socket channel. Frames are received into a
+ * pooled direct buffer, as much as available with one read call, and sent
+ * from one, so the JDK copies neither through temporary native buffers.
+ */
+public final class ChannelTransport extends BaseTransport {
+
+    /**
+     * Receive buffer, holds a frame of the largest TPDU
+     */
+    private static final int RX_SIZE = 4096;
+
+    private static final int TX_SIZE = 2048;
+
+    /**
+     * Wait for the socket buffer to drain while sending
+     */
+    private static final int SEND_WAIT_MILLIS = 500;
+
+    private final SocketChannel channel;
+
+    private final BufferPool bufferPool;
+
+    private final Selector selector;
+
+    private final SelectionKey key;
+
+    /**
+     * Direct buffers, rx holds the received bytes not taken yet between
+     * position and limit. Null once the transport is closed.
+     */
+    private ByteBuffer rx, tx;
+
+    /**
+     * Keeps the buffers from returning to the pool during a transfer
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Creates the transport on a connected channel and switches the channel
+     * to non-blocking mode. Closing the transport closes the channel.
+     *
+     * @param bufferPool the pool of the direct buffers
+     */
+    public ChannelTransport(final SocketChannel channel, final BufferPool bufferPool) throws IOException {
+        if (channel == null || bufferPool == null) {
+            throw new IllegalArgumentException("Channel and buffer pool must not be null");
+        }
+        this.channel = channel;
+        this.bufferPool = bufferPool;
+        channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.key = channel.register(this.selector, SelectionKey.OP_READ);
+        this.rx = bufferPool.acquireDirect(RX_SIZE);
+        ((Buffer) this.rx).limit(0);
+        this.tx = bufferPool.acquireDirect(TX_SIZE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Takes received bytes from the direct buffer, reading from the channel
+     * if it is empty.
+     */
+    @Override
+    public int receive(final byte[] buffer, final int offset, final int length, final long timeoutNanos) throws IOException {
+        this.lock.lock();
+        try {
+            if (this.rx == null) {
+                throw new IOException("Transport is closed");
+            }
+            if (!this.rx.hasRemaining()) {
+                final int res = this.fill(timeoutNanos);
+                if (res <= 0) {
+                    return res;
+                }
+            }
+            final int res = Math.min(length, this.rx.remaining());
+            this.rx.get(buffer, offset, res);
+            return res;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Reads what is available into the empty receive buffer, waiting for the
+     * first bytes until the timeout.
+     *
+     * @return the number of bytes read, 0 if nothing arrived in time, -1 at
+     * the end of stream
+     */
+    private int fill(final long timeoutNanos) throws IOException {
+        ((Buffer) this.rx).clear();
+        int res = this.channel.read(this.rx);
+        final long end = System.nanoTime() + timeoutNanos;
+        long remaining = timeoutNanos;
+        while (res == 0 && remaining > 0 && !Thread.currentThread().isInterrupted()) {
+            this.selector.select(toMillis(remaining));
+            this.selector.selectedKeys().clear();
+            res = this.channel.read(this.rx);
+            remaining = end - System.nanoTime();
+        }
+        ((Buffer) this.rx).flip();
+        if (res > 0) {
+            this.readCalls++;
+        }
+        return res;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sends through the direct buffer, waiting while the socket buffer is
+     * full.
+     */
+    @Override
+    public void send(final byte[] buffer, int offset, final int length) throws IOException {
+        this.lock.lock();
+        try {
+            if (this.tx == null) {
+                throw new IOException("Transport is closed");
+            }
+            final int end = offset + length;
+            while (offset < end) {
+                final int n = Math.min(this.tx.capacity(), end - offset);
+                ((Buffer) this.tx).clear();
+                this.tx.put(buffer, offset, n);
+                ((Buffer) this.tx).flip();
+                offset += n;
+                while (this.tx.hasRemaining()) {
+                    if (this.channel.write(this.tx) == 0) {
+                        this.key.interestOps(SelectionKey.OP_WRITE);
+                        try {
+                            this.selector.select(SEND_WAIT_MILLIS);
+                            this.selector.selectedKeys().clear();
+                        } finally {
+                            this.key.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the channel and returns the direct buffers to the pool
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.channel.close();
+        } finally {
+            // a transfer in progress sees the closed channel and releases the lock
+            this.selector.wakeup();
+            this.lock.lock();
+            try {
+                if (this.rx != null) {
+                    this.bufferPool.releaseDirect(this.rx);
+                    this.bufferPool.releaseDirect(this.tx);
+                    this.rx = null;
+                    this.tx = null;
+                }
+                this.selector.close();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+}
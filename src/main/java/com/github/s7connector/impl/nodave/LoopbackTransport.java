@@ -0,0 +1,221 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One end of an in-process connection, for running the whole PDU stack
+ * against a simulator in the same JVM without sockets.
+ * <p>
+ * {@link #pair()} creates two connected ends; bytes sent on one end are
+ * received on the other. A server written against streams uses the
+ * {@link #getInputStream()} and {@link #getOutputStream()} of its end.
+ * Closing either end closes the connection.
+ */
+public final class LoopbackTransport extends BaseTransport {
+
+    /**
+     * Bytes sent to one end and not received yet
+     */
+    private static final class Pipe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition readable = this.lock.newCondition();
+        private byte[] data = new byte[4096];
+        private int head, tail;
+        private boolean closed;
+
+        void write(final byte[] b, final int off, final int len) throws IOException {
+            this.lock.lock();
+            try {
+                if (this.closed) {
+                    throw new IOException("Loopback connection is closed");
+                }
+                if (this.tail + len > this.data.length) {
+                    System.arraycopy(this.data, this.head, this.data, 0, this.tail - this.head);
+                    this.tail -= this.head;
+                    this.head = 0;
+                    if (this.tail + len > this.data.length) {
+                        final byte[] grown = new byte[Math.max(2 * this.data.length, this.tail + len)];
+                        System.arraycopy(this.data, 0, grown, 0, this.tail);
+                        this.data = grown;
+                    }
+                }
+                System.arraycopy(b, off, this.data, this.tail, len);
+                this.tail += len;
+                this.readable.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        int read(final byte[] b, final int off, final int len, final long timeoutNanos) throws InterruptedException {
+            this.lock.lock();
+            try {
+                long remaining = timeoutNanos;
+                while (this.head == this.tail && !this.closed && remaining > 0) {
+                    remaining = this.readable.awaitNanos(remaining);
+                }
+                if (this.head == this.tail) {
+                    return this.closed ? -1 : 0;
+                }
+                final int n = Math.min(len, this.tail - this.head);
+                System.arraycopy(this.data, this.head, b, off, n);
+                this.head += n;
+                if (this.head == this.tail) {
+                    this.head = 0;
+                    this.tail = 0;
+                }
+                return n;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        int available() {
+            this.lock.lock();
+            try {
+                return this.tail - this.head;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        void close() {
+            this.lock.lock();
+            try {
+                this.closed = true;
+                this.readable.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    private final Pipe inbound;
+
+    private final Pipe outbound;
+
+    private LoopbackTransport(final Pipe inbound, final Pipe outbound) {
+        this.inbound = inbound;
+        this.outbound = outbound;
+    }
+
+    /**
+     * Creates two connected ends
+     *
+     * @return the client end at 0, the server end at 1
+     */
+    public static LoopbackTransport[] pair() {
+        final Pipe toServer = new Pipe();
+        final Pipe toClient = new Pipe();
+        return new LoopbackTransport[]{new LoopbackTransport(toClient, toServer), new LoopbackTransport(toServer, toClient)};
+    }
+
+    @Override
+    public void send(final byte[] buffer, final int offset, final int length) throws IOException {
+        this.outbound.write(buffer, offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * An interrupted wait receives nothing and keeps the interrupt.
+     */
+    @Override
+    public int receive(final byte[] buffer, final int offset, final int length, final long timeoutNanos) {
+        try {
+            final int n = this.inbound.read(buffer, offset, length, timeoutNanos);
+            if (n > 0) {
+                this.readCalls++;
+            }
+            return n;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    /**
+     * Returns a stream of the received bytes; reads block until bytes arrive
+     * or the connection is closed.
+     */
+    public InputStream getInputStream() {
+        return new InputStream() {
+            private final byte[] single = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return this.read(this.single, 0, 1) < 0 ? -1 : this.single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                try {
+                    return LoopbackTransport.this.inbound.read(b, off, len, Long.MAX_VALUE);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading from the loopback connection", e);
+                }
+            }
+
+            @Override
+            public int available() {
+                return LoopbackTransport.this.inbound.available();
+            }
+
+            @Override
+            public void close() {
+                LoopbackTransport.this.close();
+            }
+        };
+    }
+
+    /**
+     * Returns a stream sending the bytes written to it
+     */
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                this.write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                LoopbackTransport.this.send(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                LoopbackTransport.this.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        this.inbound.close();
+        this.outbound.close();
+    }
+}
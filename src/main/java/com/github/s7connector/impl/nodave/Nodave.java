@@ -72,18 +72,7 @@ public final class Nodave {
 	public final static int RESULT_WRITE_DATA_SIZE_MISMATCH = 7;
 
 	public static float BEFloat(final byte[] b, final int pos) {
-		int i = 0;
-		// System.out.println("pos" + pos);
-
-		i |= Nodave.USByte(b, pos);
-		i <<= 8;
-		i |= Nodave.USByte(b, pos + 1);
-		i <<= 8;
-		i |= Nodave.USByte(b, pos + 2);
-		i <<= 8;
-		i |= Nodave.USByte(b, pos + 3);
-		final float f = Float.intBitsToFloat(i);
-		return (f);
+		return Float.intBitsToFloat(BigEndian.getInt(b, pos));
 	}
 
 	public static byte[] bswap_16(int a) {
@@ -151,33 +140,11 @@ public final class Nodave {
 	}
 
 	public static long SBELong(final byte[] b, final int pos) {
-		final int i = b[pos];
-		int j = b[pos + 1];
-		int k = b[pos + 2];
-		int l = b[pos + 3];
-		// if (i < 0)
-		// i += 256;
-		if (j < 0) {
-			j += 256;
-		}
-		if (k < 0) {
-			k += 256;
-		}
-		if (l < 0) {
-			l += 256;
-		}
-		return ((256 * k) + l) + (65536L * ((256 * i) + j));
+		return BigEndian.getInt(b, pos);
 	}
 
 	public static int SBEWord(final byte[] b, final int pos) {
-		final int i = b[pos];
-		int k = b[pos + 1];
-		// if (i < 0)
-		// i += 256;
-		if (k < 0) {
-			k += 256;
-		}
-		return ((256 * i) + k);
+		return BigEndian.getShort(b, pos);
 	}
 
 	public static int SByte(final byte[] b, final int pos) {
@@ -186,24 +153,12 @@ public final class Nodave {
 	}
 
 	public static void setBEFloat(final byte[] b, final int pos, final float f) {
-		int a = Float.floatToIntBits(f);
-		b[pos + 3] = (byte) (a & 0xff);
-		a = a >> 8;
-		b[pos + 2] = (byte) (a & 0xff);
-		a = a >> 8;
-		b[pos + 1] = (byte) (a & 0xff);
-		a = a >> 8;
-		b[pos] = (byte) (a & 0xff);
+		BigEndian.putInt(b, pos, Float.floatToIntBits(f));
 	}
 
-	public static void setUSBELong(final byte[] b, final int pos, long a) {
-		b[pos + 3] = (byte) (a & 0xff);
-		a = a >> 8;
-		b[pos + 2] = (byte) (a & 0xff);
-		a = a >> 8;
-		b[pos + 1] = (byte) (a & 0xff);
-		a = a >> 8;
-		b[pos] = (byte) (a & 0xff);
+	public static void setUSBELong(final byte[] b, final int pos, final long a) {
+		// the low 32 bits
+		BigEndian.putInt(b, pos, (int) a);
 	}
 
 	public static void setUSBEWord(final byte[] b, final int pos, final int val) {
@@ -311,37 +266,11 @@ public final class Nodave {
 	}
 
 	public static long USBELong(final byte[] b, final int pos) {
-		int i = b[pos];
-		int j = b[pos + 1];
-		int k = b[pos + 2];
-		int l = b[pos + 3];
-		// System.out.println(
-		// pos + " 0:" + i + " 1:" + j + " 2:" + k + " 3:" + l);
-		if (i < 0) {
-			i += 256;
-		}
-		if (j < 0) {
-			j += 256;
-		}
-		if (k < 0) {
-			k += 256;
-		}
-		if (l < 0) {
-			l += 256;
-		}
-		return ((256 * k) + l) + (65536L * ((256 * i) + j));
+		return BigEndian.getInt(b, pos) & 0xFFFFFFFFL;
 	}
 
 	public static int USBEWord(final byte[] b, final int pos) {
-		int i = b[pos];
-		int k = b[pos + 1];
-		if (i < 0) {
-			i += 256;
-		}
-		if (k < 0) {
-			k += 256;
-		}
-		return ((256 * i) + k);
+		return BigEndian.getShort(b, pos) & 0xFFFF;
 	}
 
 	public static int USByte(final byte[] b, final int pos) {
@@ -29,6 +29,11 @@ public final class PDU {
 
 	public final static byte FUNC_WRITE = 5;
 
+	/**
+	 * first byte of every S7 PDU header
+	 */
+	public final static byte PROTOCOL_ID = 0x32;
+
 	public int data;
 
 	int dlen;
@@ -166,13 +171,18 @@ public final class PDU {
 	 * valid header,parameters,data,dlen
 	 */
 	void addValue(final byte[] values) {
+		// the value header added last, not the first one of a multi-item request
+		final int dataHeader = this.data + this.dlen - 4;
 		// Java bytes are signed - must mask with 0xFF to get unsigned value
-		int valCount = ((this.mem[this.data + 2] & 0xFF) * 0x100) + (this.mem[this.data + 3] & 0xFF);
-		if (this.mem[this.data + 1] == 4) { // bit data, length is in bits
+		int valCount = ((this.mem[dataHeader + 2] & 0xFF) * 0x100) + (this.mem[dataHeader + 3] & 0xFF);
+		if (this.mem[dataHeader + 1] == 4) { // bit data, length is in bits
 			valCount += 8 * values.length;
-		} else if (this.mem[this.data + 1] == 9) { // byte data, length is in
+		} else if (this.mem[dataHeader + 1] == 9) { // byte data, length is in
 													// bytes
 			valCount += values.length;
+		} else if (this.mem[dataHeader + 1] == 3) { // single bits, one per
+													// byte, length is in bits
+			valCount += values.length;
 		} else {
 			// XXX
 		}
@@ -180,7 +190,7 @@ public final class PDU {
 			this.udata = this.data + 4;
 		}
 		this.udlen += values.length;
-		Nodave.setUSBEWord(this.mem, this.data + 2, valCount);
+		Nodave.setUSBEWord(this.mem, dataHeader + 2, valCount);
 		this.addData(values);
 	}
 
@@ -335,7 +345,7 @@ public final class PDU {
 			this.mem[this.header + i] = 0;
 		}
 		this.param = this.header + this.hlen;
-		this.mem[this.header] = (byte) 0x32;
+		this.mem[this.header] = PROTOCOL_ID;
 		this.mem[this.header + 1] = (byte) type;
 		this.dlen = 0;
 		this.plen = 0;
@@ -19,94 +19,138 @@
 */
 package com.github.s7connector.impl.nodave;
 
+import com.github.s7connector.api.S7Transport;
+import com.github.s7connector.impl.utils.BufferPool;
+import com.github.s7connector.impl.utils.Deadline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 public final class PLCinterface {
 	private static final Logger logger = LoggerFactory.getLogger(PLCinterface.class);
-    InputStream in;
+
+	/**
+	 * Wait for an answer if the deadline is unbounded
+	 */
+	private static final long UNBOUNDED_WAIT_NANOS = 500_000_000L;
+
     int localMPI; // the adapter's MPI address
     String name;
 
-    OutputStream out;
     int protocol; // The kind of transport used on this interface.
     int wp, rp;
 
+    /**
+     * Carries the frames
+     */
+    private S7Transport transport;
+
     public PLCinterface(final OutputStream out, final InputStream in, final String name, final int localMPI,
                         final int protocol) {
         this.init(out, in, name, localMPI, protocol);
     }
 
+    /**
+     * Creates an interface on a connected socket, see {@link SocketTransport}
+     */
+    public PLCinterface(final Socket socket, final String name, final int localMPI, final int protocol) throws IOException {
+        this(new SocketTransport(socket), name, localMPI, protocol);
+    }
+
+    /**
+     * Creates an interface on a connected socket channel, see
+     * {@link ChannelTransport}
+     *
+     * @param bufferPool the pool of the direct buffers
+     */
+    public PLCinterface(final SocketChannel channel, final BufferPool bufferPool, final String name, final int localMPI,
+                        final int protocol) throws IOException {
+        this(new ChannelTransport(channel, bufferPool), name, localMPI, protocol);
+    }
+
+    /**
+     * Creates an interface on a connected transport, closed with the
+     * interface
+     */
+    public PLCinterface(final S7Transport transport, final String name, final int localMPI, final int protocol) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport must not be null");
+        }
+        this.setName(name);
+        this.transport = transport;
+        this.localMPI = localMPI;
+        this.protocol = protocol;
+    }
+
     public void init(final OutputStream oStream, final InputStream iStream, final String name, final int localMPI,
                      final int protocol) {
-        // Validate critical parameters
-        if (oStream == null) {
-            throw new IllegalArgumentException("OutputStream must not be null");
-        }
-        if (iStream == null) {
-            throw new IllegalArgumentException("InputStream must not be null");
-        }
+        this.setName(name);
+        this.transport = new StreamTransport(oStream, iStream);
+        this.localMPI = localMPI;
+        this.protocol = protocol;
+    }
+
+    private void setName(final String name) {
         if (name == null || name.isEmpty()) {
             throw new IllegalArgumentException("Name must not be null or empty");
         }
-
-        this.out = oStream;
-        this.in = iStream;
         this.name = name;
-        this.localMPI = localMPI;
-        this.protocol = protocol;
     }
 
 	public int read(final byte[] b, int start, int len) throws IOException {
+		return this.read(b, start, len, Deadline.NONE);
+	}
+
+	/**
+	 * Reads up to len bytes, waiting for the first bytes to arrive until the
+	 * deadline, or about 500ms if the deadline is unbounded.
+	 *
+	 * @return the number of bytes read, 0 if nothing arrived in time
+	 */
+	public int read(final byte[] b, int start, int len, final Deadline deadline) throws IOException {
 		if (logger.isTraceEnabled()) {
 			logger.trace("Reading {} bytes from PLC interface '{}'", len, name);
 		}
 
-		int res;
-		int retry = 0;
-		while ((this.in.available() <= 0) && (retry < 500)) {
-			try {
-				if (retry > 0) {
-					Thread.sleep(1);
-				}
-				retry++;
-			} catch (final InterruptedException e) {
-				logger.warn("Thread interrupted while waiting for data from PLC interface '{}'. Thread will terminate.", name, e);
-				// Restore interrupted status so calling code can handle it
-				Thread.currentThread().interrupt();
-				// Return early to allow thread to terminate gracefully
-				return 0;
-			}
+		final long timeout = deadline.isBounded() ? deadline.remainingNanos() : UNBOUNDED_WAIT_NANOS;
+		final int res = this.transport.receive(b, start, len, timeout);
+		if (res < 0) {
+			logger.warn("End of stream reached on PLC interface '{}'", name);
+			return 0;
 		}
-
-		if (this.in.available() <= 0 && retry >= 500) {
-			logger.debug("Timeout waiting for data from PLC interface '{}' after {} retries", name, retry);
+		if (res == 0) {
+			logger.debug("Timeout waiting for data from PLC interface '{}'", name);
+		} else if (logger.isTraceEnabled()) {
+			logger.trace("Successfully read {} bytes from PLC interface '{}'", res, name);
 		}
+		return res;
+	}
 
-		res = 0;
-		while ((this.in.available() > 0) && (len > 0)) {
-			int bytesRead = this.in.read(b, start, len);
-			if (bytesRead > 0) {
-				res += bytesRead;
-				start += bytesRead;
-				len -= bytesRead;
-			} else if (bytesRead < 0) {
-				logger.warn("End of stream reached on PLC interface '{}'", name);
-				break;
-			} else {
-				break;
-			}
-		}
+	/**
+	 * Closes the transport, and with it the socket or channel
+	 */
+	public void close() throws IOException {
+		this.transport.close();
+	}
 
-		if (logger.isTraceEnabled()) {
-			logger.trace("Successfully read {} bytes from PLC interface '{}'", res, name);
-		}
+	/**
+	 * Returns the transport
+	 */
+	public S7Transport getTransport() {
+		return this.transport;
+	}
 
-		return res;
+	/**
+	 * Returns the number of read calls on the socket or channel which
+	 * returned data so far, 0 for custom transports
+	 */
+	public long getReadCalls() {
+		return this.transport instanceof BaseTransport ? ((BaseTransport) this.transport).getReadCalls() : 0;
 	}
 
 	public void write(final byte[] b, final int start, final int len) throws IOException {
@@ -115,7 +159,7 @@ public final class PLCinterface {
 		}
 
 		try {
-			this.out.write(b, start, len);
+			this.transport.send(b, start, len);
 
 			if (logger.isTraceEnabled()) {
 				logger.trace("Successfully wrote {} bytes to PLC interface '{}'", len, name);
@@ -0,0 +1,120 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+import com.github.s7connector.api.S7ReadItem;
+
+import java.util.List;
+
+/**
+ * A multi-item read request encoded once, including the transport header,
+ * and sent repeatedly with {@link S7Connection#readPrepared}. Only the PDU
+ * reference is patched per request. The answer layout is computed in advance
+ * as well, so a regular answer is decoded by copying the item data from known
+ * offsets; other answers go through the generic parser.
+ * <p>
+ * A prepared request belongs to the connection which built it.
+ */
+public final class PreparedRead {
+
+    final List<S7ReadItem> items;
+
+    /**
+     * The frame as sent, PDU reference 0
+     */
+    final byte[] frame;
+
+    /**
+     * Position of the PDU reference in the frame
+     */
+    final int numberOffset;
+
+    /**
+     * Position of each item's header within the data part of a regular answer
+     */
+    private final int[] offsets;
+
+    private final int[] lengths;
+
+    /**
+     * Length of the data part of a regular answer
+     */
+    private final int answerLength;
+
+    PreparedRead(final List<S7ReadItem> items, final byte[] frame, final int numberOffset) {
+        this.items = items;
+        this.frame = frame;
+        this.numberOffset = numberOffset;
+        this.offsets = new int[items.size()];
+        this.lengths = new int[items.size()];
+        int pos = 0;
+        for (int i = 0; i < items.size(); i++) {
+            if (pos % 2 != 0) {
+                pos++; // fill byte after an item of odd length
+            }
+            this.offsets[i] = pos;
+            this.lengths[i] = items.get(i).getLength();
+            pos += 4 + this.lengths[i];
+        }
+        this.answerLength = pos;
+    }
+
+    /**
+     * Returns the items of the request
+     */
+    public List<S7ReadItem> getItems() {
+        return this.items;
+    }
+
+    /**
+     * Returns the length of the encoded frame
+     */
+    public int getFrameLength() {
+        return this.frame.length;
+    }
+
+    /**
+     * Decodes a regular answer: every item present with the requested length
+     *
+     * @return false if the answer is not regular and must be parsed
+     */
+    boolean decode(final PDU p2, final byte[][] data, final int[] results) {
+        if (p2.dlen < this.answerLength) {
+            return false;
+        }
+        final byte[] mem = p2.mem;
+        for (int i = 0; i < this.offsets.length; i++) {
+            final int pos = p2.data + this.offsets[i];
+            final int unit = mem[pos + 1];
+            int len = Nodave.USBEWord(mem, pos + 2);
+            if (unit == 4) {
+                len >>= 3; /* len is in bits */
+            } else if (unit != 9 && unit != 3) {
+                return false;
+            }
+            if ((mem[pos] & 0xFF) != 0xFF || len != this.lengths[i]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < this.offsets.length; i++) {
+            final byte[] item = new byte[this.lengths[i]];
+            System.arraycopy(mem, p2.data + this.offsets[i] + 4, item, 0, item.length);
+            data[i] = item;
+            results[i] = Nodave.RESULT_OK;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+/**
+ * Where the time of a request went, by stage. Filled on the I/O thread from
+ * {@link System#nanoTime()} checkpoints: each checkpoint adds the time since
+ * the previous one to its stage, so the stages add up to the total. A request
+ * sent as several PDUs sums the stages of its exchanges.
+ * <p>
+ * Contexts are reused from request to request, they are not allocated per
+ * request.
+ */
+public final class RequestTiming {
+
+    /**
+     * Waiting for the I/O thread, including requests run before this one at
+     * chunk boundaries
+     */
+    public static final int QUEUE = 0;
+
+    /**
+     * Building the request frame
+     */
+    public static final int ENCODE = 1;
+
+    /**
+     * Writing the request to the socket
+     */
+    public static final int SEND = 2;
+
+    /**
+     * From the request sent to the first bytes of the answer, the PLC's
+     * processing and the network round trip
+     */
+    public static final int PLC = 3;
+
+    /**
+     * From the first to the last bytes of the answer
+     */
+    public static final int RECEIVE = 4;
+
+    /**
+     * Checking the answer and copying out the data
+     */
+    public static final int DECODE = 5;
+
+    public static final int STAGES = 6;
+
+    private static final String[] NAMES = {"queue", "encode", "send", "plc", "receive", "decode"};
+
+    private final long[] nanos = new long[STAGES];
+
+    private long start;
+
+    private long last;
+
+    private int exchanges;
+
+    /**
+     * Returns the lower case name of a stage, e.g. "plc"
+     */
+    public static String name(final int stage) {
+        return NAMES[stage];
+    }
+
+    /**
+     * Starts over for a request picked up by the I/O thread now
+     *
+     * @param submitted when the request was submitted, from {@link System#nanoTime()}
+     */
+    public void begin(final long submitted) {
+        for (int i = 0; i < STAGES; i++) {
+            this.nanos[i] = 0;
+        }
+        this.exchanges = 0;
+        this.start = submitted;
+        this.last = submitted;
+        this.mark(QUEUE);
+    }
+
+    /**
+     * Adds the time since the previous checkpoint to the stage
+     */
+    public void mark(final int stage) {
+        final long now = System.nanoTime();
+        this.nanos[stage] += now - this.last;
+        this.last = now;
+        if (stage == SEND) {
+            this.exchanges++;
+        }
+    }
+
+    /**
+     * Returns the time spent in a stage
+     */
+    public long getNanos(final int stage) {
+        return this.nanos[stage];
+    }
+
+    /**
+     * Returns the time from submission to the last checkpoint
+     */
+    public long getTotalNanos() {
+        return this.last - this.start;
+    }
+
+    /**
+     * Returns the number of requests sent to the PLC
+     */
+    public int getExchanges() {
+        return this.exchanges;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        b.append("total=").append(this.getTotalNanos() / 1000).append("us");
+        for (int i = 0; i < STAGES; i++) {
+            b.append(' ').append(NAMES[i]).append('=').append(this.nanos[i] / 1000).append("us");
+        }
+        return b.append(" exchanges=").append(this.exchanges).toString();
+    }
+}
@@ -20,36 +20,49 @@
 package com.github.s7connector.impl.nodave;
 
 import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.impl.utils.BufferPool;
+import com.github.s7connector.impl.utils.Deadline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This class comprises the variables and methods common to connections to an S7
  * PLC regardless of the type of transport.
+ * <p>
+ * A connection is not thread-safe: once established it is confined to the
+ * I/O thread of its {@link com.github.s7connector.impl.S7BaseConnection},
+ * which owns the request and answer buffers and the fields below.
  *
  * @author Thomas Hergenhahn
  */
 public abstract class S7Connection {
     private static final Logger logger = LoggerFactory.getLogger(S7Connection.class);
 
-    // Note: These fields are modified inside locks but may be read without locks
-    // Making them volatile ensures visibility across threads
-    volatile int answLen; // length of last message
+    /**
+     * Buffer size for the connection setup and the PDU negotiation
+     */
+    static final int SETUP_BUFFER_SIZE = 256;
+
+    int answLen; // length of last message
     /**
      * position in result data, incremented when variables are extracted without
      * position
      */
-    volatile int dataPointer;
+    int dataPointer;
 
     final PLCinterface iface; // pointer to used interface (immutable after construction)
 
-    // Public fields accessed by multiple threads - volatile for visibility
+    // read by callers to size their requests, volatile for visibility
     public volatile int maxPDUlength;
-    public final byte[] msgIn; // Array is mutable but reference is final
-    public final byte[] msgOut; // Array is mutable but reference is final
+    // sized from the negotiated PDU, null while returned to the buffer pool
+    public byte[] msgIn;
+    public byte[] msgOut;
 
     public final int PDUstartIn;
     public final int PDUstartOut;
@@ -57,9 +70,28 @@ public abstract class S7Connection {
     /**
      * absolute begin of result data
      */
-    volatile int udata;
+    int udata;
+
+    /**
+     * PDU reference of the last job, used to match answers to requests
+     */
+    private int pduNumber = 0;
 
-    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Size of msgIn and msgOut, until the PDU size is negotiated large enough
+     * for the connection setup
+     */
+    private int bufferSize = SETUP_BUFFER_SIZE;
+
+    /**
+     * Pool the buffers are taken from, null if the connection owns them
+     */
+    private BufferPool bufferPool;
+
+    /**
+     * Timing of the running request, null if not timed
+     */
+    private RequestTiming timing;
 
     public S7Connection(final PLCinterface ifa) {
         this(ifa, 0, 0);
@@ -67,13 +99,155 @@ public abstract class S7Connection {
 
     public S7Connection(final PLCinterface ifa, final int pduStartIn, final int pduStartOut) {
         this.iface = ifa;
-        this.msgIn = new byte[Nodave.MAX_RAW_LEN];
-        this.msgOut = new byte[Nodave.MAX_RAW_LEN];
+        this.msgIn = new byte[SETUP_BUFFER_SIZE];
+        this.msgOut = new byte[SETUP_BUFFER_SIZE];
         this.PDUstartIn = pduStartIn;
         this.PDUstartOut = pduStartOut;
     }
 
-    abstract public int exchange(PDU p1) throws IOException;
+    public int exchange(final PDU p1) throws IOException {
+        return this.exchange(p1, Deadline.NONE);
+    }
+
+    /**
+     * Sends the PDU and receives the answer into msgIn, waiting for the answer
+     * until the deadline.
+     */
+    abstract public int exchange(PDU p1, Deadline deadline) throws IOException;
+
+    /**
+     * Completes the request PDU in msgOut with the transport header.
+     *
+     * @param pduLength the length of the PDU at PDUstartOut
+     * @return the length of the frame in msgOut
+     */
+    protected abstract int frame(int pduLength) throws IOException;
+
+    /**
+     * Sends the frame in msgOut and receives the answer carrying the given PDU
+     * reference into msgIn, waiting for it until the deadline.
+     *
+     * @param length the length of the frame
+     * @param number the PDU reference of the request
+     */
+    protected abstract int exchangeFrame(int length, int number, Deadline deadline) throws IOException;
+
+    /**
+     * Sets the timing of the request running from now on
+     *
+     * @param timing the timing, null for none
+     */
+    public void setRequestTiming(final RequestTiming timing) {
+        this.timing = timing;
+    }
+
+    /**
+     * Adds the time since the previous checkpoint to the stage of the
+     * running request's timing
+     */
+    void mark(final int stage) {
+        final RequestTiming t = this.timing;
+        if (t != null) {
+            t.mark(stage);
+        }
+    }
+
+    /**
+     * Takes the buffers from the pool from now on. The buffers are held from
+     * {@link #acquireBuffers()} to {@link #releaseBuffers()}, to be called
+     * around the requests.
+     *
+     * @param bufferPool the pool, null to own the buffers
+     */
+    public void setBufferPool(final BufferPool bufferPool) {
+        this.releaseBuffers();
+        this.bufferPool = bufferPool;
+        if (bufferPool != null) {
+            this.msgIn = null;
+            this.msgOut = null;
+        } else if (this.msgIn == null) {
+            this.msgIn = new byte[this.bufferSize];
+            this.msgOut = new byte[this.bufferSize];
+        }
+    }
+
+    /**
+     * Takes the buffers from the pool unless already held; no-op without a
+     * pool.
+     */
+    public void acquireBuffers() {
+        if (this.msgIn == null) {
+            this.msgIn = this.bufferPool.acquire(this.bufferSize);
+            this.msgOut = this.bufferPool.acquire(this.bufferSize);
+        }
+    }
+
+    /**
+     * Returns the buffers to the pool; no-op without a pool.
+     */
+    public void releaseBuffers() {
+        if (this.bufferPool != null && this.msgIn != null) {
+            final byte[] in = this.msgIn;
+            final byte[] out = this.msgOut;
+            this.msgIn = null;
+            this.msgOut = null;
+            this.bufferPool.release(in);
+            this.bufferPool.release(out);
+        }
+    }
+
+    /**
+     * Returns the bytes of the buffers currently held
+     */
+    public int getBufferBytes() {
+        return this.msgIn == null ? 0 : this.msgIn.length + this.msgOut.length;
+    }
+
+    /**
+     * Sizes the buffers for frames carrying PDUs of the negotiated length
+     */
+    private void sizeBuffers() {
+        final int size = Math.max(SETUP_BUFFER_SIZE, Math.max(this.PDUstartIn, this.PDUstartOut) + this.maxPDUlength);
+        if (size == this.bufferSize) {
+            return;
+        }
+        this.bufferSize = size;
+        if (this.bufferPool != null) {
+            if (this.msgIn != null) {
+                this.releaseBuffers();
+                this.acquireBuffers();
+            }
+        } else {
+            this.msgIn = new byte[size];
+            this.msgOut = new byte[size];
+        }
+    }
+
+    /**
+     * Returns the next PDU reference (1-65535)
+     */
+    int nextPduNumber() {
+        this.pduNumber = (this.pduNumber % 0xFFFF) + 1;
+        return this.pduNumber;
+    }
+
+    /**
+     * Checks that the last exchange actually received an S7 PDU. The protocol
+     * id is cleared before each request, so a missing answer (dead peer, closed
+     * socket, PLC timeout) is reported instead of re-evaluating the previous
+     * response still held in msgIn.
+     *
+     * @param deadline the deadline of the request
+     * @throws IOException if no S7 answer was received
+     */
+    void checkAnswer(final Deadline deadline) throws IOException {
+        if (this.msgIn[this.PDUstartIn] != PDU.PROTOCOL_ID) {
+            if (deadline.isExpired()) {
+                throw deadline.exceeded("waiting for the PLC answer");
+            }
+            throw new IOException("No valid S7 response received, connection lost or PLC not responding");
+        }
+    }
 
     /*
      * build the PDU for a PDU length negotiation
@@ -81,8 +255,6 @@ public abstract class S7Connection {
     public int negPDUlengthRequest() throws IOException {
         logger.debug("Negotiating PDU length");
 
-        this.lock.lock();
-
         try {
             int res;
             final PDU p = new PDU(this.msgOut, this.PDUstartOut);
@@ -102,33 +274,42 @@ public abstract class S7Connection {
             }
             this.maxPDUlength = Nodave.USBEWord(this.msgIn, p2.param + 6);
             logger.info("Negotiated PDU length: {}", this.maxPDUlength);
+            this.sizeBuffers();
             return res;
 
         } catch (IOException e) {
             logger.error("IOException during PDU length negotiation: {}", e.getMessage(), e);
             throw e;
-        } finally {
-            this.lock.unlock();
         }
     }
 
     public int readBytes(final DaveArea area, final int DBnum, final int start, final int len, final byte[] buffer) throws IOException {
+        return this.readBytes(area, DBnum, start, len, buffer, Deadline.NONE);
+    }
+
+    /*
+     * Read len bytes from PLC memory area "area", data block DBnum, waiting
+     * for the answer until the deadline.
+     */
+    public int readBytes(final DaveArea area, final int DBnum, final int start, final int len, final byte[] buffer,
+                         final Deadline deadline) throws IOException {
         if (logger.isDebugEnabled()) {
             logger.debug("Reading {} bytes from area {} DB {} at offset {}", len, area, DBnum, start);
         }
 
-        this.lock.lock();
-
         try {
             final PDU p1 = new PDU(this.msgOut, this.PDUstartOut);
             p1.initReadRequest();
             p1.addVarToReadRequest(area, DBnum, start, len);
+            p1.setNumber(this.nextPduNumber());
 
-            int res = this.exchange(p1);
+            this.msgIn[this.PDUstartIn] = 0;
+            int res = this.exchange(p1, deadline);
             if (res != Nodave.RESULT_OK) {
                 logger.warn("Exchange failed during read: result={}, error={}", res, Nodave.strerror(res));
                 return res;
             }
+            this.checkAnswer(deadline);
             final PDU p2 = new PDU(this.msgIn, this.PDUstartIn);
             res = p2.setupReceivedPDU();
             if (res != Nodave.RESULT_OK) {
@@ -166,36 +347,194 @@ public abstract class S7Connection {
             logger.error("IOException during read from area {} DB {} at offset {}: {}", area, DBnum, start, e.getMessage(), e);
             throw e;
         } finally {
-            this.lock.unlock();
+            // checking the answer and copying out the data
+            this.mark(RequestTiming.DECODE);
         }
     }
 
+    /*
+     * Read several items with one PDU, waiting for the answer until the
+     * deadline. The data of each item is stored in data, bit items as one
+     * byte 0 or 1, and its result code in results.
+     */
+    public int readItems(final List<S7ReadItem> items, final byte[][] data, final int[] results,
+                         final Deadline deadline) throws IOException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Reading {} items", items.size());
+        }
+
+        try {
+            final PDU p1 = new PDU(this.msgOut, this.PDUstartOut);
+            encodeReadItems(p1, items);
+            p1.setNumber(this.nextPduNumber());
+
+            this.msgIn[this.PDUstartIn] = 0;
+            final int res = this.exchange(p1, deadline);
+            if (res != Nodave.RESULT_OK) {
+                logger.warn("Exchange failed during read: result={}, error={}", res, Nodave.strerror(res));
+                return res;
+            }
+            return this.readItemsAnswer(null, items.size(), data, results, deadline);
+
+        } catch (IOException e) {
+            logger.error("IOException during multi-item read of {} items: {}", items.size(), e.getMessage(), e);
+            throw e;
+        } finally {
+            this.mark(RequestTiming.DECODE);
+        }
+    }
+
+    /*
+     * Encode a read request for several items once, including the transport
+     * header, to be sent with readPrepared. The items must fit one PDU.
+     */
+    public PreparedRead prepareRead(final List<S7ReadItem> items) throws IOException {
+        final PDU p1 = new PDU(this.msgOut, this.PDUstartOut);
+        encodeReadItems(p1, items);
+        p1.setNumber(0);
+        final int length = this.frame(p1.hlen + p1.plen + p1.dlen);
+        return new PreparedRead(items, Arrays.copyOf(this.msgOut, length), this.PDUstartOut + 4);
+    }
+
+    /*
+     * Send a prepared read request with a new PDU reference, waiting for the
+     * answer until the deadline. The data of each item is stored in data, bit
+     * items as one byte 0 or 1, and its result code in results.
+     */
+    public int readPrepared(final PreparedRead prepared, final byte[][] data, final int[] results,
+                            final Deadline deadline) throws IOException {
+        final List<S7ReadItem> items = prepared.items;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Reading {} items", items.size());
+        }
+
+        try {
+            System.arraycopy(prepared.frame, 0, this.msgOut, 0, prepared.frame.length);
+            final int number = this.nextPduNumber();
+            Nodave.setUSBEWord(this.msgOut, prepared.numberOffset, number);
+
+            this.msgIn[this.PDUstartIn] = 0;
+            final int res = this.exchangeFrame(prepared.frame.length, number, deadline);
+            if (res != Nodave.RESULT_OK) {
+                logger.warn("Exchange failed during read: result={}, error={}", res, Nodave.strerror(res));
+                return res;
+            }
+            return this.readItemsAnswer(prepared, items.size(), data, results, deadline);
+
+        } catch (IOException e) {
+            logger.error("IOException during multi-item read of {} items: {}", items.size(), e.getMessage(), e);
+            throw e;
+        } finally {
+            this.mark(RequestTiming.DECODE);
+        }
+    }
+
+    /**
+     * Adds the items to the read request
+     */
+    private static void encodeReadItems(final PDU p1, final List<S7ReadItem> items) {
+        p1.initReadRequest();
+        for (final S7ReadItem item : items) {
+            if (item.isBit()) {
+                p1.addBitVarToReadRequest(item.getArea().getCode(), item.getAreaNumber(),
+                    item.getOffset() * 8 + item.getBitOffset(), 1);
+            } else {
+                p1.addVarToReadRequest(item.getArea(), item.getAreaNumber(), item.getOffset(), item.getLength());
+            }
+        }
+    }
+
+    /**
+     * Checks the answer in msgIn to a multi-item read and decodes its items,
+     * at the offsets known in advance if prepared, otherwise by parsing it
+     */
+    private int readItemsAnswer(final PreparedRead prepared, final int count, final byte[][] data, final int[] results,
+                                final Deadline deadline) throws IOException {
+        this.checkAnswer(deadline);
+        final PDU p2 = new PDU(this.msgIn, this.PDUstartIn);
+        final int res = p2.setupReceivedPDU();
+        if (res != Nodave.RESULT_OK) {
+            logger.warn("Failed to setup received PDU: result={}, error={}", res, Nodave.strerror(res));
+            return res;
+        }
+        if (p2.mem[p2.param] != PDU.FUNC_READ || (p2.mem[p2.param + 1] & 0xFF) != count) {
+            logger.warn("Unexpected response during multi-item read: param mismatch");
+            return Nodave.RESULT_UNEXPECTED_FUNC;
+        }
+        if (prepared != null && prepared.decode(p2, data, results)) {
+            return Nodave.RESULT_OK;
+        }
+        return parseReadItems(p2, count, data, results);
+    }
+
+    /**
+     * Parses the items of a read answer of any layout
+     */
+    private static int parseReadItems(final PDU p2, final int count, final byte[][] data, final int[] results) {
+        int pos = p2.data;
+        final int end = p2.data + p2.dlen;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && (pos - p2.data) % 2 != 0) {
+                pos++; // fill byte after an item of odd length
+            }
+            if (pos + 4 > end) {
+                return Nodave.RESULT_CANNOT_EVALUATE_PDU;
+            }
+            final int code = p2.mem[pos] & 0xFF;
+            int len = Nodave.USBEWord(p2.mem, pos + 2);
+            if (p2.mem[pos + 1] == 4) {
+                len >>= 3; /* len is in bits, adjust */
+            } else if (p2.mem[pos + 1] != 9 && p2.mem[pos + 1] != 3 && code == 0xFF) {
+                /* data unit 3 has a byte per result bit, 9 is in bytes */
+                return Nodave.RESULT_UNKNOWN_DATA_UNIT_SIZE;
+            }
+            if (code != 0xFF) {
+                results[i] = code;
+                pos += 4;
+                continue;
+            }
+            if (pos + 4 + len > end) {
+                return Nodave.RESULT_CANNOT_EVALUATE_PDU;
+            }
+            data[i] = new byte[len];
+            System.arraycopy(p2.mem, pos + 4, data[i], 0, len);
+            results[i] = len == 0 ? Nodave.RESULT_CPU_RETURNED_NO_DATA : Nodave.RESULT_OK;
+            pos += 4 + len;
+        }
+        return Nodave.RESULT_OK;
+    }
+
     /*
      * Write len bytes to PLC memory area "area", data block DBnum.
      */
     public int writeBytes(final DaveArea area, final int DBnum, final int start, final int len, final byte[] buffer) throws IOException {
+        return this.writeBytes(area, DBnum, start, len, buffer, Deadline.NONE);
+    }
+
+    /*
+     * Write len bytes to PLC memory area "area", data block DBnum, waiting
+     * for the answer until the deadline.
+     */
+    public int writeBytes(final DaveArea area, final int DBnum, final int start, final int len, final byte[] buffer,
+                          final Deadline deadline) throws IOException {
         if (logger.isDebugEnabled()) {
             logger.debug("Writing {} bytes to area {} DB {} at offset {}", len, area, DBnum, start);
         }
 
         int errorState;
-        try {
-            this.lock.lockInterruptibly();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException("Interrupted while acquiring lock for write operation", e);
-        }
-
         try {
             final PDU p1 = new PDU(this.msgOut, this.PDUstartOut);
 
             // p1.constructWriteRequest(area, DBnum, start, len, buffer);
             p1.prepareWriteRequest();
             p1.addVarToWriteRequest(area, DBnum, start, len, buffer);
+            p1.setNumber(this.nextPduNumber());
 
-            errorState = this.exchange(p1);
+            this.msgIn[this.PDUstartIn] = 0;
+            errorState = this.exchange(p1, deadline);
 
             if (errorState == 0) {
+                this.checkAnswer(deadline);
                 final PDU p2 = new PDU(this.msgIn, this.PDUstartIn);
                 p2.setupReceivedPDU();
 
@@ -217,7 +556,61 @@ public abstract class S7Connection {
             logger.error("IOException during write to area {} DB {} at offset {}: {}", area, DBnum, start, e.getMessage(), e);
             throw e;
         } finally {
-            this.lock.unlock();
+            this.mark(RequestTiming.DECODE);
+        }
+
+        return errorState;
+    }
+
+    /*
+     * Write several items with one PDU, waiting for the answer until the
+     * deadline. The result code of each item is stored in results.
+     */
+    public int writeItems(final List<S7WriteItem> items, final int[] results, final Deadline deadline) throws IOException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Writing {} items", items.size());
+        }
+
+        int errorState;
+        try {
+            final PDU p1 = new PDU(this.msgOut, this.PDUstartOut);
+            p1.prepareWriteRequest();
+            for (final S7WriteItem item : items) {
+                if (item.isBit()) {
+                    p1.addBitVarToWriteRequest(item.getArea(), item.getAreaNumber(),
+                        item.getOffset() * 8 + item.getBitOffset(), 1, item.getData());
+                } else {
+                    p1.addVarToWriteRequest(item.getArea(), item.getAreaNumber(), item.getOffset(),
+                        item.getData().length, item.getData());
+                }
+            }
+            p1.setNumber(this.nextPduNumber());
+
+            this.msgIn[this.PDUstartIn] = 0;
+            errorState = this.exchange(p1, deadline);
+
+            if (errorState == 0) {
+                this.checkAnswer(deadline);
+                final PDU p2 = new PDU(this.msgIn, this.PDUstartIn);
+                p2.setupReceivedPDU();
+
+                if (p2.mem[p2.param] == PDU.FUNC_WRITE) {
+                    for (int i = 0; i < items.size(); i++) {
+                        final int code = p2.mem[p2.data + i] & 0xFF;
+                        results[i] = code == 0xFF ? Nodave.RESULT_OK : code;
+                    }
+                    return 0;
+                }
+                logger.warn("Unexpected response during multi-item write: param function mismatch");
+                errorState |= 4096;
+            } else {
+                logger.warn("Exchange failed during write: errorState={}, error={}", errorState, Nodave.strerror(errorState));
+            }
+        } catch (IOException e) {
+            logger.error("IOException during multi-item write of {} items: {}", items.size(), e.getMessage(), e);
+            throw e;
+        } finally {
+            this.mark(RequestTiming.DECODE);
         }
 
         return errorState;
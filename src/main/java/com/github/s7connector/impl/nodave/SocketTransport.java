@@ -0,0 +1,105 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Transport over a connected socket. Receiving blocks in the socket with the
+ * timeout as read timeout instead of polling, which parks virtual threads
+ * instead of keeping them busy.
+ */
+public final class SocketTransport extends BaseTransport {
+
+    private final Socket socket;
+
+    private final InputStream in;
+
+    private final OutputStream out;
+
+    /**
+     * Read timeout currently set on the socket
+     */
+    private int soTimeout = -1;
+
+    /**
+     * Creates the transport, closing it closes the socket
+     */
+    public SocketTransport(final Socket socket) throws IOException {
+        if (socket == null) {
+            throw new IllegalArgumentException("Socket must not be null");
+        }
+        this.socket = socket;
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+    }
+
+    @Override
+    public void send(final byte[] buffer, final int offset, final int length) throws IOException {
+        this.out.write(buffer, offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Blocks for the first bytes, then takes what else is available.
+     */
+    @Override
+    public int receive(final byte[] buffer, int offset, int length, final long timeoutNanos) throws IOException {
+        if (timeoutNanos <= 0 && this.in.available() <= 0) {
+            return 0;
+        }
+        // 0 is no timeout for the socket, wait at least a millisecond
+        final int timeout = (int) toMillis(timeoutNanos);
+        if (timeout != this.soTimeout) {
+            this.socket.setSoTimeout(timeout);
+            this.soTimeout = timeout;
+        }
+
+        int res;
+        try {
+            res = this.in.read(buffer, offset, length);
+        } catch (final SocketTimeoutException e) {
+            return 0;
+        }
+        if (res <= 0) {
+            return res;
+        }
+        this.readCalls++;
+        offset += res;
+        length -= res;
+        while (length > 0 && this.in.available() > 0) {
+            final int more = this.in.read(buffer, offset, length);
+            if (more <= 0) {
+                break;
+            }
+            this.readCalls++;
+            res += more;
+            offset += more;
+            length -= more;
+        }
+        return res;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Transport over a pair of streams of unknown origin. The input stream is
+ * polled for available bytes every millisecond until the timeout, as a
+ * read may block without bound.
+ */
+public final class StreamTransport extends BaseTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamTransport.class);
+
+    private final OutputStream out;
+
+    private final InputStream in;
+
+    /**
+     * Creates the transport, closing it closes the streams
+     */
+    public StreamTransport(final OutputStream out, final InputStream in) {
+        if (out == null) {
+            throw new IllegalArgumentException("OutputStream must not be null");
+        }
+        if (in == null) {
+            throw new IllegalArgumentException("InputStream must not be null");
+        }
+        this.out = out;
+        this.in = in;
+    }
+
+    @Override
+    public void send(final byte[] buffer, final int offset, final int length) throws IOException {
+        this.out.write(buffer, offset, length);
+    }
+
+    @Override
+    public int receive(final byte[] buffer, int offset, int length, final long timeoutNanos) throws IOException {
+        final long end = System.nanoTime() + timeoutNanos;
+        int retry = 0;
+        while (this.in.available() <= 0 && end - System.nanoTime() > 0) {
+            try {
+                if (retry > 0) {
+                    Thread.sleep(1);
+                }
+                retry++;
+            } catch (final InterruptedException e) {
+                logger.warn("Thread interrupted while waiting for data. Thread will terminate.", e);
+                // Restore interrupted status so calling code can handle it
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+
+        int res = 0;
+        while (this.in.available() > 0 && length > 0) {
+            final int n = this.in.read(buffer, offset, length);
+            if (n < 0) {
+                return res > 0 ? res : -1;
+            }
+            if (n == 0) {
+                break;
+            }
+            this.readCalls++;
+            res += n;
+            offset += n;
+            length -= n;
+        }
+        return res;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.in.close();
+        } finally {
+            this.out.close();
+        }
+    }
+}
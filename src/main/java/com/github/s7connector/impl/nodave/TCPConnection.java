@@ -19,6 +19,7 @@
 */
 package com.github.s7connector.impl.nodave;
 
+import com.github.s7connector.impl.utils.Deadline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +32,27 @@ public final class TCPConnection extends S7Connection {
 
     private static final Logger logger = LoggerFactory.getLogger(TCPConnection.class);
 
+    /**
+     * TPDU size requested in the connection request, 2048 bytes, the largest
+     * of transport class 0. The PLC confirms this or a smaller size.
+     */
+    static final int TPDU_SIZE_CODE = 0x0B;
+
+    /**
+     * TPDU size if the connection confirm does not carry one (ISO 8073)
+     */
+    static final int DEFAULT_TPDU_SIZE = 128;
+
+    /**
+     * Length of the COTP data header (length, DT code, EOT and number)
+     */
+    private static final int DT_HEADER = 3;
+
+    /**
+     * EOT flag of the COTP data header, set on the last TPDU of a PDU
+     */
+    private static final int EOT = 0x80;
+
     /**
      * The connection type.
      */
@@ -46,6 +68,30 @@ public final class TCPConnection extends S7Connection {
      */
     int slot;
 
+    /**
+     * Negotiated TPDU size, including the COTP data header
+     */
+    private int tpduSize = DEFAULT_TPDU_SIZE;
+
+    /**
+     * TPKT and COTP header of a following TPDU of a segmented answer
+     */
+    private final byte[] segmentHeader = new byte[4 + DT_HEADER];
+
+    /**
+     * Records the frames, null if not traced
+     */
+    private WireTracer tracer;
+
+    private int traceStream;
+
+    /**
+     * Records the frames to a file, null if not recorded
+     */
+    private WireRecorder recorder;
+
+    private int recordSession;
+
     /**
      * Instantiates a new TCP connection.
      *
@@ -74,6 +120,38 @@ public final class TCPConnection extends S7Connection {
         this.slot = slot;
     }
 
+    /**
+     * Records the frames sent and received from now on
+     *
+     * @param tracer the tracer, null to stop tracing
+     */
+    public void setWireTracer(final WireTracer tracer) {
+        this.tracer = tracer;
+        if (tracer != null) {
+            this.traceStream = tracer.newStream();
+        }
+    }
+
+    /**
+     * Records the frames sent and received from now on, for replay
+     *
+     * @param recorder the recorder, null to stop recording
+     */
+    public void setWireRecorder(final WireRecorder recorder) {
+        this.recorder = recorder;
+        if (recorder != null) {
+            this.recordSession = recorder.newSession();
+        }
+    }
+
+    /**
+     * Returns the TPDU size confirmed by the PLC; PDUs larger than this are
+     * sent and received as several TPDUs.
+     */
+    public int getTpduSize() {
+        return this.tpduSize;
+    }
+
     /**
      * We have our own connectPLC(), but no disconnect() Open connection to a
      * PLC. This assumes that dc is initialized by daveNewConnection and is not
@@ -84,12 +162,21 @@ public final class TCPConnection extends S7Connection {
     public int connectPLC() throws IOException {
         logger.debug("Connecting to PLC: rack={}, slot={}", rack, slot);
 
+        this.acquireBuffers();
+        try {
+            return this.connect();
+        } finally {
+            this.releaseBuffers();
+        }
+    }
+
+    private int connect() throws IOException {
         int packetLength;
         if (iface.protocol == Nodave.PROTOCOL_ISOTCP243) {
         	final byte[] b243 = {
         			(byte) 0x11, (byte) 0xE0, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00,
         			(byte) 0xC1, (byte) 0x02, (byte) 0x4D, (byte) 0x57, (byte) 0xC2, (byte) 0x02, (byte) 0x4D, (byte) 0x57,
-        			(byte) 0xC0, (byte) 0x01, (byte) 0x09
+        			(byte) 0xC0, (byte) 0x01, (byte) TPDU_SIZE_CODE
         	};
             System.arraycopy(b243, 0, this.msgOut, 4, b243.length);
             packetLength = b243.length;
@@ -97,7 +184,7 @@ public final class TCPConnection extends S7Connection {
         	final byte[] b4 = {
         			(byte) 0x11, (byte) 0xE0, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00,
         			(byte) 0xC1, (byte) 0x02, (byte) 0x01, (byte) 0x00, (byte) 0xC2, (byte) 0x02, (byte) 0x01, (byte) 0x02,
-        			(byte) 0xC0, (byte) 0x01, (byte) 0x09
+        			(byte) 0xC0, (byte) 0x01, (byte) TPDU_SIZE_CODE
         	};
         	System.arraycopy(b4, 0, this.msgOut, 4, b4.length);
             this.msgOut[17] = (byte) this.type;
@@ -105,7 +192,8 @@ public final class TCPConnection extends S7Connection {
             packetLength = b4.length;
         }
         this.sendISOPacket(packetLength);
-        this.readISOPacket();
+        this.tpduSize = this.parseTpduSize(this.readISOPacket());
+        logger.debug("Negotiated TPDU size: {}", this.tpduSize);
         /*
          * PDU p = new PDU(msgOut, 7); p.initHeader(1); p.addParam(b61);
          * exchange(p); return (0);
@@ -125,24 +213,110 @@ public final class TCPConnection extends S7Connection {
      * {@inheritDoc}
      */
     @Override
-    public int exchange(final PDU p1) throws IOException {
+    public int exchange(final PDU p1, final Deadline deadline) throws IOException {
         if (logger.isTraceEnabled()) {
             logger.trace("Exchanging PDU: hlen={}, plen={}, dlen={}", p1.hlen, p1.plen, p1.dlen);
         }
 
+        return this.exchangeFrame(this.frame(p1.hlen + p1.plen + p1.dlen), p1.getNumber(), deadline);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Adds the COTP data header and the TPKT header.
+     */
+    @Override
+    protected int frame(final int pduLength) throws IOException {
         this.msgOut[4] = (byte) 0x02;
         this.msgOut[5] = (byte) 0xf0;
         this.msgOut[6] = (byte) 0x80;
-        this.sendISOPacket(3 + p1.hlen + p1.plen + p1.dlen);
-        this.readISOPacket();
+        return this.frameISOPacket(3 + pduLength);
+    }
 
-        if (logger.isTraceEnabled()) {
-            logger.trace("PDU exchange completed successfully");
-        }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Answers carrying a different PDU reference than the request are late
+     * answers to a request that ran into its deadline; they are discarded.
+     */
+    @Override
+    protected int exchangeFrame(final int length, final int expected, final Deadline deadline) throws IOException {
+        this.mark(RequestTiming.ENCODE);
+        this.writeFrame(length);
+        this.mark(RequestTiming.SEND);
 
+        while (this.readISOPacket(deadline) > 0) {
+            final int received = Nodave.USBEWord(this.msgIn, this.PDUstartIn + 4);
+            if (expected == 0 || received == expected) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("PDU exchange completed successfully");
+                }
+                return 0;
+            }
+            logger.debug("Discarding stale answer with PDU reference {} (expected {})", received, expected);
+            this.msgIn[this.PDUstartIn] = 0;
+        }
         return 0;
     }
 
+    /**
+     * Returns the TPDU size of the connection confirm in msgIn.
+     *
+     * @param length the length of the connection confirm
+     */
+    private int parseTpduSize(final int length) {
+        // parameters follow the fixed part: length, code, references and class
+        final int end = Math.min(5 + (this.msgIn[4] & 0xFF), length);
+        int pos = 11;
+        while (pos + 2 < end) {
+            final int code = this.msgIn[pos] & 0xFF;
+            final int len = this.msgIn[pos + 1] & 0xFF;
+            if (code == 0xC0 && len == 1) {
+                final int size = this.msgIn[pos + 2] & 0xFF;
+                if (size < 0x07 || size > TPDU_SIZE_CODE) {
+                    logger.warn("Invalid TPDU size code in connection confirm: {}", size);
+                    return DEFAULT_TPDU_SIZE;
+                }
+                return 1 << size;
+            }
+            pos += 2 + len;
+        }
+        return DEFAULT_TPDU_SIZE;
+    }
+
+    /**
+     * Sends the frame in msgOut, split into TPDUs of the negotiated size if
+     * it is larger. The TPDUs are framed in place, each header overwriting
+     * the end of the TPDU sent before, so the frame is destroyed.
+     *
+     * @param length the length of the frame
+     */
+    private void writeFrame(final int length) throws IOException {
+        if (length - 4 <= this.tpduSize) {
+            this.iface.write(this.msgOut, 0, length);
+            this.trace(true, this.msgOut, 0, length);
+            return;
+        }
+        final int chunk = this.tpduSize - DT_HEADER;
+        int pos = 4 + DT_HEADER;
+        while (pos < length) {
+            final int n = Math.min(chunk, length - pos);
+            final int start = pos - 4 - DT_HEADER;
+            final int size = 4 + DT_HEADER + n;
+            this.msgOut[start] = (byte) 0x03;
+            this.msgOut[start + 1] = (byte) 0x0;
+            this.msgOut[start + 2] = (byte) (size / 0x100);
+            this.msgOut[start + 3] = (byte) (size % 0x100);
+            this.msgOut[start + 4] = (byte) 0x02;
+            this.msgOut[start + 5] = (byte) 0xf0;
+            this.msgOut[start + 6] = (byte) (pos + n == length ? EOT : 0);
+            this.iface.write(this.msgOut, start, size);
+            this.trace(true, this.msgOut, start, size);
+            pos += n;
+        }
+    }
+
     /**
      * Read iso packet.
      *
@@ -150,28 +324,107 @@ public final class TCPConnection extends S7Connection {
      * @throws IOException if an I/O error occurs while reading
      */
     protected int readISOPacket() throws IOException {
-        int res = this.iface.read(this.msgIn, 0, 4);
-        if (res == 4) {
-            // Java bytes are signed - must mask with 0xFF to get unsigned value
-            // Without masking: msgIn[2] = 0xFF (byte -1) → -256 instead of 255
-            final int len = ((this.msgIn[2] & 0xFF) * 0x100) + (this.msgIn[3] & 0xFF);
-
-            // Validate length to prevent buffer overflow
-            if (len < 0 || len > this.msgIn.length - 4) {
-                logger.error("Invalid packet length received: {} (max allowed: {})", len, this.msgIn.length - 4);
-                throw new IOException("Invalid ISO packet length: " + len);
-            }
+        return this.readISOPacket(Deadline.NONE);
+    }
 
-            res += this.iface.read(this.msgIn, 4, len);
-        } else if (res > 0) {
-            // Incomplete header read - this indicates a protocol issue or connection problem
-            logger.warn("Incomplete ISO packet header: expected 4 bytes, got {} bytes. Connection may be unstable.", res);
-            return 0;
-        } else {
-            // No data available (res == 0) or error
+    /**
+     * Reads one complete iso packet. Waits for the packet start until the
+     * deadline; a packet which starts but does not complete leaves the stream
+     * out of sync and is reported as IOException.
+     * <p>
+     * A PDU split into several data TPDUs is reassembled: the data of the
+     * following TPDUs is appended up to the one with the EOT flag, and the
+     * headers in msgIn describe the whole PDU.
+     *
+     * @param deadline the deadline
+     * @return the packet length, 0 if no packet arrived
+     * @throws IOException if an I/O error occurs while reading
+     */
+    protected int readISOPacket(final Deadline deadline) throws IOException {
+        int res = this.iface.read(this.msgIn, 0, 4, deadline);
+        if (res == 0) {
+            // No data available
             return 0;
         }
-        return res;
+        while (res < 4) {
+            final int more = this.iface.read(this.msgIn, res, 4 - res, deadline);
+            if (more == 0) {
+                logger.warn("Incomplete ISO packet header: expected 4 bytes, got {} bytes. Connection is out of sync.", res);
+                throw new IOException("Incomplete ISO packet header, connection out of sync");
+            }
+            res += more;
+        }
+        // waited for the answer so far
+        this.mark(RequestTiming.PLC);
+
+        // Java bytes are signed - must mask with 0xFF to get unsigned value
+        // Without masking: msgIn[2] = 0xFF (byte -1) → -256 instead of 255
+        final int len = ((this.msgIn[2] & 0xFF) * 0x100) + (this.msgIn[3] & 0xFF) - 4;
+
+        // Validate length to prevent buffer overflow
+        if (len < 0 || len > this.msgIn.length - 4) {
+            logger.error("Invalid packet length received: {} (max allowed: {})", len, this.msgIn.length - 4);
+            throw new IOException("Invalid ISO packet length: " + len);
+        }
+
+        int received = 0;
+        while (received < len) {
+            final int more = this.iface.read(this.msgIn, 4 + received, len - received, deadline);
+            if (more == 0) {
+                logger.warn("Incomplete ISO packet: expected {} bytes, got {} bytes. Connection is out of sync.", len, received);
+                throw new IOException("Incomplete ISO packet, connection out of sync");
+            }
+            received += more;
+        }
+
+        int end = res + received;
+        boolean last = end < 4 + DT_HEADER || (this.msgIn[5] & 0xFF) != 0xF0 || (this.msgIn[6] & EOT) != 0;
+        while (!last) {
+            // header of the next TPDU aside, its data appended to msgIn
+            final byte[] header = this.segmentHeader;
+            this.readFully(header, 0, 4 + DT_HEADER, deadline);
+            final int size = ((header[2] & 0xFF) * 0x100) + (header[3] & 0xFF) - 4 - DT_HEADER;
+            if ((header[5] & 0xFF) != 0xF0 || size < 0 || size > this.msgIn.length - end) {
+                logger.error("Invalid data TPDU: code={}, length={}, PDU so far={}", header[5] & 0xFF, size, end);
+                throw new IOException("Invalid data TPDU in segmented PDU");
+            }
+            this.readFully(this.msgIn, end, size, deadline);
+            end += size;
+            last = (header[6] & EOT) != 0;
+            this.msgIn[2] = (byte) (end / 0x100);
+            this.msgIn[3] = (byte) (end % 0x100);
+            this.msgIn[6] = header[6];
+        }
+        this.mark(RequestTiming.RECEIVE);
+        // a segmented PDU is recorded reassembled
+        this.trace(false, this.msgIn, 0, end);
+        return end;
+    }
+
+    private void trace(final boolean sent, final byte[] b, final int start, final int len) {
+        final WireTracer t = this.tracer;
+        if (t != null) {
+            t.record(this.traceStream, sent, b, start, len);
+        }
+        final WireRecorder r = this.recorder;
+        if (r != null) {
+            r.record(this.recordSession, sent, b, start, len);
+        }
+    }
+
+    /**
+     * Reads exactly length bytes of a TPDU which already started.
+     */
+    private void readFully(final byte[] buffer, final int offset, final int length, final Deadline deadline) throws IOException {
+        int received = 0;
+        while (received < length) {
+            final int more = this.iface.read(buffer, offset + received, length - received, deadline);
+            if (more == 0) {
+                logger.warn("Incomplete TPDU: expected {} bytes, got {} bytes. Connection is out of sync.", length, received);
+                throw new IOException("Incomplete TPDU, connection out of sync");
+            }
+            received += more;
+        }
     }
 
     /**
@@ -180,7 +433,20 @@ public final class TCPConnection extends S7Connection {
      * @param size the size
      * @return the int
      */
-    protected int sendISOPacket(int size) throws IOException {
+    protected int sendISOPacket(final int size) throws IOException {
+        final int length = this.frameISOPacket(size);
+        this.iface.write(this.msgOut, 0, length);
+        this.trace(true, this.msgOut, 0, length);
+        return 0;
+    }
+
+    /**
+     * Writes the TPKT header in front of the packet in msgOut.
+     *
+     * @param size the size of the packet without header
+     * @return the size of the frame
+     */
+    private int frameISOPacket(int size) throws IOException {
         size += 4;
 
         // Validate size to prevent buffer overflow
@@ -198,8 +464,6 @@ public final class TCPConnection extends S7Connection {
          * ((messageNumber + 1) & 0xff); messageNumber++; messageNumber &= 0xff;
          * //!! }
          */
-
-        this.iface.write(this.msgOut, 0, size);
-        return 0;
+        return size;
     }
 }
@@ -0,0 +1,155 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records every frame sent and received, with its time, into a compact
+ * binary file which {@link WireReplay} plays back.
+ * <p>
+ * The file starts with the magic {@code S7WR} and a version byte, followed
+ * by one record per frame: a flag byte (bit 0 set for frames sent to the
+ * PLC), then as unsigned varints the session, the micros since the previous
+ * record and the frame length, then the frame. Segmented answers are recorded
+ * reassembled, requests as the TPDUs sent.
+ * <p>
+ * A recorder may be shared by the connections of a connector, each recording
+ * as a session of its own. A failing output stops the recording, not the
+ * connections.
+ */
+public final class WireRecorder implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WireRecorder.class);
+
+    /**
+     * "S7WR"
+     */
+    static final int MAGIC = 0x53375752;
+
+    static final int VERSION = 1;
+
+    static final int FLAG_SENT = 1;
+
+    private final DataOutputStream out;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    /**
+     * Time of the previous record, guarded by this
+     */
+    private long lastNanos = System.nanoTime();
+
+    private long frames;
+
+    private boolean failed;
+
+    /**
+     * Creates a recorder writing to the stream
+     *
+     * @param out the stream, closed with the recorder
+     * @throws IOException if the header can not be written
+     */
+    public WireRecorder(final OutputStream out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("Output stream must not be null");
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+    }
+
+    /**
+     * Creates a recorder writing to a new file, replacing an existing one
+     *
+     * @param file the file
+     * @throws IOException if the file can not be created
+     */
+    public static WireRecorder create(final Path file) throws IOException {
+        return new WireRecorder(Files.newOutputStream(file));
+    }
+
+    /**
+     * Returns a new session number for a connection
+     */
+    int newSession() {
+        return this.sessions.getAndIncrement();
+    }
+
+    /**
+     * Records a frame
+     */
+    synchronized void record(final int session, final boolean sent, final byte[] b, final int start, final int len) {
+        if (this.failed) {
+            return;
+        }
+        final long now = System.nanoTime();
+        try {
+            this.out.writeByte(sent ? FLAG_SENT : 0);
+            writeVarint(this.out, session);
+            writeVarint(this.out, Math.max(0, (now - this.lastNanos) / 1000));
+            writeVarint(this.out, len);
+            this.out.write(b, start, len);
+            this.frames++;
+            // the remainder carries over, so the times do not drift
+            this.lastNanos = now - (now - this.lastNanos) % 1000;
+        } catch (final IOException e) {
+            logger.warn("Recording stopped after {} frames: {}", this.frames, e.getMessage());
+            this.failed = true;
+        }
+    }
+
+    /**
+     * Returns the number of frames recorded so far
+     */
+    public synchronized long getRecordedFrames() {
+        return this.frames;
+    }
+
+    /**
+     * Writes the buffered records out
+     */
+    public synchronized void flush() throws IOException {
+        this.out.flush();
+    }
+
+    /**
+     * Stops recording and closes the output
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.failed = true;
+        this.out.close();
+    }
+
+    static void writeVarint(final DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,386 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a recording of {@link WireRecorder} back to the library, so traffic
+ * recorded in production can be benchmarked without a PLC.
+ * <p>
+ * The replay listens on a loopback port and is connected to like a PLC. Each
+ * connection plays one recorded session, the n-th connection the n-th
+ * session, starting over after the last. Requests must match the recording
+ * except for their PDU reference; answers are sent with the reference of the
+ * request, delayed after the request as recorded, scaled by the time scale.
+ * A connection whose requests diverge from the recording, or which sends
+ * more of them, is closed.
+ */
+public final class WireReplay implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WireReplay.class);
+
+    /**
+     * Largest TPKT packet
+     */
+    private static final int MAX_PACKET = 65535;
+
+    /**
+     * Position of the PDU reference in a data TPDU
+     */
+    private static final int PDU_REFERENCE = 11;
+
+    /**
+     * A recorded frame
+     */
+    private static final class Frame {
+        final boolean sent;
+        /**
+         * Time since the start of the recording
+         */
+        final long micros;
+        final byte[] data;
+
+        Frame(final boolean sent, final long micros, final byte[] data) {
+            this.sent = sent;
+            this.micros = micros;
+            this.data = data;
+        }
+    }
+
+    private final List<List<Frame>> sessions;
+
+    private volatile double timeScale = 1;
+
+    private ServerSocket server;
+
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    private final AtomicLong divergences = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private WireReplay(final List<List<Frame>> sessions) {
+        this.sessions = sessions;
+    }
+
+    /**
+     * Loads a recording
+     *
+     * @param file the file written by a {@link WireRecorder}
+     * @throws IOException if the file can not be read or is no recording
+     */
+    public static WireReplay load(final Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads a recording
+     *
+     * @param stream the output of a {@link WireRecorder}, not closed
+     * @throws IOException if the stream can not be read or is no recording
+     */
+    public static WireReplay read(final InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != WireRecorder.MAGIC) {
+            throw new IOException("Not a wire recording");
+        }
+        final int version = in.readUnsignedByte();
+        if (version != WireRecorder.VERSION) {
+            throw new IOException("Unsupported wire recording version: " + version);
+        }
+        final List<List<Frame>> sessions = new ArrayList<>();
+        long micros = 0;
+        int flags;
+        while ((flags = in.read()) >= 0) {
+            final int session = (int) readVarint(in);
+            micros += readVarint(in);
+            final int length = (int) readVarint(in);
+            if (length < 4 || length > MAX_PACKET) {
+                throw new IOException("Invalid frame length in wire recording: " + length);
+            }
+            final byte[] data = new byte[length];
+            in.readFully(data);
+            while (sessions.size() <= session) {
+                sessions.add(new ArrayList<>());
+            }
+            sessions.get(session).add(new Frame((flags & WireRecorder.FLAG_SENT) != 0, micros, data));
+        }
+        // connections which failed before their first frame
+        sessions.removeIf(List::isEmpty);
+        if (sessions.isEmpty()) {
+            throw new IOException("Wire recording is empty");
+        }
+        return new WireReplay(sessions);
+    }
+
+    /**
+     * Returns the number of recorded sessions
+     */
+    public int getSessions() {
+        return this.sessions.size();
+    }
+
+    /**
+     * Returns the number of frames recorded in a session
+     *
+     * @param session the session, from 0
+     */
+    public int getFrames(final int session) {
+        return this.sessions.get(session).size();
+    }
+
+    /**
+     * Scales the recorded answer delays, default is 1 for the recorded
+     * timing; 0.1 answers ten times faster, 0 at once
+     *
+     * @param timeScale the factor
+     */
+    public void setTimeScale(final double timeScale) {
+        if (!(timeScale >= 0) || Double.isInfinite(timeScale)) {
+            throw new IllegalArgumentException("Time scale must be non-negative, but was: " + timeScale);
+        }
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * Starts listening on an ephemeral loopback port
+     *
+     * @return the port
+     * @throws IOException if the port can not be opened
+     */
+    public synchronized int start() throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("Replay is closed");
+        }
+        if (this.server == null) {
+            this.server = new ServerSocket();
+            this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final Thread acceptor = new Thread(this::accept, "s7-replay-" + this.server.getLocalPort());
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        return this.server.getLocalPort();
+    }
+
+    /**
+     * Returns the port the replay listens on
+     */
+    public synchronized int getPort() {
+        if (this.server == null) {
+            throw new IllegalStateException("Replay is not started");
+        }
+        return this.server.getLocalPort();
+    }
+
+    /**
+     * Returns the number of connections closed because their requests
+     * diverged from the recording
+     */
+    public long getDivergences() {
+        return this.divergences.get();
+    }
+
+    /**
+     * Stops listening and closes the connections
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.closed = true;
+        if (this.server != null) {
+            this.server.close();
+        }
+        for (final Socket socket : this.connections) {
+            socket.close();
+        }
+    }
+
+    private void accept() {
+        while (!this.closed) {
+            final Socket socket;
+            try {
+                socket = this.server.accept();
+                socket.setTcpNoDelay(true);
+            } catch (final IOException e) {
+                if (!this.closed) {
+                    logger.warn("Replay stopped accepting connections: {}", e.getMessage());
+                }
+                return;
+            }
+            final int n = this.accepted.getAndIncrement();
+            final Thread player = new Thread(() -> this.play(socket, n % this.sessions.size()), "s7-replay-session-" + n);
+            player.setDaemon(true);
+            this.connections.add(socket);
+            player.start();
+        }
+    }
+
+    private void play(final Socket socket, final int session) {
+        final List<Frame> frames = this.sessions.get(session);
+        final byte[] packet = new byte[MAX_PACKET];
+        try {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            long sentMicros = 0;
+            long sentNanos = System.nanoTime();
+            int reference = -1;
+            // the next request TPDU continues a segmented PDU
+            boolean continued = false;
+            for (int i = 0; i < frames.size(); i++) {
+                final Frame frame = frames.get(i);
+                if (frame.sent) {
+                    final int length = readPacket(in, packet);
+                    if (length < 0) {
+                        return;
+                    }
+                    final boolean first = !continued && isData(packet, length);
+                    if (!matches(frame.data, packet, length, first)) {
+                        this.divergences.incrementAndGet();
+                        logger.warn("Session {} diverged from the recording at frame {}", session, i);
+                        return;
+                    }
+                    if (first) {
+                        reference = word(packet, PDU_REFERENCE);
+                    }
+                    continued = length > 6 && (packet[5] & 0xFF) == 0xF0 && (packet[6] & 0x80) == 0;
+                    sentMicros = frame.micros;
+                    sentNanos = System.nanoTime();
+                } else {
+                    final long due = sentNanos + (long) ((frame.micros - sentMicros) * 1000 * this.timeScale);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    final int length = frame.data.length;
+                    System.arraycopy(frame.data, 0, packet, 0, length);
+                    if (reference >= 0 && isData(packet, length)) {
+                        packet[PDU_REFERENCE] = (byte) (reference >> 8);
+                        packet[PDU_REFERENCE + 1] = (byte) reference;
+                    }
+                    out.write(packet, 0, length);
+                }
+            }
+            logger.debug("Session {} replayed", session);
+        } catch (final IOException e) {
+            if (!this.closed) {
+                logger.debug("Replay of session {} ended: {}", session, e.getMessage());
+            }
+        } finally {
+            this.connections.remove(socket);
+            try {
+                socket.close();
+            } catch (final IOException e) {
+                logger.debug("Failed to close replay connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns true if the packet is a data TPDU starting an S7 PDU
+     */
+    private static boolean isData(final byte[] packet, final int length) {
+        return length >= PDU_REFERENCE + 2 && (packet[5] & 0xFF) == 0xF0 && packet[7] == 0x32;
+    }
+
+    /**
+     * Compares a request with the recorded one, except for the PDU reference
+     * of the first TPDU
+     */
+    private static boolean matches(final byte[] recorded, final byte[] packet, final int length, final boolean first) {
+        if (recorded.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (recorded[i] != packet[i] && !(first && (i == PDU_REFERENCE || i == PDU_REFERENCE + 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a TPKT packet
+     *
+     * @return the length, -1 if the client closed the connection
+     */
+    private static int readPacket(final InputStream in, final byte[] packet) throws IOException {
+        int n = 0;
+        while (n < 4) {
+            final int r = in.read(packet, n, 4 - n);
+            if (r < 0) {
+                if (n == 0) {
+                    return -1;
+                }
+                throw new EOFException("Connection closed within a packet");
+            }
+            n += r;
+        }
+        final int length = word(packet, 2);
+        if (length < 4) {
+            throw new IOException("Invalid TPKT length: " + length);
+        }
+        while (n < length) {
+            final int r = in.read(packet, n, length - n);
+            if (r < 0) {
+                throw new EOFException("Connection closed within a packet");
+            }
+            n += r;
+        }
+        return length;
+    }
+
+    private static int word(final byte[] b, final int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    static long readVarint(final DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint in wire recording");
+    }
+}
@@ -0,0 +1,320 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the last frames sent and received in a ring buffer, for post-mortem
+ * analysis of field issues without trace logging.
+ * <p>
+ * Recording copies the frame into a preallocated slot and takes a timestamp,
+ * without locks or allocation. The ring is shared by the connections of a
+ * connector, each recording as a stream of its own. The ring is written as a
+ * pcap file on demand or, if a directory is set, when a request fails; the
+ * frames appear as TCP traffic to port 102, so Wireshark applies its TPKT,
+ * COTP and S7comm dissectors. Addresses and TCP sequence numbers are made up.
+ * <p>
+ * A frame overwritten while the ring is dumped is left out of the dump.
+ */
+public final class WireTracer {
+
+    private static final Logger logger = LoggerFactory.getLogger(WireTracer.class);
+
+    /**
+     * Least time between two dumps on error, in millis
+     */
+    static final long MIN_DUMP_INTERVAL = 10_000;
+
+    private static final int ISO_TCP_PORT = 102;
+
+    private static final int CLIENT_PORT = 49152;
+
+    /**
+     * pcap link type of raw IPv4 packets
+     */
+    private static final int LINKTYPE_RAW = 101;
+
+    private static final int IP_HEADER = 20;
+
+    private static final int TCP_HEADER = 20;
+
+    /**
+     * One recorded frame, published by its sequence number
+     */
+    private static final class Slot {
+        /**
+         * Sequence number of the frame, -1 while being written
+         */
+        volatile long seq = -1;
+        long micros;
+        int stream;
+        boolean sent;
+        int length;
+        final byte[] data;
+
+        Slot(final int maxFrame) {
+            this.data = new byte[maxFrame];
+        }
+    }
+
+    /**
+     * A frame copied out of the ring
+     */
+    private static final class Frame {
+        final long seq;
+        final long micros;
+        final int stream;
+        final boolean sent;
+        final int length;
+        final byte[] data;
+
+        Frame(final long seq, final long micros, final int stream, final boolean sent, final int length, final byte[] data) {
+            this.seq = seq;
+            this.micros = micros;
+            this.stream = stream;
+            this.sent = sent;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    private final Slot[] slots;
+
+    private final AtomicLong next = new AtomicLong();
+
+    private final AtomicInteger streams = new AtomicInteger();
+
+    private final long baseMicros = System.currentTimeMillis() * 1000;
+
+    private final long baseNanos = System.nanoTime();
+
+    private volatile Path dumpDirectory;
+
+    private final AtomicLong lastDump = new AtomicLong(Long.MIN_VALUE / 2);
+
+    /**
+     * Creates the tracer
+     *
+     * @param frames   the number of frames kept
+     * @param maxFrame the bytes kept of each frame, longer frames are truncated
+     */
+    public WireTracer(final int frames, final int maxFrame) {
+        if (frames <= 0) {
+            throw new IllegalArgumentException("Frames must be positive, but was: " + frames);
+        }
+        if (maxFrame <= 0) {
+            throw new IllegalArgumentException("Max frame must be positive, but was: " + maxFrame);
+        }
+        this.slots = new Slot[frames];
+        for (int i = 0; i < frames; i++) {
+            this.slots[i] = new Slot(maxFrame);
+        }
+    }
+
+    /**
+     * Writes the ring to a new file in the directory whenever a request fails,
+     * at most every 10 seconds
+     *
+     * @param dumpDirectory the directory, null to dump on demand only
+     */
+    public void setDumpDirectory(final Path dumpDirectory) {
+        this.dumpDirectory = dumpDirectory;
+    }
+
+    /**
+     * Returns the id of a new stream, one per connection
+     */
+    int newStream() {
+        return this.streams.incrementAndGet();
+    }
+
+    /**
+     * Records a frame
+     *
+     * @param stream the stream of the connection
+     * @param sent   true if sent to the PLC, false if received
+     */
+    void record(final int stream, final boolean sent, final byte[] b, final int start, final int len) {
+        final long seq = this.next.getAndIncrement();
+        final Slot slot = this.slots[(int) (seq % this.slots.length)];
+        slot.seq = -1;
+        slot.micros = this.baseMicros + (System.nanoTime() - this.baseNanos) / 1000;
+        slot.stream = stream;
+        slot.sent = sent;
+        slot.length = len;
+        System.arraycopy(b, start, slot.data, 0, Math.min(len, slot.data.length));
+        slot.seq = seq;
+    }
+
+    /**
+     * Returns the number of frames recorded so far, including those
+     * overwritten
+     */
+    public long getRecordedFrames() {
+        return this.next.get();
+    }
+
+    /**
+     * Writes the frames in the ring as pcap file
+     *
+     * @param out the stream, not closed
+     * @return the number of frames written
+     */
+    public int dump(final OutputStream out) throws IOException {
+        final List<Frame> frames = this.snapshot();
+        final DataOutputStream pcap = new DataOutputStream(new BufferedOutputStream(out));
+        pcap.writeInt(0xa1b2c3d4);
+        pcap.writeShort(2);
+        pcap.writeShort(4);
+        pcap.writeInt(0); // GMT offset
+        pcap.writeInt(0); // timestamp accuracy
+        pcap.writeInt(65535);
+        pcap.writeInt(LINKTYPE_RAW);
+
+        // next TCP sequence number of each stream and direction
+        final long[] seqs = new long[2 * (this.streams.get() + 1)];
+        final byte[] headers = new byte[IP_HEADER + TCP_HEADER];
+        for (final Frame frame : frames) {
+            final int captured = Math.min(frame.length, frame.data.length);
+            final int own = 2 * frame.stream + (frame.sent ? 0 : 1);
+            final int other = own ^ 1;
+            this.headers(headers, frame, seqs[own], seqs[other]);
+            seqs[own] += frame.length;
+
+            pcap.writeInt((int) (frame.micros / 1_000_000));
+            pcap.writeInt((int) (frame.micros % 1_000_000));
+            pcap.writeInt(headers.length + captured);
+            pcap.writeInt(headers.length + frame.length);
+            pcap.write(headers);
+            pcap.write(frame.data, 0, captured);
+        }
+        pcap.flush();
+        return frames.size();
+    }
+
+    /**
+     * Writes the frames in the ring to a new pcap file
+     *
+     * @param file the file
+     * @return the number of frames written
+     */
+    public int dump(final Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            return this.dump(out);
+        }
+    }
+
+    /**
+     * Dumps the ring into the dump directory, if set and the last dump is old
+     * enough; called when a request failed
+     *
+     * @param name names the connection in the file name
+     */
+    public void failed(final String name) {
+        final Path directory = this.dumpDirectory;
+        if (directory == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long last = this.lastDump.get();
+        if (now - last < MIN_DUMP_INTERVAL || !this.lastDump.compareAndSet(last, now)) {
+            return;
+        }
+        final String time = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(now));
+        final Path file = directory.resolve("s7-" + name.replaceAll("[^A-Za-z0-9.-]", "_") + "-" + time + ".pcap");
+        try {
+            final int frames = this.dump(file);
+            logger.warn("Request to {} failed, wrote the last {} frames to {}", name, frames, file);
+        } catch (final IOException e) {
+            logger.warn("Failed to write wire trace to {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Copies the consistent frames out of the ring, oldest first
+     */
+    private List<Frame> snapshot() {
+        final long end = this.next.get();
+        final long start = Math.max(0, end - this.slots.length);
+        final List<Frame> frames = new ArrayList<>();
+        for (long seq = start; seq < end; seq++) {
+            final Slot slot = this.slots[(int) (seq % this.slots.length)];
+            if (slot.seq != seq) {
+                continue; // being written or already overwritten
+            }
+            final Frame frame = new Frame(seq, slot.micros, slot.stream, slot.sent, slot.length,
+                slot.data.clone());
+            if (slot.seq == seq) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Writes IPv4 and TCP headers of the frame, client 10.0.0.1 on a port
+     * per stream, PLC 10.0.0.2 on port 102
+     */
+    private void headers(final byte[] h, final Frame frame, final long seq, final long ack) {
+        final int length = IP_HEADER + TCP_HEADER + frame.length;
+        h[0] = 0x45;
+        h[1] = 0;
+        Nodave.setUSBEWord(h, 2, length & 0xFFFF);
+        Nodave.setUSBEWord(h, 4, (int) (frame.seq & 0xFFFF));
+        Nodave.setUSBEWord(h, 6, 0x4000); // don't fragment
+        h[8] = 64;
+        h[9] = 6; // TCP
+        Nodave.setUSBEWord(h, 10, 0);
+        final byte[] client = { 10, 0, 0, 1 };
+        final byte[] plc = { 10, 0, 0, 2 };
+        System.arraycopy(frame.sent ? client : plc, 0, h, 12, 4);
+        System.arraycopy(frame.sent ? plc : client, 0, h, 16, 4);
+        int sum = 0;
+        for (int i = 0; i < IP_HEADER; i += 2) {
+            sum += Nodave.USBEWord(h, i);
+        }
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >> 16);
+        }
+        Nodave.setUSBEWord(h, 10, ~sum & 0xFFFF);
+
+        final int clientPort = CLIENT_PORT + frame.stream % 16384;
+        Nodave.setUSBEWord(h, 20, frame.sent ? clientPort : ISO_TCP_PORT);
+        Nodave.setUSBEWord(h, 22, frame.sent ? ISO_TCP_PORT : clientPort);
+        Nodave.setUSBELong(h, 24, (int) (seq + 1));
+        Nodave.setUSBELong(h, 28, (int) (ack + 1));
+        h[32] = 0x50; // header length 20
+        h[33] = 0x18; // PSH, ACK
+        Nodave.setUSBEWord(h, 34, 0xFFFF); // window
+        Nodave.setUSBEWord(h, 36, 0); // checksum not computed
+        Nodave.setUSBEWord(h, 38, 0);
+    }
+}
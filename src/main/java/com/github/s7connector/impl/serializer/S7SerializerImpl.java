@@ -18,6 +18,8 @@ package com.github.s7connector.impl.serializer;
 import com.github.s7connector.api.DaveArea;
 import com.github.s7connector.api.S7Connector;
 import com.github.s7connector.api.S7Serializer;
+import com.github.s7connector.api.S7Type;
+import com.github.s7connector.api.S7WriteItem;
 import com.github.s7connector.exception.S7Exception;
 import com.github.s7connector.impl.serializer.parser.BeanEntry;
 import com.github.s7connector.impl.serializer.parser.BeanParseResult;
@@ -27,6 +29,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * The Class S7Serializer is responsible for serializing S7 TCP Connection
@@ -131,6 +136,69 @@ public final class S7SerializerImpl implements S7Serializer {
         }
     }
 
+    /**
+     * Splits a bean with BOOL fields into bit items for the BOOL fields and
+     * byte items for the remaining bytes, so the other bits of a byte shared
+     * with BOOL fields are left untouched on the PLC.
+     *
+     * @param result     the parsed bean
+     * @param bean       the bean
+     * @param buffer     the serialized bean
+     * @param dbNum      the DB number
+     * @param byteOffset the byte offset of the bean
+     * @return the items, or null if the bean has no BOOL fields and is written as a whole
+     */
+    private static List<S7WriteItem> toWriteItems(final BeanParseResult result, final Object bean,
+                                                  final byte[] buffer, final int dbNum, final int byteOffset)
+            throws IllegalAccessException {
+        final int[] bitMask = new int[buffer.length];
+        final List<S7WriteItem> items = new ArrayList<>();
+        for (final BeanEntry entry : result.entries) {
+            if (entry.s7type != S7Type.BOOL) {
+                continue;
+            }
+            final Object fieldValue = entry.field.get(bean);
+            final int count = entry.isArray ? entry.arraySize : 1;
+            if (entry.bitOffset + count > 8) {
+                // bit arrays crossing a byte boundary keep the whole-block write
+                return null;
+            }
+            for (int i = 0; i < count; i++) {
+                final int bit = entry.bitOffset + i;
+                bitMask[entry.byteOffset] |= 1 << bit;
+                final Object value = fieldValue == null ? null : entry.isArray ? Array.get(fieldValue, i) : fieldValue;
+                if (value != null) {
+                    items.add(S7WriteItem.bit(DaveArea.DB, dbNum, byteOffset + entry.byteOffset, bit, (Boolean) value));
+                }
+            }
+        }
+        if (!hasBits(bitMask)) {
+            return null;
+        }
+
+        // contiguous runs of bytes without BOOL fields
+        int start = -1;
+        for (int i = 0; i <= buffer.length; i++) {
+            final boolean plain = i < buffer.length && bitMask[i] == 0;
+            if (plain && start < 0) {
+                start = i;
+            } else if (!plain && start >= 0) {
+                items.add(new S7WriteItem(DaveArea.DB, dbNum, byteOffset + start, Arrays.copyOfRange(buffer, start, i)));
+                start = -1;
+            }
+        }
+        return items;
+    }
+
+    private static boolean hasBits(final int[] bitMask) {
+        for (final int mask : bitMask) {
+            if (mask != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * The Connector.
      */
@@ -245,7 +313,13 @@ public final class S7SerializerImpl implements S7Serializer {
 
             insertBytes(bean, buffer, 0);
 
-            this.connector.write(DaveArea.DB, dbNum, byteOffset, buffer);
+            final List<S7WriteItem> items = this.connector.isBitWriteSupported()
+                    ? toWriteItems(result, bean, buffer, dbNum, byteOffset) : null;
+            if (items == null) {
+                this.connector.write(DaveArea.DB, dbNum, byteOffset, buffer);
+            } else {
+                this.connector.write(items, null);
+            }
 
             if (logger.isDebugEnabled()) {
                 logger.debug("Successfully stored bean of type {} to DB {}", bean.getClass().getName(), dbNum);
@@ -0,0 +1,200 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.utils;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of frame buffers shared by many connections. A connection using the
+ * pool holds its buffers only while it has requests to process and returns
+ * them when it becomes idle, so idle connections cost no buffer memory.
+ * <p>
+ * Buffers come in power of two size classes from 256 bytes to 64 KB. An
+ * empty class is refilled with a slab of 16 KB worth of buffers at a time.
+ * The bytes kept by the pool are bounded; buffers returned beyond the bound
+ * are left to the garbage collector.
+ * <p>
+ * Direct buffers are pooled the same way; a slab is one direct allocation,
+ * sliced into the buffers of the class.
+ */
+public final class BufferPool {
+
+	private static final int MIN_SHIFT = 8;
+
+	private static final int MAX_SHIFT = 16;
+
+	private static final int SLAB_SIZE = 16 * 1024;
+
+	private final ConcurrentLinkedQueue<byte[]>[] classes;
+
+	private final ConcurrentLinkedQueue<ByteBuffer>[] directClasses;
+
+	private final long maxRetained;
+
+	private final AtomicLong retained = new AtomicLong();
+
+	private final AtomicLong allocated = new AtomicLong();
+
+	/**
+	 * Creates the pool
+	 *
+	 * @param maxRetained
+	 *            the largest number of bytes kept in the pool
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(final long maxRetained) {
+		if (maxRetained < 0) {
+			throw new IllegalArgumentException("Max retained bytes must not be negative, but was: " + maxRetained);
+		}
+		this.maxRetained = maxRetained;
+		this.classes = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+		this.directClasses = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+		for (int i = 0; i < this.classes.length; i++) {
+			this.classes[i] = new ConcurrentLinkedQueue<>();
+			this.directClasses[i] = new ConcurrentLinkedQueue<>();
+		}
+	}
+
+	/**
+	 * Takes a buffer from the pool
+	 *
+	 * @param size
+	 *            the least size needed
+	 * @return a buffer of at least the size, its content is undefined
+	 */
+	public byte[] acquire(final int size) {
+		if (size <= 0 || size > 1 << MAX_SHIFT) {
+			throw new IllegalArgumentException("Size must be between 1 and " + (1 << MAX_SHIFT) + ", but was: " + size);
+		}
+		final int index = classIndex(size);
+		final byte[] buffer = this.classes[index].poll();
+		if (buffer != null) {
+			this.retained.addAndGet(-buffer.length);
+			return buffer;
+		}
+		// refill with a slab, as far as the bound allows
+		final int length = 1 << (index + MIN_SHIFT);
+		int count = 1;
+		while (count < SLAB_SIZE / length && this.reserve(length)) {
+			this.classes[index].offer(new byte[length]);
+			count++;
+		}
+		this.allocated.addAndGet((long) count * length);
+		return new byte[length];
+	}
+
+	/**
+	 * Returns a buffer taken from the pool
+	 *
+	 * @param buffer
+	 *            the buffer, not to be used by the caller any more
+	 */
+	public void release(final byte[] buffer) {
+		final int length = buffer.length;
+		if (Integer.bitCount(length) != 1 || length < 1 << MIN_SHIFT || length > 1 << MAX_SHIFT) {
+			return; // not from this pool
+		}
+		if (this.reserve(length)) {
+			this.classes[classIndex(length)].offer(buffer);
+		}
+	}
+
+	/**
+	 * Takes a direct buffer from the pool
+	 *
+	 * @param size
+	 *            the least size needed
+	 * @return a cleared direct buffer with a capacity of at least the size
+	 */
+	public ByteBuffer acquireDirect(final int size) {
+		if (size <= 0 || size > 1 << MAX_SHIFT) {
+			throw new IllegalArgumentException("Size must be between 1 and " + (1 << MAX_SHIFT) + ", but was: " + size);
+		}
+		final int index = classIndex(size);
+		final ByteBuffer buffer = this.directClasses[index].poll();
+		if (buffer != null) {
+			this.retained.addAndGet(-buffer.capacity());
+			((Buffer) buffer).clear();
+			return buffer;
+		}
+		final int length = 1 << (index + MIN_SHIFT);
+		final int count = SLAB_SIZE / length;
+		if (count <= 1 || !this.reserve((count - 1) * length)) {
+			this.allocated.addAndGet(length);
+			return ByteBuffer.allocateDirect(length);
+		}
+		// the slices keep the slab alive, so it is retained as a whole
+		final ByteBuffer slab = ByteBuffer.allocateDirect(count * length);
+		for (int i = 1; i < count; i++) {
+			((Buffer) slab).limit((i + 1) * length);
+			((Buffer) slab).position(i * length);
+			this.directClasses[index].offer(slab.slice());
+		}
+		this.allocated.addAndGet((long) count * length);
+		((Buffer) slab).limit(length);
+		((Buffer) slab).position(0);
+		return slab.slice();
+	}
+
+	/**
+	 * Returns a direct buffer taken from the pool
+	 *
+	 * @param buffer
+	 *            the buffer, not to be used by the caller any more
+	 */
+	public void releaseDirect(final ByteBuffer buffer) {
+		final int length = buffer.capacity();
+		if (!buffer.isDirect() || Integer.bitCount(length) != 1 || length < 1 << MIN_SHIFT || length > 1 << MAX_SHIFT) {
+			return; // not from this pool
+		}
+		if (this.reserve(length)) {
+			this.directClasses[classIndex(length)].offer(buffer);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes currently kept by the pool
+	 */
+	public long getRetainedBytes() {
+		return this.retained.get();
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the pool so far
+	 */
+	public long getAllocatedBytes() {
+		return this.allocated.get();
+	}
+
+	private boolean reserve(final int length) {
+		long current;
+		do {
+			current = this.retained.get();
+			if (current + length > this.maxRetained) {
+				return false;
+			}
+		} while (!this.retained.compareAndSet(current, current + length));
+		return true;
+	}
+
+	private static int classIndex(final int size) {
+		final int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+	}
+}
@@ -0,0 +1,132 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.utils;
+
+import com.github.s7connector.exception.DeadlineExceededException;
+
+import java.time.Duration;
+
+/**
+ * Point in time (based on {@link System#nanoTime()}) by which a request must be
+ * completed.
+ */
+public final class Deadline {
+
+	/**
+	 * No deadline, operations use their built-in timeouts
+	 */
+	public static final Deadline NONE = new Deadline(0L, 0L, false);
+
+	/**
+	 * Creates a deadline the given duration from now
+	 *
+	 * @param timeout
+	 *            the timeout, null or zero for none
+	 * @return the deadline
+	 */
+	public static Deadline after(final Duration timeout) {
+		if (timeout == null || timeout.isZero()) {
+			return NONE;
+		}
+		if (timeout.isNegative()) {
+			throw new IllegalArgumentException("Timeout must not be negative, but was: " + timeout);
+		}
+		final long nanos = timeout.toNanos();
+		return new Deadline(System.nanoTime() + nanos, nanos, true);
+	}
+
+	/** nanoTime at which the deadline expires */
+	private final long expiry;
+
+	/** the original timeout */
+	private final long timeout;
+
+	private final boolean bounded;
+
+	/** Constructor */
+	private Deadline(final long expiry, final long timeout, final boolean bounded) {
+		this.expiry = expiry;
+		this.timeout = timeout;
+		this.bounded = bounded;
+	}
+
+	/**
+	 * Returns true if this is a real deadline, false for {@link #NONE}
+	 */
+	public boolean isBounded() {
+		return this.bounded;
+	}
+
+	/**
+	 * Returns the remaining nanos, {@link Long#MAX_VALUE} if unbounded
+	 */
+	public long remainingNanos() {
+		return this.bounded ? this.expiry - System.nanoTime() : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns true if the deadline has passed
+	 */
+	public boolean isExpired() {
+		return this.bounded && (this.expiry - System.nanoTime()) <= 0;
+	}
+
+	/**
+	 * Throws if the deadline has passed
+	 *
+	 * @param what
+	 *            description of the pending step, for the message
+	 * @throws DeadlineExceededException
+	 *             if expired
+	 */
+	public void check(final String what) throws DeadlineExceededException {
+		if (this.isExpired()) {
+			throw this.exceeded(what);
+		}
+	}
+
+	/**
+	 * Creates the exception for an expired deadline
+	 *
+	 * @param what
+	 *            description of the pending step, for the message
+	 * @return the exception
+	 */
+	public DeadlineExceededException exceeded(final String what) {
+		return new DeadlineExceededException(
+				String.format("Deadline of %dms exceeded %s", Duration.ofNanos(this.timeout).toMillis(), what));
+	}
+
+	/**
+	 * Creates the exception for a deadline expired in a local wait, before the
+	 * request reached the transport
+	 *
+	 * @param what
+	 *            description of the pending step, for the message
+	 * @return the exception, {@link DeadlineExceededException#isLocal() local}
+	 */
+	public DeadlineExceededException exceededLocally(final String what) {
+		return new DeadlineExceededException(
+				String.format("Deadline of %dms exceeded %s", Duration.ofNanos(this.timeout).toMillis(), what), true);
+	}
+
+	/**
+	 * Returns the remaining time as duration, null if unbounded
+	 */
+	public Duration remaining() {
+		return this.bounded ? Duration.ofNanos(Math.max(1L, this.remainingNanos())) : null;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads where the JDK has them (21 and later). The library
+ * is built for Java 8, so the JDK API is looked up reflectively; on older
+ * JDKs platform daemon threads are created instead.
+ */
+public final class VirtualThreads {
+
+	private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+	/** Thread.ofVirtual(), null if not available */
+	private static final Method OF_VIRTUAL;
+
+	/** Thread.Builder.name(String) */
+	private static final Method NAME;
+
+	/** Thread.Builder.unstarted(Runnable) */
+	private static final Method UNSTARTED;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method unstarted = null;
+		try {
+			final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class);
+			unstarted = builder.getMethod("unstarted", Runnable.class);
+		} catch (final ReflectiveOperationException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		UNSTARTED = unstarted;
+	}
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Returns true if the JDK supports virtual threads
+	 */
+	public static boolean isAvailable() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Creates an unstarted thread, virtual if available and requested
+	 *
+	 * @param name
+	 *            the thread name
+	 * @param task
+	 *            the task
+	 * @param virtual
+	 *            true for a virtual thread
+	 * @return the thread, a platform daemon thread if virtual threads are
+	 *         not requested or not available
+	 */
+	public static Thread newThread(final String name, final Runnable task, final boolean virtual) {
+		if (virtual && OF_VIRTUAL != null) {
+			try {
+				final Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+				return (Thread) UNSTARTED.invoke(builder, task);
+			} catch (final ReflectiveOperationException e) {
+				logger.warn("Cannot create virtual thread, using a platform thread: {}", e.getMessage());
+			}
+		}
+		final Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,58 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.impl.nodave;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Big-endian access to byte arrays, the byte order of the S7 protocol.
+ * <p>
+ * Java 17 implementation of the multi-release JAR, using byte array view
+ * VarHandles. Must behave exactly like the Java 8 version in
+ * {@code src/main/java}.
+ */
+final class BigEndian {
+
+	private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+	private BigEndian() {
+	}
+
+	/**
+	 * Reads a signed 16 bit value
+	 */
+	static short getShort(final byte[] b, final int pos) {
+		return (short) SHORT.get(b, pos);
+	}
+
+	/**
+	 * Reads a signed 32 bit value
+	 */
+	static int getInt(final byte[] b, final int pos) {
+		return (int) INT.get(b, pos);
+	}
+
+	/**
+	 * Writes a 32 bit value
+	 */
+	static void putInt(final byte[] b, final int pos, final int value) {
+		INT.set(b, pos, value);
+	}
+}
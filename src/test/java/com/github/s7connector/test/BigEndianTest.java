@@ -0,0 +1,130 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the Java 17 byte access of the multi-release jar with the Java 8
+ * one; skipped when the build did not produce the Java 17 classes
+ */
+public class BigEndianTest {
+
+	private static final String CLASS = "com.github.s7connector.impl.nodave.BigEndian";
+
+	private static final String VERSIONED = "META-INF/versions/17/" + CLASS.replace('.', '/') + ".class";
+
+	private Class<?> java8;
+
+	private Class<?> java17;
+
+	@Before
+	public void setUp() throws Exception {
+		final ClassLoader parent = BigEndianTest.class.getClassLoader();
+		final byte[] bytes;
+		try (InputStream in = parent.getResourceAsStream(VERSIONED)) {
+			Assume.assumeNotNull(in);
+			bytes = readAll(in);
+		}
+		this.java8 = Class.forName(CLASS, true, parent);
+		this.java17 = new ClassLoader(parent) {
+			@Override
+			protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+				if (CLASS.equals(name)) {
+					return this.defineClass(name, bytes, 0, bytes.length);
+				}
+				return super.loadClass(name, resolve);
+			}
+		}.loadClass(CLASS);
+		Assert.assertNotSame(this.java8, this.java17);
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static Object call(final Class<?> type, final String name, final Object... args) throws Exception {
+		final Class<?>[] types = args.length == 2
+				? new Class<?>[] { byte[].class, int.class }
+				: new Class<?>[] { byte[].class, int.class, int.class };
+		final Method method = type.getDeclaredMethod(name, types);
+		method.setAccessible(true);
+		try {
+			return method.invoke(null, args);
+		} catch (final InvocationTargetException e) {
+			throw (Exception) e.getCause();
+		}
+	}
+
+	@Test
+	public void readsAndWritesLikeJava8() throws Exception {
+		final Random random = new Random(42);
+		final byte[] data = new byte[64];
+		for (int i = 0; i < 100_000; i++) {
+			random.nextBytes(data);
+			// every alignment, and the last positions the value fits
+			final int pos = i < data.length ? Math.min(i, data.length - 4) : random.nextInt(data.length - 3);
+			Assert.assertEquals(call(this.java8, "getShort", data, pos), call(this.java17, "getShort", data, pos));
+			Assert.assertEquals(call(this.java8, "getShort", data, pos + 2), call(this.java17, "getShort", data, pos + 2));
+			Assert.assertEquals(call(this.java8, "getInt", data, pos), call(this.java17, "getInt", data, pos));
+
+			final int value = i % 4 == 0 ? new int[] { 0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE }[i / 4 % 4] : random.nextInt();
+			final byte[] expected = data.clone();
+			final byte[] actual = data.clone();
+			call(this.java8, "putInt", expected, pos, value);
+			call(this.java17, "putInt", actual, pos, value);
+			Assert.assertArrayEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void rejectsOutOfBoundsLikeJava8() throws Exception {
+		final byte[] data = new byte[8];
+		for (final int pos : new int[] { -1, 5, 7, 8 }) {
+			for (final Class<?> type : Arrays.asList(this.java8, this.java17)) {
+				try {
+					call(type, "getInt", data, pos);
+					Assert.fail("getInt at " + pos);
+				} catch (final IndexOutOfBoundsException e) {
+					// expected
+				}
+				try {
+					call(type, "putInt", data, pos, 1);
+					Assert.fail("putInt at " + pos);
+				} catch (final IndexOutOfBoundsException e) {
+					// expected
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BitReadTest {
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7Connector build() throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.build();
+	}
+
+	@Test
+	public void scatteredBitsInOneRequest() throws Exception {
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		db[0] = 0x02;
+		db[100] = (byte) 0x80;
+		db[2000] = (byte) 0xFE;
+		final byte[] flags = this.simulator.getArea(DaveArea.FLAGS.getCode(), 0);
+		flags[7] = 0x10;
+
+		try (S7Connector connector = this.build()) {
+			final List<byte[]> result = connector.read(Arrays.asList(
+					S7ReadItem.bit(DaveArea.DB, 1, 0, 1),
+					S7ReadItem.bit(DaveArea.DB, 1, 100, 7),
+					S7ReadItem.bit(DaveArea.DB, 1, 2000, 0),
+					S7ReadItem.bit(DaveArea.FLAGS, 0, 7, 4),
+					new S7ReadItem(DaveArea.DB, 1, 2000, 3)), null);
+
+			Assert.assertArrayEquals(new byte[] { 1 }, result.get(0));
+			Assert.assertArrayEquals(new byte[] { 1 }, result.get(1));
+			Assert.assertArrayEquals(new byte[] { 0 }, result.get(2));
+			Assert.assertArrayEquals(new byte[] { 1 }, result.get(3));
+			Assert.assertArrayEquals(new byte[] { (byte) 0xFE, 0, 0 }, result.get(4));
+			Assert.assertEquals(1, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void itemsAreSplitAtThePduSize() throws Exception {
+		try (S7Connector connector = this.build()) {
+			final List<S7ReadItem> items = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				items.add(S7ReadItem.bit(DaveArea.DB, 1, i, i % 8));
+			}
+			items.add(new S7ReadItem(DaveArea.DB, 1, 0, 500));
+
+			final List<byte[]> result = connector.read(items, null);
+			Assert.assertEquals(41, result.size());
+			Assert.assertEquals(500, result.get(40).length);
+			// 19 items per 240 byte request, then the large item in 3 chunks
+			Assert.assertEquals(3 + 3, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectedItemFails() throws Exception {
+		try (S7Connector connector = this.build()) {
+			connector.read(Arrays.asList(
+					S7ReadItem.bit(DaveArea.DB, 1, 0, 0),
+					new S7ReadItem(DaveArea.DB, 1, 65530, 10)), null);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Serializer;
+import com.github.s7connector.api.S7Type;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.api.annotation.S7Variable;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.api.factory.S7SerializerFactory;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class BitWriteTest {
+
+	public static class Bean {
+
+		@S7Variable(type = S7Type.WORD, byteOffset = 0)
+		public int counter;
+
+		@S7Variable(type = S7Type.BOOL, byteOffset = 2, bitOffset = 0)
+		public boolean start;
+
+		@S7Variable(type = S7Type.BOOL, byteOffset = 2, bitOffset = 1)
+		public boolean stop;
+
+		@S7Variable(type = S7Type.BYTE, byteOffset = 3)
+		public byte mode;
+	}
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7Connector build() throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.build();
+	}
+
+	@Test
+	public void bitWriteLeavesOtherBitsUntouched() throws Exception {
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		db[10] = (byte) 0xF0;
+		try (S7Connector connector = this.build()) {
+			Assert.assertTrue(connector.isBitWriteSupported());
+
+			connector.writeBit(DaveArea.DB, 1, 10, 0, true);
+			Assert.assertEquals((byte) 0xF1, db[10]);
+
+			connector.writeBit(DaveArea.DB, 1, 10, 7, false);
+			Assert.assertEquals((byte) 0x71, db[10]);
+
+			// one request each, no read-modify-write
+			Assert.assertEquals(2, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void bitsAreBatchedIntoOneRequest() throws Exception {
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		try (S7Connector connector = this.build()) {
+			connector.write(Arrays.asList(
+					S7WriteItem.bit(DaveArea.DB, 1, 0, 1, true),
+					S7WriteItem.bit(DaveArea.DB, 1, 0, 3, true),
+					new S7WriteItem(DaveArea.DB, 1, 4, new byte[] { 1, 2, 3 }),
+					S7WriteItem.bit(DaveArea.DB, 1, 8, 7, true)), null);
+
+			Assert.assertEquals(0x0A, db[0]);
+			Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, Arrays.copyOfRange(db, 4, 7));
+			Assert.assertEquals((byte) 0x80, db[8]);
+			Assert.assertEquals(1, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void storePreservesBitsOwnedByThePlc() throws Exception {
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 3);
+		// bits 2..7 of the BOOL byte belong to the PLC program
+		db[2] = (byte) 0xFC;
+		try (S7Connector connector = this.build()) {
+			final S7Serializer serializer = S7SerializerFactory.buildSerializer(connector);
+			final Bean bean = new Bean();
+			bean.counter = 0x1234;
+			bean.start = true;
+			bean.stop = false;
+			bean.mode = 5;
+			serializer.store(bean, 3, 0);
+
+			Assert.assertArrayEquals(new byte[] { 0x12, 0x34, (byte) 0xFD, 5 }, Arrays.copyOfRange(db, 0, 4));
+
+			final Bean read = serializer.dispense(Bean.class, 3, 0);
+			Assert.assertEquals(0x1234, read.counter);
+			Assert.assertTrue(read.start);
+			Assert.assertFalse(read.stop);
+			Assert.assertEquals(5, read.mode);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.impl.S7CachingConnection;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CacheTest {
+
+	private S7Simulator simulator;
+
+	private byte[] db;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+		this.db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		for (int i = 0; i < 100; i++) {
+			this.db[i] = (byte) i;
+		}
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7Connector build(final int maxAge, final long maxBytes) throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withCache(maxAge, maxBytes)
+				.build();
+	}
+
+	@Test
+	public void coveredReadIsServedFromCache() throws Exception {
+		try (S7Connector connector = this.build(10000, 1024)) {
+			connector.read(DaveArea.DB, 1, 20, 0);
+			this.db[5] = 99;
+
+			Assert.assertEquals(5, connector.read(DaveArea.DB, 1, 10, 0)[5]);
+			Assert.assertEquals(1, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void partialHitWithinOnePduReadsTheSpan() throws Exception {
+		try (S7Connector connector = this.build(10000, 1024)) {
+			connector.read(DaveArea.DB, 1, 10, 10);
+			this.db[15] = 99;
+			this.db[5] = 98;
+			this.db[25] = 97;
+
+			// one request instead of one per gap, the span is fresh throughout
+			final byte[] result = connector.read(DaveArea.DB, 1, 30, 0);
+			Assert.assertEquals(98, result[5]);
+			Assert.assertEquals(99, result[15]);
+			Assert.assertEquals(97, result[25]);
+			Assert.assertEquals(2, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void onlyMissingRangesAreFetched() throws Exception {
+		try (S7Connector connector = this.build(10000, 4096)) {
+			connector.read(DaveArea.DB, 1, 100, 10);
+			connector.read(DaveArea.DB, 1, 100, 250);
+			Assert.assertEquals(2, this.simulator.getRequestCount());
+			this.db[5] = 98;
+			this.db[55] = 99;
+			this.db[245] = 97;
+			this.db[355] = 96;
+
+			// three small gaps spread over more than a PDU, one multi-item request instead of three
+			final byte[] result = connector.read(DaveArea.DB, 1, 360, 0);
+			Assert.assertEquals(98, result[5]);
+			Assert.assertEquals(55, result[55]);
+			Assert.assertEquals(97, result[245]);
+			Assert.assertEquals(96, result[355]);
+			Assert.assertEquals(3, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void expiryUpdatesTheGauge() throws Exception {
+		final Map<String, Long> gauges = new ConcurrentHashMap<>();
+		try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withCache(50, 1024)
+				.withMetrics(new S7Metrics() {
+					@Override
+					public void gauge(final String name, final long value) {
+						gauges.put(name, value);
+					}
+				})
+				.build()) {
+			connector.read(DaveArea.DB, 1, 20, 0);
+			Assert.assertEquals(Long.valueOf(20), gauges.get(S7CachingConnection.METRIC_BYTES));
+			Thread.sleep(100);
+
+			// the refetch fails, the expired interval is gone anyway
+			this.simulator.close();
+			try {
+				connector.read(DaveArea.DB, 1, 20, 0);
+				Assert.fail("Expected the read to fail");
+			} catch (final IOException e) {
+				// expected
+			}
+			Assert.assertEquals(Long.valueOf(0), gauges.get(S7CachingConnection.METRIC_BYTES));
+		}
+	}
+
+	@Test
+	public void expiredDataIsFetchedAgain() throws Exception {
+		try (S7Connector connector = this.build(50, 1024)) {
+			connector.read(DaveArea.DB, 1, 10, 0);
+			this.db[0] = 42;
+			Thread.sleep(100);
+
+			Assert.assertEquals(42, connector.read(DaveArea.DB, 1, 10, 0)[0]);
+			Assert.assertEquals(2, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void readsOwnWrites() throws Exception {
+		try (S7Connector connector = this.build(10000, 1024)) {
+			connector.read(DaveArea.DB, 1, 10, 0);
+			connector.write(DaveArea.DB, 1, 4, new byte[] { 50, 51 });
+
+			final byte[] result = connector.read(DaveArea.DB, 1, 10, 0);
+			Assert.assertEquals(3, result[3]);
+			Assert.assertEquals(50, result[4]);
+			Assert.assertEquals(51, result[5]);
+			Assert.assertEquals(6, result[6]);
+			Assert.assertEquals(2, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws Exception {
+		try (S7Connector connector = this.build(10000, 100)) {
+			connector.read(DaveArea.DB, 1, 60, 0);
+			connector.read(DaveArea.DB, 2, 60, 0);
+			Assert.assertEquals(60, ((S7CachingConnection) connector).getCachedBytes());
+
+			connector.read(DaveArea.DB, 2, 60, 0);
+			Assert.assertEquals(2, this.simulator.getRequestCount());
+			connector.read(DaveArea.DB, 1, 60, 0);
+			Assert.assertEquals(3, this.simulator.getRequestCount());
+		}
+	}
+}
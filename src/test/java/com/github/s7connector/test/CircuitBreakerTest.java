@@ -0,0 +1,190 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7Priority;
+import com.github.s7connector.api.S7RequestScope;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.exception.CircuitOpenException;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.impl.S7CircuitBreakerConnection;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CircuitBreakerTest {
+
+	/**
+	 * Connector failing with an IOException while "down" is set
+	 */
+	private static class FlakyConnector implements S7Connector {
+		volatile boolean down = false;
+		final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public byte[] read(DaveArea area, int areaNumber, int bytes, int offset) throws IOException {
+			this.calls.incrementAndGet();
+			if (this.down) {
+				throw new IOException("PLC unreachable");
+			}
+			return new byte[bytes];
+		}
+
+		@Override
+		public void write(DaveArea area, int areaNumber, int offset, byte[] buffer) {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/** Recording metrics sink */
+	private static class Recorder implements S7Metrics {
+		final Map<String, Long> values = new ConcurrentHashMap<>();
+
+		@Override
+		public void increment(String name, long delta) {
+			this.values.merge(name, delta, Long::sum);
+		}
+
+		@Override
+		public void gauge(String name, long value) {
+			this.values.put(name, value);
+		}
+	}
+
+	private static byte[] read(S7CircuitBreakerConnection c) throws Exception {
+		return c.read(DaveArea.DB, 1, 1, 0);
+	}
+
+	@Test
+	public void opensAfterThresholdAndRecovers() throws Exception {
+		final FlakyConnector flaky = new FlakyConnector();
+		final Recorder metrics = new Recorder();
+		final S7CircuitBreakerConnection breaker = new S7CircuitBreakerConnection(flaky, 3, 100, metrics);
+
+		flaky.down = true;
+		for (int i = 0; i < 3; i++) {
+			try {
+				read(breaker);
+				Assert.fail("expected failure");
+			} catch (IOException e) {
+				Assert.assertFalse(e instanceof CircuitOpenException);
+			}
+		}
+		Assert.assertEquals(S7CircuitBreakerConnection.State.OPEN, breaker.getState());
+		Assert.assertEquals(Long.valueOf(1), metrics.values.get(S7CircuitBreakerConnection.METRIC_STATE));
+
+		// fails fast without touching the connection
+		final int callsBefore = flaky.calls.get();
+		try {
+			read(breaker);
+			Assert.fail("expected circuit open");
+		} catch (CircuitOpenException e) {
+			Assert.assertTrue(e.getRetryAfter() > 0);
+		}
+		Assert.assertEquals(callsBefore, flaky.calls.get());
+		Assert.assertEquals(Long.valueOf(1), metrics.values.get(S7CircuitBreakerConnection.METRIC_REJECTED));
+
+		// failed probe re-opens
+		Thread.sleep(150);
+		try {
+			read(breaker);
+			Assert.fail("expected failure");
+		} catch (IOException e) {
+			Assert.assertFalse(e instanceof CircuitOpenException);
+		}
+		Assert.assertEquals(S7CircuitBreakerConnection.State.OPEN, breaker.getState());
+
+		// successful probe closes
+		flaky.down = false;
+		Thread.sleep(150);
+		Assert.assertEquals(1, read(breaker).length);
+		Assert.assertEquals(S7CircuitBreakerConnection.State.CLOSED, breaker.getState());
+		Assert.assertEquals(0, breaker.getConsecutiveFailures());
+		Assert.assertEquals(Long.valueOf(0), metrics.values.get(S7CircuitBreakerConnection.METRIC_STATE));
+	}
+
+	@Test
+	public void successResetsFailureCount() throws Exception {
+		final FlakyConnector flaky = new FlakyConnector();
+		final S7CircuitBreakerConnection breaker = new S7CircuitBreakerConnection(flaky, 2, 1000, S7Metrics.NONE);
+
+		flaky.down = true;
+		try {
+			read(breaker);
+		} catch (IOException expected) {
+		}
+		flaky.down = false;
+		read(breaker);
+		flaky.down = true;
+		try {
+			read(breaker);
+		} catch (IOException expected) {
+		}
+		Assert.assertEquals(S7CircuitBreakerConnection.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void localDeadlinesDoNotOpenTheCircuit() throws Exception {
+		try (S7Simulator simulator = new S7Simulator()) {
+			simulator.setResponseDelay(20);
+			try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+					.withHost("127.0.0.1")
+					.withPort(simulator.getPort())
+					.withCircuitBreaker(2, 60000)
+					.build()) {
+				final S7CircuitBreakerConnection breaker = (S7CircuitBreakerConnection) connector;
+				final Thread bulk = new Thread(() -> {
+					try {
+						connector.read(DaveArea.DB, 1, 10 * 222, 0);
+					} catch (final Exception e) {
+						throw new RuntimeException(e);
+					}
+				});
+				bulk.start();
+				Thread.sleep(30);
+
+				// same class, queued behind the bulk read on a PLC that answers fine
+				try (S7RequestScope scope = S7RequestScope.enter(S7Priority.BULK, null)) {
+					for (int i = 0; i < 4; i++) {
+						try {
+							connector.read(DaveArea.DB, 1, 1, 0, Duration.ofMillis(10));
+							Assert.fail("deadline expected");
+						} catch (final DeadlineExceededException e) {
+							Assert.assertTrue(e.isLocal());
+						}
+					}
+				}
+				bulk.join(5000);
+
+				Assert.assertEquals(S7CircuitBreakerConnection.State.CLOSED, breaker.getState());
+				Assert.assertEquals(0, breaker.getConsecutiveFailures());
+				Assert.assertEquals(1, connector.read(DaveArea.DB, 1, 1, 0).length);
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.impl.S7CoalescingConnection;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class CoalescingTest {
+
+	private S7Simulator simulator;
+
+	private S7CoalescingConnection connector;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception {
+		this.simulator = new S7Simulator();
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		for (int i = 0; i < 100; i++) {
+			db[i] = (byte) i;
+		}
+		this.connector = (S7CoalescingConnection) S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withReadCoalescing()
+				.build();
+		this.executor = Executors.newFixedThreadPool(20);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.executor.shutdown();
+		this.connector.close();
+		this.simulator.close();
+	}
+
+	@Test
+	public void identicalReadsShareOneRequest() throws Exception {
+		this.simulator.setResponseDelay(100);
+		final List<Future<byte[]>> results = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			results.add(this.executor.submit(() -> this.connector.read(DaveArea.DB, 1, 10, 5)));
+		}
+		for (final Future<byte[]> result : results) {
+			Assert.assertEquals(5, result.get()[0]);
+		}
+		Assert.assertTrue("requests: " + this.simulator.getRequestCount(), this.simulator.getRequestCount() <= 2);
+		Assert.assertEquals(20 - this.simulator.getRequestCount(), this.connector.getSavedRequests());
+	}
+
+	@Test
+	public void queuedReadsAreMerged() throws Exception {
+		this.simulator.setResponseDelay(100);
+		final Future<byte[]> first = this.executor.submit(() -> this.connector.read(DaveArea.DB, 1, 10, 0));
+		Thread.sleep(30);
+		final Future<byte[]> second = this.executor.submit(() -> this.connector.read(DaveArea.DB, 1, 10, 10));
+		final Future<byte[]> third = this.executor.submit(() -> this.connector.read(DaveArea.DB, 1, 10, 40));
+
+		Assert.assertEquals(0, first.get()[0]);
+		Assert.assertEquals(10, second.get()[0]);
+		Assert.assertEquals(40, third.get()[0]);
+		Assert.assertEquals(2, this.simulator.getRequestCount());
+		Assert.assertEquals(1, this.connector.getSavedRequests());
+	}
+
+	@Test
+	public void queuedReadKeepsItsDeadline() throws Exception {
+		this.simulator.setResponseDelay(300);
+		final Future<byte[]> first = this.executor.submit(() -> this.connector.read(DaveArea.DB, 1, 10, 0));
+		Thread.sleep(30);
+
+		final long start = System.nanoTime();
+		try {
+			this.connector.read(DaveArea.DB, 1, 10, 40, Duration.ofMillis(50));
+			Assert.fail("queued read must time out");
+		} catch (final DeadlineExceededException e) {
+			Assert.assertTrue(System.nanoTime() - start < 250_000_000L);
+		}
+		Assert.assertEquals(0, first.get()[0]);
+		// the queued request nobody waits for is dropped, the area is not blocked
+		Assert.assertEquals(1, this.simulator.getRequestCount());
+		this.simulator.setResponseDelay(0);
+		Assert.assertEquals(40, this.connector.read(DaveArea.DB, 1, 10, 40)[0]);
+	}
+
+	@Test
+	public void queuedReadIsSentByRemainingReader() throws Exception {
+		this.simulator.setResponseDelay(200);
+		final Future<byte[]> first = this.executor.submit(() -> this.connector.read(DaveArea.DB, 1, 10, 0));
+		Thread.sleep(30);
+		final Future<byte[]> impatient = this.executor.submit(() -> this.connector.read(DaveArea.DB, 1, 10, 40, Duration.ofMillis(50)));
+		Thread.sleep(10);
+		final Future<byte[]> patient = this.executor.submit(() -> this.connector.read(DaveArea.DB, 1, 10, 60));
+
+		try {
+			impatient.get();
+			Assert.fail("queued read must time out");
+		} catch (final ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof DeadlineExceededException);
+		}
+		Assert.assertEquals(0, first.get()[0]);
+		Assert.assertEquals(60, patient.get()[0]);
+		Assert.assertEquals(2, this.simulator.getRequestCount());
+	}
+
+	@Test
+	public void queuedReadCanBeInterrupted() throws Exception {
+		this.simulator.setResponseDelay(300);
+		final Future<byte[]> first = this.executor.submit(() -> this.connector.read(DaveArea.DB, 1, 10, 0));
+		Thread.sleep(30);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final Future<?> queued = this.executor.submit(() -> {
+			try {
+				this.connector.read(DaveArea.DB, 1, 10, 40);
+			} catch (final InterruptedException e) {
+				interrupted.countDown();
+			}
+			return null;
+		});
+		Thread.sleep(30);
+		queued.cancel(true);
+
+		Assert.assertTrue(interrupted.await(100, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(0, first.get()[0]);
+		Assert.assertEquals(1, this.simulator.getRequestCount());
+	}
+
+	@Test
+	public void readAfterWriteDoesNotJoinOlderRequest() throws Exception {
+		this.simulator.setResponseDelay(100);
+		final Future<byte[]> before = this.executor.submit(() -> this.connector.read(DaveArea.DB, 1, 10, 0));
+		Thread.sleep(30);
+		this.simulator.getArea(DaveArea.DB.getCode(), 1)[0] = 77;
+		this.connector.write(DaveArea.DB, 1, 50, new byte[] { 1 });
+
+		Assert.assertEquals(77, this.connector.read(DaveArea.DB, 1, 10, 0)[0]);
+		before.get();
+	}
+}
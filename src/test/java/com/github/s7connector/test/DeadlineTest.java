@@ -0,0 +1,109 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+
+public class DeadlineTest {
+
+	private S7Simulator simulator;
+
+	private S7Connector connector;
+
+	@Before
+	public void setUp() throws Exception {
+		this.simulator = new S7Simulator();
+		this.connector = S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.build();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.connector.close();
+		this.simulator.close();
+	}
+
+	@Test
+	public void lateAnswerDoesNotCorruptNextRequest() throws Exception {
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		db[0] = 1;
+		this.simulator.setResponseDelay(300);
+
+		try {
+			this.connector.read(DaveArea.DB, 1, 1, 0, Duration.ofMillis(100));
+			Assert.fail("deadline must be exceeded");
+		} catch (final DeadlineExceededException expected) {
+			// answer with value 1 is still on its way
+		}
+
+		db[0] = 2;
+		this.simulator.setResponseDelay(0);
+		Assert.assertEquals(2, this.connector.read(DaveArea.DB, 1, 1, 0)[0]);
+	}
+
+	@Test
+	public void lockWaitIsBounded() throws Exception {
+		this.simulator.setResponseDelay(400);
+		final Thread slow = new Thread(() -> {
+			try {
+				this.connector.read(DaveArea.DB, 1, 1, 0);
+			} catch (final Exception e) {
+				e.printStackTrace();
+			}
+		});
+		slow.start();
+		Thread.sleep(50);
+
+		final long start = System.nanoTime();
+		try {
+			this.connector.write(DaveArea.DB, 1, 0, new byte[] { 1 }, Duration.ofMillis(100));
+			Assert.fail("deadline must be exceeded");
+		} catch (final DeadlineExceededException expected) {
+			final long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+			Assert.assertTrue("waited " + elapsed + "ms", elapsed < 300);
+		}
+		slow.join();
+	}
+
+	@Test
+	public void defaultTimeoutFromBuilder() throws Exception {
+		try (S7Connector bounded = S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withRequestTimeout(100)
+				.build()) {
+			this.simulator.setResponseDelay(300);
+			try {
+				bounded.read(DaveArea.DB, 1, 1, 0);
+				Assert.fail("deadline must be exceeded");
+			} catch (final DeadlineExceededException expected) {
+			}
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.impl.nodave.Nodave;
+import com.github.s7connector.impl.nodave.PLCinterface;
+import com.github.s7connector.impl.nodave.TCPConnection;
+import com.github.s7connector.impl.utils.BufferPool;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+public class DirectBufferTransportTest {
+
+	private S7Simulator simulator;
+
+	private BufferPool pool;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+		this.pool = new BufferPool(64 * 1024);
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7Connector build() throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withBufferPool(this.pool)
+				.withDirectBuffers()
+				.build();
+	}
+
+	@Test
+	public void readAndWrite() throws Exception {
+		this.simulator.setPduSize(960);
+		this.simulator.setMaxTpduSize(128);
+		final byte[] data = new byte[2000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		try (S7Connector connector = this.build()) {
+			connector.write(DaveArea.DB, 1, 0, data);
+			Assert.assertArrayEquals(data, connector.read(DaveArea.DB, 1, data.length, 0));
+
+			final List<byte[]> items = connector.prepare(Arrays.asList(
+					new S7ReadItem(DaveArea.DB, 1, 3, 5),
+					S7ReadItem.bit(DaveArea.DB, 1, 1, 5))).read(null);
+			Assert.assertArrayEquals(Arrays.copyOfRange(data, 3, 8), items.get(0));
+			Assert.assertArrayEquals(new byte[] { (byte) ((data[1] >> 5) & 1) }, items.get(1));
+		}
+	}
+
+	@Test
+	public void deadlineIsKept() throws Exception {
+		try (S7Connector connector = this.build()) {
+			this.simulator.setResponseDelay(300);
+			final long start = System.nanoTime();
+			try {
+				connector.read(DaveArea.DB, 1, 1, 0, Duration.ofMillis(100));
+				Assert.fail("deadline must be exceeded");
+			} catch (final DeadlineExceededException expected) {
+				final long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+				Assert.assertTrue("waited " + elapsed + "ms", elapsed < 280);
+			}
+			this.simulator.setResponseDelay(0);
+			Assert.assertEquals(1, connector.read(DaveArea.DB, 1, 1, 0).length);
+		}
+	}
+
+	@Test
+	public void closeReturnsTheDirectBuffers() throws Exception {
+		final S7Connector connector = this.build();
+		connector.read(DaveArea.DB, 1, 1, 0);
+		final long retained = this.pool.getRetainedBytes();
+		connector.close();
+		Assert.assertTrue(this.pool.getRetainedBytes() > retained);
+
+		// taken again by the next connection instead of allocated
+		final long allocated = this.pool.getAllocatedBytes();
+		try (S7Connector next = this.build()) {
+			next.read(DaveArea.DB, 1, 1, 0);
+		}
+		Assert.assertEquals(allocated, this.pool.getAllocatedBytes());
+	}
+
+	@Test
+	public void oneReadCallPerFrame() throws Exception {
+		final Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.simulator.getPort());
+		final PLCinterface streams = new PLCinterface(socket, "IF1", DaveArea.LOCAL.getCode(), Nodave.PROTOCOL_ISOTCP);
+		final PLCinterface channel = new PLCinterface(
+				SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.simulator.getPort())),
+				this.pool, "IF1", DaveArea.LOCAL.getCode(), Nodave.PROTOCOL_ISOTCP);
+		try {
+			for (final PLCinterface iface : new PLCinterface[] { streams, channel }) {
+				final TCPConnection connection = new TCPConnection(iface, 1, 0, 2);
+				Assert.assertEquals(0, connection.connectPLC());
+				final long before = iface.getReadCalls();
+				final byte[] buffer = new byte[100];
+				for (int i = 0; i < 10; i++) {
+					Assert.assertEquals(0, connection.readBytes(DaveArea.DB, 1, 0, buffer.length, buffer));
+				}
+				final long calls = iface.getReadCalls() - before;
+				if (iface == streams) {
+					// TPKT header, then the rest of the frame
+					Assert.assertEquals(20, calls);
+				} else {
+					Assert.assertEquals(10, calls);
+				}
+			}
+		} finally {
+			socket.close();
+			channel.close();
+		}
+	}
+}
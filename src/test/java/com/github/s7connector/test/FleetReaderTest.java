@@ -0,0 +1,109 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.impl.S7FleetReader;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FleetReaderTest {
+
+	private static final int PLCS = 8;
+
+	private final List<S7Simulator> simulators = new ArrayList<>();
+
+	private final Map<String, S7Connector> connectors = new LinkedHashMap<>();
+
+	private final List<S7ReadItem> plan = Arrays.asList(
+			new S7ReadItem(DaveArea.DB, 1, 0, 4),
+			S7ReadItem.bit(DaveArea.DB, 1, 10, 0),
+			new S7ReadItem(DaveArea.DB, 2, 100, 40));
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < PLCS; i++) {
+			final S7Simulator simulator = new S7Simulator();
+			simulator.setResponseDelay(50);
+			simulator.getArea(DaveArea.DB.getCode(), 1)[0] = (byte) i;
+			this.simulators.add(simulator);
+			this.connectors.put("plc" + i, S7ConnectorFactory.buildTCPConnector()
+					.withHost("127.0.0.1")
+					.withPort(simulator.getPort())
+					.build());
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (final S7Connector connector : this.connectors.values()) {
+			connector.close();
+		}
+		for (final S7Simulator simulator : this.simulators) {
+			simulator.close();
+		}
+	}
+
+	@Test
+	public void sweepTakesAboutOneRoundTrip() throws Exception {
+		try (S7FleetReader reader = new S7FleetReader(this.connectors, PLCS)) {
+			final S7FleetReader.Snapshot snapshot = reader.read(this.plan, Duration.ofSeconds(1));
+
+			Assert.assertTrue(snapshot.isComplete());
+			Assert.assertEquals(PLCS, snapshot.getResults().size());
+			for (int i = 0; i < PLCS; i++) {
+				final List<byte[]> data = snapshot.getResults().get("plc" + i);
+				Assert.assertEquals(3, data.size());
+				Assert.assertEquals(i, data.get(0)[0]);
+				Assert.assertEquals(40, data.get(2).length);
+				Assert.assertEquals(1, this.simulators.get(i).getRequestCount());
+			}
+			// 50 ms per PLC, all at once
+			Assert.assertTrue(snapshot.getDuration().toString(), snapshot.getDuration().toMillis() < 8 * 50 / 2);
+		}
+	}
+
+	@Test
+	public void slowPlcIsReportedAsPartialResult() throws Exception {
+		this.simulators.get(3).setResponseDelay(1000);
+		this.simulators.get(5).stop();
+		try (S7FleetReader reader = new S7FleetReader(this.connectors, 4)) {
+			final S7FleetReader.Snapshot snapshot = reader.read(this.plan, Duration.ofMillis(300));
+
+			Assert.assertFalse(snapshot.isComplete());
+			Assert.assertEquals(PLCS - 2, snapshot.getResults().size());
+			Assert.assertEquals(Arrays.asList("plc3", "plc5"), new ArrayList<>(snapshot.getFailures().keySet()));
+			Assert.assertTrue(snapshot.getFailures().get("plc3") instanceof DeadlineExceededException);
+			Assert.assertTrue(snapshot.getFailures().get("plc5") instanceof IOException);
+			Assert.assertTrue(snapshot.getDuration().toMillis() < 1000);
+		}
+	}
+}
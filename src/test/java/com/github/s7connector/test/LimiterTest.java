@@ -0,0 +1,143 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.impl.S7AdaptiveLimitConnection;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LimiterTest {
+
+	/**
+	 * A PLC answering in 2 ms as long as at most capacity requests are
+	 * outstanding, every further request adds 2 ms
+	 */
+	private static class LoadedPlc implements S7Connector {
+		final int capacity;
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		volatile boolean down = false;
+
+		LoadedPlc(final int capacity) {
+			this.capacity = capacity;
+		}
+
+		@Override
+		public byte[] read(DaveArea area, int areaNumber, int bytes, int offset) throws IOException, InterruptedException {
+			final int n = this.active.incrementAndGet();
+			this.maxActive.accumulateAndGet(n, Math::max);
+			try {
+				if (this.down) {
+					throw new IOException("timeout");
+				}
+				Thread.sleep(2L * Math.max(1, n - this.capacity + 1));
+				return new byte[bytes];
+			} finally {
+				this.active.decrementAndGet();
+			}
+		}
+
+		@Override
+		public void write(DaveArea area, int areaNumber, int offset, byte[] buffer) {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static void load(final S7Connector connector, final int threads, final int requests) throws InterruptedException {
+		final List<Thread> workers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			final Thread worker = new Thread(() -> {
+				for (int r = 0; r < requests; r++) {
+					try {
+						connector.read(DaveArea.DB, 1, 4, 0);
+					} catch (final Exception e) {
+						// counted by the limiter
+					}
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+		for (final Thread worker : workers) {
+			worker.join(30000);
+		}
+	}
+
+	@Test
+	public void growsWhileLatencyIsFlat() throws Exception {
+		final LoadedPlc plc = new LoadedPlc(100);
+		final Map<String, Long> gauges = new ConcurrentHashMap<>();
+		final S7AdaptiveLimitConnection limiter = new S7AdaptiveLimitConnection(plc, 1, 8, new S7Metrics() {
+			@Override
+			public void gauge(final String name, final long value) {
+				gauges.merge(name, value, Math::max);
+			}
+		});
+
+		load(limiter, 16, 40);
+
+		// scheduling hiccups of the sleeping PLC may take the limit back a step, it must have reached the ceiling
+		Assert.assertEquals(Long.valueOf(8), gauges.get(S7AdaptiveLimitConnection.METRIC_LIMIT));
+		Assert.assertTrue(plc.maxActive.get() <= 8);
+	}
+
+	@Test
+	public void staysBelowTheCeilingWhenLatencyInflates() throws Exception {
+		final LoadedPlc plc = new LoadedPlc(2);
+		final S7AdaptiveLimitConnection limiter = new S7AdaptiveLimitConnection(plc, 1, 64, S7Metrics.NONE);
+
+		load(limiter, 32, 40);
+
+		// queueing at the PLC is detected long before the ceiling
+		Assert.assertTrue("limit " + limiter.getLimit(), limiter.getLimit() < 16);
+		Assert.assertTrue(limiter.getLimit() >= 2);
+		Assert.assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void failuresShrinkTheLimit() throws Exception {
+		final LoadedPlc plc = new LoadedPlc(100);
+		final S7AdaptiveLimitConnection limiter = new S7AdaptiveLimitConnection(plc, 2, 32, S7Metrics.NONE);
+		load(limiter, 32, 20);
+		final int before = limiter.getLimit();
+		Assert.assertTrue(before > 10);
+
+		plc.down = true;
+		load(limiter, 1, 1);
+		Assert.assertEquals((int) (before * 0.9), limiter.getLimit());
+		// down to the floor, 10% per failure
+		load(limiter, 1, 30);
+		Assert.assertEquals(2, limiter.getLimit());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void floorAboveCeilingIsRejected() {
+		new S7AdaptiveLimitConnection(new LoadedPlc(1), 4, 2, S7Metrics.NONE);
+	}
+}
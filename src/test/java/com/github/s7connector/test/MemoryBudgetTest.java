@@ -0,0 +1,137 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.impl.nodave.Nodave;
+import com.github.s7connector.impl.nodave.PLCinterface;
+import com.github.s7connector.impl.nodave.TCPConnection;
+import com.github.s7connector.impl.utils.BufferPool;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frame buffer memory per connection
+ */
+public class MemoryBudgetTest {
+
+	/** TPKT and COTP header in front of the PDU */
+	private static final int FRAME_HEADER = 7;
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private TCPConnection connect(final BufferPool pool) throws IOException {
+		final Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.simulator.getPort());
+		final PLCinterface iface = new PLCinterface(socket, "IF1", DaveArea.LOCAL.getCode(), Nodave.PROTOCOL_ISOTCP);
+		final TCPConnection connection = new TCPConnection(iface, 1, 0, 2);
+		connection.setBufferPool(pool);
+		Assert.assertEquals(0, connection.connectPLC());
+		return connection;
+	}
+
+	@Test
+	public void buffersAreSizedFromThePdu() throws Exception {
+		for (final int pdu : new int[] { 240, 480, 960 }) {
+			this.simulator.setPduSize(pdu);
+			final TCPConnection connection = this.connect(null);
+			Assert.assertEquals(pdu, connection.maxPDUlength);
+			// at least the 256 bytes needed for the connection setup
+			Assert.assertEquals(2 * Math.max(256, FRAME_HEADER + pdu), connection.getBufferBytes());
+		}
+	}
+
+	@Test
+	public void idlePooledConnectionHoldsNoBuffers() throws Exception {
+		final BufferPool pool = new BufferPool(64 * 1024);
+		final TCPConnection connection = this.connect(pool);
+		Assert.assertEquals(0, connection.getBufferBytes());
+
+		connection.acquireBuffers();
+		// power of two size class of 7 + 240 bytes
+		Assert.assertEquals(2 * 256, connection.getBufferBytes());
+		final byte[] buffer = new byte[4];
+		Assert.assertEquals(0, connection.readBytes(DaveArea.DB, 1, 0, 4, buffer));
+		connection.releaseBuffers();
+		Assert.assertEquals(0, connection.getBufferBytes());
+	}
+
+	@Test
+	public void pooledSessionsShareBuffers() throws Exception {
+		final BufferPool pool = new BufferPool(64 * 1024);
+		final List<S7Connector> connectors = new ArrayList<>();
+		try {
+			for (int i = 0; i < 100; i++) {
+				final S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+						.withHost("127.0.0.1")
+						.withPort(this.simulator.getPort())
+						.withBufferPool(pool)
+						.withSocketBufferSize(4096)
+						.build();
+				connectors.add(connector);
+				connector.read(DaveArea.DB, 1, 4, 0);
+			}
+			// 100 sessions owning their buffers would take 100 * 2 * 247 bytes
+			Assert.assertTrue("allocated " + pool.getAllocatedBytes(), pool.getAllocatedBytes() <= 2 * 16 * 1024);
+			Assert.assertEquals(100, this.simulator.getRequestCount());
+		} finally {
+			for (final S7Connector connector : connectors) {
+				connector.close();
+			}
+		}
+	}
+
+	@Test
+	public void poolRetentionIsBounded() {
+		final BufferPool pool = new BufferPool(1024);
+		final byte[] first = pool.acquire(200);
+		Assert.assertEquals(256, first.length);
+		Assert.assertTrue(pool.getRetainedBytes() <= 1024);
+
+		final List<byte[]> buffers = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			buffers.add(pool.acquire(1000));
+		}
+		for (final byte[] buffer : buffers) {
+			Assert.assertEquals(1024, buffer.length);
+			pool.release(buffer);
+		}
+		Assert.assertTrue(pool.getRetainedBytes() <= 1024);
+		// not a pool size, dropped
+		pool.release(new byte[300]);
+		Assert.assertTrue(pool.getRetainedBytes() <= 1024);
+	}
+}
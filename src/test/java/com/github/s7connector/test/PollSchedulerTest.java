@@ -0,0 +1,191 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.impl.S7PollScheduler;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PollSchedulerTest {
+
+	private S7Simulator simulator;
+
+	private S7Connector connector;
+
+	@Before
+	public void setUp() throws Exception {
+		this.simulator = new S7Simulator();
+		this.connector = S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.build();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.connector.close();
+		this.simulator.close();
+	}
+
+	private static List<S7ReadItem> items(final int db) {
+		final List<S7ReadItem> items = new ArrayList<>();
+		items.add(new S7ReadItem(DaveArea.DB, db, 0, 4));
+		items.add(S7ReadItem.bit(DaveArea.DB, db, 4, 0));
+		return items;
+	}
+
+	@Test
+	public void groupsSharingACycleAreCombined() throws Exception {
+		final Map<String, Long> counters = new ConcurrentHashMap<>();
+		final S7Metrics metrics = new S7Metrics() {
+			@Override
+			public void increment(final String name, final long delta) {
+				counters.merge(name, delta, Long::sum);
+			}
+		};
+		this.simulator.getArea(DaveArea.DB.getCode(), 2)[0] = 42;
+		final List<S7PollScheduler.Sample> samples = Collections.synchronizedList(new ArrayList<>());
+
+		try (S7PollScheduler scheduler = new S7PollScheduler(this.connector, 1, 2, metrics)) {
+			final S7PollScheduler.Group fast1 = scheduler.register(items(1), 20, s -> { });
+			final S7PollScheduler.Group fast2 = scheduler.register(items(2), 20, samples::add);
+			final S7PollScheduler.Group fast3 = scheduler.register(items(3), 20, s -> { });
+			final S7PollScheduler.Group slow = scheduler.register(items(4), 100, s -> { });
+			Thread.sleep(500);
+			slow.cancel();
+			fast1.cancel();
+			fast2.cancel();
+			fast3.cancel();
+			// let a read in flight complete
+			Thread.sleep(50);
+
+			final long groupReads = fast1.getSamples() + fast2.getSamples() + fast3.getSamples() + slow.getSamples();
+			Assert.assertTrue(fast2.getSamples() >= 20);
+			Assert.assertTrue(slow.getSamples() >= 4);
+			// one request per cycle for all groups due together, registering and cancelling may straddle a cycle
+			Assert.assertTrue(Math.abs(fast2.getSamples() - fast1.getSamples()) <= 1);
+			Assert.assertEquals(counters.get(S7PollScheduler.METRIC_READS).longValue(), this.simulator.getRequestCount());
+			Assert.assertTrue(this.simulator.getRequestCount() < groupReads / 3);
+		}
+
+		long last = 0;
+		for (final S7PollScheduler.Sample sample : samples) {
+			Assert.assertNull(sample.getFailure());
+			Assert.assertEquals(2, sample.getData().size());
+			Assert.assertEquals(42, sample.getData().get(0)[0]);
+			Assert.assertTrue(sample.getTimestamp() >= last);
+			last = sample.getTimestamp();
+		}
+	}
+
+	@Test
+	public void periodIsKeptWithoutDrift() throws Exception {
+		final AtomicLong clock = new AtomicLong(5_000_000_000L);
+		final long ms = TimeUnit.MILLISECONDS.toNanos(1);
+		final BlockingQueue<S7PollScheduler.Sample> samples = new LinkedBlockingQueue<>();
+		try (S7PollScheduler scheduler = new S7PollScheduler(this.connector, 1, 1, S7Metrics.NONE, clock::get)) {
+			final S7PollScheduler.Group group = scheduler.register(items(1), 10, samples::add);
+			final long start = clock.get();
+			for (int t = 1; t <= 1000; t++) {
+				if (t > 300 && t < 335) {
+					// the wheel is late, it jumps from 300 to 335 ms
+					continue;
+				}
+				// a little late on every tick, which must not add up
+				clock.set(start + t * ms + 300_000);
+				scheduler.tick();
+				if (t % 10 == 0 && t != 330) {
+					Assert.assertNotNull("sample at " + t, samples.poll(5, TimeUnit.SECONDS));
+					Assert.assertEquals(t == 10 ? 0 : t == 340 ? 40 * ms : 10 * ms, group.getLastPeriodNanos());
+				}
+			}
+			group.cancel();
+
+			// the cycles of 310, 320 and 330 ms are skipped, the following ones stay on multiples of 10 ms
+			Assert.assertEquals(97, group.getSamples());
+			Assert.assertEquals(3, group.getSkipped());
+			Assert.assertEquals(30 * ms, group.getMaxJitterNanos());
+			Assert.assertEquals(10 * ms, group.getPeriodNanos());
+			Assert.assertTrue(samples.isEmpty());
+			Assert.assertEquals(97, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void rejectedGroupIsReadOnItsOwn() throws Exception {
+		final AtomicLong clock = new AtomicLong();
+		final long ms = TimeUnit.MILLISECONDS.toNanos(1);
+		final BlockingQueue<S7PollScheduler.Sample> good = new LinkedBlockingQueue<>();
+		final BlockingQueue<S7PollScheduler.Sample> bad = new LinkedBlockingQueue<>();
+		try (S7PollScheduler scheduler = new S7PollScheduler(this.connector, 1, 2, S7Metrics.NONE, clock::get)) {
+			scheduler.register(items(1), 10, good::add);
+			scheduler.register(Collections.singletonList(new S7ReadItem(DaveArea.DB, 2, 65534, 4)), 10, bad::add);
+			scheduler.register(items(3), 10, good::add);
+
+			for (int cycle = 1; cycle <= 3; cycle++) {
+				clock.set(cycle * 10 * ms);
+				scheduler.tick();
+				for (int i = 0; i < 2; i++) {
+					final S7PollScheduler.Sample sample = good.poll(5, TimeUnit.SECONDS);
+					Assert.assertNotNull(sample);
+					Assert.assertNull(sample.getFailure());
+				}
+				final S7PollScheduler.Sample sample = bad.poll(5, TimeUnit.SECONDS);
+				Assert.assertNotNull(sample);
+				Assert.assertTrue(sample.getFailure() instanceof IllegalArgumentException);
+				Assert.assertNull(sample.getData());
+			}
+			// the first cycle is read combined and then group by group, the others in two requests
+			Assert.assertEquals(4 + 2 + 2, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void overdueCyclesAreSkipped() throws Exception {
+		this.simulator.setResponseDelay(50);
+		try (S7PollScheduler scheduler = new S7PollScheduler(this.connector, 1, 4, S7Metrics.NONE)) {
+			final S7PollScheduler.Group group = scheduler.register(items(1), 10, s -> { });
+			Thread.sleep(500);
+			group.cancel();
+			final int requests = this.simulator.getRequestCount();
+
+			// one read per 50 ms, the cycles in between are skipped instead of queued
+			Assert.assertTrue("samples " + group.getSamples(), group.getSamples() <= 11);
+			Assert.assertTrue("skipped " + group.getSkipped(), group.getSkipped() >= 35);
+			Thread.sleep(150);
+			Assert.assertTrue(this.simulator.getRequestCount() <= requests + 1);
+		}
+	}
+}
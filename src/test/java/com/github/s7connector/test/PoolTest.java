@@ -0,0 +1,97 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.impl.S7PooledConnection;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PoolTest {
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+		this.simulator.getArea(DaveArea.DB.getCode(), 1)[0] = 0x42;
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7PooledConnection build(final int minSize, final int maxSize, final int idleTimeout) throws Exception {
+		return (S7PooledConnection) S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withPool(minSize, maxSize)
+				.withPoolIdleTimeout(idleTimeout)
+				.build();
+	}
+
+	@Test
+	public void growsUnderLoadAndShrinksWhenIdle() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(6);
+		try (S7PooledConnection pool = this.build(1, 3, 300)) {
+			Assert.assertEquals(1, pool.getSize());
+			this.simulator.setResponseDelay(100);
+
+			final List<Future<byte[]>> results = new ArrayList<>();
+			for (int i = 0; i < 6; i++) {
+				results.add(executor.submit(() -> pool.read(DaveArea.DB, 1, 1, 0)));
+			}
+			for (final Future<byte[]> result : results) {
+				Assert.assertEquals(0x42, result.get()[0]);
+			}
+			Assert.assertEquals(3, pool.getSize());
+			Assert.assertEquals(3, this.simulator.getConnectionCount());
+			Assert.assertEquals(0, pool.getInFlight());
+
+			this.simulator.setResponseDelay(0);
+			Thread.sleep(500);
+			pool.read(DaveArea.DB, 1, 1, 0);
+			Assert.assertEquals(1, pool.getSize());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void brokenSessionIsReplaced() throws Exception {
+		try (S7PooledConnection pool = this.build(1, 1, 0)) {
+			Assert.assertEquals(0x42, pool.read(DaveArea.DB, 1, 1, 0)[0]);
+
+			this.simulator.dropConnections();
+
+			Assert.assertEquals(0x42, pool.read(DaveArea.DB, 1, 1, 0)[0]);
+			Assert.assertEquals(2, this.simulator.getConnectionCount());
+			Assert.assertEquals(1, pool.getSize());
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.ReconnectPolicy;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7PreparedRead;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.exception.S7Exception;
+import com.github.s7connector.impl.ConnectionSupplier;
+import com.github.s7connector.impl.S7AdaptiveLimitConnection;
+import com.github.s7connector.impl.S7CachingConnection;
+import com.github.s7connector.impl.S7CircuitBreakerConnection;
+import com.github.s7connector.impl.S7CoalescingConnection;
+import com.github.s7connector.impl.S7PooledConnection;
+import com.github.s7connector.impl.S7ReconnectingConnection;
+import com.github.s7connector.impl.S7StripedConnection;
+import com.github.s7connector.impl.S7WriteBehindConnection;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PreparedReadTest {
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7Connector build() throws S7Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.build();
+	}
+
+	@Test
+	public void repeatedCyclesSeeCurrentData() throws Exception {
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		final byte[] flags = this.simulator.getArea(DaveArea.FLAGS.getCode(), 0);
+		final List<S7ReadItem> items = Arrays.asList(
+				new S7ReadItem(DaveArea.DB, 1, 10, 3),
+				S7ReadItem.bit(DaveArea.FLAGS, 0, 7, 4),
+				new S7ReadItem(DaveArea.DB, 1, 100, 2));
+
+		try (S7Connector connector = this.build()) {
+			final S7PreparedRead read = connector.prepare(items);
+			Assert.assertEquals(items, read.getItems());
+
+			for (int cycle = 0; cycle < 5; cycle++) {
+				db[10] = (byte) cycle;
+				db[12] = (byte) (cycle * 3);
+				flags[7] = (byte) (cycle % 2 == 0 ? 0x10 : 0xEF);
+				db[101] = (byte) (0x80 | cycle);
+
+				final List<byte[]> result = read.read(null);
+				Assert.assertArrayEquals(new byte[] { (byte) cycle, 0, (byte) (cycle * 3) }, result.get(0));
+				Assert.assertArrayEquals(new byte[] { (byte) (cycle % 2 == 0 ? 1 : 0) }, result.get(1));
+				Assert.assertArrayEquals(new byte[] { 0, (byte) (0x80 | cycle) }, result.get(2));
+				// each cycle is a single request, PDU references keep matching
+				Assert.assertEquals(cycle + 1, this.simulator.getRequestCount());
+			}
+
+			// plain reads in between do not disturb the template
+			connector.read(items, null);
+			Assert.assertArrayEquals(new byte[] { 4, 0, 12 }, read.read(null).get(0));
+			Assert.assertEquals(7, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void sameResultAsPlainRead() throws Exception {
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		for (int i = 0; i < 600; i++) {
+			db[i] = (byte) (i * 7);
+		}
+		final List<S7ReadItem> items = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			items.add(S7ReadItem.bit(DaveArea.DB, 1, i, i % 8));
+		}
+		items.add(new S7ReadItem(DaveArea.DB, 1, 0, 500));
+		items.add(new S7ReadItem(DaveArea.DB, 1, 501, 7));
+
+		try (S7Connector connector = this.build()) {
+			final List<byte[]> plain = connector.read(items, null);
+			final S7PreparedRead read = connector.prepare(items);
+			for (int cycle = 0; cycle < 3; cycle++) {
+				final List<byte[]> prepared = read.read(null);
+				Assert.assertEquals(plain.size(), prepared.size());
+				for (int i = 0; i < plain.size(); i++) {
+					Assert.assertArrayEquals("item " + i, plain.get(i), prepared.get(i));
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectedItemFails() throws Exception {
+		try (S7Connector connector = this.build()) {
+			connector.prepare(Arrays.asList(
+					S7ReadItem.bit(DaveArea.DB, 1, 0, 0),
+					new S7ReadItem(DaveArea.DB, 1, 65530, 10))).read(null);
+		}
+	}
+
+	/**
+	 * Counts prepares and plain multi-item reads of a session
+	 */
+	private static final class Session implements S7Connector {
+		private final S7Connector connection;
+		private final AtomicInteger prepares;
+		private final AtomicInteger plainReads;
+
+		Session(final S7Connector connection, final AtomicInteger prepares, final AtomicInteger plainReads) {
+			this.connection = connection;
+			this.prepares = prepares;
+			this.plainReads = plainReads;
+		}
+
+		@Override
+		public byte[] read(final DaveArea area, final int areaNumber, final int bytes, final int offset) throws IOException, InterruptedException {
+			return this.connection.read(area, areaNumber, bytes, offset);
+		}
+
+		@Override
+		public List<byte[]> read(final List<S7ReadItem> items, final Duration timeout) throws IOException, InterruptedException {
+			this.plainReads.incrementAndGet();
+			return this.connection.read(items, timeout);
+		}
+
+		@Override
+		public S7PreparedRead prepare(final List<S7ReadItem> items) {
+			this.prepares.incrementAndGet();
+			return this.connection.prepare(items);
+		}
+
+		@Override
+		public void write(final DaveArea area, final int areaNumber, final int offset, final byte[] buffer) throws IOException, InterruptedException {
+			this.connection.write(area, areaNumber, offset, buffer);
+		}
+
+		@Override
+		public void write(final List<S7WriteItem> items, final Duration timeout) throws IOException, InterruptedException {
+			this.connection.write(items, timeout);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.connection.close();
+		}
+	}
+
+	@Test
+	public void decoratorsForwardPrepare() throws Exception {
+		final AtomicInteger prepares = new AtomicInteger();
+		final AtomicInteger plainReads = new AtomicInteger();
+		final ConnectionSupplier supplier = () -> new Session(this.build(), prepares, plainReads);
+		final ReconnectPolicy policy = new ReconnectPolicy().withInitialDelay(10).withMaxDelay(50).withReadRetries(3);
+
+		S7Connector connector = new S7ReconnectingConnection(supplier, policy, "test");
+		connector = new S7CircuitBreakerConnection(connector, 5, 1000, null);
+		connector = new S7CoalescingConnection(connector, null);
+		connector = new S7CachingConnection(connector, 1000, 1 << 16, null);
+		this.assertPreparedPerSession(new S7WriteBehindConnection(connector, 0, null), prepares);
+
+		connector = new S7PooledConnection(supplier, 1, 2, 60000, policy, null);
+		connector = new S7AdaptiveLimitConnection(connector, 1, 4, null);
+		this.assertPreparedPerSession(new S7StripedConnection(connector, 2), prepares);
+
+		Assert.assertEquals(0, plainReads.get());
+	}
+
+	private void assertPreparedPerSession(final S7Connector connector, final AtomicInteger prepares) throws Exception {
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		db[4] = 42;
+		prepares.set(0);
+		try {
+			final S7PreparedRead read = connector.prepare(Arrays.asList(
+					new S7ReadItem(DaveArea.DB, 1, 4, 1),
+					S7ReadItem.bit(DaveArea.DB, 1, 4, 1)));
+			for (int cycle = 0; cycle < 3; cycle++) {
+				final List<byte[]> result = read.read(null);
+				Assert.assertArrayEquals(new byte[] { 42 }, result.get(0));
+				Assert.assertArrayEquals(new byte[] { 1 }, result.get(1));
+			}
+			Assert.assertEquals(1, prepares.get());
+
+			// the new session prepares the read again
+			this.simulator.dropConnections();
+			Assert.assertArrayEquals(new byte[] { 42 }, read.read(null).get(0));
+			Assert.assertEquals(2, prepares.get());
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void emptyItemsAreRejected() throws Exception {
+		try (S7Connector connector = this.build()) {
+			connector.prepare(new ArrayList<>());
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.ReconnectPolicy;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class ReconnectTest {
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+		this.simulator.getArea(DaveArea.DB.getCode(), 1)[0] = 0x42;
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	@Test
+	public void readSurvivesConnectionDrop() throws Exception {
+		try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withReconnect(new ReconnectPolicy().withInitialDelay(10).withMaxDelay(100))
+				.build()) {
+
+			Assert.assertEquals(0x42, connector.read(DaveArea.DB, 1, 1, 0)[0]);
+
+			this.simulator.dropConnections();
+
+			Assert.assertEquals(0x42, connector.read(DaveArea.DB, 1, 1, 0)[0]);
+			Assert.assertEquals(2, this.simulator.getConnectionCount());
+		}
+	}
+
+	@Test
+	public void readSurvivesPlcRestart() throws Exception {
+		final int port = this.simulator.getPort();
+		try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(port)
+				.withReconnect(new ReconnectPolicy().withInitialDelay(10).withMaxDelay(50).withReadRetries(3))
+				.build()) {
+
+			this.simulator.stop();
+			new Thread(() -> {
+				try {
+					Thread.sleep(200);
+					this.simulator.start(port);
+				} catch (final Exception e) {
+					e.printStackTrace();
+				}
+			}).start();
+
+			Assert.assertEquals(0x42, connector.read(DaveArea.DB, 1, 1, 0)[0]);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void failFastWhileDisconnected() throws Exception {
+		try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withReconnect(new ReconnectPolicy()
+						.withInitialDelay(10000)
+						.withReadRetries(0)
+						.withPendingRequestPolicy(ReconnectPolicy.PendingRequestPolicy.FAIL_FAST))
+				.build()) {
+
+			this.simulator.stop();
+			try {
+				connector.read(DaveArea.DB, 1, 1, 0);
+				Assert.fail("read on a dropped connection must fail");
+			} catch (final IOException expected) {
+				// connection is now marked broken
+			}
+
+			// no connection available, must not wait for the reconnect
+			connector.read(DaveArea.DB, 1, 1, 0);
+		}
+	}
+
+	@Test
+	public void backoffIsBoundedAndGrows() {
+		final ReconnectPolicy policy = new ReconnectPolicy().withInitialDelay(100).withMaxDelay(1000).withJitter(0.0);
+		Assert.assertEquals(100, policy.getDelay(0, 0.5));
+		Assert.assertEquals(200, policy.getDelay(1, 0.5));
+		Assert.assertEquals(1000, policy.getDelay(10, 0.5));
+	}
+}
@@ -0,0 +1,166 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.impl.nodave.WireRecorder;
+import com.github.s7connector.impl.nodave.WireReplay;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ReplayTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		for (int i = 0; i < 2000; i++) {
+			db[i] = (byte) (i * 7);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private static S7Connector build(final int port, final WireRecorder recorder) throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(port)
+				.withWireRecorder(recorder)
+				.build();
+	}
+
+	private static List<byte[]> workload(final S7Connector connector) throws Exception {
+		final List<byte[]> results = new ArrayList<>();
+		results.add(connector.read(DaveArea.DB, 1, 10, 0));
+		connector.write(DaveArea.DB, 1, 4, new byte[] { 1, 2, 3 });
+		results.add(connector.read(DaveArea.DB, 1, 10, 0));
+		results.addAll(connector.read(Arrays.asList(
+				new S7ReadItem(DaveArea.DB, 1, 100, 4),
+				S7ReadItem.bit(DaveArea.DB, 1, 3, 1)), null));
+		// several PDUs, each segmented into TPDUs
+		results.add(connector.read(DaveArea.DB, 1, 1500, 0));
+		return results;
+	}
+
+	private Path record() throws Exception {
+		final Path file = this.folder.newFile().toPath();
+		try (WireRecorder recorder = WireRecorder.create(file);
+			 S7Connector connector = build(this.simulator.getPort(), recorder)) {
+			workload(connector);
+		}
+		return file;
+	}
+
+	@Test
+	public void replayAnswersLikeThePlc() throws Exception {
+		this.simulator.setPduSize(480);
+		this.simulator.setMaxTpduSize(256);
+		final Path file = this.record();
+		final int requests = this.simulator.getRequestCount();
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		final byte[] expected = Arrays.copyOf(db, 1500);
+
+		try (WireReplay replay = WireReplay.load(file)) {
+			Assert.assertEquals(1, replay.getSessions());
+			replay.setTimeScale(0);
+			final int port = replay.start();
+			for (int run = 0; run < 2; run++) {
+				try (S7Connector connector = build(port, null)) {
+					final List<byte[]> results = workload(connector);
+					Assert.assertArrayEquals(new byte[] { 0, 7, 14, 21, 28, 35, 42, 49, 56, 63 }, results.get(0));
+					Assert.assertArrayEquals(Arrays.copyOf(expected, 10), results.get(1));
+					Assert.assertArrayEquals(Arrays.copyOfRange(expected, 100, 104), results.get(2));
+					Assert.assertArrayEquals(new byte[] { (byte) ((expected[3] >> 1) & 1) }, results.get(3));
+					Assert.assertArrayEquals(expected, results.get(4));
+				}
+			}
+			Assert.assertEquals(0, replay.getDivergences());
+		}
+		// the PLC was not involved
+		Assert.assertEquals(requests, this.simulator.getRequestCount());
+	}
+
+	@Test
+	public void divergingRequestClosesTheConnection() throws Exception {
+		final Path file = this.record();
+		try (WireReplay replay = WireReplay.load(file)) {
+			replay.setTimeScale(0);
+			try (S7Connector connector = build(replay.start(), null)) {
+				Assert.assertEquals(10, connector.read(DaveArea.DB, 1, 10, 0).length);
+				try {
+					connector.read(DaveArea.DB, 1, 10, 20);
+					Assert.fail("diverging request must fail");
+				} catch (final IOException expected) {
+					// closed by the replay
+				}
+			}
+			Assert.assertEquals(1, replay.getDivergences());
+		}
+	}
+
+	@Test
+	public void answerDelaysAreScaled() throws Exception {
+		this.simulator.setResponseDelay(100);
+		final Path file = this.folder.newFile().toPath();
+		try (WireRecorder recorder = WireRecorder.create(file);
+			 S7Connector connector = build(this.simulator.getPort(), recorder)) {
+			connector.read(DaveArea.DB, 1, 10, 0);
+		}
+
+		try (WireReplay replay = WireReplay.load(file)) {
+			final int port = replay.start();
+			try (S7Connector connector = build(port, null)) {
+				final long start = System.nanoTime();
+				connector.read(DaveArea.DB, 1, 10, 0);
+				Assert.assertTrue((System.nanoTime() - start) / 1_000_000 >= 90);
+			}
+			replay.setTimeScale(0.1);
+			try (S7Connector connector = build(port, null)) {
+				final long start = System.nanoTime();
+				connector.read(DaveArea.DB, 1, 10, 0);
+				Assert.assertTrue((System.nanoTime() - start) / 1_000_000 < 90);
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void otherFilesAreRejected() throws Exception {
+		WireReplay.read(new ByteArrayInputStream(new byte[] { (byte) 0xd4, (byte) 0xc3, (byte) 0xb2, (byte) 0xa1, 2, 0 }));
+	}
+}
@@ -0,0 +1,217 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.S7Priority;
+import com.github.s7connector.api.S7RequestScope;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.impl.S7BaseConnection;
+import com.github.s7connector.impl.S7RequestScheduler;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SchedulerTest {
+
+	@Test
+	public void higherClassGoesFirst() throws Exception {
+		final S7RequestScheduler<String> scheduler = new S7RequestScheduler<>();
+		scheduler.add(S7Priority.BULK, "archive", "bulk");
+		scheduler.add(S7Priority.CYCLIC, "hmi", "cyclic");
+		scheduler.add(S7Priority.ALARM, "alarms", "alarm");
+		scheduler.add(S7Priority.CONTROL, "hmi", "control");
+		Assert.assertEquals(4, scheduler.getQueueLength());
+		Assert.assertEquals(1, scheduler.getQueueLength(S7Priority.BULK));
+		Assert.assertTrue(scheduler.hasWaiterAbove(S7Priority.CYCLIC));
+
+		final List<String> order = new ArrayList<>();
+		String next;
+		while ((next = scheduler.poll()) != null) {
+			order.add(next);
+		}
+		Assert.assertEquals(Arrays.asList("control", "alarm", "cyclic", "bulk"), order);
+		Assert.assertEquals(0, scheduler.getQueueLength());
+	}
+
+	@Test
+	public void groupsShareByWeight() throws Exception {
+		final S7RequestScheduler<String> scheduler = new S7RequestScheduler<>();
+		scheduler.setWeight("a", 3);
+		for (int i = 0; i < 8; i++) {
+			scheduler.add(S7Priority.CYCLIC, "b", "b");
+		}
+		for (int i = 0; i < 8; i++) {
+			scheduler.add(S7Priority.CYCLIC, "a", "a");
+		}
+
+		final List<String> order = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			order.add(scheduler.poll());
+		}
+		// although b queued first, a gets three grants for each of b's
+		Assert.assertEquals(6, order.stream().filter("a"::equals).count());
+	}
+
+	@Test
+	public void removedRequestsAreNotCounted() throws Exception {
+		final S7RequestScheduler<String> scheduler = new S7RequestScheduler<>();
+		scheduler.add(S7Priority.BULK, "archive", "bulk");
+		scheduler.add(S7Priority.CONTROL, "hmi", "control");
+		Assert.assertTrue(scheduler.hasWaiterAbove(S7Priority.BULK));
+
+		Assert.assertTrue(scheduler.remove(S7Priority.CONTROL, "hmi", "control"));
+		Assert.assertFalse(scheduler.remove(S7Priority.CONTROL, "hmi", "control"));
+		Assert.assertFalse(scheduler.hasWaiterAbove(S7Priority.BULK));
+		Assert.assertEquals(1, scheduler.getQueueLength());
+		Assert.assertEquals(0, scheduler.getQueueLength(S7Priority.CONTROL));
+		Assert.assertEquals("bulk", scheduler.poll());
+		Assert.assertNull(scheduler.poll());
+	}
+
+	@Test
+	public void idleGroupsAreDropped() throws Exception {
+		final S7RequestScheduler<String> scheduler = new S7RequestScheduler<>();
+		for (int i = 0; i < 100; i++) {
+			scheduler.add(S7Priority.CYCLIC, "client-" + i, "request");
+			scheduler.add(S7Priority.CYCLIC, "steady", "request");
+			scheduler.poll();
+			scheduler.poll();
+		}
+		// only the groups the virtual time has not caught up with yet
+		Assert.assertTrue(scheduler.getGroupCount() <= 2);
+	}
+
+	@Test
+	public void waitEndsAtTheDeadline() throws Exception {
+		try (S7Simulator simulator = new S7Simulator()) {
+			simulator.setResponseDelay(20);
+			try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+					.withHost("127.0.0.1")
+					.withPort(simulator.getPort())
+					.build()) {
+				final Thread bulk = new Thread(() -> {
+					try {
+						connector.read(DaveArea.DB, 1, 10 * 222, 0);
+					} catch (final Exception e) {
+						throw new RuntimeException(e);
+					}
+				});
+				bulk.start();
+				Thread.sleep(30);
+
+				// same class, queued behind the bulk read
+				final long start = System.nanoTime();
+				try (S7RequestScope scope = S7RequestScope.enter(S7Priority.BULK, null)) {
+					connector.read(DaveArea.DB, 1, 1, 0, Duration.ofMillis(50));
+					Assert.fail("deadline expected");
+				} catch (final DeadlineExceededException e) {
+					Assert.assertTrue(System.nanoTime() - start < Duration.ofMillis(150).toNanos());
+				}
+
+				// the withdrawn request leaves the queue at the next chunk boundary
+				Thread.sleep(40);
+				Assert.assertTrue(bulk.isAlive());
+				Assert.assertEquals(0, ((S7BaseConnection) connector).getScheduler().getQueueLength());
+				bulk.join(5000);
+				Assert.assertEquals(1, connector.read(DaveArea.DB, 1, 1, 0).length);
+			}
+		}
+	}
+
+	@Test
+	public void interruptStopsTransferAtChunkBoundary() throws Exception {
+		try (S7Simulator simulator = new S7Simulator()) {
+			simulator.setResponseDelay(20);
+			try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+					.withHost("127.0.0.1")
+					.withPort(simulator.getPort())
+					.build()) {
+				final AtomicReference<Exception> failure = new AtomicReference<>();
+				final Thread bulk = new Thread(() -> {
+					try {
+						connector.read(DaveArea.DB, 1, 20 * 222, 0);
+					} catch (final Exception e) {
+						failure.set(e);
+					}
+				});
+				bulk.start();
+				Thread.sleep(60);
+				bulk.interrupt();
+				bulk.join(5000);
+
+				Assert.assertTrue(failure.get() instanceof InterruptedException);
+				Assert.assertTrue(simulator.getRequestCount() < 10);
+				// the connection is still usable
+				Assert.assertEquals(1, connector.read(DaveArea.DB, 1, 1, 0).length);
+			}
+		}
+	}
+
+	@Test
+	public void controlWritePreemptsBulkRead() throws Exception {
+		final Map<String, Long> waits = new ConcurrentHashMap<>();
+		final S7Metrics metrics = new S7Metrics() {
+			@Override
+			public void timing(final String name, final long nanos) {
+				waits.merge(name, nanos, Math::max);
+			}
+		};
+		try (S7Simulator simulator = new S7Simulator()) {
+			simulator.setResponseDelay(20);
+			try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+					.withHost("127.0.0.1")
+					.withPort(simulator.getPort())
+					.withMetrics(metrics)
+					.build()) {
+				final AtomicLong bulkDone = new AtomicLong();
+				final Thread bulk = new Thread(() -> {
+					try {
+						// 20 chunks, about 400 ms
+						connector.read(DaveArea.DB, 1, 20 * 222, 0);
+						bulkDone.set(System.nanoTime());
+					} catch (final Exception e) {
+						throw new RuntimeException(e);
+					}
+				});
+				bulk.start();
+				Thread.sleep(60);
+
+				connector.write(DaveArea.DB, 2, 0, new byte[] { 1 });
+				final long writeDone = System.nanoTime();
+				bulk.join(5000);
+
+				Assert.assertNotEquals(0, bulkDone.get());
+				// the write went between two chunks, long before the bulk read finished
+				Assert.assertTrue(bulkDone.get() - writeDone > Duration.ofMillis(150).toNanos());
+				Assert.assertTrue(waits.get(S7RequestScheduler.METRIC_WAIT + ".control") < Duration.ofMillis(100).toNanos());
+				Assert.assertTrue(waits.containsKey(S7RequestScheduler.METRIC_WAIT + ".bulk"));
+			}
+		}
+	}
+}
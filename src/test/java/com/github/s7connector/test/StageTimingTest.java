@@ -0,0 +1,156 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7Metrics;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.impl.S7BaseConnection;
+import com.github.s7connector.impl.nodave.RequestTiming;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StageTimingTest {
+
+	private static final long MILLIS = 1_000_000;
+
+	private S7Simulator simulator;
+
+	/**
+	 * Last timing by metric
+	 */
+	private final Map<String, Long> timings = new ConcurrentHashMap<>();
+
+	private final AtomicLong slow = new AtomicLong();
+
+	private final S7Metrics metrics = new S7Metrics() {
+		@Override
+		public void timing(final String name, final long nanos) {
+			StageTimingTest.this.timings.put(name, nanos);
+		}
+
+		@Override
+		public void increment(final String name, final long delta) {
+			if (S7BaseConnection.METRIC_SLOW.equals(name)) {
+				StageTimingTest.this.slow.addAndGet(delta);
+			}
+		}
+	};
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7Connector build(final int slowRequestLog) throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withMetrics(this.metrics)
+				.withSlowRequestLog(slowRequestLog)
+				.build();
+	}
+
+	private long stage(final int stage) {
+		return this.timings.get(S7BaseConnection.METRIC_REQUEST + "." + RequestTiming.name(stage));
+	}
+
+	private long total() {
+		return this.timings.get(S7BaseConnection.METRIC_REQUEST + ".total");
+	}
+
+	@Test
+	public void stagesAddUpToTheTotal() throws Exception {
+		try (S7Connector connector = this.build(0)) {
+			this.simulator.setResponseDelay(50);
+			connector.read(DaveArea.DB, 1, 10, 0);
+		}
+		long sum = 0;
+		for (int i = 0; i < RequestTiming.STAGES; i++) {
+			sum += this.stage(i);
+		}
+		Assert.assertEquals(this.total(), sum);
+		// the time went to the PLC
+		Assert.assertTrue(this.stage(RequestTiming.PLC) >= 45 * MILLIS);
+		Assert.assertTrue(this.stage(RequestTiming.PLC) > this.total() / 2);
+	}
+
+	@Test
+	public void chunksAreSummed() throws Exception {
+		try (S7Connector connector = this.build(0)) {
+			this.simulator.setResponseDelay(20);
+			// three PDUs of the default 240 byte PDU size
+			connector.read(DaveArea.DB, 1, 3 * 222, 0);
+			Assert.assertTrue(this.stage(RequestTiming.PLC) >= 3 * 18 * MILLIS);
+
+			connector.write(DaveArea.DB, 1, 0, new byte[] { 1 });
+			Assert.assertTrue(this.stage(RequestTiming.PLC) < 3 * 18 * MILLIS);
+		}
+	}
+
+	@Test
+	public void slowRequestsAreCounted() throws Exception {
+		try (S7Connector connector = this.build(30)) {
+			connector.read(DaveArea.DB, 1, 10, 0);
+			Assert.assertEquals(0, this.slow.get());
+
+			this.simulator.setResponseDelay(40);
+			connector.read(DaveArea.DB, 1, 10, 0);
+			Assert.assertEquals(1, this.slow.get());
+		}
+	}
+
+	@Test
+	public void timingsAreTaggedWithTheConnection() throws Exception {
+		final Map<String, Long> tagged = new ConcurrentHashMap<>();
+		final S7Metrics shared = new S7Metrics() {
+			@Override
+			public void timing(final String connection, final String name, final long nanos) {
+				if (name.equals(S7BaseConnection.METRIC_REQUEST + ".total")) {
+					tagged.put(connection, nanos);
+				}
+			}
+		};
+		try (S7Simulator other = new S7Simulator()) {
+			for (final int port : new int[] { this.simulator.getPort(), other.getPort() }) {
+				try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+						.withHost("127.0.0.1")
+						.withPort(port)
+						.withMetrics(shared)
+						.build()) {
+					connector.read(DaveArea.DB, 1, 10, 0);
+				}
+			}
+			Assert.assertEquals(2, tagged.size());
+			Assert.assertTrue(tagged.containsKey("127.0.0.1:" + this.simulator.getPort()));
+			Assert.assertTrue(tagged.containsKey("127.0.0.1:" + other.getPort()));
+		}
+	}
+}
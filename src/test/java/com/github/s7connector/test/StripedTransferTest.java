@@ -0,0 +1,101 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class StripedTransferTest {
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7Connector build(final int stripes) throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withStriping(stripes)
+				.build();
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		final byte[] data = new byte[5000];
+		new Random(42).nextBytes(data);
+
+		try (S7Connector connector = this.build(4)) {
+			connector.write(DaveArea.DB, 100, 10, data);
+			final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 100);
+			Assert.assertArrayEquals(data, Arrays.copyOfRange(db, 10, 10 + data.length));
+
+			Assert.assertArrayEquals(data, connector.read(DaveArea.DB, 100, data.length, 10));
+		}
+	}
+
+	@Test
+	public void chunksUseSeveralSessions() throws Exception {
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		new Random(7).nextBytes(db);
+		this.simulator.setResponseDelay(20);
+
+		try (S7Connector connector = this.build(4)) {
+			final byte[] result = connector.read(DaveArea.DB, 1, 2000, 0);
+			Assert.assertArrayEquals(Arrays.copyOfRange(db, 0, 2000), result);
+			Assert.assertTrue(this.simulator.getConnectionCount() > 1);
+		}
+	}
+
+	@Test
+	public void chunksFillTheNegotiatedPdu() throws Exception {
+		this.simulator.setPduSize(960);
+		try (S7Connector connector = this.build(4)) {
+			Assert.assertEquals(960 - 18, connector.getMaxReadSize());
+			Assert.assertEquals(960 - 28, connector.getMaxWriteSize());
+
+			connector.read(DaveArea.DB, 1, 65536, 0);
+			Assert.assertEquals((65536 + 941) / 942, this.simulator.getRequestCount());
+			connector.write(DaveArea.DB, 1, 0, new byte[65536]);
+			Assert.assertEquals((65536 + 941) / 942 + (65536 + 931) / 932, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void pduSizedRequestIsNotSplit() throws Exception {
+		try (S7Connector connector = this.build(4)) {
+			connector.read(DaveArea.DB, 1, 222, 0);
+			Assert.assertEquals(1, this.simulator.getRequestCount());
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+public class TpduSegmentationTest {
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+		this.simulator.setPduSize(960);
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7Connector build() throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.build();
+	}
+
+	private static byte[] pattern(final int length) {
+		final byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i * 13 + 5);
+		}
+		return data;
+	}
+
+	@Test
+	public void largePduInOneTpdu() throws Exception {
+		final byte[] data = pattern(900);
+		try (S7Connector connector = this.build()) {
+			connector.write(DaveArea.DB, 1, 0, data);
+			Assert.assertArrayEquals(data, connector.read(DaveArea.DB, 1, 900, 0));
+
+			// PDU negotiation, write and read, one TPDU each
+			Assert.assertEquals(3, this.simulator.getFrameCount());
+			Assert.assertEquals(2, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void segmentedAnswerIsReassembled() throws Exception {
+		this.simulator.setMaxTpduSize(128);
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		System.arraycopy(pattern(900), 0, db, 100, 900);
+		try (S7Connector connector = this.build()) {
+			Assert.assertArrayEquals(pattern(900), connector.read(DaveArea.DB, 1, 900, 100));
+			Assert.assertEquals(1, this.simulator.getRequestCount());
+
+			final List<byte[]> items = connector.prepare(Arrays.asList(
+					new S7ReadItem(DaveArea.DB, 1, 100, 301),
+					S7ReadItem.bit(DaveArea.DB, 1, 102, 3),
+					new S7ReadItem(DaveArea.DB, 1, 500, 400))).read(null);
+			Assert.assertArrayEquals(Arrays.copyOfRange(db, 100, 401), items.get(0));
+			Assert.assertArrayEquals(new byte[] { (byte) ((db[102] >> 3) & 1) }, items.get(1));
+			Assert.assertArrayEquals(Arrays.copyOfRange(db, 500, 900), items.get(2));
+			Assert.assertEquals(2, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void largeRequestIsSegmented() throws Exception {
+		this.simulator.setMaxTpduSize(128);
+		final byte[] data = pattern(900);
+		try (S7Connector connector = this.build()) {
+			connector.write(DaveArea.DB, 1, 10, data);
+
+			final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+			Assert.assertArrayEquals(data, Arrays.copyOfRange(db, 10, 910));
+			Assert.assertEquals(1, this.simulator.getRequestCount());
+			// the write PDU of about 935 bytes in TPDUs of 125 data bytes
+			Assert.assertEquals(1 + 8, this.simulator.getFrameCount());
+		}
+	}
+}
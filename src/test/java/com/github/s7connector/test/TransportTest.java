@@ -0,0 +1,151 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7ReadItem;
+import com.github.s7connector.api.S7Transport;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.exception.S7Exception;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TransportTest {
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7Connector build(final S7Transport.Factory transports) throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("simulator")
+				.withTransport(transports)
+				.build();
+	}
+
+	@Test
+	public void loopbackCarriesTheWholeStack() throws Exception {
+		this.simulator.setPduSize(480);
+		this.simulator.setMaxTpduSize(256);
+		final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+		for (int i = 0; i < 2000; i++) {
+			db[i] = (byte) (i * 3);
+		}
+		try (S7Connector connector = this.build(this.simulator::connectLoopback)) {
+			Assert.assertArrayEquals(Arrays.copyOf(db, 2000), connector.read(DaveArea.DB, 1, 2000, 0));
+
+			final byte[] data = new byte[1000];
+			Arrays.fill(data, (byte) 0x55);
+			connector.write(DaveArea.DB, 2, 0, data);
+			Assert.assertArrayEquals(data, Arrays.copyOf(this.simulator.getArea(DaveArea.DB.getCode(), 2), 1000));
+
+			final List<byte[]> items = connector.read(Arrays.asList(
+					new S7ReadItem(DaveArea.DB, 1, 10, 2),
+					S7ReadItem.bit(DaveArea.DB, 2, 0, 0)), null);
+			Assert.assertArrayEquals(new byte[] { 30, 33 }, items.get(0));
+			Assert.assertArrayEquals(new byte[] { 1 }, items.get(1));
+		}
+		Assert.assertEquals(1, this.simulator.getConnectionCount());
+	}
+
+	@Test
+	public void customTransportIsUsed() throws Exception {
+		final AtomicLong sent = new AtomicLong();
+		final AtomicLong received = new AtomicLong();
+		final S7Transport.Factory counting = () -> {
+			final S7Transport delegate = this.simulator.connectLoopback();
+			return new S7Transport() {
+				@Override
+				public void send(final byte[] buffer, final int offset, final int length) throws IOException {
+					sent.addAndGet(length);
+					delegate.send(buffer, offset, length);
+				}
+
+				@Override
+				public int receive(final byte[] buffer, final int offset, final int length, final long timeoutNanos)
+						throws IOException {
+					final int n = delegate.receive(buffer, offset, length, timeoutNanos);
+					received.addAndGet(Math.max(0, n));
+					return n;
+				}
+
+				@Override
+				public void close() throws IOException {
+					delegate.close();
+				}
+			};
+		};
+		try (S7Connector connector = this.build(counting)) {
+			final long before = received.get();
+			connector.read(DaveArea.DB, 1, 100, 0);
+			// TPKT, COTP, S7 header, parameter, item header, data
+			Assert.assertEquals(4 + 3 + 12 + 2 + 4 + 100, received.get() - before);
+		}
+		Assert.assertTrue(sent.get() > 0);
+	}
+
+	@Test
+	public void deadlineAppliesToTheTransport() throws Exception {
+		try (S7Connector connector = this.build(this.simulator::connectLoopback)) {
+			connector.read(DaveArea.DB, 1, 1, 0);
+			this.simulator.setSilent(true);
+			try {
+				connector.read(DaveArea.DB, 1, 1, 0, Duration.ofMillis(50));
+				Assert.fail("deadline must be exceeded");
+			} catch (final DeadlineExceededException expected) {
+				// no answer
+			}
+		}
+	}
+
+	@Test
+	public void closeClosesTheTransport() throws Exception {
+		final S7Connector connector = this.build(this.simulator::connectLoopback);
+		connector.read(DaveArea.DB, 1, 1, 0);
+		Assert.assertEquals(1, this.simulator.getOpenConnections());
+		connector.close();
+		for (int i = 0; i < 100 && this.simulator.getOpenConnections() > 0; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(0, this.simulator.getOpenConnections());
+	}
+
+	@Test(expected = S7Exception.class)
+	public void failingTransportFailsTheConnect() throws Exception {
+		this.build(() -> {
+			throw new IOException("unreachable");
+		});
+	}
+}
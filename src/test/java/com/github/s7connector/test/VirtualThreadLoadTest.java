@@ -0,0 +1,82 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.impl.utils.VirtualThreads;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class VirtualThreadLoadTest {
+
+	@Test
+	public void manyThreadsShareOneSession() throws Exception {
+		// platform threads are far more expensive, use fewer on older JDKs
+		final int threads = VirtualThreads.isAvailable() ? 10_000 : 1_000;
+
+		try (S7Simulator simulator = new S7Simulator()) {
+			final byte[] db = simulator.getArea(DaveArea.DB.getCode(), 1);
+			for (int i = 0; i < 4096; i++) {
+				db[i] = (byte) i;
+			}
+			try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+					.withHost("127.0.0.1")
+					.withPort(simulator.getPort())
+					.withVirtualThreads()
+					.build()) {
+				final CountDownLatch start = new CountDownLatch(1);
+				final AtomicInteger ok = new AtomicInteger();
+				final AtomicReference<Throwable> failure = new AtomicReference<>();
+				final List<Thread> workers = new ArrayList<>(threads);
+				for (int i = 0; i < threads; i++) {
+					final int offset = i % 4096;
+					final Thread worker = VirtualThreads.newThread("load-" + i, () -> {
+						try {
+							start.await();
+							final byte[] data = connector.read(DaveArea.DB, 1, 1, offset, Duration.ofSeconds(60));
+							if (data[0] == (byte) offset) {
+								ok.incrementAndGet();
+							}
+						} catch (final Throwable e) {
+							failure.compareAndSet(null, e);
+						}
+					}, true);
+					worker.start();
+					workers.add(worker);
+				}
+
+				start.countDown();
+				for (final Thread worker : workers) {
+					worker.join(60_000);
+				}
+
+				Assert.assertNull(failure.get());
+				Assert.assertEquals(threads, ok.get());
+				Assert.assertEquals(threads, simulator.getRequestCount());
+			}
+		}
+	}
+}
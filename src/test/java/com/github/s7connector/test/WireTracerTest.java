@@ -0,0 +1,174 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.impl.nodave.WireTracer;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public class WireTracerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7Connector build(final WireTracer tracer) throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withWireTracer(tracer)
+				.build();
+	}
+
+	/**
+	 * Packets of a pcap file: captured bytes, original length in the first int
+	 */
+	private static List<byte[]> packets(final byte[] pcap) {
+		final ByteBuffer b = ByteBuffer.wrap(pcap);
+		Assert.assertEquals(0xa1b2c3d4, b.getInt());
+		Assert.assertEquals(2, b.getShort());
+		Assert.assertEquals(4, b.getShort());
+		b.getInt();
+		b.getInt();
+		Assert.assertEquals(65535, b.getInt());
+		Assert.assertEquals(101, b.getInt()); // raw IPv4
+		final List<byte[]> packets = new ArrayList<>();
+		long last = 0;
+		while (b.hasRemaining()) {
+			final long micros = b.getInt() * 1_000_000L + b.getInt();
+			Assert.assertTrue(micros >= last);
+			last = micros;
+			final int captured = b.getInt();
+			final int length = b.getInt();
+			final byte[] packet = new byte[4 + captured];
+			ByteBuffer.wrap(packet).putInt(length);
+			b.get(packet, 4, captured);
+			packets.add(packet);
+		}
+		return packets;
+	}
+
+	private static int word(final byte[] b, final int pos) {
+		return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+	}
+
+	@Test
+	public void framesAreDumpedAsTcpTraffic() throws Exception {
+		final WireTracer tracer = new WireTracer(64, 4096);
+		try (S7Connector connector = this.build(tracer)) {
+			for (int i = 0; i < 3; i++) {
+				connector.read(DaveArea.DB, 1, 10, 0);
+			}
+		}
+		// connection request and confirm, PDU negotiation, 3 reads
+		Assert.assertEquals(10, tracer.getRecordedFrames());
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertEquals(10, tracer.dump(out));
+		final List<byte[]> packets = packets(out.toByteArray());
+		Assert.assertEquals(10, packets.size());
+		for (int i = 0; i < packets.size(); i++) {
+			final byte[] p = packets.get(i);
+			Assert.assertEquals(0x45, p[4]);
+			Assert.assertEquals(6, p[4 + 9]);
+			// requests to port 102, answers from it
+			Assert.assertEquals(102, word(p, 4 + 20 + (i % 2 == 0 ? 2 : 0)));
+			// TPKT
+			Assert.assertEquals(3, p[4 + 40]);
+			Assert.assertEquals(p.length - 4 - 40, word(p, 4 + 42));
+		}
+		// connection request and confirm
+		Assert.assertEquals((byte) 0xE0, packets.get(0)[4 + 45]);
+		Assert.assertEquals((byte) 0xD0, packets.get(1)[4 + 45]);
+		// the answer acknowledges the request
+		final long requestSeq = ByteBuffer.wrap(packets.get(8), 4 + 24, 4).getInt() & 0xFFFFFFFFL;
+		final long answerAck = ByteBuffer.wrap(packets.get(9), 4 + 28, 4).getInt() & 0xFFFFFFFFL;
+		Assert.assertEquals(requestSeq + packets.get(8).length - 4 - 40, answerAck);
+	}
+
+	@Test
+	public void ringKeepsTheLastFrames() throws Exception {
+		final WireTracer tracer = new WireTracer(4, 16);
+		try (S7Connector connector = this.build(tracer)) {
+			for (int i = 0; i < 20; i++) {
+				connector.read(DaveArea.DB, 1, 100, 0);
+			}
+		}
+		Assert.assertEquals(44, tracer.getRecordedFrames());
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertEquals(4, tracer.dump(out));
+		final List<byte[]> packets = packets(out.toByteArray());
+		// truncated answers keep their original length
+		final byte[] answer = packets.get(3);
+		Assert.assertEquals(4 + 40 + 16, answer.length);
+		Assert.assertEquals(40 + 4 + 3 + 14 + 4 + 100, ByteBuffer.wrap(answer).getInt());
+	}
+
+	@Test
+	public void failureDumpsOnce() throws Exception {
+		final File directory = this.folder.newFolder();
+		final WireTracer tracer = new WireTracer(16, 512);
+		tracer.setDumpDirectory(directory.toPath());
+		try (S7Connector connector = this.build(tracer)) {
+			connector.read(DaveArea.DB, 1, 1, 0);
+			Assert.assertEquals(0, directory.list().length);
+
+			this.simulator.setSilent(true);
+			for (int i = 0; i < 2; i++) {
+				try {
+					connector.read(DaveArea.DB, 1, 1, 0, Duration.ofMillis(50));
+					Assert.fail("deadline must be exceeded");
+				} catch (final DeadlineExceededException expected) {
+					// dumped
+				}
+			}
+		}
+		final File[] files = directory.listFiles();
+		Assert.assertEquals(1, files.length);
+		Assert.assertTrue(files[0].getName().startsWith("s7-127.0.0.1-" + this.simulator.getPort()));
+		// setup, the read and the unanswered request
+		Assert.assertEquals(4 + 2 + 1, packets(Files.readAllBytes(files[0].toPath())).size());
+	}
+}
@@ -0,0 +1,172 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.S7WriteItem;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.exception.DeadlineExceededException;
+import com.github.s7connector.impl.S7WriteBehindConnection;
+import com.github.s7connector.test.connector.S7Simulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+public class WriteBehindTest {
+
+	private S7Simulator simulator;
+
+	@Before
+	public void setUp() throws IOException {
+		this.simulator = new S7Simulator();
+	}
+
+	@After
+	public void tearDown() {
+		this.simulator.close();
+	}
+
+	private S7WriteBehindConnection build(final int window) throws Exception {
+		return (S7WriteBehindConnection) S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.withWriteBehind(window)
+				.build();
+	}
+
+	@Test
+	public void burstIsMergedIntoOneRequest() throws Exception {
+		try (S7WriteBehindConnection connector = this.build(50)) {
+			final List<CompletableFuture<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(connector.writeAsync(DaveArea.DB, 1, i, new byte[] { (byte) i }));
+			}
+			futures.add(connector.writeAsync(DaveArea.DB, 1, 4, new byte[] { 40, 50 }));
+			futures.add(connector.writeAsync(DaveArea.DB, 2, 100, new byte[] { 7 }));
+
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+
+			final byte[] db1 = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+			Assert.assertArrayEquals(new byte[] { 0, 1, 2, 3, 40, 50, 6, 7, 8, 9 }, Arrays.copyOfRange(db1, 0, 10));
+			Assert.assertEquals(7, this.simulator.getArea(DaveArea.DB.getCode(), 2)[100]);
+			Assert.assertEquals(1, this.simulator.getRequestCount());
+		}
+	}
+
+	@Test
+	public void flushSendsImmediately() throws Exception {
+		try (S7WriteBehindConnection connector = this.build(60000)) {
+			final CompletableFuture<Void> future = connector.writeAsync(DaveArea.DB, 1, 0, new byte[] { 1, 2 });
+			Assert.assertFalse(future.isDone());
+
+			connector.flush();
+
+			Assert.assertTrue(future.isDone());
+			Assert.assertEquals(2, this.simulator.getArea(DaveArea.DB.getCode(), 1)[1]);
+		}
+	}
+
+	@Test
+	public void readSeesBufferedWrite() throws Exception {
+		try (S7WriteBehindConnection connector = this.build(60000)) {
+			connector.writeAsync(DaveArea.DB, 1, 5, new byte[] { 42 });
+			Assert.assertEquals(42, connector.read(DaveArea.DB, 1, 10, 0)[5]);
+		}
+	}
+
+	@Test
+	public void synchronousWritesComplete() throws Exception {
+		try (S7Connector connector = this.build(10)) {
+			connector.write(DaveArea.DB, 1, 0, new byte[] { 3 });
+			Assert.assertEquals(3, this.simulator.getArea(DaveArea.DB.getCode(), 1)[0]);
+		}
+	}
+
+	@Test
+	public void timedOutWriteIsWithdrawn() throws Exception {
+		try (S7WriteBehindConnection connector = this.build(60000)) {
+			final CompletableFuture<Void> kept = connector.writeAsync(DaveArea.DB, 1, 1, new byte[] { 2, 3 });
+			try {
+				connector.write(DaveArea.DB, 1, 0, new byte[] { 5, 5 }, Duration.ofMillis(20));
+				Assert.fail("Expected the write to time out");
+			} catch (final DeadlineExceededException e) {
+				// expected
+			}
+
+			connector.flush();
+
+			kept.get();
+			final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+			Assert.assertArrayEquals(new byte[] { 0, 2, 3 }, Arrays.copyOfRange(db, 0, 3));
+		}
+	}
+
+	@Test
+	public void closeFailsUnsentWrites() throws Exception {
+		final S7WriteBehindConnection connector = this.build(60000);
+		final CompletableFuture<Void> future = connector.writeAsync(DaveArea.DB, 1, 0, new byte[] { 1 });
+
+		// the final flush is interrupted
+		Thread.currentThread().interrupt();
+		connector.close();
+		Assert.assertTrue(Thread.interrupted());
+
+		try {
+			future.get();
+			Assert.fail("Expected the unsent write to fail");
+		} catch (final ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+		Assert.assertEquals(0, this.simulator.getArea(DaveArea.DB.getCode(), 1)[0]);
+		try {
+			connector.writeAsync(DaveArea.DB, 1, 0, new byte[] { 1 });
+			Assert.fail("Expected the closed connection to reject writes");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void multiItemWriteIsPacked() throws Exception {
+		try (S7Connector connector = S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(this.simulator.getPort())
+				.build()) {
+			final List<S7WriteItem> items = new ArrayList<>();
+			for (int i = 0; i < 5; i++) {
+				items.add(new S7WriteItem(DaveArea.DB, 1, i * 10, new byte[] { (byte) i, 1, 2 }));
+			}
+			items.add(new S7WriteItem(DaveArea.DB, 1, 1000, new byte[500]));
+			connector.write(items, null);
+
+			final byte[] db = this.simulator.getArea(DaveArea.DB.getCode(), 1);
+			Assert.assertEquals(4, db[40]);
+			Assert.assertEquals(2, db[42]);
+			// five small items in one PDU, 500 bytes in three chunks
+			Assert.assertEquals(4, this.simulator.getRequestCount());
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test.benchmark;
+
+import com.github.s7connector.impl.nodave.Nodave;
+
+/**
+ * Decodes and encodes a 64 KB DB image with the Nodave big-endian helpers.
+ * Run it once with the Java 8 classes and once with the multi-release JAR on
+ * Java 17 or later to compare both implementations, e.g.
+ * {@code java -cp target/classes:target/test-classes ...} against
+ * {@code java -cp s7connector.jar:target/test-classes ...}.
+ * <p>
+ * Usage: ByteAccessBenchmark [rounds]
+ */
+public class ByteAccessBenchmark {
+
+	private static final int SIZE = 65536;
+
+	public static void main(String[] args) throws Exception {
+		final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		final byte[] buffer = new byte[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			buffer[i] = (byte) (i * 31);
+		}
+
+		// warm-up, lets the JIT compile the helpers
+		for (int i = 0; i < rounds; i++) {
+			sink += words(buffer) + dwords(buffer) + reals(buffer);
+		}
+
+		final long w = time(() -> words(buffer), rounds);
+		final long d = time(() -> dwords(buffer), rounds);
+		final long r = time(() -> reals(buffer), rounds);
+		final long e = time(() -> encode(buffer), rounds);
+
+		System.out.println("Java " + System.getProperty("java.version") + ", " + rounds + " rounds over " + SIZE + " bytes:");
+		System.out.printf("USBEWord:   %.2f ns/op%n", (double) w / rounds / (SIZE / 2));
+		System.out.printf("USBELong:   %.2f ns/op%n", (double) d / rounds / (SIZE / 4));
+		System.out.printf("BEFloat:    %.2f ns/op%n", (double) r / rounds / (SIZE / 4));
+		System.out.printf("setBEFloat: %.2f ns/op%n", (double) e / rounds / (SIZE / 4));
+		// keep the results alive
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	private interface Op {
+		long run();
+	}
+
+	private static long sink;
+
+	private static long time(final Op op, final int rounds) {
+		final long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			sink += op.run();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long words(final byte[] b) {
+		long sum = 0;
+		for (int pos = 0; pos < SIZE; pos += 2) {
+			sum += Nodave.USBEWord(b, pos);
+		}
+		return sum;
+	}
+
+	private static long dwords(final byte[] b) {
+		long sum = 0;
+		for (int pos = 0; pos < SIZE; pos += 4) {
+			sum += Nodave.USBELong(b, pos);
+		}
+		return sum;
+	}
+
+	private static long reals(final byte[] b) {
+		float sum = 0;
+		for (int pos = 0; pos < SIZE; pos += 4) {
+			sum += Nodave.BEFloat(b, pos);
+		}
+		return (long) sum;
+	}
+
+	private static long encode(final byte[] b) {
+		for (int pos = 0; pos < SIZE; pos += 4) {
+			Nodave.setBEFloat(b, pos, pos);
+		}
+		return b[5];
+	}
+}
@@ -0,0 +1,102 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test.benchmark;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.test.connector.S7Simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Many threads reading small areas through one session, as HMI clients do.
+ * All requests go through the I/O thread of the connection; the benchmark
+ * reports throughput and the latency seen by the callers.
+ * <p>
+ * Usage: ConcurrentCallersBenchmark [callers] [seconds] [bytes]
+ */
+public class ConcurrentCallersBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final int callers = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		final int bytes = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+		try (S7Simulator simulator = new S7Simulator();
+				S7Connector c = S7ConnectorFactory.buildTCPConnector()
+						.withHost("127.0.0.1")
+						.withPort(simulator.getPort())
+						.build()) {
+			run(c, callers, 1, bytes); // warm-up
+			final long[] latencies = run(c, callers, seconds, bytes);
+
+			Arrays.sort(latencies);
+			System.out.println(callers + " callers, " + bytes + " bytes per read, " + seconds + " s:");
+			System.out.println("reads/s: " + latencies.length / seconds);
+			System.out.printf("p50:     %.1f us%n", latencies[latencies.length / 2] / 1000.0);
+			System.out.printf("p99:     %.1f us%n", latencies[(int) (latencies.length * 0.99)] / 1000.0);
+			System.out.printf("max:     %.1f us%n", latencies[latencies.length - 1] / 1000.0);
+		}
+	}
+
+	private static long[] run(final S7Connector c, final int callers, final int seconds, final int bytes) throws Exception {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final CountDownLatch done = new CountDownLatch(callers);
+		final List<long[]> results = new ArrayList<>();
+		final int[] counts = new int[callers];
+		for (int i = 0; i < callers; i++) {
+			final int caller = i;
+			final long[] latencies = new long[1 << 20];
+			results.add(latencies);
+			final Thread thread = new Thread(() -> {
+				try {
+					int n = 0;
+					while (running.get() && n < latencies.length) {
+						final long start = System.nanoTime();
+						c.read(DaveArea.DB, 1, bytes, (caller * bytes) % 4096);
+						latencies[n++] = System.nanoTime() - start;
+					}
+					counts[caller] = n;
+				} catch (final Exception e) {
+					e.printStackTrace();
+				} finally {
+					done.countDown();
+				}
+			});
+			thread.start();
+		}
+		Thread.sleep(seconds * 1000L);
+		running.set(false);
+		done.await();
+
+		int total = 0;
+		for (final int count : counts) {
+			total += count;
+		}
+		final long[] all = new long[total];
+		int pos = 0;
+		for (int i = 0; i < callers; i++) {
+			System.arraycopy(results.get(i), 0, all, pos, counts[i]);
+			pos += counts[i];
+		}
+		return all;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test.benchmark;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.impl.nodave.WireRecorder;
+import com.github.s7connector.impl.nodave.WireReplay;
+import com.github.s7connector.test.connector.S7Simulator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Records a cyclic read workload against the simulator, then replays it
+ * without delays, so throughput and allocation of the library are measured
+ * against the same traffic on every run.
+ * <p>
+ * Usage: ReplayBenchmark [reads] [bytes] [recording]; an existing recording
+ * is replayed as is, its workload must be the same.
+ */
+public class ReplayBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final int reads = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+		final int bytes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		final Path file;
+		if (args.length > 2) {
+			file = Paths.get(args[2]);
+		} else {
+			file = Files.createTempFile("s7-replay", ".bin");
+			file.toFile().deleteOnExit();
+		}
+
+		if (args.length <= 2 || !Files.exists(file) || Files.size(file) == 0) {
+			try (S7Simulator simulator = new S7Simulator();
+				 WireRecorder recorder = WireRecorder.create(file);
+				 S7Connector connector = build(simulator.getPort(), recorder)) {
+				run(connector, reads, bytes);
+			}
+			System.out.println("Recorded " + reads + " reads to " + file + " (" + Files.size(file) / 1024 + " KB)");
+		}
+
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		try (WireReplay replay = WireReplay.load(file)) {
+			replay.setTimeScale(0);
+			final int port = replay.start();
+			for (int run = 0; run < 3; run++) {
+				try (S7Connector connector = build(port, null)) {
+					final long allocated = allocated(threads);
+					final long start = System.nanoTime();
+					run(connector, reads, bytes);
+					final long nanos = System.nanoTime() - start;
+					System.out.printf("run %d: %d reads/s, %d bytes allocated per read%n", run,
+							reads * 1_000_000_000L / nanos, (allocated(threads) - allocated) / reads);
+				}
+			}
+			if (replay.getDivergences() > 0) {
+				System.out.println("Workload diverged from the recording");
+			}
+		}
+	}
+
+	private static S7Connector build(final int port, final WireRecorder recorder) throws Exception {
+		return S7ConnectorFactory.buildTCPConnector()
+				.withHost("127.0.0.1")
+				.withPort(port)
+				.withWireRecorder(recorder)
+				.build();
+	}
+
+	private static void run(final S7Connector connector, final int reads, final int bytes) throws Exception {
+		for (int i = 0; i < reads; i++) {
+			connector.read(DaveArea.DB, 1, bytes, (i % 10) * bytes);
+		}
+	}
+
+	/**
+	 * Bytes allocated by the live threads so far
+	 */
+	private static long allocated(final ThreadMXBean threads) {
+		final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+		long sum = 0;
+		for (final long bytes : bean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+			sum += Math.max(0, bytes);
+		}
+		return sum;
+	}
+}
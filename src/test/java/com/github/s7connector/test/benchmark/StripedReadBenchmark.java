@@ -0,0 +1,74 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test.benchmark;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.api.S7Connector;
+import com.github.s7connector.api.factory.S7ConnectorFactory;
+import com.github.s7connector.test.connector.S7Simulator;
+
+/**
+ * Reads a 64 KB DB from the simulator over one session and striped over
+ * several sessions. The simulator delays every answer to mimic the PLC
+ * cycle, which is what striping hides.
+ * <p>
+ * Usage: StripedReadBenchmark [stripes] [responseDelayMillis] [rounds]
+ */
+public class StripedReadBenchmark {
+
+	private static final int SIZE = 65536;
+
+	public static void main(String[] args) throws Exception {
+		final int stripes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		final int delay = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		try (S7Simulator simulator = new S7Simulator()) {
+			simulator.setResponseDelay(delay);
+
+			final long single;
+			try (S7Connector c = S7ConnectorFactory.buildTCPConnector()
+					.withHost("127.0.0.1")
+					.withPort(simulator.getPort())
+					.build()) {
+				single = run(c, rounds);
+			}
+
+			final long striped;
+			try (S7Connector c = S7ConnectorFactory.buildTCPConnector()
+					.withHost("127.0.0.1")
+					.withPort(simulator.getPort())
+					.withStriping(stripes)
+					.build()) {
+				striped = run(c, rounds);
+			}
+
+			System.out.println("64 KB read, " + delay + " ms per PDU, " + rounds + " rounds:");
+			System.out.println("single session: " + single + " ms per read");
+			System.out.println(stripes + " stripes:      " + striped + " ms per read");
+			System.out.printf("speedup:        %.1fx%n", (double) single / Math.max(1, striped));
+		}
+	}
+
+	private static long run(final S7Connector c, final int rounds) throws Exception {
+		c.read(DaveArea.DB, 1, SIZE, 0); // warm-up, opens pooled sessions
+		final long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			c.read(DaveArea.DB, 1, SIZE, 0);
+		}
+		return (System.nanoTime() - start) / rounds / 1000000;
+	}
+}
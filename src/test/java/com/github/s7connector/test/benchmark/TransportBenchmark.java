@@ -0,0 +1,110 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test.benchmark;
+
+import com.github.s7connector.api.DaveArea;
+import com.github.s7connector.impl.nodave.Nodave;
+import com.github.s7connector.impl.nodave.PLCinterface;
+import com.github.s7connector.impl.nodave.TCPConnection;
+import com.github.s7connector.impl.utils.BufferPool;
+import com.github.s7connector.test.connector.S7Simulator;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Reads from the simulator through the socket streams and through a socket
+ * channel with direct buffers, one request at a time.
+ * <p>
+ * Per received frame the stream path calls the socket twice (TPKT header,
+ * then the rest) and the JDK copies the bytes from a native buffer into the
+ * heap; the channel path calls it once, straight into the direct buffer, and
+ * copies once from there into the frame buffer. The in-process loopback
+ * to the simulator shows the cost of the PDU stack without the kernel. The
+ * benchmark reports throughput and read calls per request.
+ * <p>
+ * Usage: TransportBenchmark [seconds] [bytes]
+ */
+public class TransportBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		final int bytes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		try (S7Simulator simulator = new S7Simulator()) {
+			simulator.setPduSize(960);
+			final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), simulator.getPort());
+			final Socket socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.connect(address);
+			final SocketChannel channel = SocketChannel.open(address);
+			channel.socket().setTcpNoDelay(true);
+			final PLCinterface streams = new PLCinterface(socket, "IF1", DaveArea.LOCAL.getCode(), Nodave.PROTOCOL_ISOTCP);
+			final PLCinterface direct = new PLCinterface(channel, new BufferPool(64 * 1024), "IF1", DaveArea.LOCAL.getCode(),
+					Nodave.PROTOCOL_ISOTCP);
+			final PLCinterface loopback = new PLCinterface(simulator.connectLoopback(), "IF1", DaveArea.LOCAL.getCode(),
+					Nodave.PROTOCOL_ISOTCP);
+			try {
+				final TCPConnection overStreams = connect(streams);
+				final TCPConnection overChannel = connect(direct);
+				final TCPConnection overLoopback = connect(loopback);
+				run(overStreams, 1, bytes); // warm-up
+				run(overChannel, 1, bytes);
+				run(overLoopback, 1, bytes);
+
+				System.out.println(bytes + " bytes per read, " + seconds + " s:");
+				report("streams", streams, overStreams, seconds, bytes);
+				report("channel", direct, overChannel, seconds, bytes);
+				report("loopback", loopback, overLoopback, seconds, bytes);
+			} finally {
+				socket.close();
+				direct.close();
+				loopback.close();
+			}
+		}
+	}
+
+	private static TCPConnection connect(final PLCinterface iface) throws Exception {
+		final TCPConnection c = new TCPConnection(iface, 1, 0, 2);
+		if (c.connectPLC() != 0) {
+			throw new IllegalStateException("Connect failed");
+		}
+		return c;
+	}
+
+	private static void report(final String name, final PLCinterface iface, final TCPConnection c, final int seconds,
+			final int bytes) throws Exception {
+		final long calls = iface.getReadCalls();
+		final long reads = run(c, seconds, bytes);
+		System.out.printf("%s: %d reads/s, %.1f MB/s, %.2f read calls per request%n", name, reads / seconds,
+				(double) reads * bytes / seconds / 1e6, (double) (iface.getReadCalls() - calls) / reads);
+	}
+
+	private static long run(final TCPConnection c, final int seconds, final int bytes) throws Exception {
+		final byte[] buffer = new byte[bytes];
+		final long end = System.nanoTime() + seconds * 1_000_000_000L;
+		long reads = 0;
+		while (System.nanoTime() < end) {
+			if (c.readBytes(DaveArea.DB, 1, 0, bytes, buffer) != 0) {
+				throw new IllegalStateException("Read failed");
+			}
+			reads++;
+		}
+		return reads;
+	}
+}
@@ -0,0 +1,456 @@
+/*
+Copyright 2016 S7connector members (github.com/s7connector)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.github.s7connector.test.connector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.s7connector.api.S7Transport;
+import com.github.s7connector.impl.nodave.LoopbackTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimal S7 PLC simulator for testing
+ *
+ * speaks ISO-on-TCP (TPKT/COTP) and the S7 read/write/setup-communication jobs,
+ * with an in-memory image per area and area number
+ */
+public class S7Simulator implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(S7Simulator.class);
+
+	/** size of every simulated memory area */
+	private static final int AREA_SIZE = 65536;
+
+	private final Map<Integer, byte[]> memory = new ConcurrentHashMap<>();
+
+	private final List<Closeable> clients = new CopyOnWriteArrayList<>();
+
+	private final AtomicInteger requestCount = new AtomicInteger();
+
+	private final AtomicInteger connectionCount = new AtomicInteger();
+
+	private final AtomicInteger frameCount = new AtomicInteger();
+
+	private volatile ServerSocket serverSocket;
+
+	private volatile int port;
+
+	private volatile int pduSize = 240;
+
+	private volatile int maxTpduSize = 2048;
+
+	private volatile int responseDelay = 0;
+
+	private volatile boolean silent = false;
+
+	/**
+	 * Starts the simulator on a random free port
+	 */
+	public S7Simulator() throws IOException {
+		this(0);
+	}
+
+	/**
+	 * Starts the simulator on the given port (0 = random)
+	 */
+	public S7Simulator(final int port) throws IOException {
+		this.start(port);
+	}
+
+	/**
+	 * (Re-)starts listening, e.g. after {@link #stop()} to simulate a PLC reboot
+	 */
+	public synchronized void start(final int port) throws IOException {
+		final ServerSocket server = new ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		this.serverSocket = server;
+		this.port = server.getLocalPort();
+
+		final Thread acceptor = new Thread(() -> this.acceptLoop(server), "s7-simulator-accept-" + this.port);
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Stops listening and drops all client connections
+	 */
+	public synchronized void stop() {
+		try {
+			if (this.serverSocket != null) {
+				this.serverSocket.close();
+			}
+		} catch (final IOException e) {
+			logger.debug("Error closing server socket", e);
+		}
+		this.dropConnections();
+	}
+
+	/**
+	 * Drops all client connections, the server keeps listening
+	 */
+	public void dropConnections() {
+		for (final Closeable client : this.clients) {
+			try {
+				client.close();
+			} catch (final IOException e) {
+				logger.debug("Error closing client", e);
+			}
+		}
+		this.clients.clear();
+	}
+
+	@Override
+	public void close() {
+		this.stop();
+	}
+
+	public int getPort() {
+		return this.port;
+	}
+
+	/** Number of S7 jobs answered (excluding connection setup) */
+	public int getRequestCount() {
+		return this.requestCount.get();
+	}
+
+	/** Number of accepted TCP connections */
+	public int getConnectionCount() {
+		return this.connectionCount.get();
+	}
+
+	/** Number of currently open TCP connections */
+	public int getOpenConnections() {
+		return this.clients.size();
+	}
+
+	/** PDU size offered during negotiation */
+	public void setPduSize(final int pduSize) {
+		this.pduSize = pduSize;
+	}
+
+	/** Number of data TPDUs received, larger than the request count for segmented PDUs */
+	public int getFrameCount() {
+		return this.frameCount.get();
+	}
+
+	/** Largest TPDU size confirmed during connection setup, PDUs are segmented beyond it */
+	public void setMaxTpduSize(final int maxTpduSize) {
+		this.maxTpduSize = maxTpduSize;
+	}
+
+	/** Artificial processing time per S7 job, in millis */
+	public void setResponseDelay(final int responseDelay) {
+		this.responseDelay = responseDelay;
+	}
+
+	/** If set, S7 jobs are swallowed without an answer (hung PLC) */
+	public void setSilent(final boolean silent) {
+		this.silent = silent;
+	}
+
+	/**
+	 * Returns the memory image of the given area (area code, e.g. 0x84 for DB)
+	 */
+	public byte[] getArea(final int areaCode, final int areaNumber) {
+		return this.memory.computeIfAbsent((areaCode << 16) | (areaNumber & 0xFFFF), k -> new byte[AREA_SIZE]);
+	}
+
+	/**
+	 * Connects in-process, without a socket; the connection counts like an
+	 * accepted one
+	 *
+	 * @return the client end
+	 */
+	public S7Transport connectLoopback() {
+		final LoopbackTransport[] ends = LoopbackTransport.pair();
+		final LoopbackTransport server = ends[1];
+		this.clients.add(server);
+		this.connectionCount.incrementAndGet();
+		final Thread handler = new Thread(
+				() -> this.handle(server, server.getInputStream(), server.getOutputStream()),
+				"s7-simulator-loopback-" + this.port);
+		handler.setDaemon(true);
+		handler.start();
+		return ends[0];
+	}
+
+	private void acceptLoop(final ServerSocket server) {
+		while (!server.isClosed()) {
+			try {
+				final Socket client = server.accept();
+				client.setTcpNoDelay(true);
+				this.clients.add(client);
+				this.connectionCount.incrementAndGet();
+				final Thread handler = new Thread(() -> {
+					try {
+						this.handle(client, client.getInputStream(), client.getOutputStream());
+					} catch (final IOException e) {
+						logger.debug("Simulator client failed: {}", e.getMessage());
+					}
+				}, "s7-simulator-client-" + this.port);
+				handler.setDaemon(true);
+				handler.start();
+			} catch (final IOException e) {
+				// server closed
+			}
+		}
+	}
+
+	private void handle(final Closeable client, final InputStream input, final OutputStream out) {
+		try {
+			final DataInputStream in = new DataInputStream(input);
+
+			int tpduSize = 128;
+			final ByteArrayOutputStream segments = new ByteArrayOutputStream();
+			while (true) {
+				byte[] frame = readFrame(in);
+				if (frame == null) {
+					break;
+				}
+				final int cotpType = frame[1] & 0xFF;
+				if (cotpType == 0xE0) {
+					// connection request -> connection confirm with the TPDU size accepted
+					final byte[] cc = frame.clone();
+					cc[1] = (byte) 0xD0;
+					for (int pos = 7; pos + 2 < cc.length; pos += 2 + (cc[pos + 1] & 0xFF)) {
+						if ((cc[pos] & 0xFF) == 0xC0) {
+							int code = cc[pos + 2];
+							while ((1 << code) > this.maxTpduSize) {
+								code--;
+							}
+							cc[pos + 2] = (byte) code;
+							tpduSize = 1 << code;
+						}
+					}
+					writeFrame(out, cc);
+					continue;
+				}
+				this.frameCount.incrementAndGet();
+				if ((frame[2] & 0x80) == 0) {
+					// not the last TPDU of the PDU
+					segments.write(frame, 3, frame.length - 3);
+					continue;
+				}
+				if (segments.size() > 0) {
+					segments.write(frame, 3, frame.length - 3);
+					final byte[] data = segments.toByteArray();
+					segments.reset();
+					frame = new byte[3 + data.length];
+					frame[0] = 2;
+					frame[1] = (byte) 0xF0;
+					frame[2] = (byte) 0x80;
+					System.arraycopy(data, 0, frame, 3, data.length);
+				}
+				final int s7Start = (frame[0] & 0xFF) + 1;
+				final byte[] answer = this.process(frame, s7Start);
+				if (answer == null) {
+					continue;
+				}
+				if (this.responseDelay > 0) {
+					Thread.sleep(this.responseDelay);
+				}
+				// split into TPDUs of the negotiated size
+				for (int pos = 0; pos < answer.length; pos += tpduSize - 3) {
+					final int n = Math.min(tpduSize - 3, answer.length - pos);
+					final byte[] tpdu = new byte[3 + n];
+					tpdu[0] = 0x02;
+					tpdu[1] = (byte) 0xF0;
+					tpdu[2] = (byte) (pos + n == answer.length ? 0x80 : 0);
+					System.arraycopy(answer, pos, tpdu, 3, n);
+					writeFrame(out, tpdu);
+				}
+			}
+		} catch (final IOException e) {
+			logger.debug("Simulator client disconnected: {}", e.getMessage());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			this.clients.remove(client);
+			try {
+				client.close();
+			} catch (final IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private byte[] process(final byte[] f, final int h) {
+		final int pduRef = word(f, h + 4);
+		final int plen = word(f, h + 6);
+		final int param = h + 10;
+		final int data = param + plen;
+		final int function = f[param] & 0xFF;
+
+		if (function == 0xF0) {
+			final byte[] pa = { (byte) 0xF0, 0, 0, 1, 0, 1, 0, 0 };
+			setWord(pa, 6, this.pduSize);
+			return ack(pduRef, pa, new byte[0]);
+		}
+
+		if (this.silent) {
+			return null;
+		}
+		this.requestCount.incrementAndGet();
+
+		final int items = f[param + 1] & 0xFF;
+		final ByteArrayOutputStream d = new ByteArrayOutputStream();
+
+		if (function == 0x04) {
+			for (int i = 0; i < items; i++) {
+				final int item = param + 2 + (i * 12);
+				final int ts = f[item + 3] & 0xFF;
+				final int len = word(f, item + 4);
+				final int dbNum = word(f, item + 6);
+				final int areaCode = f[item + 8] & 0xFF;
+				final int address = ((f[item + 9] & 0xFF) << 16) | ((f[item + 10] & 0xFF) << 8) | (f[item + 11] & 0xFF);
+				final byte[] mem = this.getArea(areaCode, dbNum);
+
+				if ((i > 0) && ((d.size() % 2) != 0)) {
+					d.write(0);
+				}
+				if (ts == 0x01) {
+					final boolean bit = (mem[address >> 3] & (1 << (address & 7))) != 0;
+					d.write(0xFF);
+					d.write(0x03);
+					d.write(0);
+					d.write(1);
+					d.write(bit ? 1 : 0);
+				} else {
+					final int start = address >> 3;
+					if ((start + len) > mem.length) {
+						d.write(0x05);
+						d.write(0);
+						d.write(0);
+						d.write(0);
+						continue;
+					}
+					d.write(0xFF);
+					d.write(0x04);
+					d.write((len * 8) >> 8);
+					d.write((len * 8) & 0xFF);
+					d.write(mem, start, len);
+				}
+			}
+			return ack(pduRef, new byte[] { 0x04, (byte) items }, d.toByteArray());
+		}
+
+		if (function == 0x05) {
+			int pos = data;
+			for (int i = 0; i < items; i++) {
+				final int item = param + 2 + (i * 12);
+				final int dbNum = word(f, item + 6);
+				final int areaCode = f[item + 8] & 0xFF;
+				final int address = ((f[item + 9] & 0xFF) << 16) | ((f[item + 10] & 0xFF) << 8) | (f[item + 11] & 0xFF);
+				final byte[] mem = this.getArea(areaCode, dbNum);
+
+				if ((pos - data) % 2 != 0) {
+					pos++;
+				}
+				final int ts = f[pos + 1] & 0xFF;
+				int len = word(f, pos + 2);
+				if (ts == 0x04) {
+					len >>= 3;
+				}
+				if (ts == 0x03) {
+					final int mask = 1 << (address & 7);
+					if (f[pos + 4] != 0) {
+						mem[address >> 3] |= mask;
+					} else {
+						mem[address >> 3] &= ~mask;
+					}
+					pos += 5;
+				} else {
+					System.arraycopy(f, pos + 4, mem, address >> 3, len);
+					pos += 4 + len;
+				}
+				d.write(0xFF);
+			}
+			return ack(pduRef, new byte[] { 0x05, (byte) items }, d.toByteArray());
+		}
+
+		logger.warn("Simulator: unsupported function 0x{}", Integer.toHexString(function));
+		return ack(pduRef, new byte[] { (byte) function, 0 }, new byte[0]);
+	}
+
+	private static byte[] ack(final int pduRef, final byte[] param, final byte[] data) {
+		final byte[] r = new byte[12 + param.length + data.length];
+		r[0] = 0x32;
+		r[1] = 0x03;
+		setWord(r, 4, pduRef);
+		setWord(r, 6, param.length);
+		setWord(r, 8, data.length);
+		System.arraycopy(param, 0, r, 12, param.length);
+		System.arraycopy(data, 0, r, 12 + param.length, data.length);
+		return r;
+	}
+
+	private static byte[] readFrame(final DataInputStream in) throws IOException {
+		final byte[] header = new byte[4];
+		if (!readFully(in, header)) {
+			return null;
+		}
+		final int len = word(header, 2) - 4;
+		final byte[] frame = new byte[len];
+		in.readFully(frame);
+		return frame;
+	}
+
+	private static boolean readFully(final InputStream in, final byte[] b) throws IOException {
+		int pos = 0;
+		while (pos < b.length) {
+			final int r = in.read(b, pos, b.length - pos);
+			if (r < 0) {
+				return false;
+			}
+			pos += r;
+		}
+		return true;
+	}
+
+	private static void writeFrame(final OutputStream out, final byte[] payload) throws IOException {
+		final byte[] frame = new byte[payload.length + 4];
+		frame[0] = 0x03;
+		setWord(frame, 2, frame.length);
+		System.arraycopy(payload, 0, frame, 4, payload.length);
+		out.write(frame);
+		out.flush();
+	}
+
+	private static int word(final byte[] b, final int pos) {
+		return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+	}
+
+	private static void setWord(final byte[] b, final int pos, final int value) {
+		b[pos] = (byte) (value >> 8);
+		b[pos + 1] = (byte) value;
+	}
+}